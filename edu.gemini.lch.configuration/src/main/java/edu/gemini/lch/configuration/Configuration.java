@@ -17,6 +17,14 @@ import java.util.List;
                         "where e.groupName = :group " +
                         "  and v.site = :site "
         ),
+        /*
+            Named query to get all configuration entries of a site joined with the (one and only) value for this site.
+         */
+        @NamedQuery(name = Configuration.QUERY_FIND_BY_SITE,
+                query = "from Configuration e " +
+                        "left join fetch e.values v " +
+                        "where v.site = :site "
+        ),
         /*
            Named query to get a configuration entry by site, group and name with the (one and only) value.
         */
@@ -32,6 +40,7 @@ import java.util.List;
 @Table(name = "lch_configuration_entries")
 public class Configuration {
 
+    public static final String QUERY_FIND_BY_SITE = "configuration.findBySite";
     public static final String QUERY_FIND_BY_SITE_AND_GROUP = "configuration.findBySiteAndGroup";
     public static final String QUERY_FIND_BY_SITE_AND_NAME = "configuration.findBySiteAndName";
 
@@ -43,6 +52,7 @@ public class Configuration {
         VISIBILITY_MIN_ALTITUDE,
         VISIBILITY_MIN_DURATION,
         VISIBILITY_TWILIGHT,
+        VISIBILITY_ALGORITHM,
         NEARBY_GROUP_MAX_DISTANCE,
         HORIZONS_STEP_WIDTH,
         NEW_MAIL_POLL_INTERVAL,
@@ -91,6 +101,8 @@ public class Configuration {
 
         LIS_BUFFER_BEFORE_SHUTTER_WINDOW,
         LIS_BUFFER_AFTER_SHUTTER_WINDOW,
+        LIS_AUTO_SHUTTER_TIMERS,
+        LIS_AUTO_SHUTTER_LEAD_TIME,
         ERROR_CONE_ANGLE,
 
         ADMIN_USERS
@@ -180,12 +192,12 @@ public class Configuration {
         }
     }
 
+    @SuppressWarnings("unchecked")
     public Selection getSelection() {
         Validate.isTrue(type.equals(Type.SELECTION), "operation only allowed on selections");
         try {
-            // TODO: make this useful for other selection types, too
-            Class<Selection.Twilight> clazz = (Class<Selection.Twilight>) Class.forName("edu.gemini.lch.configuration.Selection$"+regExp);
-            return Enum.valueOf(clazz, getAsString());
+            Class clazz = Class.forName("edu.gemini.lch.configuration.Selection$"+regExp);
+            return (Selection) Enum.valueOf(clazz, getAsString());
         } catch (ClassNotFoundException e) {
             throw new RuntimeException(e);
         }
@@ -15,6 +15,15 @@ public interface Selection {
         public String getLabel() { return label; }
     }
 
+    enum VisibilityAlgorithm implements Selection {
+        STEPPING("Fixed steps (60s)"),
+        ROOT_FINDING("Root finding (sub-second)");
+
+        private final String label;
+        VisibilityAlgorithm(String label) { this.label = label; }
+        public String getLabel() { return label; }
+    }
+
     String getLabel();
 
 }
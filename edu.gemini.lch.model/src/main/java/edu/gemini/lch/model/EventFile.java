@@ -1,6 +1,8 @@
 package edu.gemini.lch.model;
 
 import javax.persistence.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Object to model files that belong to events (e.g. emails, PAM and PRM files etc.).
@@ -16,6 +18,9 @@ public class EventFile implements Comparable<EventFile> {
         PRM
     }
 
+    /** The character set used to store the contents of files. */
+    public static final Charset CHARSET = StandardCharsets.UTF_8;
+
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
     private Long id;
@@ -34,19 +39,40 @@ public class EventFile implements Comparable<EventFile> {
     @Column
     private String name;
 
-    @Column
-    private String content;
+    // contents are only loaded when they are accessed
+    @OneToOne(fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
+    @JoinColumn(name = "content_id")
+    private EventFileContent content;
 
     public EventFile(Type type, String name, String content) {
+        this(0, 0, type, name, content.getBytes(CHARSET));
+    }
+
+    /**
+     * Creates a file from content that is already encoded using {@link #CHARSET}.
+     * The bytes are not copied and must not be changed afterwards.
+     * @param type
+     * @param name
+     * @param content
+     */
+    public EventFile(Type type, String name, byte[] content) {
         this(0, 0, type, name, content);
     }
 
     public EventFile(long folderId, long fileId, Type type, String name, String content) {
+        this(folderId, fileId, type, name, content.getBytes(CHARSET));
+    }
+
+    private EventFile(long folderId, long fileId, Type type, String name, byte[] content) {
         this.folderId = folderId;
         this.fileId   = fileId;
         this.type     = type;
         this.name     = name;
-        this.content  = content;
+        this.content  = new EventFileContent(content);
+    }
+
+    public Long getId() {
+        return id;
     }
 
     public Long getFolderID() { return folderId; }
@@ -61,8 +87,23 @@ public class EventFile implements Comparable<EventFile> {
         return name;
     }
 
+    /**
+     * Gets the content of this file.
+     * The content is loaded lazily, accessing it outside of a session for files that have been loaded from the
+     * database will fail, in that case the content has to be loaded by its file id.
+     * @return
+     */
     public String getContent() {
-        return content;
+        final byte[] bytes = getBytes();
+        return bytes == null ? null : new String(bytes, CHARSET);
+    }
+
+    /**
+     * Gets the encoded content of this file, see {@link #getContent()}.
+     * @return
+     */
+    public byte[] getBytes() {
+        return content == null ? null : content.getContent();
     }
 
     /** {@inheritDoc} */
@@ -0,0 +1,34 @@
+package edu.gemini.lch.model;
+
+import javax.persistence.*;
+
+/**
+ * The content of an event file.
+ * File contents (emails, PAM and PRM files) can be large, they are stored in a separate table in order to be
+ * able to load the files of a night without their contents, see {@link EventFile#getContent()}.
+ * Contents are stored as encoded bytes (see {@link EventFile#CHARSET}) in order to store files that are already
+ * encoded (e.g. PRM files) without decoding them.
+ */
+@Entity
+@Table(name = "lch_file_contents")
+public class EventFileContent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long id;
+
+    @Column
+    private byte[] content;
+
+    public EventFileContent(byte[] content) {
+        this.content = content;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    // empty constructor needed for hibernate
+    public EventFileContent() {}
+
+}
@@ -26,6 +26,20 @@ import java.util.*;
                 "left join fetch night.closures " +
                 "where " +
                 "night.id = :id "
+    ),
+        /*
+            Named query to load the laser targets and closures of a laser night by its id.
+            Events and their files are not loaded, this is used by the alarm service and the REST interface
+            which don't need them and avoids the cartesian product with the events in the result.
+         */
+    @NamedQuery(name = LaserNight.QUERY_LOAD_TARGETS_BY_ID,
+        query = "from LaserNight night " +
+                "left join fetch night.observations o " +
+                "left join fetch o.targets ot " +
+                "left join fetch ot.laserTarget lt " +
+                "left join fetch night.closures " +
+                "where " +
+                "night.id = :id "
     )
 })
 
@@ -34,12 +48,14 @@ import java.util.*;
 public class LaserNight extends BaseLaserNight {
 
     public static final String QUERY_LOAD_BY_ID = "laserNight.findById";
+    public static final String QUERY_LOAD_TARGETS_BY_ID = "laserNight.findTargetsById";
 
     @OneToMany(fetch = FetchType.EAGER, cascade = CascadeType.ALL, orphanRemoval = true)
     @JoinColumn(name = "night_id")
     private Set<Observation> observations;
 
-    @OneToMany(fetch = FetchType.EAGER, cascade = CascadeType.ALL, orphanRemoval = true)
+    // events are only loaded by the full load query
+    @OneToMany(fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
     @JoinColumn(name = "night_id")
     @OrderBy("time DESC")
     private Set<LaserRunEvent> events;
@@ -0,0 +1,230 @@
+package edu.gemini.lch.model;
+
+import org.apache.commons.lang.Validate;
+
+import java.util.*;
+
+/**
+ * Immutable spatial index for finding the laser target closest to a given position.
+ * The index divides the sphere into declination (or elevation) bands of fixed height, the targets in each band
+ * are sorted by their first coordinate (RA or azimuth). A lookup for the closest target inside a given distance
+ * only needs to look at the bands that overlap with the search cone and inside of those bands only at the targets
+ * that lie inside the RA range covered by the cone, which is found using binary search.
+ * The same index can be used for RaDec and AzEl targets because both use the same spherical geometry.
+ * Since laser nights are not changed while they are in use by the alarm service the index is built once when
+ * a night is loaded and can then be shared between threads without any further synchronisation.
+ */
+public final class LaserTargetIndex<T extends LaserTarget> {
+
+    /** Default height of the declination bands in degrees. */
+    public static final double DEFAULT_BAND_HEIGHT = 0.5;
+
+    private static final double DEG_TO_RAD = Math.PI / 180.0;
+
+    private final double bandHeight;
+    private final int size;
+    private final Band<T>[] bands;
+
+    /**
+     * Creates an index for the given targets using the default band height.
+     * @param targets
+     */
+    public LaserTargetIndex(final Collection<T> targets) {
+        this(targets, DEFAULT_BAND_HEIGHT);
+    }
+
+    /**
+     * Creates an index for the given targets.
+     * @param targets
+     * @param bandHeight height of declination bands in degrees
+     */
+    @SuppressWarnings("unchecked")
+    public LaserTargetIndex(final Collection<T> targets, final double bandHeight) {
+        Validate.notNull(targets);
+        Validate.isTrue(bandHeight > 0.0 && bandHeight <= 180.0, "band height must be between 0 and 180 degrees");
+
+        this.bandHeight = bandHeight;
+        this.size = targets.size();
+
+        // distribute all targets to their bands
+        final int bandCount = (int) Math.ceil(180.0 / bandHeight);
+        final List<List<T>> members = new ArrayList<>(bandCount);
+        for (int i = 0; i < bandCount; i++) {
+            members.add(new ArrayList<>());
+        }
+        for (final T t : targets) {
+            members.get(bandFor(t.getDegrees2(), bandCount)).add(t);
+        }
+
+        // create the (immutable) bands
+        this.bands = new Band[bandCount];
+        for (int i = 0; i < bandCount; i++) {
+            this.bands[i] = new Band<>(members.get(i));
+        }
+    }
+
+    /**
+     * Gets the number of targets in this index.
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the target that is closest to the given position and not further away than the given max distance.
+     * @param c1 first coordinate in degrees (RA or azimuth)
+     * @param c2 second coordinate in degrees (Dec or elevation)
+     * @param maxDistance max distance in degrees
+     * @return the closest target or null if there is no target inside the max distance
+     */
+    public T findClosest(final double c1, final double c2, final double maxDistance) {
+        if (size == 0 || maxDistance < 0.0) {
+            return null;
+        }
+
+        final double ra  = normalize(c1);
+        final double dec = c2;
+        final double cosDec = Math.cos(dec * DEG_TO_RAD);
+        final double x = cosDec * Math.cos(ra * DEG_TO_RAD);
+        final double y = cosDec * Math.sin(ra * DEG_TO_RAD);
+        final double z = Math.sin(dec * DEG_TO_RAD);
+
+        // half width of the RA range covered by the search cone, null means all RA values have to be checked
+        final Double raHalfWidth = raHalfWidth(dec, maxDistance);
+
+        final int firstBand = bandFor(dec - maxDistance, bands.length);
+        final int lastBand  = bandFor(dec + maxDistance, bands.length);
+
+        // find the candidate with the biggest dot product, i.e. the smallest angular distance
+        final Match<T> match = new Match<>();
+        for (int b = firstBand; b <= lastBand; b++) {
+            final Band<T> band = bands[b];
+            if (raHalfWidth == null) {
+                band.search(0, band.size(), x, y, z, match);
+            } else {
+                final double from = ra - raHalfWidth;
+                final double to   = ra + raHalfWidth;
+                // check the RA range, if it wraps around 0/360 split it in two
+                if (from < 0.0) {
+                    band.search(band.lowerBound(from + 360.0), band.size(), x, y, z, match);
+                    band.search(0, band.upperBound(to), x, y, z, match);
+                } else if (to >= 360.0) {
+                    band.search(band.lowerBound(from), band.size(), x, y, z, match);
+                    band.search(0, band.upperBound(to - 360.0), x, y, z, match);
+                } else {
+                    band.search(band.lowerBound(from), band.upperBound(to), x, y, z, match);
+                }
+            }
+        }
+        final T closest = match.target;
+
+        // check max distance using the same calculation as the rest of the application
+        if (closest != null && closest.distanceTo(c1, c2) > maxDistance) {
+            return null;
+        } else {
+            return closest;
+        }
+    }
+
+    /**
+     * Gets the half width of the RA range that is covered by a cone with the given radius around the given
+     * declination, or null if the cone covers a pole or is too big to limit the range of RA values.
+     */
+    private static Double raHalfWidth(final double dec, final double radius) {
+        final double maxAbsDec = Math.abs(dec) + radius;
+        if (maxAbsDec >= 90.0 || radius >= 90.0) {
+            return null;
+        }
+        final double s = Math.sin(radius * DEG_TO_RAD) / Math.cos(maxAbsDec * DEG_TO_RAD);
+        if (s >= 1.0) {
+            return null;
+        }
+        // add a small margin to be on the safe side regarding rounding errors
+        return Math.asin(s) / DEG_TO_RAD + 1e-9;
+    }
+
+    private int bandFor(final double dec, final int bandCount) {
+        final int b = (int) Math.floor((dec + 90.0) / bandHeight);
+        return Math.max(0, Math.min(bandCount - 1, b));
+    }
+
+    private static double normalize(final double degrees) {
+        final double d = degrees % 360.0;
+        return d < 0.0 ? d + 360.0 : d;
+    }
+
+    /**
+     * A single declination band with its targets sorted by RA and the unit vectors of all targets.
+     */
+    private static final class Band<T extends LaserTarget> {
+        private final T[] targets;
+        private final double[] ra;
+        private final double[] x;
+        private final double[] y;
+        private final double[] z;
+
+        @SuppressWarnings("unchecked")
+        Band(final List<T> members) {
+            final List<T> sorted = new ArrayList<>(members);
+            sorted.sort(Comparator.comparingDouble(t -> normalize(t.getDegrees1())));
+            final int n = sorted.size();
+            this.targets = (T[]) sorted.toArray(new LaserTarget[n]);
+            this.ra = new double[n];
+            this.x  = new double[n];
+            this.y  = new double[n];
+            this.z  = new double[n];
+            for (int i = 0; i < n; i++) {
+                final double r = normalize(targets[i].getDegrees1()) * DEG_TO_RAD;
+                final double d = targets[i].getDegrees2() * DEG_TO_RAD;
+                ra[i] = normalize(targets[i].getDegrees1());
+                x[i]  = Math.cos(d) * Math.cos(r);
+                y[i]  = Math.cos(d) * Math.sin(r);
+                z[i]  = Math.sin(d);
+            }
+        }
+
+        int size() {
+            return targets.length;
+        }
+
+        /** Checks all targets in [from, to) and updates the match if one of them is closer. */
+        void search(final int from, final int to, final double qx, final double qy, final double qz, final Match<T> match) {
+            for (int i = from; i < to; i++) {
+                final double dot = x[i]*qx + y[i]*qy + z[i]*qz;
+                if (dot > match.dot) {
+                    match.dot = dot;
+                    match.target = targets[i];
+                }
+            }
+        }
+
+        /** Gets index of first element with ra >= value. */
+        int lowerBound(final double value) {
+            int lo = 0, hi = ra.length;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (ra[mid] < value) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        /** Gets index of first element with ra > value. */
+        int upperBound(final double value) {
+            int lo = 0, hi = ra.length;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (ra[mid] <= value) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * The best match found so far while searching the bands.
+     */
+    private static final class Match<T extends LaserTarget> {
+        private T target = null;
+        private double dot = Double.NEGATIVE_INFINITY;
+    }
+}
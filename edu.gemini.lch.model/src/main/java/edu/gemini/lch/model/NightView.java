@@ -0,0 +1,161 @@
+package edu.gemini.lch.model;
+
+import org.apache.commons.lang.Validate;
+import org.joda.time.DateTime;
+
+import java.util.*;
+
+/**
+ * Immutable read only view of a laser night for the alarm service and its clients.
+ * All the sets that are derived from the observations of a night (laser targets, uncovered observations etc.)
+ * are calculated once when the view is created instead of traversing all observations and their targets every
+ * time they are needed; the same is true for the spatial indices used to find the closest laser target, the
+ * index from laser targets to the observations they belong to and the targets of each observation.
+ * The view must be created from a fully loaded night, once it is created it does not access any lazy relations
+ * of the night anymore and can be shared between threads without any further synchronisation. A new view has to
+ * be created whenever the night changes.
+ */
+public final class NightView {
+
+    private final LaserNight night;
+    private final DateTime earliestPropagation;
+    private final DateTime latestPropagation;
+    private final Set<LaserTarget> laserTargets;
+    private final Set<RaDecLaserTarget> raDecLaserTargets;
+    private final Set<AzElLaserTarget> azElLaserTargets;
+    private final Set<Observation> observations;
+    private final Set<Observation> uncoveredObservations;
+    private final Map<Observation, List<ObservationTarget>> targetsByObservation;
+    private final Map<Object, List<Observation>> observationsByTarget;
+    private final LaserTargetIndex<RaDecLaserTarget> raDecIndex;
+    private final LaserTargetIndex<AzElLaserTarget> azElIndex;
+
+    /**
+     * Creates a view for the given night.
+     * @param night
+     * @param earliestPropagation
+     * @param latestPropagation
+     */
+    public NightView(final LaserNight night, final DateTime earliestPropagation, final DateTime latestPropagation) {
+        Validate.notNull(night);
+
+        final Set<LaserTarget> targets = new HashSet<>();
+        final Set<RaDecLaserTarget> raDec = new HashSet<>();
+        final Set<AzElLaserTarget> azEl = new HashSet<>();
+        final Set<Observation> all = new HashSet<>();
+        final Set<Observation> uncovered = new HashSet<>();
+        final Map<Observation, List<ObservationTarget>> byObservation = new HashMap<>();
+        final Map<Object, Set<Observation>> byTarget = new HashMap<>();
+
+        // traverse all observations and their targets exactly once
+        for (final Observation o : night.getObservations()) {
+            all.add(o);
+            byObservation.put(o, Collections.unmodifiableList(new ArrayList<>(o.getTargets())));
+            for (final ObservationTarget ot : o.getTargets()) {
+                final LaserTarget t = ot.getLaserTarget();
+                if (targets.add(t)) {
+                    if (t instanceof RaDecLaserTarget) {
+                        raDec.add((RaDecLaserTarget) t);
+                    } else if (t instanceof AzElLaserTarget) {
+                        azEl.add((AzElLaserTarget) t);
+                    }
+                }
+                if (!ot.isCovered()) {
+                    uncovered.add(o);
+                }
+                byTarget.computeIfAbsent(keyFor(t), k -> new LinkedHashSet<>()).add(o);
+            }
+        }
+
+        final Map<Object, List<Observation>> observations = new HashMap<>();
+        for (final Map.Entry<Object, Set<Observation>> e : byTarget.entrySet()) {
+            observations.put(e.getKey(), Collections.unmodifiableList(new ArrayList<>(e.getValue())));
+        }
+
+        this.night = night;
+        this.earliestPropagation = earliestPropagation;
+        this.latestPropagation = latestPropagation;
+        this.laserTargets = Collections.unmodifiableSet(targets);
+        this.raDecLaserTargets = Collections.unmodifiableSet(raDec);
+        this.azElLaserTargets = Collections.unmodifiableSet(azEl);
+        this.observations = Collections.unmodifiableSet(all);
+        this.uncoveredObservations = Collections.unmodifiableSet(uncovered);
+        this.targetsByObservation = byObservation;
+        this.observationsByTarget = observations;
+        this.raDecIndex = new LaserTargetIndex<>(raDec);
+        this.azElIndex = new LaserTargetIndex<>(azEl);
+    }
+
+    // laser targets are identified by their database id, targets that are not yet persisted by identity
+    private static Object keyFor(final LaserTarget target) {
+        return target.getId() != null ? target.getId() : target;
+    }
+
+    /**
+     * Gets the night this view has been created from.
+     * Note that the night itself must not be changed as long as it is in use by a view.
+     * @return
+     */
+    public LaserNight getNight() {
+        return night;
+    }
+
+    public DateTime getEarliestPropagation() {
+        return earliestPropagation;
+    }
+
+    public DateTime getLatestPropagation() {
+        return latestPropagation;
+    }
+
+    public Set<LaserTarget> getLaserTargets() {
+        return laserTargets;
+    }
+
+    public Set<RaDecLaserTarget> getRaDecLaserTargets() {
+        return raDecLaserTargets;
+    }
+
+    public Set<AzElLaserTarget> getAzElLaserTargets() {
+        return azElLaserTargets;
+    }
+
+    public Set<Observation> getObservations() {
+        return observations;
+    }
+
+    public Set<Observation> getUncoveredObservations() {
+        return uncoveredObservations;
+    }
+
+    public LaserTargetIndex<RaDecLaserTarget> getRaDecIndex() {
+        return raDecIndex;
+    }
+
+    public LaserTargetIndex<AzElLaserTarget> getAzElIndex() {
+        return azElIndex;
+    }
+
+    /**
+     * Gets all observations that use the given laser target.
+     * Same as {@link LaserNight#findObservationsForTarget(LaserTarget)} but without traversing the night.
+     * @param target
+     * @return
+     */
+    public List<Observation> findObservationsForTarget(final LaserTarget target) {
+        final List<Observation> observations = observationsByTarget.get(keyFor(target));
+        return observations != null ? observations : Collections.emptyList();
+    }
+
+    /**
+     * Gets the targets of the given observation as they were when this view was created.
+     * Use this instead of {@link Observation#getTargets()} to avoid touching the persistent collection.
+     * @param observation
+     * @return
+     */
+    public List<ObservationTarget> getTargets(final Observation observation) {
+        final List<ObservationTarget> targets = targetsByObservation.get(observation);
+        return targets != null ? targets : Collections.emptyList();
+    }
+
+}
@@ -43,6 +43,22 @@ public abstract class Window implements Comparable<Window> {
         return new DateTime(end);
     }
 
+    /**
+     * Gets the start of this window in milliseconds since the epoch without creating any intermediate objects.
+     * @return
+     */
+    public long getStartMillis() {
+        return start.getTime();
+    }
+
+    /**
+     * Gets the end of this window in milliseconds since the epoch without creating any intermediate objects.
+     * @return
+     */
+    public long getEndMillis() {
+        return end.getTime();
+    }
+
     public Duration getDuration() {
         return new Duration(getStart(), getEnd());
     }
@@ -80,6 +96,15 @@ public abstract class Window implements Comparable<Window> {
         return true;
     }
 
+    /**
+     * Exports the given windows to their compact primitive representation.
+     * @param windows
+     * @return
+     */
+    public static WindowIntervals toIntervals(Collection<? extends Window> windows) {
+        return WindowIntervals.create(windows);
+    }
+
     protected static <T extends Window> List<T> removeClosures(Collection<T> windows, Collection<? extends ShutteringWindow> closures, Class clazz) {
         List<T> result = new ArrayList<>(windows);
         for (ShutteringWindow c : closures) {
@@ -0,0 +1,108 @@
+package edu.gemini.lch.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compact and immutable representation of a list of windows as sorted arrays of start and end times in
+ * milliseconds since the epoch. Overlapping and adjacent windows are merged into one interval.
+ * This representation is meant for code that needs to check many times per second if a given point in time
+ * is inside one of the windows; all queries are done with binary search in O(log n) and without creating
+ * any objects.
+ * Intervals include their start time and exclude their end time, i.e. [start, end) like {@link Window#contains}.
+ */
+public final class WindowIntervals {
+
+    /** Value returned by {@link #nextTransitionAfter(long)} if there is no further transition. */
+    public static final long NO_TRANSITION = Long.MAX_VALUE;
+
+    public static final WindowIntervals EMPTY = new WindowIntervals(new long[0], new long[0]);
+
+    private final long[] starts;
+    private final long[] ends;
+
+    private WindowIntervals(final long[] starts, final long[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /**
+     * Creates the intervals for the given windows.
+     * The windows don't need to be sorted or disjoint.
+     * @param windows
+     * @return
+     */
+    public static WindowIntervals create(final Collection<? extends Window> windows) {
+        if (windows.isEmpty()) {
+            return EMPTY;
+        }
+
+        // sort by start time
+        final List<Window> sorted = new ArrayList<>(windows);
+        sorted.sort((w0, w1) -> Long.compare(w0.getStartMillis(), w1.getStartMillis()));
+
+        // merge overlapping and adjacent windows
+        final long[] starts = new long[sorted.size()];
+        final long[] ends = new long[sorted.size()];
+        int n = 0;
+        for (final Window w : sorted) {
+            if (n > 0 && w.getStartMillis() <= ends[n-1]) {
+                ends[n-1] = Math.max(ends[n-1], w.getEndMillis());
+            } else {
+                starts[n] = w.getStartMillis();
+                ends[n] = w.getEndMillis();
+                n++;
+            }
+        }
+
+        return new WindowIntervals(Arrays.copyOf(starts, n), Arrays.copyOf(ends, n));
+    }
+
+    /**
+     * Gets the number of (merged) intervals.
+     * @return
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Checks if the given time is inside one of the intervals.
+     * @param time time in milliseconds since the epoch
+     * @return
+     */
+    public boolean isOpenAt(final long time) {
+        final int i = lastStartAtOrBefore(time);
+        return i >= 0 && time < ends[i];
+    }
+
+    /**
+     * Gets the time of the next start or end of an interval strictly after the given time.
+     * @param time time in milliseconds since the epoch
+     * @return the time of the next transition or {@link #NO_TRANSITION} if there is none
+     */
+    public long nextTransitionAfter(final long time) {
+        final int i = lastStartAtOrBefore(time);
+        if (i >= 0 && time < ends[i]) {
+            // inside of interval i, next transition is its end
+            return ends[i];
+        }
+        // outside of all intervals, next transition is the start of the next interval (if any)
+        return i + 1 < starts.length ? starts[i + 1] : NO_TRANSITION;
+    }
+
+    /**
+     * Gets the index of the last interval that starts at or before the given time or -1.
+     */
+    private int lastStartAtOrBefore(final long time) {
+        int lo = 0, hi = starts.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= time) lo = mid + 1; else hi = mid;
+        }
+        return lo - 1;
+    }
+
+}
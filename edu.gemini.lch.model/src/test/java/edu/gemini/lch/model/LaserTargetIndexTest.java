@@ -0,0 +1,111 @@
+package edu.gemini.lch.model;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class LaserTargetIndexTest {
+
+    final Random random = new Random(4711);
+
+    @Test
+    public void handlesEmptyIndex() {
+        LaserTargetIndex<RaDecLaserTarget> index = new LaserTargetIndex<>(Collections.emptyList());
+        Assert.assertEquals(0, index.size());
+        Assert.assertNull(index.findClosest(10.0, 10.0, 1.0));
+    }
+
+    @Test
+    public void respectsMaxDistance() {
+        RaDecLaserTarget t = new RaDecLaserTarget(null, 10.0, 10.0, Visibility.ALWAYS);
+        LaserTargetIndex<RaDecLaserTarget> index = new LaserTargetIndex<>(Collections.singletonList(t));
+        Assert.assertSame(t, index.findClosest(10.05, 10.05, 0.1));
+        Assert.assertNull(index.findClosest(10.5, 10.5, 0.1));
+    }
+
+    @Test
+    public void handlesRaWrapAround() {
+        RaDecLaserTarget t0 = new RaDecLaserTarget(null, 359.99, 0.0, Visibility.ALWAYS);
+        RaDecLaserTarget t1 = new RaDecLaserTarget(null,   0.05, 0.0, Visibility.ALWAYS);
+        LaserTargetIndex<RaDecLaserTarget> index = new LaserTargetIndex<>(new ArrayList<RaDecLaserTarget>() {{
+            add(t0);
+            add(t1);
+        }});
+        Assert.assertSame(t0, index.findClosest(0.0, 0.0, 0.1));
+        Assert.assertSame(t1, index.findClosest(0.04, 0.0, 0.1));
+        Assert.assertSame(t0, index.findClosest(359.95, 0.0, 0.1));
+    }
+
+    @Test
+    public void handlesPoles() {
+        RaDecLaserTarget t0 = new RaDecLaserTarget(null,  10.0, 89.95, Visibility.ALWAYS);
+        RaDecLaserTarget t1 = new RaDecLaserTarget(null, 190.0, -89.9, Visibility.ALWAYS);
+        LaserTargetIndex<RaDecLaserTarget> index = new LaserTargetIndex<>(new ArrayList<RaDecLaserTarget>() {{
+            add(t0);
+            add(t1);
+        }});
+        Assert.assertSame(t0, index.findClosest(190.0, 89.99, 0.1));
+        Assert.assertSame(t1, index.findClosest(10.0, -89.99, 0.2));
+    }
+
+    @Test
+    public void findsSameTargetsAsLinearScan() {
+        List<RaDecLaserTarget> targets = createTargets(2000);
+        LaserTargetIndex<RaDecLaserTarget> index = new LaserTargetIndex<>(targets);
+
+        for (int i = 0; i < 1000; i++) {
+            double ra  = random.nextDouble() * 360.0;
+            double dec = random.nextDouble() * 180.0 - 90.0;
+            double maxDistance = random.nextDouble() * 5.0;
+            Assert.assertSame(findLinear(targets, ra, dec, maxDistance), index.findClosest(ra, dec, maxDistance));
+        }
+    }
+
+    // This is a simple benchmark meant to be run manually for comparing the index with the linear scan.
+    @Ignore
+    @Test
+    public void compareWithLinearScan() {
+        List<RaDecLaserTarget> targets = createTargets(5000);
+        LaserTargetIndex<RaDecLaserTarget> index = new LaserTargetIndex<>(targets);
+        double maxDistance = 600.0 / 3600.0 / 2.0;
+        int runs = 2000;
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            findLinear(targets, random.nextDouble() * 360.0, random.nextDouble() * 180.0 - 90.0, maxDistance);
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            index.findClosest(random.nextDouble() * 360.0, random.nextDouble() * 180.0 - 90.0, maxDistance);
+        }
+        long t2 = System.nanoTime();
+
+        System.out.println(String.format("linear scan: %.3f us/lookup", (t1 - t0) / 1000.0 / runs));
+        System.out.println(String.format("index      : %.3f us/lookup", (t2 - t1) / 1000.0 / runs));
+    }
+
+    private List<RaDecLaserTarget> createTargets(int count) {
+        List<RaDecLaserTarget> targets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            double ra  = random.nextDouble() * 360.0;
+            double dec = Math.toDegrees(Math.asin(random.nextDouble() * 2.0 - 1.0));
+            targets.add(new RaDecLaserTarget(null, ra, dec, Visibility.ALWAYS));
+        }
+        return targets;
+    }
+
+    private RaDecLaserTarget findLinear(List<RaDecLaserTarget> targets, double c1, double c2, double maxDistance) {
+        RaDecLaserTarget closest = LaserTarget.getClosestTo(targets, c1, c2);
+        if (closest != null && closest.distanceTo(c1, c2) > maxDistance) {
+            return null;
+        } else {
+            return closest;
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package edu.gemini.lch.model;
+
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+public class NightViewTest {
+
+    private final DateTime start = new DateTime(2013, 1, 1, 18, 0, 0);
+    private final LaserNight night = new LaserNight(Site.NORTH, start, start.plusHours(12));
+
+    private final RaDecLaserTarget raDec0 = new RaDecLaserTarget(night, 10.0, 10.0, Visibility.ALWAYS);
+    private final RaDecLaserTarget raDec1 = new RaDecLaserTarget(night, 20.0, 20.0, Visibility.ALWAYS);
+    private final AzElLaserTarget azEl = new AzElLaserTarget(night, 90.0, 45.0);
+
+    private final Observation obs0 = observation(new ScienceObservation("GN-2013A-Q-1-1"), raDec0, raDec1);
+    private final Observation obs1 = observation(new ScienceObservation("GN-2013A-Q-1-2"), raDec1);
+    private final Observation obs2 = observation(new EngineeringObservation("Engineering"), azEl);
+
+    @Test
+    public void derivesSetsFromNight() {
+        raDec1.setTransmitted(true);
+        azEl.setTransmitted(true);
+        NightView view = new NightView(night, start, start.plusHours(12));
+
+        Assert.assertEquals(night.getLaserTargets(), view.getLaserTargets());
+        Assert.assertEquals(night.getRaDecLaserTargets(), view.getRaDecLaserTargets());
+        Assert.assertEquals(night.getAzElLaserTargets(), view.getAzElLaserTargets());
+        Assert.assertEquals(night.getUncoveredObservations(), view.getUncoveredObservations());
+        Assert.assertEquals(2, view.getRaDecIndex().size());
+        Assert.assertEquals(1, view.getAzElIndex().size());
+    }
+
+    @Test
+    public void findsObservationsForTarget() {
+        NightView view = new NightView(night, start, start.plusHours(12));
+
+        Assert.assertEquals(Arrays.asList(obs0), view.findObservationsForTarget(raDec0));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(obs0, obs1)), new HashSet<>(view.findObservationsForTarget(raDec1)));
+        Assert.assertEquals(Arrays.asList(obs2), view.findObservationsForTarget(azEl));
+        Assert.assertTrue(view.findObservationsForTarget(new RaDecLaserTarget(night, 0.0, 0.0, Visibility.ALWAYS)).isEmpty());
+    }
+
+    @Test
+    public void keepsTargetsOfObservations() {
+        NightView view = new NightView(night, start, start.plusHours(12));
+        ObservationTarget added = new SiderealTarget("added", "Base", 30.0, 30.0);
+        obs1.getTargets().add(added);
+
+        Assert.assertEquals(night.getObservations(), view.getObservations());
+        Assert.assertEquals(2, view.getTargets(obs0).size());
+        Assert.assertEquals(1, view.getTargets(obs1).size());
+        Assert.assertFalse(view.getTargets(obs1).contains(added));
+        Assert.assertTrue(view.getTargets(new ScienceObservation("GN-2013A-Q-1-3")).isEmpty());
+    }
+
+    @Test
+    public void findsClosestTarget() {
+        NightView view = new NightView(night, start, start.plusHours(12));
+
+        Assert.assertSame(raDec1, view.getRaDecIndex().findClosest(20.01, 20.01, 0.1));
+        Assert.assertSame(azEl, view.getAzElIndex().findClosest(90.01, 45.0, 0.1));
+    }
+
+    private Observation observation(Observation o, LaserTarget... targets) {
+        for (LaserTarget t : targets) {
+            ObservationTarget ot = new SiderealTarget("target", "Base", t.getDegrees1(), t.getDegrees2());
+            ot.setLaserTarget(t);
+            o.getTargets().add(ot);
+        }
+        night.getObservations().add(o);
+        return o;
+    }
+
+}
@@ -0,0 +1,66 @@
+package edu.gemini.lch.model;
+
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class WindowIntervalsTest {
+
+    final DateTime t = DateTime.now();
+    final long t0 = t.getMillis();
+
+    final List<PropagationWindow> windows = new ArrayList<PropagationWindow>() {{
+        add(new PropagationWindow(t.plusSeconds(50), t.plusSeconds(60)));
+        add(new PropagationWindow(t.plusSeconds(10), t.plusSeconds(20)));
+        add(new PropagationWindow(t.plusSeconds(30), t.plusSeconds(40)));
+    }};
+
+    @Test
+    public void handlesEmptyWindows() {
+        WindowIntervals i = PropagationWindow.toIntervals(new ArrayList<>());
+        Assert.assertEquals(0, i.size());
+        Assert.assertFalse(i.isOpenAt(t0));
+        Assert.assertEquals(WindowIntervals.NO_TRANSITION, i.nextTransitionAfter(t0));
+    }
+
+    @Test
+    public void isOpenAtMatchesContains() {
+        WindowIntervals i = PropagationWindow.toIntervals(windows);
+        Assert.assertEquals(3, i.size());
+        for (long ms = t0; ms < t0 + 70000; ms += 500) {
+            boolean contained = false;
+            for (PropagationWindow w : windows) {
+                contained |= w.contains(new DateTime(ms));
+            }
+            Assert.assertEquals(contained, i.isOpenAt(ms));
+        }
+        // start is included, end is excluded
+        Assert.assertTrue(i.isOpenAt(t0 + 10000));
+        Assert.assertFalse(i.isOpenAt(t0 + 20000));
+    }
+
+    @Test
+    public void findsNextTransition() {
+        WindowIntervals i = PropagationWindow.toIntervals(windows);
+        Assert.assertEquals(t0 + 10000, i.nextTransitionAfter(t0));
+        Assert.assertEquals(t0 + 20000, i.nextTransitionAfter(t0 + 10000));
+        Assert.assertEquals(t0 + 20000, i.nextTransitionAfter(t0 + 15000));
+        Assert.assertEquals(t0 + 30000, i.nextTransitionAfter(t0 + 20000));
+        Assert.assertEquals(t0 + 60000, i.nextTransitionAfter(t0 + 55000));
+        Assert.assertEquals(WindowIntervals.NO_TRANSITION, i.nextTransitionAfter(t0 + 60000));
+    }
+
+    @Test
+    public void mergesOverlappingWindows() {
+        List<Window> overlapping = new ArrayList<>(windows);
+        overlapping.add(new ShutteringWindow(t.plusSeconds(15), t.plusSeconds(30)));
+        WindowIntervals i = Window.toIntervals(overlapping);
+        Assert.assertEquals(2, i.size());
+        Assert.assertTrue(i.isOpenAt(t0 + 25000));
+        Assert.assertEquals(t0 + 40000, i.nextTransitionAfter(t0 + 12000));
+    }
+
+}
@@ -0,0 +1,80 @@
+----------------------------------------------------------------------------------------------------------------------
+-- Database updates needed for version 3.11.1
+----------------------------------------------------------------------------------------------------------------------
+
+----------------------------------------------------------------------------------------------------------------------
+--
+-- Auto shutter: in addition to polling, arm timers for the predicted transitions (end of propagation windows,
+-- start of blanket closures, twilight limits) of the current target. The lead time defines how many milliseconds
+-- before the actual transition the laser is shuttered.
+--
+----------------------------------------------------------------------------------------------------------------------
+
+INSERT INTO lch_configuration_entries(id, type, isList, canBeEmpty, minValue, maxValue, regExp, groupName, paramName, label, description) VALUES (148, 'BOOLEAN', false, false, 1, 1, 'x', 'LIS', 'LIS_AUTO_SHUTTER_TIMERS', 'Auto shutter timers', 'Use timers for predicted transitions in addition to polling to trigger the auto shutter (true or false).');
+INSERT INTO lch_configuration_values(id, entry_id, site, paramValue) VALUES (582, 148, 'NORTH', 'true');
+INSERT INTO lch_configuration_values(id, entry_id, site, paramValue) VALUES (583, 148, 'SOUTH', 'true');
+
+INSERT INTO lch_configuration_entries(id, type, isList, canBeEmpty, minValue, maxValue, regExp, groupName, paramName, label, description) VALUES (149, 'INTEGER', false, false, 0, 1, 'x', 'LIS', 'LIS_AUTO_SHUTTER_LEAD_TIME', 'Auto shutter lead time', 'Milliseconds the auto shutter timers fire before the predicted end of a propagation window.');
+INSERT INTO lch_configuration_values(id, entry_id, site, paramValue) VALUES (584, 149, 'NORTH', '500');
+INSERT INTO lch_configuration_values(id, entry_id, site, paramValue) VALUES (585, 149, 'SOUTH', '500');
+
+----------------------------------------------------------------------------------------------------------------------
+--
+-- Visibility algorithm: select between the original calculation which steps through the night in 60s steps and
+-- a calculation based on root finding which needs far less altitude calculations and is more precise.
+--
+----------------------------------------------------------------------------------------------------------------------
+
+INSERT INTO lch_configuration_entries(id, type, isList, canBeEmpty, minValue, maxValue, regExp, groupName, paramName, label, description) VALUES (150, 'SELECTION', true, false, 1, 1, 'VisibilityAlgorithm', 'Visibility', 'VISIBILITY_ALGORITHM', 'Visibility Algorithm', 'Algorithm used to calculate rise and set times of targets.');
+INSERT INTO lch_configuration_values(id, entry_id, site, paramValue) VALUES (586, 150, 'NORTH', 'STEPPING');
+INSERT INTO lch_configuration_values(id, entry_id, site, paramValue) VALUES (587, 150, 'SOUTH', 'STEPPING');
+
+----------------------------------------------------------------------------------------------------------------------
+--
+-- Event files: move the file contents to a separate table so that they can be loaded lazily, loading the events
+-- of a night with their files does not need to read the full texts of all emails, PAM and PRM files anymore.
+-- The contents keep the ids of the files they belong to, ids are unique across all tables (hibernate_sequence).
+-- Contents are stored as UTF-8 encoded bytes, this allows to store PRM files as they are sent without decoding them.
+--
+----------------------------------------------------------------------------------------------------------------------
+
+DROP TABLE IF EXISTS lch_file_contents CASCADE;
+CREATE TABLE lch_file_contents (
+	id integer,
+	content bytea
+);
+ALTER TABLE lch_file_contents ADD PRIMARY KEY (id);
+
+INSERT INTO lch_file_contents(id, content) SELECT id, convert_to(content, 'UTF8') FROM lch_files;
+
+ALTER TABLE lch_files ADD content_id integer;
+UPDATE lch_files SET content_id = id;
+ALTER TABLE lch_files ADD FOREIGN KEY (content_id) REFERENCES lch_file_contents(id) DEFERRABLE;
+CREATE INDEX lch_files_content_index ON lch_files(content_id);
+ALTER TABLE lch_files DROP COLUMN content;
+
+----------------------------------------------------------------------------------------------------------------------
+--
+-- Configuration version: the configuration is cached by the application as a whole and only reloaded if this
+-- version changes; the triggers make sure that any change of the configuration (including changes done directly
+-- in the database using SQL) increments the version.
+--
+----------------------------------------------------------------------------------------------------------------------
+
+DROP TABLE IF EXISTS lch_configuration_version CASCADE;
+CREATE TABLE lch_configuration_version (
+	version bigint
+);
+INSERT INTO lch_configuration_version(version) VALUES (0);
+
+CREATE OR REPLACE FUNCTION lch_configuration_changed() RETURNS trigger AS $$
+BEGIN
+	UPDATE lch_configuration_version SET version = version + 1;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER lch_configuration_entries_changed AFTER INSERT OR UPDATE OR DELETE ON lch_configuration_entries
+	FOR EACH STATEMENT EXECUTE PROCEDURE lch_configuration_changed();
+CREATE TRIGGER lch_configuration_values_changed AFTER INSERT OR UPDATE OR DELETE ON lch_configuration_values
+	FOR EACH STATEMENT EXECUTE PROCEDURE lch_configuration_changed();
@@ -2,6 +2,7 @@ package edu.gemini.lch.services;
 
 
 import edu.gemini.lch.model.*;
+import edu.gemini.lch.services.util.LatencyHistogram;
 import edu.gemini.shared.skycalc.Angle;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -54,15 +55,25 @@ public interface AlarmService {
     Boolean isAutoShutterEnabled();
     void setAutoShutterEnabled(boolean enabled);
 
+    /**
+     * Gets the histogram of the end-to-end latencies between a change of the telescope position or laser status
+     * in EPICS and the moment the alarm state and the auto shutter have been re-evaluated for this change.
+     * @return
+     */
+    LatencyHistogram getReactionLatency();
+
     interface Snapshot {
         Boolean nightOrTargetHasChanged(Snapshot earlier);
         Boolean nightHasChanged(Snapshot earlier);
         Boolean targetHasChanged(Snapshot earlier);
+        SnapshotDelta getDelta(Snapshot earlier);
         Duration getTimeSince(AlarmService.Snapshot earlier);
+        NightView getNightView();
         LaserNight getNight();
         LaserTarget getTarget();
         List<PropagationWindow> getPropagationWindows();
         List<ShutteringWindow> getShutteringWindows();
+        WindowIntervals getPropagationIntervals();
         DateTime getEarliestPropagation();
         DateTime getLatestPropagation();
         List<Observation> getObservations();
@@ -71,6 +82,8 @@ public interface AlarmService {
         LtcsService.Snapshot getLtcsSnapshot();
         EpicsService.Snapshot getEpicsSnapshot();
         AutoShutter getAutoShutter();
+        Integer getBufferBefore();
+        Integer getBufferAfter();
     }
 
     /**
@@ -114,8 +114,15 @@ public interface ConfigurationService {
 
     /**
      * Updates a configuration entry.
+     * The new value is visible to all readers immediately.
      * @param entry
      * @param newValue
      */
     void update(Configuration entry, String newValue);
+
+    /**
+     * Reloads the configuration in case it has been changed through other channels than this service
+     * (e.g. directly in the database using SQL).
+     */
+    void refresh();
 }
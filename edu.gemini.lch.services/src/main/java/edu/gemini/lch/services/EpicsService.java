@@ -1,5 +1,6 @@
 package edu.gemini.lch.services;
 
+import edu.gemini.lch.services.util.LatencyHistogram;
 import edu.gemini.shared.skycalc.Angle;
 import jsky.coords.WorldCoords;
 import org.joda.time.DateTime;
@@ -16,6 +17,20 @@ public interface EpicsService {
      */
     Snapshot getSnapshot();
 
+    /**
+     * Registers a listener that is notified whenever a new snapshot has been published because the telescope
+     * position or the laser status has changed.
+     * @param listener
+     */
+    void addSnapshotListener(SnapshotListener listener);
+
+    /**
+     * Gets the histogram of the latencies between a change of an EPICS channel and the publication of the
+     * snapshot that contains the new value.
+     * @return
+     */
+    LatencyHistogram getPublishLatency();
+
     /**
      * Current time (UTC).
      * @return
@@ -107,6 +122,20 @@ public interface EpicsService {
         Boolean isOnSky();
     }
 
+    /**
+     * Listener for new snapshots.
+     */
+    interface SnapshotListener {
+        /**
+         * Called on the EPICS publisher thread after a new snapshot has been published.
+         * Implementations must return quickly and do any longer running work on their own threads.
+         * @param snapshot the new snapshot
+         * @param changedNanos the time of the oldest channel change included in this snapshot as
+         *                     given by {@link System#nanoTime()}
+         */
+        void snapshotChanged(Snapshot snapshot, long changedNanos);
+    }
+
     /**
      * A connector that reads and writes to and from EPICS
      */
@@ -118,6 +147,20 @@ public interface EpicsService {
         DateTime getLastUpdate();
         Object readValue(String name);
         void writeValue(String name, Object value);
+        void setListener(Listener listener);
+    }
+
+    /**
+     * A listener that is notified by the connector whenever the value of a read channel changes.
+     */
+    interface Listener {
+        /**
+         * Called with the new value of a channel.
+         * Channel names are always the ones used by LTTS, also when the TCS simulator is used.
+         * @param name
+         * @param value
+         */
+        void valueChanged(String name, Object value);
     }
 
 }
@@ -16,9 +16,28 @@ import java.util.Set;
 /**
  */
 public interface LaserNightService {
+
+    /**
+     * Listener for the progress of long running operations like the creation of laser runs.
+     * Note that listeners are called from worker threads.
+     */
+    interface ProgressListener {
+        void progress(int done, int total);
+    }
+
     boolean laserNightExists(DateTime day);
     void createLaserRun(DateTime firstDay, DateTime lastDay);
 
+    /**
+     * Creates nights for all days in the given range for which no night exists yet.
+     * All nights are created in one go, nights in the near future are then populated with the observations from
+     * the ODB concurrently, each one in its own transaction.
+     * @param firstDay
+     * @param lastDay
+     * @param listener
+     */
+    void createLaserRun(DateTime firstDay, DateTime lastDay, ProgressListener listener);
+
     /**
      * Creates a new empy laser night.
      * @param day
@@ -61,6 +80,24 @@ public interface LaserNightService {
     LaserNight loadLaserNight(Long id);
     LaserNight loadLaserNight(DateTime day);
 
+    /**
+     * Loads a laser night with its observations, laser targets and closures only.
+     * The events of the night are not loaded, use this for read only access to the targets which needs to be fast,
+     * e.g. for the alarm service or the REST interface.
+     * @param id
+     * @return
+     */
+    LaserNight loadLaserNightTargets(Long id);
+    LaserNight loadLaserNightTargets(DateTime day);
+
+    /**
+     * Gets the content of an event file.
+     * File contents are loaded lazily and are therefore not available for nights that have been loaded earlier.
+     * @param fileId
+     * @return
+     */
+    String getEventFileContent(Long fileId);
+
     /**
      * Deletes a laser night.
      * @param id
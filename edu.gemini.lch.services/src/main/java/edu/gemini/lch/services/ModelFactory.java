@@ -1,14 +1,23 @@
 package edu.gemini.lch.services;
 
+import edu.gemini.lch.configuration.Selection;
 import edu.gemini.lch.model.BaseLaserNight;
 import edu.gemini.lch.model.LaserNight;
 import edu.gemini.lch.model.Site;
+import edu.gemini.lch.services.impl.RootFindingVisibilityCalculatorImpl;
+import edu.gemini.lch.services.impl.VisibilityCalculatorImpl;
 import jsky.coords.SiteDesc;
 import jsky.plot.ElevationPlotUtil;
 import jsky.plot.SunRiseSet;
 import jsky.plot.util.SkyCalc;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * A factory for creating model objects that are not straight forward to create.
@@ -18,6 +27,18 @@ import org.joda.time.DateTimeZone;
  */
 public class ModelFactory {
 
+    /** Max number of cached twilight times, enough for more than two years for both sites. */
+    public static final int MAX_TWILIGHTS = 2000;
+
+    // twilight times by site and day, calculating them is expensive and they are needed all the time
+    private static final Map<TwilightKey, Twilight> twilights =
+            Collections.synchronizedMap(new LinkedHashMap<TwilightKey, Twilight>(1024, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<TwilightKey, Twilight> eldest) {
+                    return size() > MAX_TWILIGHTS;
+                }
+            });
+
     /**
      * Creates a laser night for the given date (in local time of the site).
      * @param site
@@ -25,10 +46,8 @@ public class ModelFactory {
      * @return
      */
     public static LaserNight createNight(Site site, DateTime day) {
-        SunRiseSet sunCalc = createSunCalculator(site, day.withTimeAtStartOfDay());
-        DateTime sunsetUTC  = new DateTime(sunCalc.getSunset(),  DateTimeZone.UTC);
-        DateTime sunriseUTC = new DateTime(sunCalc.getSunrise(), DateTimeZone.UTC);
-        return new LaserNight(site, sunsetUTC, sunriseUTC);
+        Twilight twilight = getTwilight(site, day);
+        return new LaserNight(site, twilight.getSunset().withZone(DateTimeZone.UTC), twilight.getSunrise().withZone(DateTimeZone.UTC));
     }
 
     /**
@@ -67,6 +86,66 @@ public class ModelFactory {
         return new SunRiseSet(dayUTC.toDate(), getSiteDescForSite(site));
     }
 
+    /**
+     * Gets the sunset, sunrise and twilight times for a night.
+     * The times are cached, use this instead of creating a sun calculator whenever possible.
+     * @param night
+     * @return
+     */
+    public static Twilight getTwilight(BaseLaserNight night) {
+        return getTwilight(night.getSite(), night.getStart());
+    }
+
+    /**
+     * Gets the sunset, sunrise and twilight times for a given site and day.
+     * The times are cached, use this instead of creating a sun calculator whenever possible.
+     * @param site
+     * @param day
+     * @return
+     */
+    public static Twilight getTwilight(Site site, DateTime day) {
+        final TwilightKey key = new TwilightKey(site, day.toLocalDate());
+        final Twilight cached = twilights.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        // calculate outside of the lock, in the rare case that two threads calculate the same
+        // twilight times at the same time both will get the same result anyway
+        final Twilight twilight = new Twilight(createSunCalculator(site, day));
+        twilights.put(key, twilight);
+        return twilight;
+    }
+
+    /**
+     * Calculates and caches the twilight times for a number of nights in advance.
+     * @param site
+     * @param first
+     * @param nights
+     */
+    public static void precomputeTwilights(Site site, DateTime first, int nights) {
+        for (int i = 0; i < Math.min(nights, MAX_TWILIGHTS / Site.values().length); i++) {
+            getTwilight(site, first.plusDays(i));
+        }
+    }
+
+    /**
+     * Creates a visibility calculator for the given site and time range using the given algorithm.
+     * Note that visibility calculators use a sky calculator and must not be shared between threads.
+     * @param algorithm
+     * @param site
+     * @param earliest
+     * @param latest
+     * @param minAltitude
+     * @return
+     */
+    public static VisibilityCalculator createVisibilityCalculator(Selection.VisibilityAlgorithm algorithm, Site site, DateTime earliest, DateTime latest, Double minAltitude) {
+        switch (algorithm) {
+            case STEPPING:     return new VisibilityCalculatorImpl(site, earliest, latest, minAltitude);
+            case ROOT_FINDING: return new RootFindingVisibilityCalculatorImpl(site, earliest, latest, minAltitude);
+            default: throw new IllegalArgumentException("unknown visibility algorithm " + algorithm);
+        }
+    }
+
     // ============= private helpers
 
     private static SiteDesc getSiteDescForSite(Site site) {
@@ -77,5 +156,30 @@ public class ModelFactory {
         }
     }
 
+    /**
+     * Key for cached twilight times.
+     */
+    private static final class TwilightKey {
+        private final Site site;
+        private final LocalDate day;
+
+        TwilightKey(Site site, LocalDate day) {
+            this.site = site;
+            this.day = day;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof TwilightKey)) return false;
+            TwilightKey other = (TwilightKey) o;
+            return site == other.site && day.equals(other.day);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(site, day);
+        }
+    }
 
 }
@@ -1,5 +1,7 @@
 package edu.gemini.lch.services;
 
+import edu.gemini.lch.services.util.LatencyHistogram;
+
 /**
  * A scheduler that executes tasks on a regular basis.
  */
@@ -13,7 +15,7 @@ public interface SchedulerService {
     void updateClocks();
 
     /**
-     * Updates all alarm windows asynchronously.
+     * Updates all alarm windows asynchronously whenever the alarm state changes and at least once a second.
      * NOTE: Unfortunately we can't use @Async on AlarmWindow because it is created using AOP therefore we
      * schedule an asynchronous task manually.
      */
@@ -39,11 +41,23 @@ public interface SchedulerService {
     /** Removes a listener that needs to be called several times a second. */
     void removeListener(AlarmUpdateListener listener);
 
+    /**
+     * Gets the histogram of the time it takes to update a single alarm window, including the time needed
+     * to push the changes to the client.
+     * @return
+     */
+    LatencyHistogram getAlarmUpdateCost();
+
     interface ClockUpdateListener {
         void update();
     }
 
     interface AlarmUpdateListener {
-        void update(AlarmService.Snapshot snapshot);
+        /**
+         * Updates the listener with a new alarm snapshot.
+         * @param snapshot the new snapshot
+         * @param delta the changes since the last snapshot this listener has been updated with
+         */
+        void update(AlarmService.Snapshot snapshot, SnapshotDelta delta);
     }
 }
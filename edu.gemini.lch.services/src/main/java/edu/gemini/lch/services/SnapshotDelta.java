@@ -0,0 +1,121 @@
+package edu.gemini.lch.services;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The differences between two alarm snapshots, classified by the facets of the alarm state that changed.
+ * Deltas are calculated once centrally when alarm snapshots are handed out to the alarm windows, this allows
+ * the different parts of the user interface to skip all the work for facets that did not change.
+ * Deltas are immutable.
+ */
+public final class SnapshotDelta {
+
+    /**
+     * The facets of an alarm snapshot.
+     */
+    public enum Facet {
+        /** The time of the EPICS snapshot. */
+        TIME,
+        /** The current and demand telescope positions and the distance to the current target. */
+        POSITION,
+        /** The connection to EPICS. */
+        EPICS_CONNECTION,
+        /** The laser status. */
+        LASER_STATUS,
+        /** The laser night. */
+        NIGHT,
+        /** The laser target and its observations. */
+        TARGET,
+        /** The error cone and whether the telescope is pointing outside of it. */
+        ERROR_CONE,
+        /** The effective propagation and shuttering windows. */
+        WINDOWS,
+        /** Entering or leaving a propagation or shuttering window or the earliest and latest propagation times. */
+        PROPAGATION,
+        /** The LTCS collisions and the LTCS connection status. */
+        COLLISIONS,
+        /** The auto shutter state. */
+        AUTO_SHUTTER,
+        /** The configured safety buffers before and after shuttering windows. */
+        BUFFERS
+    }
+
+    /** A delta with all facets changed, used if there is no earlier snapshot to compare with. */
+    public static final SnapshotDelta ALL = new SnapshotDelta(EnumSet.allOf(Facet.class));
+
+    /** A delta with no changes. */
+    public static final SnapshotDelta NONE = new SnapshotDelta(EnumSet.noneOf(Facet.class));
+
+    // the facets that only change the telemetry displayed to the users
+    private static final Set<Facet> TELEMETRY = EnumSet.of(Facet.TIME, Facet.POSITION);
+
+    private final Set<Facet> changed;
+
+    private SnapshotDelta(EnumSet<Facet> changed) {
+        this.changed = Collections.unmodifiableSet(changed);
+    }
+
+    /**
+     * Creates a delta for the given changed facets.
+     * @param changed
+     * @return
+     */
+    public static SnapshotDelta of(Set<Facet> changed) {
+        return changed.isEmpty() ? NONE : new SnapshotDelta(EnumSet.copyOf(changed));
+    }
+
+    /**
+     * Checks if any of the given facets has changed.
+     * @param facets
+     * @return
+     */
+    public boolean hasChanged(Facet... facets) {
+        for (Facet f : facets) {
+            if (changed.contains(f)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if anything other than the telemetry (time and telescope position) has changed.
+     * @return
+     */
+    public boolean isMaterial() {
+        return !TELEMETRY.containsAll(changed);
+    }
+
+    public boolean isEmpty() {
+        return changed.isEmpty();
+    }
+
+    public Set<Facet> getChanged() {
+        return changed;
+    }
+
+    /**
+     * Combines this delta with an earlier one.
+     * @param earlier
+     * @return a delta which contains the changes of both deltas
+     */
+    public SnapshotDelta and(SnapshotDelta earlier) {
+        if (earlier == null || changed.containsAll(earlier.changed)) {
+            return this;
+        }
+        if (earlier.changed.containsAll(changed)) {
+            return earlier;
+        }
+        EnumSet<Facet> both = EnumSet.noneOf(Facet.class);
+        both.addAll(changed);
+        both.addAll(earlier.changed);
+        return new SnapshotDelta(both);
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotDelta" + changed;
+    }
+}
@@ -0,0 +1,65 @@
+package edu.gemini.lch.services;
+
+import jsky.plot.SunRiseSet;
+import org.joda.time.DateTime;
+
+/**
+ * Sunset, sunrise and twilight times of a night.
+ * Unlike the jsky sun calculator objects these are immutable and can therefore be cached and shared between
+ * threads, see {@link ModelFactory#getTwilight(edu.gemini.lch.model.BaseLaserNight)}.
+ */
+public final class Twilight {
+
+    private final DateTime sunset;
+    private final DateTime civilTwilightStart;
+    private final DateTime nauticalTwilightStart;
+    private final DateTime astronomicalTwilightStart;
+    private final DateTime astronomicalTwilightEnd;
+    private final DateTime nauticalTwilightEnd;
+    private final DateTime civilTwilightEnd;
+    private final DateTime sunrise;
+
+    Twilight(SunRiseSet calc) {
+        this.sunset                    = new DateTime(calc.getSunset());
+        this.civilTwilightStart        = new DateTime(calc.getCivilTwilightStart());
+        this.nauticalTwilightStart     = new DateTime(calc.getNauticalTwilightStart());
+        this.astronomicalTwilightStart = new DateTime(calc.getAstronomicalTwilightStart());
+        this.astronomicalTwilightEnd   = new DateTime(calc.getAstronomicalTwilightEnd());
+        this.nauticalTwilightEnd       = new DateTime(calc.getNauticalTwilightEnd());
+        this.civilTwilightEnd          = new DateTime(calc.getCivilTwilightEnd());
+        this.sunrise                   = new DateTime(calc.getSunrise());
+    }
+
+    public DateTime getSunset() {
+        return sunset;
+    }
+
+    public DateTime getCivilTwilightStart() {
+        return civilTwilightStart;
+    }
+
+    public DateTime getNauticalTwilightStart() {
+        return nauticalTwilightStart;
+    }
+
+    public DateTime getAstronomicalTwilightStart() {
+        return astronomicalTwilightStart;
+    }
+
+    public DateTime getAstronomicalTwilightEnd() {
+        return astronomicalTwilightEnd;
+    }
+
+    public DateTime getNauticalTwilightEnd() {
+        return nauticalTwilightEnd;
+    }
+
+    public DateTime getCivilTwilightEnd() {
+        return civilTwilightEnd;
+    }
+
+    public DateTime getSunrise() {
+        return sunrise;
+    }
+
+}
@@ -3,6 +3,7 @@ package edu.gemini.lch.services.impl;
 import edu.gemini.lch.configuration.Configuration;
 import edu.gemini.lch.model.*;
 import edu.gemini.lch.services.*;
+import edu.gemini.lch.services.util.LatencyHistogram;
 import edu.gemini.shared.skycalc.Angle;
 import jsky.coords.WorldCoords;
 import org.apache.commons.lang.Validate;
@@ -14,14 +15,20 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This service provides a snapshot of all relevant information for alarm clients which is updated every second.
  * The idea is that in order to reduce the amount of load a large number of alarm clients potentially puts on
  * the server the current alarm state is centrally updated asynchronously and then all clients just display the
  * most recent state.
+ * In addition to the scheduled updates the alarm state and the auto shutter are re-evaluated immediately
+ * whenever the EPICS service publishes a snapshot with a new telescope position or laser status.
  */
 @Service
 public class AlarmServiceImpl implements AlarmService {
@@ -48,25 +55,61 @@ public class AlarmServiceImpl implements AlarmService {
 
     private Integer bufferBefore;
     private Integer bufferAfter;
-    private DateTime earliestPropagation;
-    private DateTime latestPropagation;
+    private Boolean autoShutterTimers;
+    private Integer autoShutterLeadTime;
     private Angle errorCone;
-    private LaserNight currentNight;
+    // the current night with all derived data, replaced as a whole whenever the night changes (null if no night)
+    private volatile NightView currentView;
     private Snapshot currentStatus;
     private AutoShutter currentAutoShutter;
 
+    private final EffectiveWindowsCache windowsCache = new EffectiveWindowsCache();
+
+    // auto shutter timers for predicted transitions and the executor for the actual shutter commands
+    private final Object autoShutterLock = new Object();
+    private final Object timerLock = new Object();
+    private final AtomicBoolean shutterInProgress = new AtomicBoolean(false);
+    private ScheduledExecutorService transitionTimer;
+    private ExecutorService shutterExecutor;
+    private ScheduledFuture<?> armedTransition;
+    private AlarmService.Snapshot armedSnapshot;
+
+    // event driven re-evaluation of the alarm state for changes in EPICS
+    private static final long NOTHING_PENDING = Long.MIN_VALUE;
+    private final Object updateLock = new Object();
+    private final AtomicLong pendingEpicsChange = new AtomicLong(NOTHING_PENDING);
+    private final LatencyHistogram reactionLatency = new LatencyHistogram("EPICS change to alarm update");
+    private ExecutorService alarmExecutor;
+
+    public AlarmServiceImpl() {
+    }
+
+    /**
+     * Creates an alarm service with the given collaborators, the remaining ones are not needed by the
+     * auto shutter timers and are left empty (used for testing).
+     */
+    AlarmServiceImpl(EpicsService epicsService, LtcsService ltcsService, SiteService siteService) {
+        this.epicsService = epicsService;
+        this.ltcsService = ltcsService;
+        this.siteService = siteService;
+    }
+
     /**
      * Initializes the alarm service.
      * Sets all status information to sensible defaults until they are updated for the first time with
      * real data.
      */
     @PostConstruct
-    private void init() {
+    void init() {
         this.bufferBefore = 10;
         this.bufferAfter = 10;
+        this.autoShutterTimers = false;
+        this.autoShutterLeadTime = 0;
+        this.transitionTimer = Executors.newSingleThreadScheduledExecutor(r -> createThread(r, "auto-shutter-timer"));
+        this.shutterExecutor = Executors.newSingleThreadExecutor(r -> createThread(r, "auto-shutter-command"));
+        this.alarmExecutor = Executors.newSingleThreadExecutor(r -> createThread(r, "alarm-update"));
         this.errorCone = new Angle(360.0, Angle.Unit.ARCSECS);
-        this.earliestPropagation = DateTime.now();
-        this.latestPropagation = earliestPropagation;
+        this.currentView = null;
         this.currentAutoShutter = getStartupAutoShutter();
         this.currentStatus =
                 new Snapshot(
@@ -82,6 +125,20 @@ public class AlarmServiceImpl implements AlarmService {
                         currentAutoShutter,                     // current auto shutter
                         bufferBefore,                           // safety buffer before
                         bufferAfter);                           // safety buffer after
+        epicsService.addSnapshotListener(this::onEpicsSnapshot);
+    }
+
+    @PreDestroy
+    void destroy() {
+        transitionTimer.shutdownNow();
+        shutterExecutor.shutdownNow();
+        alarmExecutor.shutdownNow();
+    }
+
+    private static Thread createThread(Runnable r, String name) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
     }
 
     /**
@@ -93,6 +150,31 @@ public class AlarmServiceImpl implements AlarmService {
         return currentStatus;
     }
 
+    AutoShutter getAutoShutter() {
+        return currentAutoShutter;
+    }
+
+    void setAutoShutter(AutoShutter autoShutter) {
+        currentAutoShutter = autoShutter;
+    }
+
+    void setAutoShutterTimers(boolean enabled) {
+        autoShutterTimers = enabled;
+    }
+
+    /**
+     * Replaces the current status and arms the auto shutter timer for it.
+     */
+    void setSnapshot(Snapshot snapshot) {
+        currentStatus = snapshot;
+        armTransitionTimer(snapshot);
+    }
+
+    @Override
+    public LatencyHistogram getReactionLatency() {
+        return reactionLatency;
+    }
+
     @Override
     public Boolean isAutoShutterEnabled() {
         // any setting other than OFF means the auto shutter is currently turned on
@@ -119,8 +201,13 @@ public class AlarmServiceImpl implements AlarmService {
         bufferBefore = configService.getInteger(Configuration.Value.LIS_BUFFER_BEFORE_SHUTTER_WINDOW);
         bufferAfter  = configService.getInteger(Configuration.Value.LIS_BUFFER_AFTER_SHUTTER_WINDOW);
         errorCone = new Angle(configService.getDouble(Configuration.Value.ERROR_CONE_ANGLE), Angle.Unit.ARCSECS);
+        autoShutterTimers = configService.getBoolean(Configuration.Value.LIS_AUTO_SHUTTER_TIMERS);
+        autoShutterLeadTime = configService.getInteger(Configuration.Value.LIS_AUTO_SHUTTER_LEAD_TIME);
         // update the current night (important in case we are entering or leaving a night..)
         updateNight(Boolean.FALSE);
+        // log the latencies of the event driven updates
+        LOGGER.info(epicsService.getPublishLatency());
+        LOGGER.info(reactionLatency);
     }
 
     @Override
@@ -131,21 +218,28 @@ public class AlarmServiceImpl implements AlarmService {
     /**
      * Updates the night.
      * Has to be called whenever a change is done to the night that needs to be reflected in the alarm clients.
+     * The night view with the spatial indices used to find the laser target closest to the current telescope
+     * position and all other derived data is built here once per night; it is immutable and replaces the
+     * previous view in one step, so the update loop always sees a consistent night without further locking.
      */
     @Transactional(readOnly = true)
     private synchronized void updateNight(Boolean forceUpdate) {
         // update the night in case we are forced to do so or we currently don't have a night or are leaving a night
-        if (forceUpdate || currentNight == null || !currentNight.covers(epicsService.getTime())) {
+        final NightView view = currentView;
+        if (forceUpdate || view == null || !view.getNight().covers(epicsService.getTime())) {
             SimpleLaserNight night = nightService.getShortLaserNightCovering(epicsService.getTime());
             if (night != null) {
-                this.currentNight = nightService.loadLaserNight(night.getId());
-                this.earliestPropagation = nightService.getEarliestPropagation(currentNight);
-                this.latestPropagation = nightService.getLatestPropagation(currentNight);
+                final long start = System.currentTimeMillis();
+                LaserNight loadedNight = nightService.loadLaserNightTargets(night.getId());
+                LOGGER.info("loaded laser targets of night " + night.getId() + " in " + (System.currentTimeMillis() - start) + "ms");
+                this.currentView = new NightView(
+                        loadedNight,
+                        nightService.getEarliestPropagation(loadedNight),
+                        nightService.getLatestPropagation(loadedNight));
             } else {
-                this.currentNight = null;
-                this.earliestPropagation = DateTime.now();
-                this.latestPropagation = earliestPropagation;
+                this.currentView = null;
             }
+            this.windowsCache.clear();
         }
     }
 
@@ -155,9 +249,41 @@ public class AlarmServiceImpl implements AlarmService {
     @Transactional(readOnly = true)
     @Override
     public void update() {
+        synchronized (updateLock) {
+            doUpdate();
+        }
+    }
 
-        // make sure we use the same night everywhere, NOTE: currentNight might be updated anytime
-        LaserNight night = currentNight;
+    /**
+     * Called by the EPICS service when the telescope position or the laser status has changed.
+     * The re-evaluation is done on a separate thread in order not to block the EPICS publisher, changes that
+     * arrive while an evaluation is pending are coalesced into the pending one.
+     */
+    private void onEpicsSnapshot(EpicsService.Snapshot snapshot, long changedNanos) {
+        if (pendingEpicsChange.compareAndSet(NOTHING_PENDING, changedNanos)) {
+            alarmExecutor.execute(this::reevaluate);
+        }
+    }
+
+    private void reevaluate() {
+        final long changed = pendingEpicsChange.getAndSet(NOTHING_PENDING);
+        try {
+            synchronized (updateLock) {
+                doUpdate();
+            }
+            updateAutoShutter(epicsService.getTime().getMillis());
+        } catch (Exception e) {
+            LOGGER.error("could not re-evaluate alarm state", e);
+        } finally {
+            reactionLatency.recordSince(changed);
+        }
+    }
+
+    private void doUpdate() {
+
+        // make sure we use the same night everywhere, NOTE: currentView might be replaced anytime
+        final NightView view = currentView;
+        final LaserNight night = view == null ? null : view.getNight();
 
         // get snapshots of current ltcs and epics values
         // this is to make sure that all calculations use the same values and we end up displaying the
@@ -177,8 +303,8 @@ public class AlarmServiceImpl implements AlarmService {
             Double currentEl = epicsSnapshot.getCurrentEl().toDegrees().getMagnitude();
             Double maxDistanceDeg = errorCone.toDegrees().getMagnitude()/2;
 
-            LaserTarget raDec = night.findClosestRaDecTarget(currentRa, currentDec, maxDistanceDeg);
-            LaserTarget azEl  = night.findClosestAzElTarget(currentAz, currentEl, maxDistanceDeg);
+            LaserTarget raDec = view.getRaDecIndex().findClosest(currentRa, currentDec, maxDistanceDeg);
+            LaserTarget azEl  = view.getAzElIndex().findClosest(currentAz, currentEl, maxDistanceDeg);
 
             if (raDec == null && azEl != null) {
                 target = azEl;
@@ -209,25 +335,29 @@ public class AlarmServiceImpl implements AlarmService {
         // load observations for target (if we have a target)
         List<Observation> observations = Collections.EMPTY_LIST;
         if (target != null) {
-            observations = night.findObservationsForTarget(target);
+            observations = view.findObservationsForTarget(target);
         }
 
-        // update current status with most recent values
-        currentStatus = new Snapshot(
-                night,
+        // get the effective propagation windows, they are only recalculated if something relevant has changed
+        Integer before = bufferBefore;
+        Integer after = bufferAfter;
+        EffectiveWindowsCache.EffectiveWindows windows = windowsCache.get(night, target, before, after);
+
+        // update current status with most recent values and make sure the timers for the next transitions
+        // of the current target are armed
+        setSnapshot(new Snapshot(
+                view,
                 target,
-                earliestPropagation,
-                latestPropagation,
                 observations,
                 errorCone,
                 distance,
                 ltcsSnapshot,
                 epicsSnapshot,
                 currentAutoShutter,
-                bufferBefore,
-                bufferAfter
-            );
-
+                before,
+                after,
+                windows
+            ));
     }
 
     /** {@inheritDoc} */
@@ -243,37 +373,145 @@ public class AlarmServiceImpl implements AlarmService {
     @Scheduled(fixedDelay = 200)
     @Override
     public void updateAutoShutter() {
+        // polling the auto shutter state is always active, if timers are used it acts as a watchdog for them
+        updateAutoShutter(epicsService.getTime().getMillis());
+    }
+
+    private void updateAutoShutter(long time) {
+        synchronized (autoShutterLock) {
+            // don't do anything if auto shutter is turned off
+            if (currentAutoShutter == AutoShutter.OFF) {
+                return;
+            }
+            // set inactive if we're not inside of the start and end time of a night
+            LaserNight night = getSnapshot().getNight();
+            if (night == null || time < night.getStart().getMillis() || time > night.getEnd().getMillis()) {
+                currentAutoShutter = AutoShutter.INACTIVE;
+                return;
+            }
+
+            // shutter laser if it is on sky and we are outside of all propagation windows!
+            currentAutoShutter = getCurrentAutoShutter(time);
+            if (currentAutoShutter == AutoShutter.SHUTTERING) {
+                shutterLaser();
+            }
+        }
+    }
+
+    /**
+     * Arms a timer for the next predicted transition of the given snapshot.
+     * Transitions are the start and end times of the effective propagation windows (which include the blanket
+     * closures and the safety buffers) and the earliest and latest propagation times (twilight). Timers are only
+     * re-armed if the night, the target or the effective windows change, otherwise the timer that fires re-arms
+     * itself for the transition that follows.
+     */
+    private void armTransitionTimer(AlarmService.Snapshot snapshot) {
+        synchronized (timerLock) {
+            if (!autoShutterTimers) {
+                cancelTransitionTimer();
+                return;
+            }
+            if (armedSnapshot != null &&
+                !snapshot.nightOrTargetHasChanged(armedSnapshot) &&
+                snapshot.getPropagationIntervals() == armedSnapshot.getPropagationIntervals()) {
+                return;
+            }
+            cancelTransitionTimer();
+            armedSnapshot = snapshot;
+            armTransitionTimer(snapshot, epicsService.getTime().getMillis());
+        }
+    }
 
-        // don't do anything if auto shutter is turned off
-        if (currentAutoShutter == AutoShutter.OFF) {
+    private void armTransitionTimer(final AlarmService.Snapshot snapshot, final long after) {
+        if (snapshot.getNight() == null || snapshot.getTarget() == null) {
             return;
         }
-        // set inactive if we're not inside of the start and end time of a night
-        LaserNight night = getSnapshot().getNight();
-        if (night == null || epicsService.getTime().isBefore(night.getStart()) || epicsService.getTime().isAfter(night.getEnd())) {
-            currentAutoShutter = AutoShutter.INACTIVE;
+        final long transition = nextTransitionAfter(snapshot, after);
+        if (transition == WindowIntervals.NO_TRANSITION) {
             return;
         }
+        final long delay = Math.max(0, transition - autoShutterLeadTime - epicsService.getTime().getMillis());
+        armedTransition = transitionTimer.schedule(() -> onTransition(snapshot, transition), delay, TimeUnit.MILLISECONDS);
+        LOGGER.debug("auto shutter timer armed for transition at " + new DateTime(transition));
+    }
+
+    private void cancelTransitionTimer() {
+        if (armedTransition != null) {
+            armedTransition.cancel(false);
+            armedTransition = null;
+        }
+        armedSnapshot = null;
+    }
 
-        // shutter laser if it is on sky and we are outside of all propagation windows!
-        currentAutoShutter = getCurrentAutoShutter();
-        // current auto shutter status is now visible, we can wait for the shutter laser op to finish..
-        if (currentAutoShutter == AutoShutter.SHUTTERING) {
-            LOGGER.warn(">>> LASER IS ON SKY AND WE ARE NOT CLEAR TO PROPAGATE -> SHUTTERING LASER <<<<");
-            LOGGER.warn(getDetailedShutteringLog());
-            // TODO: here we should check if not another command is already running? check EPICS channel..
-            // Potentially the waiting etc should be part of the openLoops and shutterLaser methods since
-            // they can be different between GN and GS
-            epicsService.openLoops();
-            epicsService.shutterLaser();
-            // TODO: here we should wait for command to finish.. check EPICS channel..
-            // As a shortcut we just wait for 2 seconds..
+    /**
+     * Gets the next time after now the propagation state of the given snapshot changes.
+     */
+    private long nextTransitionAfter(AlarmService.Snapshot snapshot, long now) {
+        long next = snapshot.getPropagationIntervals().nextTransitionAfter(now);
+        if (snapshot.getEarliestPropagation() != null && snapshot.getEarliestPropagation().getMillis() > now) {
+            next = Math.min(next, snapshot.getEarliestPropagation().getMillis());
+        }
+        if (snapshot.getLatestPropagation() != null && snapshot.getLatestPropagation().getMillis() > now) {
+            next = Math.min(next, snapshot.getLatestPropagation().getMillis());
+        }
+        return next;
+    }
+
+    /**
+     * Called by the timer shortly before a predicted transition.
+     * If we will not be clear to propagate at the time of the transition and the laser is on sky it is shuttered
+     * right away, all other states are left to the polling watchdog.
+     */
+    private void onTransition(AlarmService.Snapshot snapshot, long transition) {
+        try {
+            synchronized (autoShutterLock) {
+                if (currentAutoShutter != AutoShutter.OFF && currentAutoShutter != AutoShutter.INACTIVE) {
+                    if (!clearToPropagate(transition) && epicsService.isOnSky()) {
+                        currentAutoShutter = AutoShutter.SHUTTERING;
+                        shutterLaser();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("could not evaluate auto shutter for predicted transition", e);
+        } finally {
+            synchronized (timerLock) {
+                // arm timer for following transition unless the timer has been re-armed in the meantime
+                if (autoShutterTimers && armedSnapshot == snapshot) {
+                    armTransitionTimer(snapshot, transition);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the commands to shutter the laser on the dedicated shutter executor.
+     * Only one shutter command is executed at a time, requests while a command is executed are ignored.
+     */
+    private void shutterLaser() {
+        if (!shutterInProgress.compareAndSet(false, true)) {
+            return;
+        }
+        LOGGER.warn(">>> LASER IS ON SKY AND WE ARE NOT CLEAR TO PROPAGATE -> SHUTTERING LASER <<<<");
+        LOGGER.warn(getDetailedShutteringLog());
+        shutterExecutor.execute(() -> {
             try {
+                // TODO: here we should check if not another command is already running? check EPICS channel..
+                // Potentially the waiting etc should be part of the openLoops and shutterLaser methods since
+                // they can be different between GN and GS
+                epicsService.openLoops();
+                epicsService.shutterLaser();
+                // TODO: here we should wait for command to finish.. check EPICS channel..
+                // As a shortcut we just wait for 2 seconds..
                 Thread.sleep(2000);
             } catch (InterruptedException e) {
                 // Intentionally left blank
+            } catch (Exception e) {
+                LOGGER.error("could not shutter laser", e);
+            } finally {
+                shutterInProgress.set(false);
             }
-        }
+        });
     }
 
     /** {@inheritDoc} */
@@ -287,10 +525,10 @@ public class AlarmServiceImpl implements AlarmService {
 
 
     /**
-     * Gets the current shutter status.
+     * Gets the shutter status for the given time.
      */
-    private AutoShutter getCurrentAutoShutter() {
-        if (clearToPropagate(epicsService.getTime())) {
+    private AutoShutter getCurrentAutoShutter(long time) {
+        if (clearToPropagate(time)) {
             // all good, we are clear to propagate
             return AutoShutter.CLEAR;
         } else {
@@ -309,14 +547,15 @@ public class AlarmServiceImpl implements AlarmService {
      * The conditions are:
      * <ul>
      *     <li>We are pointing at a known laser target.</li>
-     *     <li>We are inside the propagation limits (civil, nautical or astronomical twilight).</li>
+     *     <li>We are inside the propagation limits (civil, nautical or astronomical twilight); like the
+     *     propagation windows the limits are half-open, the latest propagation time itself is outside.</li>
      *     <li>We are pointing at a position inside the error cone around the target.</li>
      *     <li>We are inside a propagation window (taking safety buffers and blanket closures into account).</li>
      * </ul>
-     * @param currentTime
+     * @param currentTime current time in milliseconds since the epoch
      * @return
      */
-    private Boolean clearToPropagate(DateTime currentTime) {
+    private Boolean clearToPropagate(long currentTime) {
 
         AlarmService.Snapshot s = getSnapshot();
 
@@ -325,10 +564,10 @@ public class AlarmServiceImpl implements AlarmService {
             return Boolean.FALSE;
 
         // -- not ok to propagate if we are before or after allowed propagation times
-        } else if (currentTime.isBefore(earliestPropagation)) {
+        } else if (currentTime < s.getEarliestPropagation().getMillis()) {
             return Boolean.FALSE;
 
-        } else if (currentTime.isAfter(latestPropagation)) {
+        } else if (currentTime >= s.getLatestPropagation().getMillis()) {
             return Boolean.FALSE;
 
         // check if the current position is inside the error cone of the target
@@ -338,18 +577,12 @@ public class AlarmServiceImpl implements AlarmService {
         // -- finally check if we are inside of a propagation window (excluding safety buffers)
         } else {
 
-            // compare time with list of propagation windows, the snapshot provides propagation windows
+            // compare time with the propagation windows, the snapshot provides propagation windows
             // that take blanket closures and safety buffers into account, so we don't need to deal
-            // with those separately
-            for (PropagationWindow w : getSnapshot().getPropagationWindows()) {
-                if (w.contains(currentTime)) {
-                    // ok, we are inside a propagation window
-                    return Boolean.TRUE;
-                }
-            }
-
-            // -- nope, not inside a propagation window, don't lase!
-            return Boolean.FALSE;
+            // with those separately; use the compact representation which does a binary search without
+            // creating any objects (this is called several times per second)
+            // -- if we are not inside a propagation window, don't lase!
+            return s.getPropagationIntervals().isOpenAt(currentTime);
         }
 
     }
@@ -450,10 +683,12 @@ public class AlarmServiceImpl implements AlarmService {
      * system).
      */
     static class Snapshot implements AlarmService.Snapshot {
+        private final NightView nightView;
         private final LaserNight night;
         private final LaserTarget target;
         private final List<PropagationWindow> propagationWindows;
         private final List<ShutteringWindow> shutteringWindows;
+        private final WindowIntervals propagationIntervals;
         private final DateTime earliestPropagation;
         private final DateTime latestPropagation;
         private final List<Observation> observations;
@@ -462,6 +697,8 @@ public class AlarmServiceImpl implements AlarmService {
         private final LtcsService.Snapshot ltcsSnapshot;
         private final EpicsService.Snapshot epicsSnapshot;
         private final AutoShutter autoShutter;
+        private final Integer bufferBefore;
+        private final Integer bufferAfter;
         protected Snapshot(
                 LaserNight night,
                 LaserTarget target,
@@ -475,60 +712,41 @@ public class AlarmServiceImpl implements AlarmService {
                 AutoShutter autoShutter,
                 Integer safetyBufferBefore,
                 Integer safetyBufferAfter) {
-            this.night = night;
+            this(night == null ? null : new NightView(night, earliestPropagation, latestPropagation),
+                 target, observations, errorCone, distance,
+                 ltcsSnapshot, epicsSnapshot, autoShutter, safetyBufferBefore, safetyBufferAfter,
+                 EffectiveWindowsCache.EffectiveWindows.calculate(night, target, safetyBufferBefore, safetyBufferAfter));
+        }
+        protected Snapshot(
+                NightView nightView,
+                LaserTarget target,
+                List<Observation> observations,
+                Angle errorCone,
+                Angle distance,
+                LtcsService.Snapshot ltcsSnapshot,
+                EpicsService.Snapshot epicsSnapshot,
+                AutoShutter autoShutter,
+                Integer safetyBufferBefore,
+                Integer safetyBufferAfter,
+                EffectiveWindowsCache.EffectiveWindows windows) {
+            this.nightView = nightView;
+            this.night = nightView == null ? null : nightView.getNight();
             this.target = target;
-            this.earliestPropagation = earliestPropagation;
-            this.latestPropagation = latestPropagation;
+            this.earliestPropagation = nightView == null ? null : nightView.getEarliestPropagation();
+            this.latestPropagation = nightView == null ? null : nightView.getLatestPropagation();
             this.observations = observations;
             this.errorCone = errorCone;
             this.distance = distance;
             this.ltcsSnapshot = ltcsSnapshot;
             this.epicsSnapshot = epicsSnapshot;
             this.autoShutter = autoShutter;
-            this.propagationWindows = createPropagationWindows(safetyBufferBefore, safetyBufferAfter);
-            this.shutteringWindows = PropagationWindow.getShutteringWindows(this.propagationWindows);
-        }
-
-        /**
-         * Creates a list of propagation windows taking safety buffers and user defined blanket closures into account.
-         * Only the propagation windows and the blanket closures are actually stored, all the other windows must be
-         * created on the fly. We do this here once for the current snapshot.
-         * @param safetyBufferBefore
-         * @param safetyBufferAfter
-         * @return
-         */
-        private List<PropagationWindow> createPropagationWindows(Integer safetyBufferBefore, Integer safetyBufferAfter) {
-
-            if (this.night == null || this.target == null) {
-                return Collections.EMPTY_LIST;
-            }
-
-            // get propagation windows, blanket closures and shuttering windows (i.e. intervals between propagation windows)
-            Set<PropagationWindow> p0 = this.target.getPropagationWindows();
-            Set<BlanketClosure>    closures = this.night.getClosures();
-            List<ShutteringWindow> shutWins = PropagationWindow.getShutteringWindows(p0);
-
-            // add safety buffers to closures and shuttering windows
-            List<ShutteringWindow> bufferedClosures = bufferedClosures(closures, safetyBufferBefore, safetyBufferAfter);
-            List<ShutteringWindow> bufferedShutWins = bufferedClosures(shutWins, safetyBufferBefore, safetyBufferAfter);
-
-            // now calculate a set of propagation windows that includes the buffered blanket closures and shuttering windows
-            List<PropagationWindow> p1 = PropagationWindow.removeClosures(p0, bufferedClosures);
-            List<PropagationWindow> p2 = PropagationWindow.removeClosures(p1, bufferedShutWins);
-
-            // use this for graphical output etc in the alarm client
-            return p2;
-        }
-
-        private List<ShutteringWindow> bufferedClosures(Collection<? extends ShutteringWindow> shutteringWindows, Integer safetyBufferBefore, Integer safetyBufferAfter) {
-            List<ShutteringWindow> buffered = new ArrayList<>();
-            for (ShutteringWindow w : shutteringWindows) {
-                buffered.add(new ShutteringWindow(
-                        w.getStart().minusSeconds(safetyBufferBefore),
-                        w.getEnd().plusSeconds(safetyBufferAfter)
-                ));
-            }
-            return buffered;
+            this.bufferBefore = safetyBufferBefore;
+            this.bufferAfter = safetyBufferAfter;
+            // effective propagation windows taking safety buffers and blanket closures into account, these
+            // are shared between snapshots as long as the target, the closures and the buffers do not change
+            this.propagationWindows = windows.getPropagationWindows();
+            this.shutteringWindows = windows.getShutteringWindows();
+            this.propagationIntervals = windows.getPropagationIntervals();
         }
 
         /**
@@ -565,6 +783,125 @@ public class AlarmServiceImpl implements AlarmService {
             return earlier == null ? Boolean.TRUE : this.target != earlier.getTarget();
         }
 
+        /**
+         * Gets the facets that changed between an earlier and the current snapshot.
+         * @param earlier
+         * @return
+         */
+        @Override
+        public SnapshotDelta getDelta(AlarmService.Snapshot earlier) {
+            if (earlier == null) {
+                return SnapshotDelta.ALL;
+            }
+            if (earlier == this) {
+                return SnapshotDelta.NONE;
+            }
+            final EnumSet<SnapshotDelta.Facet> changed = EnumSet.noneOf(SnapshotDelta.Facet.class);
+
+            // epics
+            final EpicsService.Snapshot earlierEpics = earlier.getEpicsSnapshot();
+            if (epicsSnapshot != earlierEpics) {
+                if (epicsSnapshot.getTime().getMillis() != earlierEpics.getTime().getMillis()) {
+                    changed.add(SnapshotDelta.Facet.TIME);
+                }
+                if (!samePosition(epicsSnapshot, earlierEpics)) {
+                    changed.add(SnapshotDelta.Facet.POSITION);
+                }
+                if (!epicsSnapshot.isConnected().equals(earlierEpics.isConnected())) {
+                    changed.add(SnapshotDelta.Facet.EPICS_CONNECTION);
+                }
+                if (!Objects.equals(epicsSnapshot.getLaserStatus(), earlierEpics.getLaserStatus())) {
+                    changed.add(SnapshotDelta.Facet.LASER_STATUS);
+                }
+            }
+
+            // night, target and the effective windows
+            if (nightHasChanged(earlier)) {
+                changed.add(SnapshotDelta.Facet.NIGHT);
+            }
+            if (targetHasChanged(earlier)) {
+                changed.add(SnapshotDelta.Facet.TARGET);
+            }
+            if (!sameAngle(distance, earlier.getDistance())) {
+                changed.add(SnapshotDelta.Facet.POSITION);
+            }
+            if (!sameAngle(errorCone, earlier.getErrorCone()) || isOutsideErrorCone(this) != isOutsideErrorCone(earlier)) {
+                changed.add(SnapshotDelta.Facet.ERROR_CONE);
+            }
+            if (propagationWindows != earlier.getPropagationWindows() || shutteringWindows != earlier.getShutteringWindows()) {
+                changed.add(SnapshotDelta.Facet.WINDOWS);
+            }
+            if (!Objects.equals(bufferBefore, earlier.getBufferBefore()) || !Objects.equals(bufferAfter, earlier.getBufferAfter())) {
+                changed.add(SnapshotDelta.Facet.BUFFERS);
+            }
+
+            // entering or leaving propagation and shuttering windows
+            final long now = epicsSnapshot.getTime().getMillis();
+            final long then = earlierEpics.getTime().getMillis();
+            if (propagationIntervals.isOpenAt(now) != earlier.getPropagationIntervals().isOpenAt(then) ||
+                inShutteringWindow(shutteringWindows, now) != inShutteringWindow(earlier.getShutteringWindows(), then) ||
+                isBefore(now, earliestPropagation) != isBefore(then, earlier.getEarliestPropagation()) ||
+                isAtOrAfter(now, latestPropagation) != isAtOrAfter(then, earlier.getLatestPropagation())) {
+                changed.add(SnapshotDelta.Facet.PROPAGATION);
+            }
+
+            // ltcs
+            final LtcsService.Snapshot earlierLtcs = earlier.getLtcsSnapshot();
+            if (ltcsSnapshot != earlierLtcs &&
+                (ltcsSnapshot.getError() != earlierLtcs.getError() ||
+                 !Objects.equals(ltcsSnapshot.getMessage(), earlierLtcs.getMessage()) ||
+                 !ltcsSnapshot.getCollisions().equals(earlierLtcs.getCollisions()))) {
+                changed.add(SnapshotDelta.Facet.COLLISIONS);
+            }
+
+            if (autoShutter != earlier.getAutoShutter()) {
+                changed.add(SnapshotDelta.Facet.AUTO_SHUTTER);
+            }
+
+            return SnapshotDelta.of(changed);
+        }
+
+        private static boolean samePosition(EpicsService.Snapshot a, EpicsService.Snapshot b) {
+            return sameAngle(a.getCurrentAz(), b.getCurrentAz()) &&
+                   sameAngle(a.getCurrentEl(), b.getCurrentEl()) &&
+                   sameCoords(a.getCurrentRaDec(), b.getCurrentRaDec()) &&
+                   sameCoords(a.getDemandRaDec(), b.getDemandRaDec());
+        }
+
+        private static boolean sameAngle(Angle a, Angle b) {
+            return a == b || (a != null && b != null && a.toDegrees().getMagnitude() == b.toDegrees().getMagnitude());
+        }
+
+        private static boolean sameCoords(WorldCoords a, WorldCoords b) {
+            return a == b || (a != null && b != null && a.getRaDeg() == b.getRaDeg() && a.getDecDeg() == b.getDecDeg());
+        }
+
+        private static boolean inShutteringWindow(List<ShutteringWindow> windows, long time) {
+            for (ShutteringWindow w : windows) {
+                if (w.getStart().getMillis() <= time && time < w.getEnd().getMillis()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isOutsideErrorCone(AlarmService.Snapshot s) {
+            if (s.getTarget() == null) {
+                return false;
+            }
+            final Angle errorCone = s.getErrorCone();
+            return s.getDistance().convertTo(errorCone.getUnit()).getMagnitude() > errorCone.getMagnitude() / 2;
+        }
+
+        // null safe comparison, null stands for "no such time"
+        private static boolean isBefore(long time, DateTime other) {
+            return other != null && time < other.getMillis();
+        }
+
+        private static boolean isAtOrAfter(long time, DateTime other) {
+            return other != null && time >= other.getMillis();
+        }
+
         /**
          * Gets the time between the two snapshots in milliseconds.
          * @return
@@ -580,6 +917,8 @@ public class AlarmServiceImpl implements AlarmService {
 
         // -- some self explaining getters
         @Override
+        public NightView getNightView() { return nightView; }
+        @Override
         public LaserNight getNight() { return night; }
         @Override
         public LaserTarget getTarget() { return target; }
@@ -588,6 +927,8 @@ public class AlarmServiceImpl implements AlarmService {
         @Override
         public List<ShutteringWindow> getShutteringWindows() { return shutteringWindows; }
         @Override
+        public WindowIntervals getPropagationIntervals() { return propagationIntervals; }
+        @Override
         public DateTime getEarliestPropagation() { return earliestPropagation; }
         @Override
         public DateTime getLatestPropagation() { return latestPropagation; }
@@ -603,6 +944,10 @@ public class AlarmServiceImpl implements AlarmService {
         public EpicsService.Snapshot getEpicsSnapshot() { return epicsSnapshot; }
         @Override
         public AutoShutter getAutoShutter() { return autoShutter; }
+        @Override
+        public Integer getBufferBefore() { return bufferBefore; }
+        @Override
+        public Integer getBufferAfter() { return bufferAfter; }
     }
 
 }
@@ -9,19 +9,25 @@ import org.apache.log4j.Logger;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
-import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Period;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Implementation of the configuration service using a database.
@@ -32,16 +38,20 @@ public class ConfigurationServiceImpl implements ConfigurationService, Applicati
     /** The logger */
     private static final Logger LOGGER = Logger.getLogger(ConfigurationServiceImpl.class.getName());
 
-    /** The cache. */
-    private Cache cache;
+    /** The current configuration, null until it is loaded for the first time. */
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
 
     /** The session factory */
     @Resource private SessionFactory sessionFactory;
     @Resource private SiteService siteService;
+    @Resource private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate readOnlyTransaction;
 
     @PostConstruct
     private void init() {
-        cache = new Cache();
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
     }
 
     /** {@inheritDoc} */
@@ -64,96 +74,81 @@ public class ConfigurationServiceImpl implements ConfigurationService, Applicati
     }
 
     /** {@inheritDoc} */
-    @Transactional(readOnly = true)
     @Override public Configuration getConfigurationEntry(Configuration.Value name) {
-        return cache.getValue(name);
+        return getSnapshot().get(name);
     }
 
     /** {@inheritDoc} */
-    @Transactional(readOnly = true)
     @Override public Boolean isEmpty(Configuration.Value name) {
         Configuration c = getConfigurationEntry(name);
         return c.getValue().isEmpty();
     }
 
     /** {@inheritDoc} */
-    @Transactional(readOnly = true)
     @Override public String getString(Configuration.Value name) {
         Configuration c = getConfigurationEntry(name);
         return c.getValue().getAsString();
     }
 
     /** {@inheritDoc} */
-    @Transactional(readOnly = true)
     @Override public List<String> getStringList(Configuration.Value name) {
         Configuration c = getConfigurationEntry(name);
         return c.getValue().getAsStringList();
     }
 
     /** {@inheritDoc} */
-    @Transactional(readOnly = true)
     @Override public String[] getStringArray(Configuration.Value name) {
         Configuration c = getConfigurationEntry(name);
         return c.getValue().getAsStringArray();
     }
 
     /** {@inheritDoc} */
-    @Transactional(readOnly = true)
     @Override public Integer getInteger(Configuration.Value name) {
         Configuration c = getConfigurationEntry(name);
         return c.getValue().getAsInteger();
     }
 
     /** {@inheritDoc} */
-    @Transactional(readOnly = true)
     @Override public List<Integer> getIntegerList(Configuration.Value name) {
         Configuration c = getConfigurationEntry(name);
         return c.getValue().getAsIntegerList();
     }
 
     /** {@inheritDoc} */
-    @Transactional(readOnly = true)
     @Override public Double getDouble(Configuration.Value name) {
         Configuration c = getConfigurationEntry(name);
         return c.getValue().getAsDouble();
     }
 
     /** {@inheritDoc} */
-    @Transactional(readOnly = true)
     @Override public Period getPeriod(Configuration.Value name) {
         Configuration c = getConfigurationEntry(name);
         return c.getValue().getAsPeriod();
     }
 
     /** {@inheritDoc} */
-    @Transactional(readOnly = true)
     @Override public List<Period> getPeriodList(Configuration.Value name) {
         Configuration c = getConfigurationEntry(name);
         return c.getValue().getAsPeriodList();
     }
 
     /** {@inheritDoc} */
-    @Transactional(readOnly = true)
     @Override public Boolean getBoolean(Configuration.Value name) {
         Configuration c = getConfigurationEntry(name);
         return c.getValue().getAsBoolean();
     }
 
     /** {@inheritDoc} */
-    @Transactional(readOnly = true)
     @Override public Selection getSelection(Configuration.Value name) {
         Configuration c = getConfigurationEntry(name);
         Validate.isTrue(c.getType().equals(Configuration.Type.SELECTION), "operation only allowed on selection values");
-        // TODO: make this available for other selections, too; maybe pass down class?
-        return Selection.Twilight.valueOf(c.getValue().getAsString());
+        return c.getSelection();
     }
 
     /** {@inheritDoc} */
     @Transactional
     @Override public void update(Configuration entry, String newValue) {
-        // remove stored value from cache to make sure new value is read on next update
         Configuration.Value value = Configuration.Value.valueOf(entry.getParamName());
-        cache.removeValue(value);
 
         // log configuration changes..
         if (entry.getType().equals(Configuration.Type.TEXT)) {
@@ -164,12 +159,41 @@ public class ConfigurationServiceImpl implements ConfigurationService, Applicati
 
         // change configuration in database
         entry.setFromString(newValue);
-        sessionFactory.getCurrentSession().update(entry);
+        Session session = sessionFactory.getCurrentSession();
+        session.update(entry);
+        session.flush();
+
+        // make the new value visible to all readers as soon as the change is committed; the flush above already
+        // incremented the version in the database, so the next refresh will not reload the configuration because
+        // of this change, and a refresh before the commit still sees the old version and keeps the old snapshot
+        final long version = readVersion();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override public void afterCommit() {
+                // a refresh right after the commit may already have loaded this or an even newer version
+                snapshot.updateAndGet(s -> s == null || s.version >= version ? s : s.with(value, entry, version));
+
+                // last step: do any actions that are needed to reflect configuration change in app
+                // most changes don't need to be processed specially, they will be picked up immediately
+                // but sometimes something needs to be done, e.g. changing the default time zone
+                try {
+                    processChange(value);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.ERROR, "could not process configuration change for " + value, e);
+                }
+            }
+        });
+    }
 
-        // last step: do any actions that are needed to reflect configuration change in app
-        // most changes don't need to be processed specially, they will be picked up after a while automatically
-        // but sometimes something needs to be done, e.g. changing the default time zone
-        processChange(value);
+    /** {@inheritDoc} */
+    @Scheduled(fixedDelay = 10000) // check for changes every 10 seconds
+    @Transactional(readOnly = true)
+    @Override public void refresh() {
+        final Snapshot current = snapshot.get();
+        if (current != null && current.version == readVersion()) {
+            return;
+        }
+        LOGGER.log(Level.DEBUG, "configuration has changed, reloading");
+        snapshot.set(readSnapshot());
     }
 
     /**
@@ -190,27 +214,56 @@ public class ConfigurationServiceImpl implements ConfigurationService, Applicati
     }
 
 
-    @Transactional(readOnly = true)
-    private Configuration readConfigurationEntry(Configuration.Value name) {
-        LOGGER.log(Level.TRACE, "reading configuration entry from database: " + name);
-        Session session = sessionFactory.getCurrentSession();
-        Query q = session.
-                getNamedQuery(Configuration.QUERY_FIND_BY_SITE_AND_NAME).
-                setString("site", siteService.getSite().name()).
-                setString("name", name.name());
-        Configuration entry = (Configuration) q.uniqueResult();
-        if (entry == null) {
-            LOGGER.log(Level.ERROR, "invalid configuration: no value with name " + name + " in database");
-            throw new IllegalArgumentException("internal error: invalid configuration " + name);
+    /**
+     * Gets the current configuration, loads it if this has not happened yet.
+     */
+    private Snapshot getSnapshot() {
+        final Snapshot current = snapshot.get();
+        if (current != null) {
+            return current;
+        }
+        final Snapshot loaded = readOnlyTransaction.execute(status -> readSnapshot());
+        return snapshot.compareAndSet(null, loaded) ? loaded : snapshot.get();
+    }
+
+    /**
+     * Reads all configuration entries of this site from the database with a single query.
+     * The version is read first, if the configuration changes in between the next refresh will read it again.
+     */
+    @SuppressWarnings("unchecked")
+    private Snapshot readSnapshot() {
+        LOGGER.log(Level.TRACE, "reading configuration from database");
+        final long version = readVersion();
+        final Session session = sessionFactory.getCurrentSession();
+        final Query q = session.
+                getNamedQuery(Configuration.QUERY_FIND_BY_SITE).
+                setString("site", siteService.getSite().name());
+        final Map<Configuration.Value, Configuration> entries = new EnumMap<>(Configuration.Value.class);
+        for (Configuration c : (List<Configuration>) q.list()) {
+            try {
+                entries.put(Configuration.Value.valueOf(c.getParamName()), c);
+            } catch (IllegalArgumentException e) {
+                // entries which are not known to this version of the application are ignored
+                LOGGER.log(Level.DEBUG, "ignoring unknown configuration entry " + c.getParamName());
+            }
         }
-        return entry;
+        return new Snapshot(version, entries);
+    }
+
+    /**
+     * Reads the current version of the configuration, it is incremented by a trigger on every change.
+     */
+    private long readVersion() {
+        final Session session = sessionFactory.getCurrentSession();
+        final Number version = (Number) session.createSQLQuery("select version from lch_configuration_version").uniqueResult();
+        return version.longValue();
     }
 
     /**
      * Processes any configuration changes that need a special action to be reflected in the application (as opposed
      * to automatically being picked up after a while).
-     * Note: Be aware that throwing a runtime exception here will cause the config change transaction to be
-     * rolled back, which may or may not be the right thing to do. Deal with exceptions accordingly.
+     * Note: This is called after the change has been committed, runtime exceptions thrown here can not undo the
+     * change anymore and are only logged. Deal with exceptions accordingly.
      * @param value
      */
     private void processChange(Configuration.Value value) {
@@ -245,61 +298,34 @@ public class ConfigurationServiceImpl implements ConfigurationService, Applicati
     }
 
     /**
-     * A very simple cache for configuration values.
-     * Values are stored for no more than 30 seconds and then reread from the database. Rereading them allows to change
-     * the configuration through other channels than just the application administration window (e.g. directly in the
-     * database using SQL).
+     * An immutable snapshot of all configuration entries of this site.
+     * Snapshots are never changed, updates replace the current snapshot as a whole. The configuration entries
+     * are detached and fully loaded, they can be shared between threads.
      */
-    private class Cache {
-        private static final int CACHE_REFRESH_SECONDS = 30;
-
-        private final Map<Configuration.Value, Entry> map;
-
-        /** A cache entry (value and timestamp). */
-        private class Entry {
-            final Configuration configuration;
-            final DateTime timestamp;
-            Entry(Configuration configuration) {
-                this.configuration = configuration;
-                this.timestamp = DateTime.now();
-            }
-        }
+    private static final class Snapshot {
+        private final long version;
+        private final Map<Configuration.Value, Configuration> entries;
 
-        /** Constructs an empty cache. */
-        Cache() {
-            // use a concurrent hash map, access to this service is not synchronized
-            // and may happen from several threads in parallel
-            map = new ConcurrentHashMap<>();
+        Snapshot(long version, Map<Configuration.Value, Configuration> entries) {
+            this.version = version;
+            this.entries = Collections.unmodifiableMap(entries);
         }
 
-        /**
-         * Gets a value from the cache or reads it from the database if it was not yet loaded or the value is too old.
-         */
-        Configuration getValue(Configuration.Value value) {
-
-            // check if we have the value in the cache
-            if (map.containsKey(value)) {
-                // we have a configuration stored for this name
-                Entry e = map.get(value);
-                if (e.timestamp.isAfter(DateTime.now().minusSeconds(CACHE_REFRESH_SECONDS))) {
-                    // if it is not too old return it
-                    return e.configuration;
-                }
+        Configuration get(Configuration.Value name) {
+            final Configuration entry = entries.get(name);
+            if (entry == null) {
+                LOGGER.log(Level.ERROR, "invalid configuration: no value with name " + name + " in database");
+                throw new IllegalArgumentException("internal error: invalid configuration " + name);
             }
-
-            // value is unknown or too old: read it from database
-            Configuration configuration = readConfigurationEntry(value);
-            Entry e = new Entry(configuration);
-            map.put(value, e);
-            return configuration;
+            return entry;
         }
 
-        /**
-         * Removes a value from the cache and forces a reload on next access.
-         * @param value
-         */
-        void removeValue(Configuration.Value value) {
-            map.remove(value);
+        /** Creates a copy of this snapshot with one entry replaced. */
+        Snapshot with(Configuration.Value name, Configuration entry, long version) {
+            final Map<Configuration.Value, Configuration> copy = new EnumMap<>(Configuration.Value.class);
+            copy.putAll(entries);
+            copy.put(name, entry);
+            return new Snapshot(version, copy);
         }
     }
 
@@ -0,0 +1,183 @@
+package edu.gemini.lch.services.impl;
+
+import edu.gemini.lch.model.*;
+import org.apache.commons.lang.Validate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache for the effective propagation windows of laser targets.
+ * The effective propagation windows are the propagation windows of a target with all blanket closures and all
+ * shuttering windows (including the configured safety buffers before and after them) removed. Calculating them is
+ * fairly expensive, but they only change if the windows of a target, the closures of a night or the safety buffers
+ * change, so there is no need to recalculate them every time the alarm service creates a new snapshot.
+ * Entries are keyed by the target id, the windows timestamp of the target, the version of the blanket closures
+ * of the night and the buffers; whenever one of those changes, a new entry is calculated. The closures version
+ * is represented by the start and end times of all closures; there are only a handful of closures per night, and
+ * using the actual times instead of a counter or a hash makes sure that changes to the closures are never missed.
+ */
+final class EffectiveWindowsCache {
+
+    private final Map<Key, EffectiveWindows> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the effective windows for the given target, calculates them if they are not yet cached.
+     * @param night
+     * @param target
+     * @param bufferBefore
+     * @param bufferAfter
+     * @return
+     */
+    EffectiveWindows get(LaserNight night, LaserTarget target, Integer bufferBefore, Integer bufferAfter) {
+        if (night == null || target == null) {
+            return EffectiveWindows.NONE;
+        }
+        // targets that have not been persisted yet can not be cached reliably
+        if (target.getId() == null) {
+            return EffectiveWindows.calculate(night, target, bufferBefore, bufferAfter);
+        }
+        Key key = new Key(target, closuresVersion(night), bufferBefore, bufferAfter);
+        return cache.computeIfAbsent(key, k -> EffectiveWindows.calculate(night, target, bufferBefore, bufferAfter));
+    }
+
+    /**
+     * Gets the start and end times of all closures of a night as a flat array.
+     */
+    private static long[] closuresVersion(LaserNight night) {
+        long[] version = new long[2 * night.getClosures().size()];
+        int i = 0;
+        for (BlanketClosure c : night.getClosures()) {
+            version[i++] = c.getStartMillis();
+            version[i++] = c.getEndMillis();
+        }
+        return version;
+    }
+
+    /**
+     * Removes all cached entries.
+     * Should be called whenever the night is replaced in order to keep the cache from growing indefinitely.
+     */
+    void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Gets the number of cached entries.
+     * @return
+     */
+    int size() {
+        return cache.size();
+    }
+
+    /**
+     * Immutable effective propagation windows and the shuttering windows between them.
+     * The propagation windows are also available in their compact primitive form for fast lookups.
+     */
+    static final class EffectiveWindows {
+
+        static final EffectiveWindows NONE = new EffectiveWindows(Collections.emptyList(), Collections.emptyList());
+
+        private final List<PropagationWindow> propagationWindows;
+        private final List<ShutteringWindow> shutteringWindows;
+        private final WindowIntervals propagationIntervals;
+
+        private EffectiveWindows(List<PropagationWindow> propagationWindows, List<ShutteringWindow> shutteringWindows) {
+            this.propagationWindows = propagationWindows;
+            this.shutteringWindows = shutteringWindows;
+            this.propagationIntervals = PropagationWindow.toIntervals(propagationWindows);
+        }
+
+        List<PropagationWindow> getPropagationWindows() {
+            return propagationWindows;
+        }
+
+        List<ShutteringWindow> getShutteringWindows() {
+            return shutteringWindows;
+        }
+
+        WindowIntervals getPropagationIntervals() {
+            return propagationIntervals;
+        }
+
+        /**
+         * Creates a list of propagation windows taking safety buffers and user defined blanket closures into account.
+         * Only the propagation windows and the blanket closures are actually stored, all the other windows must be
+         * created on the fly.
+         * @param night
+         * @param target
+         * @param safetyBufferBefore
+         * @param safetyBufferAfter
+         * @return
+         */
+        static EffectiveWindows calculate(LaserNight night, LaserTarget target, Integer safetyBufferBefore, Integer safetyBufferAfter) {
+
+            if (night == null || target == null) {
+                return NONE;
+            }
+
+            // get propagation windows, blanket closures and shuttering windows (i.e. intervals between propagation windows)
+            Set<PropagationWindow> p0 = target.getPropagationWindows();
+            Set<BlanketClosure>    closures = night.getClosures();
+            List<ShutteringWindow> shutWins = PropagationWindow.getShutteringWindows(p0);
+
+            // add safety buffers to closures and shuttering windows
+            List<ShutteringWindow> bufferedClosures = bufferedClosures(closures, safetyBufferBefore, safetyBufferAfter);
+            List<ShutteringWindow> bufferedShutWins = bufferedClosures(shutWins, safetyBufferBefore, safetyBufferAfter);
+
+            // now calculate a set of propagation windows that includes the buffered blanket closures and shuttering windows
+            List<PropagationWindow> p1 = PropagationWindow.removeClosures(p0, bufferedClosures);
+            List<PropagationWindow> p2 = PropagationWindow.removeClosures(p1, bufferedShutWins);
+
+            return new EffectiveWindows(p2, PropagationWindow.getShutteringWindows(p2));
+        }
+
+        private static List<ShutteringWindow> bufferedClosures(Collection<? extends ShutteringWindow> shutteringWindows, Integer safetyBufferBefore, Integer safetyBufferAfter) {
+            List<ShutteringWindow> buffered = new ArrayList<>();
+            for (ShutteringWindow w : shutteringWindows) {
+                buffered.add(new ShutteringWindow(
+                        w.getStart().minusSeconds(safetyBufferBefore),
+                        w.getEnd().plusSeconds(safetyBufferAfter)
+                ));
+            }
+            return buffered;
+        }
+    }
+
+    /**
+     * Cache key consisting of all values the effective windows depend on.
+     */
+    private static final class Key {
+        private final long targetId;
+        private final long windowsTimestamp;
+        private final long[] closuresVersion;
+        private final int bufferBefore;
+        private final int bufferAfter;
+
+        Key(LaserTarget target, long[] closuresVersion, Integer bufferBefore, Integer bufferAfter) {
+            Validate.notNull(target.getId());
+            this.targetId = target.getId();
+            this.windowsTimestamp = target.hasWindowsTimestamp() ? target.getWindowsTimestamp().getMillis() : 0;
+            this.closuresVersion = closuresVersion;
+            this.bufferBefore = bufferBefore;
+            this.bufferAfter = bufferAfter;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return targetId == other.targetId &&
+                   windowsTimestamp == other.windowsTimestamp &&
+                   Arrays.equals(closuresVersion, other.closuresVersion) &&
+                   bufferBefore == other.bufferBefore &&
+                   bufferAfter == other.bufferAfter;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(targetId, windowsTimestamp, Arrays.hashCode(closuresVersion), bufferBefore, bufferAfter);
+        }
+    }
+}
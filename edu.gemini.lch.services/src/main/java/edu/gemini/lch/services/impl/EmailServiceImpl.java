@@ -8,7 +8,6 @@ import edu.gemini.lch.services.util.PrmFile;
 import edu.gemini.shared.util.StringUtil;
 import org.apache.log4j.*;
 import org.hibernate.SessionFactory;
-import org.springframework.core.io.InputStreamSource;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
@@ -111,8 +110,7 @@ public class EmailServiceImpl implements EmailService {
             message.setSubject(subject);
             message.setText(text);
             for (final PrmFile.File f : files) {
-                InputStreamSource is = () -> new ByteArrayInputStream(f.getFile().getBytes());
-                message.addAttachment(f.getName(), is, "text/plain");
+                message.addAttachment(f.getName(), f::openStream, "text/plain");
             }
             mailSender.send(mimeMessage);
 
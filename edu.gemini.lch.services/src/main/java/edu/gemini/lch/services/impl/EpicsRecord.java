@@ -0,0 +1,181 @@
+package edu.gemini.lch.services.impl;
+
+/**
+ * The latest values of all EPICS channels that are relevant for LTTS stored as primitive values.
+ * The values are written by the EPICS channel callbacks and read by the EPICS service whenever a snapshot is
+ * needed. In order to avoid locking on the read side (which is by far the more frequent one) the record works
+ * like a seqlock: each write increments the version before and after changing a value, i.e. the version is odd
+ * while a write is in progress. Readers copy all values and then check if the version is still the same even
+ * value it was before they started, if not they simply try again. Writers are serialized by synchronizing on the
+ * record, so there is effectively always just a single writer. All fields are volatile which guarantees
+ * that readers can not see values written after the version they read, writes are rare enough
+ * (a few dozen per second) for the additional cost of volatile writes to be irrelevant.
+ */
+final class EpicsRecord {
+
+    /**
+     * The state of the laser as reported by the LIS.
+     */
+    enum LaserState {
+        SKY,
+        NOT_ON_SKY;
+
+        static LaserState fromStatus(String status) {
+            return "SKY".equals(status) ? SKY : NOT_ON_SKY;
+        }
+    }
+
+    /**
+     * A mutable holder for a consistent copy of all values of the record.
+     * Readers can reuse the same holder over and over again in order to avoid allocations.
+     */
+    static final class Values {
+        long version;
+        long time;
+        double currentAz;
+        double currentEl;
+        double currentRa;
+        double currentDec;
+        double demandRa;
+        double demandDec;
+        String laserStatus;
+        LaserState laserState;
+    }
+
+    private volatile long version;
+    private volatile long time;
+    private volatile double currentAz;
+    private volatile double currentEl;
+    private volatile double currentRa;
+    private volatile double currentDec;
+    private volatile double demandRa;
+    private volatile double demandDec;
+    private volatile String laserStatus;
+    private volatile LaserState laserState;
+
+    EpicsRecord() {
+        this.version = 0;
+        this.laserStatus = "";
+        this.laserState = LaserState.NOT_ON_SKY;
+    }
+
+    // -- writers
+
+    synchronized void setTime(long time) {
+        begin();
+        this.time = time;
+        end();
+    }
+
+    synchronized void setCurrentAz(double az) {
+        begin();
+        this.currentAz = az;
+        end();
+    }
+
+    synchronized void setCurrentEl(double el) {
+        begin();
+        this.currentEl = el;
+        end();
+    }
+
+    synchronized void setCurrentRa(double ra) {
+        begin();
+        this.currentRa = ra;
+        end();
+    }
+
+    synchronized void setCurrentDec(double dec) {
+        begin();
+        this.currentDec = dec;
+        end();
+    }
+
+    synchronized void setDemandRa(double ra) {
+        begin();
+        this.demandRa = ra;
+        end();
+    }
+
+    synchronized void setDemandDec(double dec) {
+        begin();
+        this.demandDec = dec;
+        end();
+    }
+
+    synchronized void setLaserStatus(String status) {
+        begin();
+        this.laserStatus = status;
+        this.laserState = LaserState.fromStatus(status);
+        end();
+    }
+
+    private void begin() {
+        version++;      // odd: write in progress
+    }
+
+    private void end() {
+        version++;      // even: values are consistent again
+    }
+
+    // -- readers
+
+    /**
+     * Gets the current version of this record; the version changes with every write.
+     * @return
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Copies a consistent set of values into the given holder.
+     * @param values
+     * @return the holder passed as argument
+     */
+    Values read(Values values) {
+        while (true) {
+            final long before = version;
+            if ((before & 1L) == 0) {
+                values.time         = time;
+                values.currentAz    = currentAz;
+                values.currentEl    = currentEl;
+                values.currentRa    = currentRa;
+                values.currentDec   = currentDec;
+                values.demandRa     = demandRa;
+                values.demandDec    = demandDec;
+                values.laserStatus  = laserStatus;
+                values.laserState   = laserState;
+                if (version == before) {
+                    values.version = before;
+                    return values;
+                }
+            }
+            // a write is in progress, this only takes a few nanoseconds; let the writer finish
+            Thread.yield();
+        }
+    }
+
+    // single values are always consistent by themselves and can be read directly
+
+    long getTime() {
+        return time;
+    }
+
+    double getCurrentAz() {
+        return currentAz;
+    }
+
+    double getCurrentEl() {
+        return currentEl;
+    }
+
+    String getLaserStatus() {
+        return laserStatus;
+    }
+
+    LaserState getLaserState() {
+        return laserState;
+    }
+
+}
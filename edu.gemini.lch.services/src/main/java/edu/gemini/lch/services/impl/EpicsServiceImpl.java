@@ -4,6 +4,7 @@ import edu.gemini.lch.configuration.Configuration;
 import edu.gemini.lch.services.ConfigurationService;
 import edu.gemini.lch.services.SiteService;
 import edu.gemini.lch.services.util.EpicsConnector;
+import edu.gemini.lch.services.util.LatencyHistogram;
 import edu.gemini.shared.skycalc.Angle;
 import jsky.coords.DMS;
 import jsky.coords.HMS;
@@ -19,9 +20,20 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A very simple EPICS channel listener that just stores the latest updated value in a hash map.
+ * A very simple EPICS channel listener that keeps the latest values of all relevant channels in an {@link EpicsRecord}.
+ * Values are converted to primitive values once when they change, i.e. the strings for time and demand RA/Dec
+ * are only parsed once per update from EPICS and not every time a value is read. Snapshots and the getters
+ * of this service read from the record without locking and without any parsing.
+ * Changes of the telescope position or the laser status are published as new snapshots right away (after a
+ * few milliseconds to coalesce related changes, e.g. az and el) and passed on to all registered snapshot listeners,
+ * the scheduled update only makes sure that changes of all other values (e.g. the time) are published, too.
  */
 public abstract class EpicsServiceImpl implements edu.gemini.lch.services.EpicsService {
 
@@ -52,16 +64,43 @@ public abstract class EpicsServiceImpl implements edu.gemini.lch.services.EpicsS
         put(EPICS_LASER_STATUS, "");
     }};
 
+    /** Time in milliseconds to wait after a change before a snapshot is published in order to coalesce changes. */
+    private static final long COALESCE_MILLIS = 5;
+
+    private static final long NOTHING_PENDING = Long.MIN_VALUE;
+
     private final DateTimeFormatter formatUTC;
     private final Map<String, Object> readChannels;
     private final String[] writeChannels;
+    private final EpicsRecord record;
+    private final EpicsRecord.Values values;
+    private final Object timeLock;
+    private final List<SnapshotListener> listeners;
+    private final LatencyHistogram publishLatency;
+    private final AtomicLong pendingSince;
+    private final ScheduledExecutorService publisher;
+    private String date;
+    private String utc;
     private Connector connector;
-    private Snapshot snapshot;
+    private volatile Snapshot snapshot;
+    // the last snapshot passed on to the snapshot listeners, only accessed by the publisher thread
+    private Snapshot notified;
 
     protected EpicsServiceImpl(Map<String, Object> readChannels, String[] writeChannels) {
         this.readChannels = readChannels;
         this.writeChannels = writeChannels;
         this.formatUTC = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss.S").withZone(DateTimeZone.UTC);
+        this.record = new EpicsRecord();
+        this.values = new EpicsRecord.Values();
+        this.timeLock = new Object();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.publishLatency = new LatencyHistogram("EPICS change to snapshot");
+        this.pendingSince = new AtomicLong(NOTHING_PENDING);
+        this.publisher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "epics-snapshot-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     /** {@inheritDoc} */
@@ -69,44 +108,51 @@ public abstract class EpicsServiceImpl implements edu.gemini.lch.services.EpicsS
         return snapshot;
     }
 
+    /** {@inheritDoc} */
+    @Override public void addSnapshotListener(SnapshotListener listener) {
+        listeners.add(listener);
+    }
+
+    /** {@inheritDoc} */
+    @Override public LatencyHistogram getPublishLatency() {
+        return publishLatency;
+    }
+
     /** {@inheritDoc} */
     @Override public DateTime getTime() {
-        String timeString = connector.readValue(EPICS_DATE) + " " + connector.readValue(EPICS_UTC);
-        return formatUTC.parseDateTime(timeString);
+        return new DateTime(record.getTime(), DateTimeZone.UTC);
     }
 
     /** {@inheritDoc} */
     @Override public Angle getCurrentAz() {
-        return new Angle((Double) connector.readValue(EPICS_CURRENT_AZ), Angle.Unit.DEGREES);
+        return new Angle(record.getCurrentAz(), Angle.Unit.DEGREES);
     }
 
     /** {@inheritDoc} */
     @Override public Angle getCurrentEl() {
-        return new Angle((Double) connector.readValue(EPICS_CURRENT_EL), Angle.Unit.DEGREES);
+        return new Angle(record.getCurrentEl(), Angle.Unit.DEGREES);
     }
 
     /** {@inheritDoc} */
     @Override public WorldCoords getCurrentRaDec() {
-        Double ra  = (Double) connector.readValue(EPICS_CURRENT_RA);
-        Double dec = (Double) connector.readValue(EPICS_CURRENT_DEC);
-        return new WorldCoords(ra, dec);
+        EpicsRecord.Values v = record.read(new EpicsRecord.Values());
+        return new WorldCoords(v.currentRa, v.currentDec);
     }
 
     /** {@inheritDoc} */
     @Override public WorldCoords getDemandRaDec() {
-        HMS ra  = new HMS((String) connector.readValue(EPICS_DEMAND_RA));
-        DMS dec = new DMS((String) connector.readValue(EPICS_DEMAND_DEC));
-        return new WorldCoords(ra, dec);
+        EpicsRecord.Values v = record.read(new EpicsRecord.Values());
+        return new WorldCoords(v.demandRa, v.demandDec);
     }
 
     /** {@inheritDoc} */
     @Override public String getLaserStatus() {
-        return (String) connector.readValue(EPICS_LASER_STATUS);
+        return record.getLaserStatus();
     }
 
     /** {@inheritDoc} */
     @Override public Boolean isOnSky() {
-        return "SKY".equals(getLaserStatus());
+        return record.getLaserState() == EpicsRecord.LaserState.SKY;
     }
 
     public void writeChannel(String channelName, Object value) {
@@ -122,22 +168,21 @@ public abstract class EpicsServiceImpl implements edu.gemini.lch.services.EpicsS
      */
     @PostConstruct public void init() {
         connect(false);
-        snapshot = new Snapshot(
-                    false,
-                    getTime(),
-                    getCurrentAz(),
-                    getCurrentEl(),
-                    getCurrentRaDec(),
-                    getDemandRaDec(),
-                    getLaserStatus());
+        publish();
     }
 
     /** {@inheritDoc} */
     @Override public synchronized void connect(Boolean useTcsSimulation) {
         if (connector != null) {
+            connector.setListener(null);
             connector.disconnect();
         }
         connector = createConnector(readChannels, writeChannels, useTcsSimulation);
+        // start with the values the connector has (usually the defaults) and then listen to all changes
+        for (String name : readChannels.keySet()) {
+            channelChanged(name, connector.readValue(name));
+        }
+        connector.setListener(this::channelChanged);
         String epicsAddressList = configurationService.getString(Configuration.Value.EPICS_ADDRESS_LIST);
         connector.connect(epicsAddressList);
     }
@@ -146,23 +191,63 @@ public abstract class EpicsServiceImpl implements edu.gemini.lch.services.EpicsS
      * Cleans up and disconnects from EPICS channels.
      */
     @PreDestroy public void destroy() {
+        publisher.shutdownNow();
         connector.disconnect();
     }
 
     /**
      * Updates the snapshot with the most current EPICS data.
+     * A new snapshot is only created if any of the values has changed since the last update.
      * Scheduled to be called as asynchronous task by Spring scheduler.
      */
     @Scheduled(fixedDelay = 100)
     public void update() {
-        snapshot = new Snapshot(
-                        connector.isConnected(),
-                        getTime(),
-                        getCurrentAz(),
-                        getCurrentEl(),
-                        getCurrentRaDec(),
-                        getDemandRaDec(),
-                        getLaserStatus());
+        publish();
+    }
+
+    /**
+     * Publishes a new snapshot if anything has changed since the last one.
+     * Snapshots are published by the scheduled update and the publisher thread, synchronizing this method
+     * makes sure there is only one writer at a time.
+     * @return the current snapshot
+     */
+    private synchronized Snapshot publish() {
+        final Boolean isConnected = connector.isConnected();
+        final long publishedVersion = values.version;
+        record.read(values);
+        if (snapshot == null || values.version != publishedVersion || !isConnected.equals(snapshot.isConnected())) {
+            snapshot = new Snapshot(isConnected, values);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Schedules the publication of a new snapshot unless there is one pending already.
+     * All changes that happen until the publisher thread runs are coalesced into the same snapshot.
+     */
+    private void schedulePublication() {
+        if (pendingSince.compareAndSet(NOTHING_PENDING, System.nanoTime())) {
+            publisher.schedule(this::publishChanges, COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void publishChanges() {
+        final long changed = pendingSince.getAndSet(NOTHING_PENDING);
+        final Snapshot current = publish();
+        publishLatency.recordSince(changed);
+        // compare with the last snapshot the listeners have seen, not with the one published before: the
+        // scheduled update may already have published the changes while this publication was pending
+        if (current == notified) {
+            return;
+        }
+        notified = current;
+        for (SnapshotListener listener : listeners) {
+            try {
+                listener.snapshotChanged(current, changed);
+            } catch (Exception e) {
+                LOGGER.error("snapshot listener failed", e);
+            }
+        }
     }
 
     /**
@@ -189,6 +274,45 @@ public abstract class EpicsServiceImpl implements edu.gemini.lch.services.EpicsS
         return connector.usesTcsSimulator();
     }
 
+    /**
+     * Converts a new value for one of the read channels and stores it in the EPICS record.
+     * Called by the connector whenever a value changes.
+     * @param name
+     * @param value
+     */
+    protected void channelChanged(String name, Object value) {
+        if (value == null) {
+            return;
+        }
+        try {
+            switch (name) {
+                case EPICS_CURRENT_AZ:      record.setCurrentAz(((Number) value).doubleValue()); schedulePublication(); break;
+                case EPICS_CURRENT_EL:      record.setCurrentEl(((Number) value).doubleValue()); schedulePublication(); break;
+                case EPICS_CURRENT_RA:      record.setCurrentRa(((Number) value).doubleValue()); schedulePublication(); break;
+                case EPICS_CURRENT_DEC:     record.setCurrentDec(((Number) value).doubleValue()); schedulePublication(); break;
+                case EPICS_DEMAND_RA:       record.setDemandRa(new HMS(value.toString()).getVal() * 15.0); schedulePublication(); break;
+                case EPICS_DEMAND_DEC:      record.setDemandDec(new DMS(value.toString()).getVal()); schedulePublication(); break;
+                case EPICS_DATE:            updateTime(value.toString(), null); break;
+                case EPICS_UTC:             updateTime(null, value.toString()); break;
+                case EPICS_LASER_STATUS:    record.setLaserStatus(value.toString()); schedulePublication(); break;
+                default:                    break;
+            }
+        } catch (Exception e) {
+            LOGGER.warn("could not convert value " + value + " of channel " + name, e);
+        }
+    }
+
+    // date and time come in separate channels, combine them with the latest value of the other one
+    private void updateTime(String newDate, String newUtc) {
+        synchronized (timeLock) {
+            if (newDate != null) date = newDate;
+            if (newUtc  != null) utc  = newUtc;
+            if (date != null && utc != null) {
+                record.setTime(formatUTC.parseDateTime(date + " " + utc).getMillis());
+            }
+        }
+    }
+
     /**
      * Creates the connector used to read from and write to EPICS.
      * This is separated out in a separate method so that derived classes can override it and replace
@@ -204,9 +328,9 @@ public abstract class EpicsServiceImpl implements edu.gemini.lch.services.EpicsS
 
     /**
      * An immutable and consistent snapshot of all relevant data for the EPICS service.
-     * A new instance of this snapshot object is created every few hundred milliseconds and can then be safely
-     * passed around to clients interested in it without the danger of concurrent changes making parts of the data
-     * inconsistent.
+     * A new instance of this snapshot object is created whenever values change (at most every few hundred
+     * milliseconds) and can then be safely passed around to clients interested in it without the danger of
+     * concurrent changes making parts of the data inconsistent.
      */
     // make this class public for testing etc.
     public static class Snapshot implements edu.gemini.lch.services.EpicsService.Snapshot {
@@ -226,6 +350,15 @@ public abstract class EpicsServiceImpl implements edu.gemini.lch.services.EpicsS
             this.demandRaDec = demandRaDec;
             this.laserStatus = laserStatus;
         }
+        Snapshot(Boolean isConnected, EpicsRecord.Values v) {
+            this(isConnected,
+                 new DateTime(v.time, DateTimeZone.UTC),
+                 new Angle(v.currentAz, Angle.Unit.DEGREES),
+                 new Angle(v.currentEl, Angle.Unit.DEGREES),
+                 new WorldCoords(v.currentRa, v.currentDec),
+                 new WorldCoords(v.demandRa, v.demandDec),
+                 v.laserStatus);
+        }
         @Override public Boolean isConnected() { return isConnected; }
         @Override public DateTime getTime() { return time; }
         @Override public Angle getCurrentAz() { return currentAz; }
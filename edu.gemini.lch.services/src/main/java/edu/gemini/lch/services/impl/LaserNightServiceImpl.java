@@ -6,6 +6,7 @@ import edu.gemini.lch.model.*;
 import edu.gemini.lch.pamparser.AzAltTarget;
 import edu.gemini.lch.pamparser.RaDecTarget;
 import edu.gemini.lch.pamparser.Response;
+import edu.gemini.lch.pamparser.ResponseHandler;
 import edu.gemini.lch.pamparser.Target;
 import edu.gemini.lch.services.*;
 import edu.gemini.lch.services.util.PrmFile;
@@ -13,7 +14,6 @@ import edu.gemini.lch.services.util.TemplateEngine;
 import edu.gemini.lch.services.util.WorkDayCalendar;
 import edu.gemini.odb.browser.OdbBrowser;
 import edu.gemini.odb.browser.QueryResult;
-import jsky.plot.SunRiseSet;
 import org.apache.commons.lang.Validate;
 import org.apache.log4j.Logger;
 import org.hibernate.Query;
@@ -24,7 +24,9 @@ import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
 import org.joda.time.Period;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import scala.util.Try;
 
 import javax.annotation.Resource;
@@ -33,6 +35,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implementation of the laser night service using Hibernate to store the data in a database.
@@ -42,9 +49,17 @@ public class LaserNightServiceImpl implements LaserNightService {
 
     private static final Logger LOGGER = Logger.getLogger(LaserNightServiceImpl.class);
 
+    // number of new nights that are inserted into the database before the session is flushed and cleared
+    private static final int CREATE_BATCH_SIZE = 50;
+    // max number of nights that are populated with observations concurrently when creating a laser run
+    private static final int POPULATE_THREADS = 4;
+
     @Resource
     private SessionFactory sessionFactory;
 
+    @Resource
+    private PlatformTransactionManager transactionManager;
+
     @Resource
     private ConfigurationService configurationService;
 
@@ -140,8 +155,8 @@ public class LaserNightServiceImpl implements LaserNightService {
 
         jspocService.connect(siteService.getSite());
         for (final PrmFile.File attachment : attachments) {
-            final EventFile eventFile = new EventFile(EventFile.Type.PRM, attachment.getName(), attachment.getFile());
-            final Try result = jspocService.uploadPRMFile(siteService.getSite(), attachment.getName(), attachment.getFile().getBytes());
+            final EventFile eventFile = new EventFile(EventFile.Type.PRM, attachment.getName(), attachment.getBytes());
+            final Try result = jspocService.uploadPRMFile(siteService.getSite(), attachment.getName(), attachment.getBytes());
             if (result.isSuccess()) {
                 files.add(eventFile);
             } else {
@@ -254,15 +269,92 @@ public class LaserNightServiceImpl implements LaserNightService {
 
     /** {@inheritDoc} */
     @Override
-    @Transactional
     public void createLaserRun(DateTime firstDay, DateTime lastDay) {
+        createLaserRun(firstDay, lastDay, (done, total) -> {});
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void createLaserRun(DateTime firstDay, DateTime lastDay, ProgressListener listener) {
+        final TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+        // create all missing nights in one transaction, this does not take long
+        final List<LaserNight> nights = transaction.execute(status -> createLaserNights(firstDay, lastDay));
+        final List<Long> toPopulate = new ArrayList<>();
+        for (LaserNight night : nights) {
+            if (isPopulatedOnCreation(night)) {
+                toPopulate.add(night.getId());
+            }
+        }
+        final int total = nights.size() + toPopulate.size();
+        final AtomicInteger done = new AtomicInteger(nights.size());
+        listener.progress(done.get(), total);
+        LOGGER.info("created " + nights.size() + " laser nights, populating " + toPopulate.size() + " of them");
+
+        if (toPopulate.isEmpty()) {
+            return;
+        }
+
+        // populate nights in parallel, each one in its own transaction; waiting for the ODB takes most of the time
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(POPULATE_THREADS, toPopulate.size()));
+        try {
+            final List<Future<?>> results = new ArrayList<>();
+            for (final Long id : toPopulate) {
+                results.add(executor.submit(() -> {
+                    try {
+                        transaction.execute(status -> updateLaserNight(loadLaserNight(id)));
+                    } catch (Exception e) {
+                        // the night itself exists, it can be updated manually later
+                        LOGGER.error("could not populate laser night " + id, e);
+                    }
+                    listener.progress(done.incrementAndGet(), total);
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates empty nights for all days in the given range for which there is no night yet.
+     * Existing nights are read with a single query and the new nights are inserted in JDBC batches.
+     * @param firstDay
+     * @param lastDay
+     * @return the new nights
+     */
+    private List<LaserNight> createLaserNights(DateTime firstDay, DateTime lastDay) {
+        final Session session = sessionFactory.getCurrentSession();
+        final TreeSet<Long> existing = new TreeSet<>();
+        for (SimpleLaserNight night : getShortLaserNights(firstDay.withTimeAtStartOfDay(), lastDay.withTimeAtStartOfDay().plusDays(1))) {
+            existing.add(night.getStart().getMillis());
+        }
+
+        final List<LaserNight> nights = new ArrayList<>();
         DateTime day = firstDay;
         while (!day.isAfter(lastDay)) {
-            if (!laserNightExists(day)) {
-                createAndPopulateLaserNight(day);
+            // same check as laserNightExists(): is there a night starting on this day?
+            final DateTime dayStart = day.withTimeAtStartOfDay();
+            final Long start = existing.ceiling(dayStart.getMillis());
+            if (start == null || start >= dayStart.plusDays(1).getMillis()) {
+                final LaserNight night = ModelFactory.createNight(siteService.getSite(), day);
+                night.getEvents().add(new LaserRunEvent("Laser night created."));
+                session.save(night);
+                nights.add(night);
+                if (nights.size() % CREATE_BATCH_SIZE == 0) {
+                    session.flush();
+                    session.clear();
+                }
             }
             day = day.plusDays(1);
         }
+        return nights;
     }
 
     /** {@inheritDoc} */
@@ -280,15 +372,19 @@ public class LaserNightServiceImpl implements LaserNightService {
     @Transactional
     public LaserNight createAndPopulateLaserNight(DateTime day) {
         LaserNight night = createLaserNight(day);
-        // keep time down it takes to create laser runs: don't add observations for nights in the past or in the far future
-        Duration untilStart = new Duration(DateTime.now(),  night.getStart());
-        if (untilStart.getStandardDays() >= 0 && untilStart.getStandardDays() < 5) {
+        if (isPopulatedOnCreation(night)) {
             return updateLaserNight(night);
         } else {
             return night;
         }
     }
 
+    // keep time down it takes to create laser runs: don't add observations for nights in the past or in the far future
+    private boolean isPopulatedOnCreation(LaserNight night) {
+        Duration untilStart = new Duration(DateTime.now(),  night.getStart());
+        return untilStart.getStandardDays() >= 0 && untilStart.getStandardDays() < 5;
+    }
+
     /** {@inheritDoc} */
     @Override
     @Transactional
@@ -320,6 +416,37 @@ public class LaserNightServiceImpl implements LaserNightService {
         }
     }
 
+    /** {@inheritDoc} */
+    @Override
+    @Transactional(readOnly = true)
+    public LaserNight loadLaserNightTargets(Long id) {
+        Query q = sessionFactory.getCurrentSession().
+                getNamedQuery(LaserNight.QUERY_LOAD_TARGETS_BY_ID).
+                setLong("id", id);
+        return (LaserNight) q.uniqueResult();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Transactional(readOnly = true)
+    public LaserNight loadLaserNightTargets(DateTime dateTime) {
+        SimpleLaserNight night = getLaserNight(dateTime);
+        if (night != null) {
+            return loadLaserNightTargets(night.getId());
+        } else {
+            return null;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Transactional(readOnly = true)
+    public String getEventFileContent(Long fileId) {
+        EventFile file = (EventFile) sessionFactory.getCurrentSession().get(EventFile.class, fileId);
+        Validate.notNull(file, "unknown file " + fileId);
+        return file.getContent();
+    }
+
     /** {@inheritDoc} */
     @Override
     @Transactional
@@ -536,89 +663,10 @@ public class LaserNightServiceImpl implements LaserNightService {
     @Override
     @Transactional
     public void addAndReplacePropagationWindows(LaserNight night, Response response) {
-        // sanity checks
-        DateTime missionStart = response.getMissionStart();
-        DateTime missionEnd = response.getMissionEnd();
-        Validate.notNull(response.getSite());
-        Validate.notNull(missionStart);
-        Validate.notNull(missionEnd);
-        Validate.isTrue(missionEnd.isAfter(missionStart));
-
-        // get the candidate targets for this night
-        Collection<AzElLaserTarget> azElCandidates = night.getAzElLaserTargets();
-        Collection<RaDecLaserTarget> raDecCandidates = night.getRaDecLaserTargets();
-
-        // do the actual work
+        PropagationWindowsImporter importer = new PropagationWindowsImporter(night, response);
         for (Target target : response.getTargets()) {
-
-            // find the laser target for the target in the PAM file
-            LaserTarget laserTarget = null;
-            if (response.isAzEl()) {
-                AzAltTarget t = (AzAltTarget) target;
-                laserTarget = findLaserTargetForPamTarget(t, azElCandidates);
-            }
-            if (response.isRaDec()) {
-                RaDecTarget t = (RaDecTarget) target;
-                laserTarget = findLaserTargetForPamTarget(t, raDecCandidates);
-            }
-
-            // check if we did find a corresponding laser target
-            if (laserTarget == null) {
-                // sanity check, we don't expect this to ever happen, check data if this does happen
-                LOGGER.warn(
-                    String.format("there is a problem with the data: could  not find laser target (%.3f %.3f) in laser run", target.getDegrees1(), target.getDegrees2())
-                );
-                continue;
-            }
-            // check if data in report is older than what we already have
-            if (laserTarget.hasWindowsTimestamp() && laserTarget.getWindowsTimestamp().isAfter(response.getReportTime())) {
-                // don't update with older data than what we have, ignore older data
-                LOGGER.warn(
-                    String.format("timestamp of report is older than propagation windows already imported for (%.3f %.3f), windows are ignored", laserTarget.getDegrees1(), laserTarget.getDegrees2())
-                );
-                continue;
-            }
-
-            // all seems to be ok, update data by replacing old with new windows
-            List<PropagationWindow> windows = response.getWindowsForTarget(target);
-            laserTarget.setWindowsTimestamp(response.getReportTime());
-            laserTarget.getPropagationWindows().clear();
-            laserTarget.getPropagationWindows().addAll(windows);
-            Validate.isTrue(laserTarget.windowsAreDisjoint()); // we trust LCH to do this right, but just to be sure
-            sessionFactory.getCurrentSession().saveOrUpdate(laserTarget);
-        }
-    }
-
-    /**
-     * Finds the laser target that corresponds to the given target from the pam file.
-     * @param pamTarget
-     * @param candidates
-     * @return
-     */
-    private LaserTarget findLaserTargetForPamTarget(Target pamTarget, Collection<? extends LaserTarget> candidates) {
-        for (LaserTarget laserTarget : candidates) {
-            if (hasSameCoordinates(pamTarget, laserTarget)) {
-                return laserTarget;
-            }
+            importer.replaceWindows(target, response.getWindowsForTarget(target));
         }
-        return null;
-    }
-
-    /**
-     * Checks if the coordinates of a target from the PAM files matches the ones of a laser target.
-     * We get 3 decimal digits in the PAM files, so we have to allow for quite a bit of error when comparing.
-     * @param pamTarget
-     * @param laserTarget
-     * @return
-     */
-    private boolean hasSameCoordinates(Target pamTarget, LaserTarget laserTarget) {
-        if (Math.abs(pamTarget.getDegrees1() - laserTarget.getDegrees1()) > 0.001) {
-            return false;
-        }
-        if (Math.abs(pamTarget.getDegrees2() - laserTarget.getDegrees2()) > 0.001) {
-            return false;
-        }
-        return true;
     }
 
     /** {@inheritDoc} */
@@ -693,12 +741,12 @@ public class LaserNightServiceImpl implements LaserNightService {
         }
         // for "real" nights we only allow propagation between the configurable twilight limits
         Selection.Twilight twilight = (Selection.Twilight) configurationService.getSelection(Configuration.Value.VISIBILITY_TWILIGHT);
-        SunRiseSet sunCalculator = ModelFactory.createSunCalculator(night);
+        Twilight times = ModelFactory.getTwilight(night);
         switch (twilight) {
-            case SUNRISE:       return new DateTime(sunCalculator.getSunset());
-            case CIVIL:         return new DateTime(sunCalculator.getCivilTwilightStart());
-            case NAUTICAL:      return new DateTime(sunCalculator.getNauticalTwilightStart());
-            case ASTRONOMICAL:  return new DateTime(sunCalculator.getAstronomicalTwilightStart());
+            case SUNRISE:       return times.getSunset();
+            case CIVIL:         return times.getCivilTwilightStart();
+            case NAUTICAL:      return times.getNauticalTwilightStart();
+            case ASTRONOMICAL:  return times.getAstronomicalTwilightStart();
             default:            throw new RuntimeException("invalid twilight value");
         }
     }
@@ -713,12 +761,12 @@ public class LaserNightServiceImpl implements LaserNightService {
         }
         // for "real" nights we only allow propagation between the configurable twilight limits
         Selection.Twilight twilight = (Selection.Twilight) configurationService.getSelection(Configuration.Value.VISIBILITY_TWILIGHT);
-        SunRiseSet sunCalculator = ModelFactory.createSunCalculator(night);
+        Twilight times = ModelFactory.getTwilight(night);
         switch (twilight) {
-            case SUNRISE:       return new DateTime(sunCalculator.getSunrise());
-            case CIVIL:         return new DateTime(sunCalculator.getCivilTwilightEnd());
-            case NAUTICAL:      return new DateTime(sunCalculator.getNauticalTwilightEnd());
-            case ASTRONOMICAL:  return new DateTime(sunCalculator.getAstronomicalTwilightEnd());
+            case SUNRISE:       return times.getSunrise();
+            case CIVIL:         return times.getCivilTwilightEnd();
+            case NAUTICAL:      return times.getNauticalTwilightEnd();
+            case ASTRONOMICAL:  return times.getAstronomicalTwilightEnd();
             default:            throw new RuntimeException("invalid twilight value");
         }
     }
@@ -731,18 +779,13 @@ public class LaserNightServiceImpl implements LaserNightService {
 
         try {
 
+            // parse the file in streaming mode and replace the windows target by target as they are parsed
+            // instead of keeping all targets and windows of the file in memory
             InputStream is = new ByteArrayInputStream(pamFile.content());
-            Response response = Response.parseResponse(is);
-            validateResponse(response);
-
-            LaserNight night = loadLaserNight(response.getMissionStart());
-            if (night == null) {
-                // if there is no laser night: error
-                throw new RuntimeException("No laser night defined in LTTS for " + response.getMissionStart().toDateTime(DateTimeZone.UTC).toString("EEEE, MMM dd, yyyy (D) z") + ".");
-            }
+            PamFileHandler handler = new PamFileHandler();
+            Response.parseResponse(is, handler);
 
-            // if there is a laser night continue processing the response
-            addAndReplacePropagationWindows(night, response);
+            LaserNight night = handler.night;
             night.setLatestPamReceived(DateTime.now());
             saveOrUpdate(night);
 
@@ -757,6 +800,95 @@ public class LaserNightServiceImpl implements LaserNightService {
         }
     }
 
+    /**
+     * Handler for the streaming PAM file parser.
+     * Validates the header, loads the laser night the PAM file belongs to and then replaces the
+     * propagation windows of the laser targets one by one while the targets are parsed.
+     */
+    private class PamFileHandler implements ResponseHandler {
+        private LaserNight night;
+        private PropagationWindowsImporter importer;
+
+        @Override
+        public void header(Response header) {
+            validateResponse(header);
+
+            night = loadLaserNight(header.getMissionStart());
+            if (night == null) {
+                // if there is no laser night: error
+                throw new RuntimeException("No laser night defined in LTTS for " + header.getMissionStart().toDateTime(DateTimeZone.UTC).toString("EEEE, MMM dd, yyyy (D) z") + ".");
+            }
+
+            // if there is a laser night continue processing the response
+            importer = new PropagationWindowsImporter(night, header);
+        }
+
+        @Override
+        public void target(Target target, List<PropagationWindow> windows) {
+            importer.replaceWindows(target, windows);
+        }
+    }
+
+    /**
+     * Replaces the propagation windows of the laser targets of a night with the ones from a PAM file.
+     */
+    private class PropagationWindowsImporter {
+        private final DateTime reportTime;
+        private final PamTargetMatcher<AzElLaserTarget> azElCandidates;
+        private final PamTargetMatcher<RaDecLaserTarget> raDecCandidates;
+
+        PropagationWindowsImporter(LaserNight night, Response header) {
+            // sanity checks
+            DateTime missionStart = header.getMissionStart();
+            DateTime missionEnd = header.getMissionEnd();
+            Validate.notNull(header.getSite());
+            Validate.notNull(missionStart);
+            Validate.notNull(missionEnd);
+            Validate.isTrue(missionEnd.isAfter(missionStart));
+
+            // get the candidate targets for this night and index them by their coordinates
+            this.reportTime = header.getReportTime();
+            this.azElCandidates = new PamTargetMatcher<>(night.getAzElLaserTargets());
+            this.raDecCandidates = new PamTargetMatcher<>(night.getRaDecLaserTargets());
+        }
+
+        void replaceWindows(Target target, List<PropagationWindow> windows) {
+
+            // find the laser target for the target in the PAM file
+            LaserTarget laserTarget = null;
+            if (target instanceof AzAltTarget) {
+                laserTarget = azElCandidates.find(target);
+            }
+            if (target instanceof RaDecTarget) {
+                laserTarget = raDecCandidates.find(target);
+            }
+
+            // check if we did find a corresponding laser target
+            if (laserTarget == null) {
+                // sanity check, we don't expect this to ever happen, check data if this does happen
+                LOGGER.warn(
+                    String.format("there is a problem with the data: could  not find laser target (%.3f %.3f) in laser run", target.getDegrees1(), target.getDegrees2())
+                );
+                return;
+            }
+            // check if data in report is older than what we already have
+            if (laserTarget.hasWindowsTimestamp() && laserTarget.getWindowsTimestamp().isAfter(reportTime)) {
+                // don't update with older data than what we have, ignore older data
+                LOGGER.warn(
+                    String.format("timestamp of report is older than propagation windows already imported for (%.3f %.3f), windows are ignored", laserTarget.getDegrees1(), laserTarget.getDegrees2())
+                );
+                return;
+            }
+
+            // all seems to be ok, update data by replacing old with new windows
+            laserTarget.setWindowsTimestamp(reportTime);
+            laserTarget.getPropagationWindows().clear();
+            laserTarget.getPropagationWindows().addAll(windows);
+            Validate.isTrue(laserTarget.windowsAreDisjoint()); // we trust LCH to do this right, but just to be sure
+            sessionFactory.getCurrentSession().saveOrUpdate(laserTarget);
+        }
+    }
+
     private void validateResponse(Response response) {
         // NOTE: the mission id in the PAM file looks like this: Gemini North_589nm_14W_.65urad_100kHz_11148104428_P
 
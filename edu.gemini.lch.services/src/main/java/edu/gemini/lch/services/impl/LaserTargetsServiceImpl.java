@@ -6,6 +6,7 @@ import edu.gemini.lch.services.ConfigurationService;
 import edu.gemini.lch.services.LaserNightService;
 import edu.gemini.lch.services.LaserTargetsService;
 import edu.gemini.lch.services.timeline.TimeLineImage;
+import edu.gemini.lch.services.timeline.TimeLineImageCache;
 import edu.gemini.lch.services.timeline.TimeLineHeader;
 import org.hibernate.Query;
 import org.hibernate.SessionFactory;
@@ -23,6 +24,9 @@ import java.util.List;
 @Service
 public class LaserTargetsServiceImpl implements LaserTargetsService {
 
+    // maximal memory used for cached time line images
+    private static final long IMAGE_CACHE_SIZE = 64L * 1024 * 1024;
+
     @Resource(name = "sessionFactory")
     private SessionFactory sessionFactory;
 
@@ -32,6 +36,8 @@ public class LaserTargetsServiceImpl implements LaserTargetsService {
     @Resource
     private ConfigurationService configurationService;
 
+    private final TimeLineImageCache imageCache = new TimeLineImageCache(IMAGE_CACHE_SIZE);
+
     @Override
     @Transactional(readOnly = true)
     public LaserTarget findById(Long targetId) {
@@ -144,7 +150,7 @@ public class LaserTargetsServiceImpl implements LaserTargetsService {
                         withText(zone, 13).
                         withBuffers(before, after).
                         withElevationLine();
-        return image.bytes();
+        return imageCache.bytes(image);
     }
 
     @Override
@@ -160,7 +166,7 @@ public class LaserTargetsServiceImpl implements LaserTargetsService {
                         withText(zone, 13).
                         withBuffers(before, after).
                         withElevationLine();
-        return image.bytes();
+        return imageCache.bytes(image);
     }
 
 
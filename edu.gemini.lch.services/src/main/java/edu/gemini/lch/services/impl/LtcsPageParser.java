@@ -0,0 +1,271 @@
+package edu.gemini.lch.services.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A minimal parser for the tables on the HTML pages of the LTCS web application.
+ * The pages are far from being valid HTML or XML, instead of patching them up until an XML parser accepts them
+ * this parser scans the page once and only picks up the tables, rows and cells and the text inside of cells.
+ * All other tags as well as comments, scripts and styles are skipped. Text from tags inside of cells
+ * (e.g. &lt;b&gt; or &lt;br&gt;) is simply concatenated, the most common entities are replaced.
+ */
+final class LtcsPageParser {
+
+    /** A table with its rows. */
+    static final class Table {
+        private final List<Row> rows = new ArrayList<>();
+        private Row openRow;
+        List<Row> getRows() { return rows; }
+    }
+
+    /** A table row with its cells. */
+    static final class Row {
+        private final List<Cell> cells = new ArrayList<>();
+        private Cell openCell;
+        List<Cell> getCells() { return cells; }
+    }
+
+    /** A table cell with its text and any tables nested inside of it. */
+    static final class Cell {
+        private final StringBuilder text = new StringBuilder();
+        private final List<Table> tables = new ArrayList<>();
+        String getText() { return text.toString().trim(); }
+        List<Table> getTables() { return tables; }
+    }
+
+    private final CharSequence page;
+    private final Deque<Table> open;
+    private final List<Table> tables;
+    private int pos;
+
+    private LtcsPageParser(CharSequence page) {
+        this.page = page;
+        this.open = new ArrayDeque<>();
+        this.tables = new ArrayList<>();
+        this.pos = 0;
+    }
+
+    /**
+     * Parses the given page.
+     * @param page
+     * @return all tables that are not nested inside of other tables in document order
+     */
+    static List<Table> parse(CharSequence page) {
+        LtcsPageParser parser = new LtcsPageParser(page);
+        parser.parse();
+        return parser.tables;
+    }
+
+    /**
+     * Gets the given tables and all tables nested inside of them in document order.
+     * @param tables
+     * @return
+     */
+    static List<Table> allTables(List<Table> tables) {
+        List<Table> all = new ArrayList<>();
+        for (Table t : tables) {
+            all.add(t);
+            for (Row r : t.rows) {
+                for (Cell c : r.cells) {
+                    all.addAll(allTables(c.tables));
+                }
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Gets the rows of the given table and the rows of all tables nested inside of it in document order.
+     * @param table
+     * @return
+     */
+    static List<Row> allRows(Table table) {
+        List<Row> all = new ArrayList<>();
+        for (Row r : table.rows) {
+            all.add(r);
+            for (Cell c : r.cells) {
+                for (Table t : c.tables) {
+                    all.addAll(allRows(t));
+                }
+            }
+        }
+        return all;
+    }
+
+    private void parse() {
+        final int length = page.length();
+        while (pos < length) {
+            char c = page.charAt(pos);
+            if (c == '<') {
+                tag();
+            } else if (c == '&') {
+                entity();
+            } else {
+                text(c);
+                pos++;
+            }
+        }
+    }
+
+    private void tag() {
+        if (startsWith(pos, "<!--")) {
+            pos = skipPast(pos + 4, "-->");
+            return;
+        }
+        boolean closing = pos + 1 < page.length() && page.charAt(pos + 1) == '/';
+        int nameStart = closing ? pos + 2 : pos + 1;
+        int nameEnd = nameStart;
+        while (nameEnd < page.length() && Character.isLetterOrDigit(page.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        if (nameEnd == nameStart) {
+            // not a tag, just a lonely '<'
+            text('<');
+            pos++;
+            return;
+        }
+        pos = skipPast(nameEnd, ">");
+
+        if (!closing && (nameEquals(nameStart, nameEnd, "script") || nameEquals(nameStart, nameEnd, "style"))) {
+            // skip everything up to the end tag
+            pos = skipPastEndTag(pos, page.subSequence(nameStart, nameEnd).toString().toLowerCase());
+        } else if (nameEquals(nameStart, nameEnd, "table")) {
+            if (closing) closeTable(); else openTable();
+        } else if (nameEquals(nameStart, nameEnd, "tr")) {
+            if (closing) closeRow(); else openRow();
+        } else if (nameEquals(nameStart, nameEnd, "td") || nameEquals(nameStart, nameEnd, "th")) {
+            if (closing) closeCell(); else openCell();
+        }
+    }
+
+    private void openTable() {
+        Table table = new Table();
+        Cell cell = innermostCell();
+        if (cell != null) {
+            cell.tables.add(table);
+        } else if (open.isEmpty()) {
+            tables.add(table);
+        }
+        open.push(table);
+    }
+
+    private void closeTable() {
+        if (!open.isEmpty()) {
+            open.pop();
+        }
+    }
+
+    private void openRow() {
+        Table table = open.peek();
+        if (table != null) {
+            table.openRow = new Row();
+            table.rows.add(table.openRow);
+        }
+    }
+
+    private void closeRow() {
+        Table table = open.peek();
+        if (table != null) {
+            table.openRow = null;
+        }
+    }
+
+    private void openCell() {
+        Table table = open.peek();
+        if (table != null && table.openRow != null) {
+            table.openRow.openCell = new Cell();
+            table.openRow.cells.add(table.openRow.openCell);
+        }
+    }
+
+    private void closeCell() {
+        Table table = open.peek();
+        if (table != null && table.openRow != null) {
+            table.openRow.openCell = null;
+        }
+    }
+
+    // the innermost open cell, if any
+    private Cell innermostCell() {
+        Table table = open.peek();
+        return table != null && table.openRow != null ? table.openRow.openCell : null;
+    }
+
+    private void text(char c) {
+        Cell cell = innermostCell();
+        if (cell != null) {
+            cell.text.append(c);
+        }
+    }
+
+    private void entity() {
+        int end = pos + 1;
+        while (end < page.length() && end - pos < 8 && Character.isLetterOrDigit(page.charAt(end))) {
+            end++;
+        }
+        char replacement = 0;
+        if (end < page.length() && page.charAt(end) == ';') {
+            if (nameEquals(pos + 1, end, "amp"))       replacement = '&';
+            else if (nameEquals(pos + 1, end, "lt"))   replacement = '<';
+            else if (nameEquals(pos + 1, end, "gt"))   replacement = '>';
+            else if (nameEquals(pos + 1, end, "quot")) replacement = '"';
+            else if (nameEquals(pos + 1, end, "nbsp")) replacement = ' ';
+        }
+        if (replacement != 0) {
+            text(replacement);
+            pos = end + 1;
+        } else {
+            text('&');
+            pos++;
+        }
+    }
+
+    private boolean nameEquals(int start, int end, String name) {
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toLowerCase(page.charAt(start + i)) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWith(int start, String text) {
+        if (start + text.length() > page.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (page.charAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // index after the end tag with the given name or the end of the page
+    private int skipPastEndTag(int start, String name) {
+        int i = start;
+        while ((i = skipPast(i, "</")) < page.length()) {
+            if (nameEquals(i, Math.min(i + name.length(), page.length()), name)) {
+                return skipPast(i, ">");
+            }
+        }
+        return page.length();
+    }
+
+    // index after the next occurrence of the given text or the end of the page
+    private int skipPast(int start, String text) {
+        for (int i = start; i < page.length(); i++) {
+            if (startsWith(i, text)) {
+                return i + text.length();
+            }
+        }
+        return page.length();
+    }
+
+}
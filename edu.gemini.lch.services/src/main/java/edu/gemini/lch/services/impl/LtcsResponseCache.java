@@ -0,0 +1,66 @@
+package edu.gemini.lch.services.impl;
+
+import edu.gemini.lch.services.LtcsService;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Remembers the last response(s) received from LTCS together with the snapshot that was created from them.
+ * LTCS replies with the same content most of the time, in that case there is no need to parse the response
+ * again and the previous snapshot can be reused. Responses are compared by a hash of their content first
+ * and only compared character by character if the hashes are equal.
+ * Since LTCS only sends local times without a date the result of parsing depends on the current time,
+ * therefore a snapshot is only reused until the first of its collisions has ended.
+ */
+final class LtcsResponseCache<T> {
+
+    private String[] content;
+    private int hash;
+    private long validUntil;
+    private T snapshot;
+
+    /**
+     * Gets the snapshot for the given content.
+     * @param now the current time in milliseconds
+     * @param content
+     * @return the snapshot that was created for exactly the same content or null
+     */
+    synchronized T get(long now, String... content) {
+        if (this.content == null || now > validUntil) {
+            return null;
+        }
+        if (Arrays.hashCode(content) != hash || !Arrays.equals(content, this.content)) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Stores the snapshot created for the given content.
+     * @param snapshot
+     * @param validUntil time in milliseconds until which the snapshot can be reused
+     * @param content
+     */
+    synchronized void put(T snapshot, long validUntil, String... content) {
+        this.content = content;
+        this.hash = Arrays.hashCode(content);
+        this.validUntil = validUntil;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Gets the time until which a snapshot with the given collisions can be reused, this is the end of
+     * the collision that ends first.
+     * @param collisions
+     * @return
+     */
+    static long validUntil(Collection<LtcsService.Collision> collisions) {
+        long validUntil = Long.MAX_VALUE;
+        for (LtcsService.Collision c : collisions) {
+            validUntil = Math.min(validUntil, c.getEnd().getMillis());
+        }
+        return validUntil;
+    }
+
+}
@@ -2,11 +2,10 @@ package edu.gemini.lch.services.impl
 
 import edu.gemini.lch.services.{ConfigurationService, LtcsService}
 import org.joda.time.DateTime
-import org.apache.http.impl.client.{BasicResponseHandler, DefaultHttpClient}
+import org.apache.http.impl.client.BasicResponseHandler
 import org.apache.http.client.methods.HttpGet
 import org.springframework.stereotype.Service
 import javax.annotation.{PostConstruct, Resource, PreDestroy}
-import scala.xml.{NodeSeq, XML}
 import org.joda.time.format.DateTimeFormat
 import org.springframework.scheduling.annotation.Scheduled
 import org.apache.log4j.Logger
@@ -14,6 +13,7 @@ import org.apache.log4j.Logger
 import scala.collection.JavaConversions._
 import edu.gemini.lch.services.LtcsService.Collision
 import java.io.IOException
+import java.util.concurrent.TimeUnit
 import edu.gemini.lch.configuration.Configuration
 
 /**
@@ -32,8 +32,14 @@ class LtcsServiceAlternativeImpl extends LtcsService {
   @Resource private var configurationService: ConfigurationService = null
 
   private val timeFormatter = DateTimeFormat.forPattern("HH:mm:ss MMM dd yyyy 'HST'")
-  private val httpClient = new DefaultHttpClient
+  private val connectionManager = LtcsServiceImpl.createConnectionManager
+  private val httpClient = LtcsServiceImpl.createHttpClient(connectionManager, LtcsServiceImpl.CONNECT_TIMEOUT, LtcsServiceImpl.READ_TIMEOUT)
   private val httpHandler = new BasicResponseHandler
+  private val pageCache = new LtcsResponseCache[LtcsService.Snapshot]
+
+  // number of failed updates in a row and number of scheduled updates skipped since the last failure
+  private var failures = 0
+  private var skipped = 0
 
   private var currentStatus: LtcsService.Snapshot = new SnapshotImpl {
     val getMessage = "Not yet connected."
@@ -46,7 +52,8 @@ class LtcsServiceAlternativeImpl extends LtcsService {
    * Called by Spring when shutting down the application.
    */
   @PreDestroy private def destroy {
-    httpClient.getConnectionManager.shutdown
+    httpClient.close
+    connectionManager.shutdown
   }
 
   /**
@@ -57,9 +64,23 @@ class LtcsServiceAlternativeImpl extends LtcsService {
 
   /**
    * Updates the snapshot in regular intervals.
+   * While LTCS is not available updates are skipped with an exponential backoff (10s, 20s, 40s, 60s).
    */
   @Scheduled(fixedDelay = 10000)
   def update {
+    if (skipped < skipsAfter(failures)) {
+      skipped += 1
+    } else {
+      skipped = 0
+      doUpdate
+      failures = if (currentStatus.isConnected) 0 else failures + 1
+    }
+  }
+
+  private def skipsAfter(failures: Int): Int =
+    if (failures == 0) 0 else math.min((1 << math.min(failures - 1, 3)) - 1, 5)
+
+  private def doUpdate {
     logger.debug("updating ltcs snapshot")
     try {
       val ltcsHost = configurationService getString Configuration.Value.LTCS_URL
@@ -77,15 +98,27 @@ class LtcsServiceAlternativeImpl extends LtcsService {
 
         val detailsGet = new HttpGet(ltcsHost + "/ltcs/screens/predict_detail.php?laser=GEMINI")
         val detailsPage = httpClient.execute(detailsGet, httpHandler)
-        val allCollisionsSorted: Seq[Collision] =
-          (collisions(summaryPage) ++ predictions(detailsPage) ++ previews(summaryPage)) sortBy (_.getStart.getMillis)
 
-        allCollisionsSorted.map(c => logger.info("-->" + c.getObservatory + " " + c.getStart))
+        // the pages show the time of the last update before the tables, only compare the tables
+        val summaryTables = fromFirstTable(summaryPage)
+        val detailsTables = fromFirstTable(detailsPage)
+        val cached = pageCache.get(System.currentTimeMillis, summaryTables, detailsTables)
+        if (cached != null) {
+          logger.debug("ltcs pages unchanged, reusing previous snapshot")
+          currentStatus = cached
 
-        currentStatus = new SnapshotImpl {
-          val getMessage = "LTCS up and running."
-          val getCollisions = new java.util.ArrayList[LtcsService.Collision](allCollisionsSorted)
-          val getError = LtcsService.Error.NONE
+        } else {
+          val allCollisionsSorted: Seq[Collision] =
+            (collisions(summaryPage) ++ predictions(detailsPage) ++ previews(summaryPage)) sortBy (_.getStart.getMillis)
+
+          allCollisionsSorted.map(c => logger.info("-->" + c.getObservatory + " " + c.getStart))
+
+          currentStatus = new SnapshotImpl {
+            val getMessage = "LTCS up and running."
+            val getCollisions = new java.util.ArrayList[LtcsService.Collision](allCollisionsSorted)
+            val getError = LtcsService.Error.NONE
+          }
+          pageCache.put(currentStatus, LtcsResponseCache.validUntil(currentStatus.getCollisions), summaryTables, detailsTables)
         }
 
       }
@@ -94,6 +127,7 @@ class LtcsServiceAlternativeImpl extends LtcsService {
 
       case e: IOException => {
           logger.error("Could not connect to LTCS", e)
+          connectionManager.closeIdleConnections(0, TimeUnit.MILLISECONDS)
           currentStatus = new SnapshotImpl {
             val getMessage = "Error connecting to LTCS: " + e.getMessage
             val getCollisions = new java.util.ArrayList[LtcsService.Collision]()
@@ -112,54 +146,57 @@ class LtcsServiceAlternativeImpl extends LtcsService {
     }
   }
 
+  private def fromFirstTable(page: String): String = {
+    val i = page indexOf "<table"
+    if (i < 0) page else page substring i
+  }
+
   /**
    * Parses the HTML details page by scraping all predicted collisions from the page.
    * @return
    */
-  def predictions(page: String): Seq[LtcsService.Collision] = {
-    val xml = XML loadString fixPage(page)
-    val tables = xml \\ "html" \\ "body" \\ "table"
-    tables map parsePredictionTable
-  }
+  def predictions(page: String): Seq[LtcsService.Collision] =
+    LtcsPageParser.allTables(LtcsPageParser.parse(page)) map parsePredictionTable
 
   /**
    * Parses the HTML summary page and scrapes all collisions from the page.
    * @return
    */
-  def collisions(page: String): Seq[LtcsService.Collision] = {
-    val fixedPage = fixPage(page)
-    val xml = XML loadString fixedPage
-    val mainTable = xml \\ "html" \\ "body" \\ "table"
-    val collisionsTable = (mainTable \ "tr") (3) \\ "td" \\ "table"
-    parseSummaryTable(collisionsTable)
-  }
+  def collisions(page: String): Seq[LtcsService.Collision] =
+    parseSummaryTable(summaryTables(page, 3))
 
   /**
    * Parses the HTML summary page and scrapes all previews from the page.
    * @return
    */
-  def previews(page: String): Seq[LtcsService.Collision] = {
-    val fixedPage = fixPage(page)
-    val xml = XML loadString fixedPage
-    val mainTable = xml \\ "html" \\ "body" \\ "table"
-    val predictionsTable = (mainTable \ "tr") (5) \\ "td" \\ "table"
-    parseSummaryTable(predictionsTable)
+  def previews(page: String): Seq[LtcsService.Collision] =
+    parseSummaryTable(summaryTables(page, 5))
+
+  /**
+   * Gets the tables inside of the given row of the main table of the summary page.
+   * @param page
+   * @param row
+   * @return
+   */
+  private def summaryTables(page: String, row: Int): Seq[LtcsPageParser.Table] = {
+    val mainTableRows = LtcsPageParser.allTables(LtcsPageParser.parse(page)) flatMap (_.getRows)
+    mainTableRows(row).getCells flatMap (c => LtcsPageParser.allTables(c.getTables))
   }
 
   /**
    * Translate summary page table into collisions.
-   * @param table
+   * @param tables
    * @return
    */
-  private def parseSummaryTable(table: NodeSeq): Seq[LtcsService.Collision] = {
+  private def parseSummaryTable(tables: Seq[LtcsPageParser.Table]): Seq[LtcsService.Collision] = {
     // take all rows, drop first one (header line) and get rid of collisions that don't involve Gemini as the lasing telescope
-    val rows = table \\ "tr" drop 1 filter (n => (n\\"td")(0).text.contains("GEMINI"))
+    val rows = tables flatMap (t => LtcsPageParser.allRows(t)) drop 1 filter (r => r.getCells.get(0).getText.contains("GEMINI"))
     // Recycling the parse functionality from the original service since the collision tables contain
     // exactly the same information as the web service returns.
     LtcsServiceImpl parseCollisions(
       (rows map (row => {
-        row \\ "td" map (col => {                 // take all cols of each row
-          col.text.trim                           // take trimmed text of all columns
+        row.getCells map (col => {                // take all cols of each row
+          col.getText                             // take trimmed text of all columns
         }) mkString " "                           // combine values of columns to one string
       })) mkString " ",                           // combine all rows to one string
       DateTime.now()
@@ -171,8 +208,8 @@ class LtcsServiceAlternativeImpl extends LtcsService {
    * @param table
    * @return
    */
-  private def parsePredictionTable(table: NodeSeq): LtcsService.Collision = {
-    val valuesMap = namedValues((table \\ "tr"))
+  private def parsePredictionTable(table: LtcsPageParser.Table): LtcsService.Collision = {
+    val valuesMap = namedValues(LtcsPageParser.allRows(table))
     collisionFromNamedValues(valuesMap)
   }
 
@@ -182,10 +219,10 @@ class LtcsServiceAlternativeImpl extends LtcsService {
    * @param rows
    * @return
    */
-  private def namedValues(rows: NodeSeq): Map[String, String] =
+  private def namedValues(rows: Seq[LtcsPageParser.Row]): Map[String, String] =
     rows map (r => {
-      val cols = r \\ "td"
-      (cols(0).text.trim, (cols(1).text.trim))
+      val cols = r.getCells
+      (cols(0).getText, cols(1).getText)
     }) toMap
 
   /**
@@ -201,33 +238,6 @@ class LtcsServiceAlternativeImpl extends LtcsService {
       val getPriority     = if (values("Laser Has Priority") equalsIgnoreCase "NO") getObservatory else "GEMINI"   // IS THIS RIGHT???
     }
 
-    /**
-     * Fixes broken html from LTCS server so that SAX parser accepts it.
-     */
-  private def fixPage(page: String) = {
-      val meta = "<(meta|META) .*>".r             // meta tags without end tag
-      val input = "<input .*>".r                  // input tags without end tag
-      val script = "<script>.*</script>".r        // any script code
-      val bgcolor = "bgcolor=#*[0-9A-Fa-f]{6}".r  // bgcolor attributes without value in double quotes
-      val page2 = meta.replaceAllIn(page, "")
-      val page3 = input.replaceAllIn(page2, "")
-      val page4 = script.replaceAllIn(page3, "")
-      val page5 = bgcolor.replaceAllIn(page4, "")
-      page5.
-        replace("\\\"", "\"").
-        replace(" & ", " &amp; ").
-        replace("<br>", "").
-        replace("</br>", "").
-        replace("<b>", "").
-        replace("</b>", "").
-        replace("<i>", "").
-        replace("</i>", "").
-        replace("<hr>", "").
-        replace("</hr>", "").
-        replace("<tbody>", "").
-        replace("</tbody>", "")
-    }
-
   /**
    * Implementation class for LtcsService.Snapshot interface.
    */
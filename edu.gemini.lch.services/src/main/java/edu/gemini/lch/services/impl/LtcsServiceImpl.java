@@ -5,31 +5,36 @@ import edu.gemini.lch.services.ConfigurationService;
 import edu.gemini.lch.services.EpicsService;
 import edu.gemini.lch.services.LtcsService;
 import edu.gemini.lch.services.SiteService;
+import jsky.coords.WorldCoords;
 import org.apache.commons.lang.Validate;
 import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import java.net.ConnectException;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service for accessing the LTCS web application to get information about imminent collisions with the
@@ -37,6 +42,10 @@ import java.util.StringTokenizer;
  * In order to keep the load to a minimum the service updates the current collisions every few seconds and
  * stores the current state. Clients accessing the status will not cause calls to the LTCS server every time
  * but will get the most recent state.
+ * The LTCS server is queried on a dedicated thread using a pooled HTTP client with connect and read timeouts,
+ * a slow or unreachable LTCS server will therefore never block any of the other scheduled tasks. The polling
+ * interval adapts to the situation: LTCS is queried again immediately when the demand coordinates or the laser
+ * state change, less often while nothing moves and with an exponentially growing delay while LTCS is down.
  */
 @Service
 public class LtcsServiceImpl implements LtcsService {
@@ -44,7 +53,7 @@ public class LtcsServiceImpl implements LtcsService {
     private static final Logger LOGGER = Logger.getLogger(LtcsServiceImpl.class);
 
     // LTCS service gives us a time stamp in local time for the next 24hrs
-    private static final DateTimeFormatter timeFormatter = DateTimeFormat.forPattern("HH:mm:ss");
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
 
     private static final String PROCESSES_DOWN = "PROCESSES DOWN";
     private static final String BAD_REQUEST = "WRONG INPUT";
@@ -54,6 +63,13 @@ public class LtcsServiceImpl implements LtcsService {
     private static final String ERROR_LTCS_PROCESSES_DOWN = "LTCS processes are down.";
     private static final String ERROR_WRONG_INPUT = "Request is invalid.";
 
+    // polling intervals and timeouts for LTCS queries in milliseconds
+    static final long MIN_DELAY = 2000;
+    static final long IDLE_DELAY = 10000;
+    static final long MAX_DELAY = 60000;
+    static final int CONNECT_TIMEOUT = 2000;
+    static final int READ_TIMEOUT = 5000;
+
     @Resource
     private SiteService siteService;
 
@@ -63,40 +79,190 @@ public class LtcsServiceImpl implements LtcsService {
     @Resource
     private ConfigurationService configurationService;
 
-    private DefaultHttpClient httpClient;
-    private Snapshot currentStatus;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final ScheduledExecutorService poller;
+    private ScheduledFuture<?> nextQuery;
+    private volatile Query lastQuery;
+    private final LtcsResponseCache<LtcsService.Snapshot> responseCache;
+    private volatile LtcsService.Snapshot currentStatus;
+    private long delay;
+
+    public LtcsServiceImpl() {
+        this(CONNECT_TIMEOUT, READ_TIMEOUT);
+    }
 
-    @PostConstruct
-    private void init() {
+    LtcsServiceImpl(int connectTimeout, int readTimeout) {
         // create a http client which will recycle open connections
-        httpClient = new DefaultHttpClient();
+        connectionManager = createConnectionManager();
+        httpClient = createHttpClient(connectionManager, connectTimeout, readTimeout);
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ltcs-client");
+            t.setDaemon(true);
+            return t;
+        });
+        responseCache = new LtcsResponseCache<>();
         currentStatus = new Snapshot(Collections.EMPTY_LIST);
+        delay = MIN_DELAY;
+    }
+
+    @PostConstruct
+    private void init() {
+        epicsService.addSnapshotListener(this::onEpicsSnapshot);
+        scheduleQuery(0);
     }
 
     @PreDestroy
     private void destroy() {
-        // destroy the connection manager
-        httpClient.getConnectionManager().shutdown();
+        // stop polling and destroy the connection manager
+        poller.shutdownNow();
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            LOGGER.warn("could not close http client", e);
+        }
+        connectionManager.shutdown();
+    }
+
+    /**
+     * Creates a connection manager which keeps a small pool of open connections to the LTCS server.
+     * @return
+     */
+    static PoolingHttpClientConnectionManager createConnectionManager() {
+        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+        cm.setMaxTotal(4);
+        cm.setDefaultMaxPerRoute(2);
+        return cm;
+    }
+
+    /**
+     * Creates a http client that uses the given connection manager and gives up on unresponsive servers.
+     * @param connectionManager
+     * @param connectTimeout timeout for establishing a connection in milliseconds
+     * @param readTimeout timeout for waiting for data in milliseconds
+     * @return
+     */
+    static CloseableHttpClient createHttpClient(PoolingHttpClientConnectionManager connectionManager, int connectTimeout, int readTimeout) {
+        RequestConfig config = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .build();
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(config)
+                .build();
     }
 
     @Override
-    public Snapshot getSnapshot() {
+    public LtcsService.Snapshot getSnapshot() {
         return currentStatus;
     }
 
     /**
-     * Updates LTCS status every few seconds asynchronously.
+     * Schedules the next LTCS query, a query that is already scheduled is replaced.
+     * @param delayMillis
+     */
+    private synchronized void scheduleQuery(long delayMillis) {
+        if (poller.isShutdown()) {
+            return;
+        }
+        if (nextQuery != null) {
+            nextQuery.cancel(false);
+        }
+        nextQuery = poller.schedule(this::query, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queries LTCS and schedules the next query.
+     * Runs on the LTCS client thread.
+     */
+    private void query() {
+        long next = MIN_DELAY;
+        try {
+            next = poll();
+            // query again right away if EPICS values changed while the query was running
+            if (currentStatus.isConnected() && !isUpToDate(epicsService.getDemandRaDec(), epicsService.isOnSky())) {
+                next = 0;
+            }
+        } catch (Exception e) {
+            LOGGER.error("LTCS query failed", e);
+        } finally {
+            scheduleQuery(next);
+        }
+    }
+
+    /**
+     * Updates the LTCS status and calculates the delay until the next query.
+     * @return delay in milliseconds
+     */
+    long poll() {
+        final Query previous = lastQuery;
+        update();
+        final boolean unchanged = previous != null && previous.equals(lastQuery);
+        delay = nextDelay(delay, currentStatus.isConnected(), unchanged);
+        return delay;
+    }
+
+    /**
+     * Calculates the delay until the next LTCS query.
+     * As long as LTCS is available it is queried every two seconds while the telescope is moving and
+     * less often while the query parameters stay the same. If LTCS is not available the delay is doubled
+     * every time up to a maximum of one minute.
+     * @param delay the current delay
+     * @param connected true if the last query was successful
+     * @param unchanged true if the query parameters are the same as for the previous query
+     * @return the next delay
+     */
+    static long nextDelay(long delay, boolean connected, boolean unchanged) {
+        if (!connected) {
+            return Math.min(Math.max(delay, MIN_DELAY) * 2, MAX_DELAY);
+        }
+        if (!unchanged) {
+            return MIN_DELAY;
+        }
+        return Math.min(Math.max(delay, MIN_DELAY) * 2, IDLE_DELAY);
+    }
+
+    /**
+     * Triggers a new query when demand coordinates or laser state have changed.
+     * While LTCS is not available the current backoff delay is kept.
+     * Called on the EPICS publisher thread.
+     */
+    private void onEpicsSnapshot(EpicsService.Snapshot snapshot, long changedNanos) {
+        if (currentStatus.isConnected() && !isUpToDate(snapshot.getDemandRaDec(), snapshot.isOnSky())) {
+            scheduleQuery(0);
+        }
+    }
+
+    /**
+     * Checks if the last query was done with the given demand coordinates and laser state.
+     * @param demandRaDec
+     * @param onSky
+     * @return true if no new query is needed or no query has been done yet
+     */
+    boolean isUpToDate(WorldCoords demandRaDec, Boolean onSky) {
+        final Query last = lastQuery;
+        return last == null || last.equals(new Query(demandRaDec.getRaDeg(), demandRaDec.getDecDeg(), laserState(onSky)));
+    }
+
+    private static String laserState(Boolean onSky) {
+        return onSky ? LASER_ON_SKY : LASER_OFF;
+    }
+
+    /**
+     * Updates LTCS status.
+     * Called by the LTCS client thread.
      */
-    @Scheduled(fixedDelay = 2000)
     public void update() {
 
         try {
 
             String url = configurationService.getString(Configuration.Value.LTCS_URL);
-            Double ra = epicsService.getDemandRaDec().getRaDeg();
-            Double dec = epicsService.getDemandRaDec().getDecDeg();
-            String laser = epicsService.isOnSky() ? LASER_ON_SKY : LASER_OFF;
-            URI uri = createURI(url, ra, dec, laser);
+            WorldCoords demand = epicsService.getDemandRaDec();
+            Query query = new Query(demand.getRaDeg(), demand.getDecDeg(), laserState(epicsService.isOnSky()));
+            URI uri = createURI(url, query.ra, query.dec, query.laser);
+            lastQuery = query;
 
             LOGGER.trace("LTCS query       : " + uri);
 
@@ -110,31 +276,26 @@ public class LtcsServiceImpl implements LtcsService {
             // all is well, parse the result and return it
             parseResponse(response);
 
-        } catch (ConnectException e) {
-            // problem with connection, reset connection manager
-            resetHttpClient();
-            currentStatus = new Snapshot(Error.NOT_CONNECTED, e.getMessage());
-            LOGGER.error("Could not connect to LTCS server", e);
-
         } catch (HttpResponseException e) {
             // status of HTTP response was >= 300
             currentStatus = new Snapshot(Error.OTHER, e.getMessage());
             LOGGER.error("LTCS server replied with status code " + e.getStatusCode(), e);
 
+        } catch (IOException e) {
+            // problem with connection (refused, timed out etc), drop all pooled connections
+            connectionManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+            currentStatus = new Snapshot(Error.NOT_CONNECTED, e.getMessage());
+            LOGGER.error("Could not connect to LTCS server", e);
+
         } catch (Exception e) {
-            // something else went wrong, reset connection manager just in case
-            resetHttpClient();
+            // something else went wrong, drop pooled connections just in case
+            connectionManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
             currentStatus = new Snapshot(Error.OTHER, e.getMessage());
             LOGGER.error("Could not update LTCS state", e);
         }
 
     }
 
-    private void resetHttpClient() {
-        httpClient.getConnectionManager().shutdown();
-        httpClient = new DefaultHttpClient();
-    }
-
     /**
      * Creates an URI with all the necessary parameters.
      * @param url
@@ -158,10 +319,24 @@ public class LtcsServiceImpl implements LtcsService {
 
     /**
      * Parses the LTCS server response.
+     * If the response is identical to the previous one the snapshot created for it is reused.
      * @param response
      * @return
      */
     protected void parseResponse(String response) {
+        // go 2 minutes back so that if we get a collision window that just ended (few seconds ago) we don't
+        // move it into the future but assume it was in the past and is not important anymore (if this is not
+        // the case LTCS will keep sending it and we will get it 2 minutes later..)
+        // NOTE: USE SITE LOCAL TIME NOT UTC! TIMES RETURNED BY LTCS ARE LOCAL TIMES!
+        DateTime now = epicsService.getTime().minusMinutes(2).toDateTime(DateTimeZone.getDefault());
+
+        LtcsService.Snapshot cached = responseCache.get(now.getMillis(), response);
+        if (cached != null) {
+            LOGGER.trace("LTCS response unchanged, reusing previous status");
+            currentStatus = cached;
+            return;
+        }
+
         // LTCS service replies with error states in response without sending appropriate HTTP codes (!= 200),
         // therefore we need to handle these cases ("LTCS processes down" and "bad request" here separately..).
         if (response.contains(PROCESSES_DOWN)) {
@@ -174,23 +349,22 @@ public class LtcsServiceImpl implements LtcsService {
 
         // OK, it seems we indeed received a valid result, try to parse it
         } else {
-            // go 2 minutes back so that if we get a collision window that just ended (few seconds ago) we don't
-            // move it into the future but assume it was in the past and is not important anymore (if this is not
-            // the case LTCS will keep sending it and we will get it 2 minutes later..)
-            // NOTE: USE SITE LOCAL TIME NOT UTC! TIMES RETURNED BY LTCS ARE LOCAL TIMES!
-            DateTime now = epicsService.getTime().minusMinutes(2).toDateTime(DateTimeZone.getDefault());
             currentStatus = new Snapshot(parseCollisions(response, now));
-            LOGGER.trace("LTCS status successfully updated, found " + currentStatus.collisions.size() + " collisions");
+            LOGGER.trace("LTCS status successfully updated, found " + currentStatus.getCollisions().size() + " collisions");
         }
+
+        responseCache.put(currentStatus, LtcsResponseCache.validUntil(currentStatus.getCollisions()), response);
     }
 
     /**
      * Parses and returns an unmodifiable list with the collisions from the string response from LTCS.
+     * The response is scanned in place, only the names of the telescopes and the priorities are copied,
+     * times are parsed directly into milliseconds.
      * @param response
      * @return
      */
     // NOTE: static so it can be used by the alternative implementation..
-    static List<LtcsService.Collision> parseCollisions(String response, DateTime now) {
+    static List<LtcsService.Collision> parseCollisions(CharSequence response, DateTime now) {
 
         // NOTE: responses look as follows
         // a) "GEMINI SUBARU 6:30:23 6:45:15 NO-LGS"
@@ -202,37 +376,44 @@ public class LtcsServiceImpl implements LtcsService {
         //    oh, two collisions on the same line, who said it is foul to use line breaks in cases like this??
         //    well, I guess a space does it, too
 
-
-        if (response.trim().isEmpty() || response.contains("NONE")) {
+        Tokens tokens = new Tokens(response);
+        if (!tokens.hasNext() || tokens.contains("NONE")) {
             return Collections.EMPTY_LIST;
         }
 
+        // all times are local times of today; days are added and subtracted in local time (like Joda does for
+        // DateTime.plusDays()) and the result is then converted to an instant using the default time zone
+        final DateTimeZone zone = DateTimeZone.getDefault();
+        final long today = now.toLocalDate().toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
+        final long nowMillis = now.getMillis();
+
         List<LtcsService.Collision> collisions = new ArrayList<>();
-        StringTokenizer tokenizer = new StringTokenizer(response);
-        while (tokenizer.hasMoreElements()) {
+        while (tokens.hasNext()) {
 
             // skip GEMINI
-            tokenizer.nextToken();
-            // get telescope and priority
-            String telescope = tokenizer.nextToken();
+            tokens.next();
+            // get telescope
+            String telescope = tokens.next().text();
             // get times from timestamps; use same "NOW" for both timestamps
-            DateTime start   = toDateTime(tokenizer.nextToken(), now);
-            DateTime end     = toDateTime(tokenizer.nextToken(), now);
+            long localStart  = today + tokens.next().millisOfDay();
+            long localEnd    = today + tokens.next().millisOfDay();
             // get priority
-            String priority  = tokenizer.nextToken();
+            String priority  = tokens.next().text();
 
             // e.g. (start=23:55:00,end=00:05:00) can not be on the same day, move start one day back
-            if (start.isAfter(end)) {
-                start = start.minusDays(1);
+            if (zone.convertLocalToUTC(localStart, false) > zone.convertLocalToUTC(localEnd, false)) {
+                localStart -= DAY;
             }
             // assuming we only get future collisions if we get for example (start=00:01:30,end=00:05:30) and it
             // is 18:00:00 then these timestamps refer to the next day (tomorrow)
-            if (end.isBefore(now)) {
-                start = start.plusDays(1);
-                end   = end.plusDays(1);
+            if (zone.convertLocalToUTC(localEnd, false) < nowMillis) {
+                localStart += DAY;
+                localEnd   += DAY;
             }
+            long start = zone.convertLocalToUTC(localStart, false);
+            long end   = zone.convertLocalToUTC(localEnd, false);
             // obviously it must start before it ends...
-            Validate.isTrue(start.isBefore(end));
+            Validate.isTrue(start < end);
 
             // only take collisions with priority != "NO-LGS"
             if (!"NO-LGS".equalsIgnoreCase(priority)) {
@@ -248,11 +429,84 @@ public class LtcsServiceImpl implements LtcsService {
         return Collections.unmodifiableList(collisions);
     }
 
-    private static DateTime toDateTime(String timestamp, DateTime today) {
-        return timeFormatter.parseDateTime(timestamp)
-            .withYear(today.getYear())
-            .withMonthOfYear(today.getMonthOfYear())
-            .withDayOfMonth(today.getDayOfMonth());
+    /**
+     * A simple scanner for the white space separated tokens of an LTCS response.
+     * Tokens are only copied into strings on demand.
+     */
+    private static final class Tokens {
+        private final CharSequence s;
+        private int pos;
+        private int start;
+        Tokens(CharSequence s) {
+            this.s = s;
+            this.pos = 0;
+            this.start = 0;
+        }
+        boolean hasNext() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+            return pos < s.length();
+        }
+        Tokens next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            start = pos;
+            while (pos < s.length() && !Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+            return this;
+        }
+        boolean contains(String text) {
+            return s.toString().contains(text);
+        }
+        String text() {
+            return s.subSequence(start, pos).toString();
+        }
+        // parses a time of day in the format H:mm:ss or HH:mm:ss
+        long millisOfDay() {
+            int[] fields = new int[3];
+            int field = 0;
+            for (int i = start; i < pos; i++) {
+                char c = s.charAt(i);
+                if (c >= '0' && c <= '9' && fields[field] < 100) {
+                    fields[field] = fields[field] * 10 + (c - '0');
+                } else if (c == ':' && field < 2) {
+                    field++;
+                } else {
+                    throw new IllegalArgumentException("Invalid time: " + text());
+                }
+            }
+            if (field != 2 || fields[0] > 23 || fields[1] > 59 || fields[2] > 59) {
+                throw new IllegalArgumentException("Invalid time: " + text());
+            }
+            return ((fields[0] * 60L + fields[1]) * 60L + fields[2]) * 1000L;
+        }
+    }
+
+    /**
+     * The parameters of an LTCS query.
+     */
+    private static final class Query {
+        private final double ra;
+        private final double dec;
+        private final String laser;
+        Query(double ra, double dec, String laser) {
+            this.ra = ra;
+            this.dec = dec;
+            this.laser = laser;
+        }
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Query)) return false;
+            Query q = (Query) o;
+            return Double.compare(ra, q.ra) == 0 && Double.compare(dec, q.dec) == 0 && laser.equals(q.laser);
+        }
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Double.hashCode(ra) + Double.hashCode(dec)) + laser.hashCode();
+        }
     }
 
     /**
@@ -285,13 +539,13 @@ public class LtcsServiceImpl implements LtcsService {
         public List<LtcsService.Collision> getCollisions() { return collisions; }
     }
 
-    // simple implementation for an ltcs collision
+    // simple implementation for an ltcs collision, times are kept as milliseconds
     private static class Collision implements LtcsService.Collision {
         private final String observatory;
         private final String priority;
-        private final DateTime start;
-        private final DateTime end;
-        Collision(String observatory, String priority, DateTime start, DateTime end) {
+        private final long start;
+        private final long end;
+        Collision(String observatory, String priority, long start, long end) {
             this.observatory = observatory;
             this.priority = priority;
             this.start = start;
@@ -302,16 +556,20 @@ public class LtcsServiceImpl implements LtcsService {
         @Override
         public String getPriority() { return priority; }
         @Override
-        public DateTime getStart() { return start; }
+        public DateTime getStart() { return new DateTime(start); }
         @Override
-        public DateTime getEnd() { return end; }
+        public DateTime getEnd() { return new DateTime(end); }
         @Override
-        public int compareTo(LtcsService.Collision other) { return this.getStart().compareTo(other.getStart()); }
+        public int compareTo(LtcsService.Collision other) {
+            long otherStart = other instanceof Collision ? ((Collision) other).start : other.getStart().getMillis();
+            return Long.compare(start, otherStart);
+        }
         @Override
         public Boolean geminiHasPriority() { return priority.equalsIgnoreCase("GEMINI"); }
         @Override
         public Boolean contains(DateTime time) {
-            return (!getStart().isAfter(time) && getEnd().isAfter(time));
+            long t = time.getMillis();
+            return (start <= t && end > t);
         }
 
 
@@ -0,0 +1,106 @@
+package edu.gemini.lch.services.impl;
+
+import edu.gemini.lch.model.LaserTarget;
+import edu.gemini.lch.pamparser.Target;
+
+import java.util.*;
+
+/**
+ * Finds the laser targets that correspond to the targets in a PAM file.
+ * PAM files only contain coordinates with 3 decimal digits, so a laser target matches a PAM target if both
+ * of its coordinates differ by no more than {@link #PRECISION} degrees. Instead of comparing every PAM target with
+ * every laser target the laser targets are put in a hash map with their coordinates quantized to the precision
+ * of the PAM files as the key. Because of rounding a matching laser target can end up in a neighbouring cell, so
+ * the lookup checks the cell of the PAM target and its eight neighbours.
+ * If several laser targets match, the one that comes first in the candidates is returned.
+ */
+final class PamTargetMatcher<T extends LaserTarget> {
+
+    /** Precision of the coordinates in PAM files in degrees. */
+    static final double PRECISION = 0.001;
+
+    private final List<T> candidates;
+    private final Map<Cell, List<Integer>> cells;
+
+    /**
+     * Creates a matcher for the given candidates.
+     * @param candidates
+     */
+    PamTargetMatcher(Collection<T> candidates) {
+        this.candidates = new ArrayList<>(candidates);
+        this.cells = new HashMap<>();
+        for (int i = 0; i < this.candidates.size(); i++) {
+            T t = this.candidates.get(i);
+            cells.computeIfAbsent(new Cell(quantize(t.getDegrees1()), quantize(t.getDegrees2())), c -> new ArrayList<>()).add(i);
+        }
+    }
+
+    /**
+     * Finds the laser target that corresponds to the given target from the pam file.
+     * @param pamTarget
+     * @return the matching laser target or null
+     */
+    T find(Target pamTarget) {
+        final long c1 = quantize(pamTarget.getDegrees1());
+        final long c2 = quantize(pamTarget.getDegrees2());
+        int first = Integer.MAX_VALUE;
+        for (long i = c1 - 1; i <= c1 + 1; i++) {
+            for (long j = c2 - 1; j <= c2 + 1; j++) {
+                List<Integer> cell = cells.get(new Cell(i, j));
+                if (cell == null) {
+                    continue;
+                }
+                for (Integer index : cell) {
+                    if (index < first && hasSameCoordinates(pamTarget, candidates.get(index))) {
+                        first = index;
+                    }
+                }
+            }
+        }
+        return first == Integer.MAX_VALUE ? null : candidates.get(first);
+    }
+
+    /**
+     * Checks if the coordinates of a target from the PAM files matches the ones of a laser target.
+     * We get 3 decimal digits in the PAM files, so we have to allow for quite a bit of error when comparing.
+     * @param pamTarget
+     * @param laserTarget
+     * @return
+     */
+    static boolean hasSameCoordinates(Target pamTarget, LaserTarget laserTarget) {
+        if (Math.abs(pamTarget.getDegrees1() - laserTarget.getDegrees1()) > PRECISION) {
+            return false;
+        }
+        if (Math.abs(pamTarget.getDegrees2() - laserTarget.getDegrees2()) > PRECISION) {
+            return false;
+        }
+        return true;
+    }
+
+    private static long quantize(double degrees) {
+        return Math.round(degrees / PRECISION);
+    }
+
+    private static final class Cell {
+        private final long c1;
+        private final long c2;
+
+        Cell(long c1, long c2) {
+            this.c1 = c1;
+            this.c2 = c2;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Cell)) return false;
+            Cell other = (Cell) o;
+            return c1 == other.c1 && c2 == other.c2;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(c1) + Long.hashCode(c2);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package edu.gemini.lch.services.impl;
+
+import edu.gemini.lch.model.Site;
+import edu.gemini.lch.model.Visibility;
+import edu.gemini.lch.services.ModelFactory;
+import edu.gemini.lch.services.VisibilityCalculator;
+import jsky.coords.WorldCoords;
+import jsky.plot.util.SkyCalc;
+import org.apache.commons.lang.Validate;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Visibility calculator that finds rise and set times using root finding instead of stepping through the whole
+ * night at a fixed resolution like {@link VisibilityCalculatorImpl}.
+ * The altitude is first sampled with a coarse step width, this brackets all crossings of the horizon and the
+ * laser limit. The crossings are then refined to sub-second precision using the Illinois variant of the
+ * regula falsi method, which converges much faster than bisection for smooth functions like the altitude.
+ * Pairs of crossings that fall between two coarse samples (an object culminating just above a limit) are
+ * found by looking for the extremum near every local maximum or minimum of the samples that is close enough
+ * to a limit to possibly cross it.
+ * Objects are allowed to cross a limit more than twice (this can only happen for test data covering more than
+ * one night); in this case the returned visibility covers everything from the first to the last time the object
+ * is above the limit because a single rise/set pair can not represent more than two separate intervals.
+ * Note that this object uses a stateful sky calculator and must not be shared between threads.
+ */
+public class RootFindingVisibilityCalculatorImpl implements VisibilityCalculator {
+
+    private static final Double horizon = .0;
+
+    /** Step width for bracketing crossings in milliseconds. */
+    private static final long COARSE_STEP = 30 * 60 * 1000;
+
+    /** Precision of rise and set times in milliseconds. */
+    private static final long TIME_TOLERANCE = 500;
+
+    /** Precision for extremum search in milliseconds, only needed to decide if a limit is crossed at all. */
+    private static final long EXTREMUM_TOLERANCE = 10 * 1000;
+
+    /** Altitude difference in degrees that is considered to be a hit. */
+    private static final double ALTITUDE_TOLERANCE = 1.0e-5;
+
+    /** Upper bound for the change of altitude in degrees per millisecond (15 degrees per hour plus some margin). */
+    private static final double MAX_ALTITUDE_RATE = 16.0 / (60 * 60 * 1000);
+
+    /** Max number of iterations for refining a crossing before falling back to plain bisection. */
+    private static final int MAX_ITERATIONS = 30;
+
+    private static final double GOLDEN_RATIO = (Math.sqrt(5.0) - 1.0) / 2.0;
+
+    private final Double minAltitude;
+    private final DateTime earliest;
+    private final DateTime latest;
+    private final SkyCalc skyCalc;
+
+    private long evaluations;
+
+    public RootFindingVisibilityCalculatorImpl(Site site, DateTime earliest, DateTime latest, Double minAltitude) {
+        Validate.isTrue(!earliest.isAfter(latest), "earliest time must be before latest");
+        this.minAltitude = minAltitude;
+        this.earliest = earliest;
+        this.latest = latest;
+        this.skyCalc = ModelFactory.createSkyCalculator(site);
+        this.evaluations = 0;
+    }
+
+    @Override
+    public Double getHorizon() {
+        return horizon;
+    }
+
+    @Override
+    public Double getLaserLimit() {
+        return minAltitude;
+    }
+
+    /**
+     * Gets the number of altitude calculations done by this calculator so far.
+     * This is mostly useful for testing and benchmarking.
+     * @return
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    @Override
+    public Visibility calculateVisibility(WorldCoords obj) {
+        final List<Sample> samples = sample(obj);
+        final Optional<Visibility.RiseSet> aboveHorizon = getRiseSet(obj, samples, horizon);
+        final Optional<Visibility.RiseSet> aboveLimit   = getRiseSet(obj, samples, minAltitude);
+        return new Visibility(aboveHorizon, aboveLimit);
+    }
+
+    /**
+     * Samples the altitude with the coarse step width and adds the extrema that are close enough to one of
+     * the limits to possibly be on the other side of it.
+     */
+    private List<Sample> sample(WorldCoords obj) {
+        final long start = earliest.getMillis();
+        final long end = latest.getMillis();
+
+        final List<Sample> coarse = new ArrayList<>();
+        for (long t = start; t < end; t += COARSE_STEP) {
+            coarse.add(new Sample(t, altitude(obj, t)));
+        }
+        coarse.add(new Sample(end, altitude(obj, end)));
+
+        final double margin = MAX_ALTITUDE_RATE * COARSE_STEP;
+        final List<Sample> samples = new ArrayList<>(coarse);
+        for (int i = 0; i < coarse.size(); i++) {
+            final Sample s  = coarse.get(i);
+            final Sample s0 = coarse.get(Math.max(0, i - 1));
+            final Sample s1 = coarse.get(Math.min(coarse.size() - 1, i + 1));
+            if (s0 == s1) {
+                continue;
+            }
+            final boolean isMax = s.alt >= s0.alt && s.alt >= s1.alt;
+            final boolean isMin = s.alt <= s0.alt && s.alt <= s1.alt;
+            if ((isMax && mayCrossFromBelow(s, margin)) || (isMin && mayCrossFromAbove(s, margin))) {
+                samples.add(findExtremum(obj, s0.t, s1.t, isMax));
+            }
+        }
+        if (samples.size() > coarse.size()) {
+            samples.sort((a, b) -> Long.compare(a.t, b.t));
+        }
+        return samples;
+    }
+
+    private boolean mayCrossFromBelow(Sample s, double margin) {
+        return (s.alt < horizon && s.alt > horizon - margin) || (s.alt < minAltitude && s.alt > minAltitude - margin);
+    }
+
+    private boolean mayCrossFromAbove(Sample s, double margin) {
+        return (s.alt >= horizon && s.alt < horizon + margin) || (s.alt >= minAltitude && s.alt < minAltitude + margin);
+    }
+
+    /**
+     * Finds the maximum or minimum of the altitude between a and b using golden section search.
+     */
+    private Sample findExtremum(WorldCoords obj, long a, long b, boolean max) {
+        final double sign = max ? 1.0 : -1.0;
+        long c = b - Math.round(GOLDEN_RATIO * (b - a));
+        long d = a + Math.round(GOLDEN_RATIO * (b - a));
+        double fc = sign * altitude(obj, c);
+        double fd = sign * altitude(obj, d);
+        while (b - a > EXTREMUM_TOLERANCE) {
+            if (fc > fd) {
+                b = d; d = c; fd = fc;
+                c = b - Math.round(GOLDEN_RATIO * (b - a));
+                fc = sign * altitude(obj, c);
+            } else {
+                a = c; c = d; fc = fd;
+                d = a + Math.round(GOLDEN_RATIO * (b - a));
+                fd = sign * altitude(obj, d);
+            }
+        }
+        return fc > fd ? new Sample(c, sign * fc) : new Sample(d, sign * fd);
+    }
+
+    /**
+     * Finds all crossings of the given limit and turns them into rise and set times.
+     */
+    private Optional<Visibility.RiseSet> getRiseSet(WorldCoords obj, List<Sample> samples, double limit) {
+        final List<Long> crossings = new ArrayList<>();
+        for (int i = 1; i < samples.size(); i++) {
+            final Sample s0 = samples.get(i - 1);
+            final Sample s1 = samples.get(i);
+            if ((s0.alt >= limit) != (s1.alt >= limit)) {
+                crossings.add(findCrossing(obj, limit, s0, s1));
+            }
+        }
+
+        final boolean aboveAtStart = samples.get(0).alt >= limit;
+        final boolean aboveAtEnd   = samples.get(samples.size() - 1).alt >= limit;
+        final Date start = earliest.toDate();
+        final Date end   = latest.toDate();
+
+        if (crossings.isEmpty()) {
+            // above or below the limit all the time
+            return aboveAtStart ? Optional.of(new Visibility.RiseSet(start, end)) : Optional.empty();
+        }
+
+        final Date first = new Date(crossings.get(0));
+        final Date last  = new Date(crossings.get(crossings.size() - 1));
+        if (aboveAtStart && aboveAtEnd) {
+            if (crossings.size() == 2) {
+                // visible at start of night, sets and rises again before the end of the night
+                return Optional.of(new Visibility.RiseSet(last, first));
+            } else {
+                // more than one dip below the limit, the best we can do is to use the whole night
+                return Optional.of(new Visibility.RiseSet(start, end));
+            }
+        }
+        return Optional.of(new Visibility.RiseSet(aboveAtStart ? start : first, aboveAtEnd ? end : last));
+    }
+
+    /**
+     * Refines the crossing of the limit between two samples on different sides of the limit.
+     */
+    private long findCrossing(WorldCoords obj, double limit, Sample s0, Sample s1) {
+        long t0 = s0.t;
+        long t1 = s1.t;
+        double f0 = s0.alt - limit;
+        double f1 = s1.alt - limit;
+        final boolean above0 = f0 >= 0;
+        int side = 0;
+        int iterations = 0;
+        while (t1 - t0 > TIME_TOLERANCE) {
+            long t;
+            if (iterations++ < MAX_ITERATIONS) {
+                t = t0 + Math.round((t1 - t0) * (f0 / (f0 - f1)));
+            } else {
+                t = (t0 + t1) >>> 1;
+            }
+            if (t <= t0 || t >= t1) {
+                t = (t0 + t1) >>> 1;
+            }
+
+            final double f = altitude(obj, t) - limit;
+            if (Math.abs(f) < ALTITUDE_TOLERANCE) {
+                return t;
+            }
+            if ((f >= 0) == above0) {
+                t0 = t; f0 = f;
+                // Illinois modification: halve the value of the other end if the same end is moved twice
+                if (side == -1) f1 /= 2;
+                side = -1;
+            } else {
+                t1 = t; f1 = f;
+                if (side == +1) f0 /= 2;
+                side = +1;
+            }
+        }
+        return (t0 + t1) >>> 1;
+    }
+
+    private double altitude(WorldCoords obj, long time) {
+        evaluations++;
+        skyCalc.calculate(obj, new Date(time));
+        return skyCalc.getAltitude();
+    }
+
+    private static final class Sample {
+        private final long t;
+        private final double alt;
+        Sample(long t, double alt) {
+            this.t = t;
+            this.alt = alt;
+        }
+    }
+
+}
@@ -3,20 +3,33 @@ package edu.gemini.lch.services.impl;
 import edu.gemini.lch.configuration.Configuration;
 import edu.gemini.lch.model.SimpleLaserNight;
 import edu.gemini.lch.services.*;
+import edu.gemini.lch.services.util.LatencyHistogram;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.joda.time.Period;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
 
 /**
+ * Executes scheduled tasks and keeps the clocks and alarm windows of all connected clients up to date.
+ * Alarm windows are only notified when the alarm state changed materially (see {@link SnapshotDelta#isMaterial()})
+ * or once a second to update the telemetry. The delta to the previous notification is calculated once here and
+ * handed to all listeners. Notifications for a listener that is still busy with an earlier update are coalesced,
+ * i.e. slow clients skip intermediate snapshots (but not their changes) instead of queuing up tasks on the executor.
  */
 @Service
 public class SchedulerServiceImpl implements SchedulerService {
@@ -30,16 +43,29 @@ public class SchedulerServiceImpl implements SchedulerService {
     @Resource private LaserNightService laserNightService;
     @Resource private AlarmService alarmService;
     @Resource private EmailService emailService;
+    @Resource private SiteService siteService;
+
+    // number of nights for which the twilight times are calculated in advance
+    @Value("${lch.twilight.horizon:400}")
+    private int twilightHorizon;
 
     private enum Task {
         EmailCheck,
-        ProcessNights
+        ProcessNights,
+        LogStatistics
     }
 
+    // heartbeat for alarm windows in case nothing material changed (time, telescope position etc.)
+    private static final long ALARM_HEARTBEAT = TimeUnit.SECONDS.toNanos(1);
+    // marker value for clock updates
+    private static final Boolean TICK = Boolean.TRUE;
+
     private final Map<Task, DateTime> lastExecutionTimes;
-    // there is no concurrent set, use concurrent map instead
-    private final ConcurrentHashMap<ClockUpdateListener, ClockUpdateListener> clockUpdateListeners;
-    private final ConcurrentHashMap<AlarmUpdateListener, AlarmUpdateListener> alarmUpdateListeners;
+    private final ConcurrentHashMap<ClockUpdateListener, CoalescingListener<Boolean>> clockUpdateListeners;
+    private final ConcurrentHashMap<AlarmUpdateListener, CoalescingListener<AlarmUpdate>> alarmUpdateListeners;
+    private final LatencyHistogram alarmUpdateCost;
+    private AlarmService.Snapshot lastAlarmSnapshot;
+    private long lastAlarmUpdate;
 
 
     SchedulerServiceImpl() {
@@ -49,11 +75,21 @@ public class SchedulerServiceImpl implements SchedulerService {
         }
         clockUpdateListeners = new ConcurrentHashMap<> ();
         alarmUpdateListeners = new ConcurrentHashMap<> ();
+        alarmUpdateCost = new LatencyHistogram("alarm window update");
+    }
+
+    @PostConstruct
+    private void init() {
+        // calculate the twilight times for the upcoming nights in the background
+        taskExecutor.execute(() -> {
+            ModelFactory.precomputeTwilights(siteService.getSite(), DateTime.now().minusDays(1), twilightHorizon);
+            LOGGER.info("calculated twilight times for the next " + twilightHorizon + " nights");
+        });
     }
 
     /** {@inheritDoc} */
     @Override public void addListener(ClockUpdateListener listener) {
-        clockUpdateListeners.put(listener, listener);
+        clockUpdateListeners.putIfAbsent(listener, new CoalescingListener<>(v -> listener.update(), (older, newer) -> newer, null));
     }
 
     /** {@inheritDoc} */
@@ -63,7 +99,8 @@ public class SchedulerServiceImpl implements SchedulerService {
 
     /** {@inheritDoc} */
     @Override public void addListener(AlarmUpdateListener listener) {
-        alarmUpdateListeners.put(listener, listener);
+        alarmUpdateListeners.putIfAbsent(listener, new CoalescingListener<>(
+                u -> listener.update(u.snapshot, u.delta), AlarmUpdate::merge, alarmUpdateCost));
     }
 
     /** {@inheritDoc} */
@@ -71,19 +108,37 @@ public class SchedulerServiceImpl implements SchedulerService {
         alarmUpdateListeners.remove(listener);
     }
 
+    /** {@inheritDoc} */
+    @Override public LatencyHistogram getAlarmUpdateCost() {
+        return alarmUpdateCost;
+    }
+
     /** {@inheritDoc} */
     @Scheduled(fixedDelay = 1000)
     @Override public void updateClocks() {
-        for (final ClockUpdateListener listener : clockUpdateListeners.values()) {
-            taskExecutor.execute(listener::update);
+        for (final CoalescingListener<Boolean> listener : clockUpdateListeners.values()) {
+            listener.offer(TICK);
         }
     }
 
     /** {@inheritDoc} */
-    @Scheduled(fixedDelay = 500)
+    @Scheduled(fixedDelay = 250)
     @Override public void updateAlarms() {
-        for (final AlarmUpdateListener listener : alarmUpdateListeners.values()) {
-            taskExecutor.execute(() -> listener.update(alarmService.getSnapshot()));
+        final AlarmService.Snapshot snapshot = alarmService.getSnapshot();
+        if (snapshot == null || snapshot == lastAlarmSnapshot) {
+            return;
+        }
+        // only notify listeners if something material changed or the telemetry is due for an update
+        final long now = System.nanoTime();
+        final SnapshotDelta delta = snapshot.getDelta(lastAlarmSnapshot);
+        if (!delta.isMaterial() && now - lastAlarmUpdate < ALARM_HEARTBEAT) {
+            return;
+        }
+        lastAlarmSnapshot = snapshot;
+        lastAlarmUpdate = now;
+        final AlarmUpdate update = new AlarmUpdate(snapshot, delta);
+        for (final CoalescingListener<AlarmUpdate> listener : alarmUpdateListeners.values()) {
+            listener.offer(update);
         }
     }
 
@@ -112,6 +167,11 @@ public class SchedulerServiceImpl implements SchedulerService {
             LOGGER.error("could not process laser nights", e);
         }
 
+        // -- log the cost of updating the alarm windows of all clients
+        if (isDue(Task.LogStatistics, 60)) {
+            LOGGER.info(alarmUpdateCost);
+        }
+
         LOGGER.trace("scheduler done");
     }
 
@@ -163,6 +223,76 @@ public class SchedulerServiceImpl implements SchedulerService {
         }
     }
 
+    /**
+     * A snapshot together with the changes since the last snapshot that was handed out.
+     */
+    private static final class AlarmUpdate {
+        private final AlarmService.Snapshot snapshot;
+        private final SnapshotDelta delta;
+
+        AlarmUpdate(final AlarmService.Snapshot snapshot, final SnapshotDelta delta) {
+            this.snapshot = snapshot;
+            this.delta = delta;
+        }
+
+        // a listener that skips an update must still see its changes
+        static AlarmUpdate merge(final AlarmUpdate older, final AlarmUpdate newer) {
+            return new AlarmUpdate(newer.snapshot, newer.delta.and(older.delta));
+        }
+    }
+
+    /**
+     * Hands values over to a listener which is called on the task executor.
+     * There is never more than one task per listener pending on the executor, values that arrive while the
+     * listener is busy are merged and only the result is handed over once the listener is done.
+     */
+    private final class CoalescingListener<T> implements Runnable {
+        private final Consumer<T> listener;
+        private final BinaryOperator<T> merge;
+        private final LatencyHistogram cost;
+        private final AtomicReference<T> pending;
+
+        CoalescingListener(final Consumer<T> listener, final BinaryOperator<T> merge, final LatencyHistogram cost) {
+            this.listener = listener;
+            this.merge = merge;
+            this.cost = cost;
+            this.pending = new AtomicReference<>();
+        }
+
+        void offer(final T value) {
+            // only schedule a task if there is none pending already
+            if (pending.getAndAccumulate(value, (older, newer) -> older == null ? newer : merge.apply(older, newer)) == null) {
+                try {
+                    taskExecutor.execute(this);
+                } catch (TaskRejectedException e) {
+                    pending.set(null);
+                    LOGGER.debug("could not schedule listener update", e);
+                }
+            }
+        }
+
+        @Override public void run() {
+            T value = pending.get();
+            while (value != null) {
+                final long start = System.nanoTime();
+                try {
+                    listener.accept(value);
+                } catch (Exception e) {
+                    LOGGER.error("could not update listener", e);
+                } finally {
+                    if (cost != null) {
+                        cost.recordSince(start);
+                    }
+                }
+                // done unless a new value arrived in the meantime
+                if (pending.compareAndSet(value, null)) {
+                    return;
+                }
+                value = pending.get();
+            }
+        }
+    }
+
     @PreDestroy
     private void cleanup() {
         // Stopping the scheduler and executor here keeps the application from throwing a lot of exceptions
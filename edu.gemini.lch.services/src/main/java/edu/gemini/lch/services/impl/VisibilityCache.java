@@ -0,0 +1,215 @@
+package edu.gemini.lch.services.impl;
+
+import edu.gemini.lch.configuration.Selection;
+import edu.gemini.lch.model.Site;
+import edu.gemini.lch.model.Visibility;
+import edu.gemini.lch.services.ModelFactory;
+import edu.gemini.lch.services.VisibilityCalculator;
+import jsky.coords.WorldCoords;
+import org.apache.commons.lang.Validate;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for visibilities that is shared by all targets collectors and the web services.
+ * Calculating the visibility of a position is expensive and the same positions are calculated over and over
+ * again, every time a night is updated with the latest observations from the ODB and every time the full night
+ * is requested by a client. Visibilities only depend on the site, the start and end of the night, the laser
+ * limit, the algorithm used for the calculation and the position, therefore they can be cached with these values
+ * as the key. Positions are quantized to {@link #QUANTUM} degrees which is far below anything that makes a
+ * difference for rise and set times.
+ * The cache is bounded, once it is full the least recently used entries are evicted.
+ */
+@Component
+public class VisibilityCache {
+
+    private static final Logger LOGGER = Logger.getLogger(VisibilityCache.class);
+
+    /** Default max number of cached visibilities. */
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    /** Resolution of the positions used as keys in degrees (0.1 arcsec). */
+    public static final double QUANTUM = 0.1 / 3600.0;
+
+    private final int maxEntries;
+    private final Map<Key, Visibility> cache;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    public VisibilityCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public VisibilityCache(final int maxEntries) {
+        Validate.isTrue(maxEntries > 0);
+        this.maxEntries = maxEntries;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<Key, Visibility>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Visibility> eldest) {
+                return size() > VisibilityCache.this.maxEntries;
+            }
+        });
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+    }
+
+    /**
+     * Creates a visibility calculator that uses this cache.
+     * The calculator itself must not be shared between threads, the cache however can be used by any number of
+     * calculators at the same time.
+     * @param algorithm
+     * @param site
+     * @param earliest
+     * @param latest
+     * @param minAltitude
+     * @return
+     */
+    public VisibilityCalculator createCalculator(Selection.VisibilityAlgorithm algorithm, Site site, DateTime earliest, DateTime latest, Double minAltitude) {
+        return createCalculator(algorithm, site, earliest, latest, minAltitude,
+                ModelFactory.createVisibilityCalculator(algorithm, site, earliest, latest, minAltitude));
+    }
+
+    VisibilityCalculator createCalculator(Selection.VisibilityAlgorithm algorithm, Site site, DateTime earliest, DateTime latest, Double minAltitude, VisibilityCalculator delegate) {
+        return new CachingCalculator(new NightKey(algorithm, site, earliest.getMillis(), latest.getMillis(), minAltitude), delegate);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Logs the current hit and miss counts.
+     */
+    public void logStatistics() {
+        final long h = hits.get();
+        final long m = misses.get();
+        LOGGER.info(String.format("Visibility cache: %d entries, %d hits, %d misses (%.1f%% hit rate)",
+                size(), h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m)));
+    }
+
+    /**
+     * Calculator that looks up visibilities in the cache and only uses its delegate for the missing ones.
+     */
+    private class CachingCalculator implements VisibilityCalculator {
+        private final NightKey night;
+        private final VisibilityCalculator delegate;
+
+        CachingCalculator(NightKey night, VisibilityCalculator delegate) {
+            this.night = night;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Visibility calculateVisibility(WorldCoords obj) {
+            final Key key = new Key(night, quantize(obj.getRaDeg()), quantize(obj.getDecDeg()));
+            final Visibility cached = cache.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+            // calculate outside of the lock, in the rare case that two threads calculate the same
+            // visibility at the same time both will get the same result anyway
+            misses.incrementAndGet();
+            final Visibility visibility = delegate.calculateVisibility(obj);
+            cache.put(key, visibility);
+            return visibility;
+        }
+
+        @Override
+        public Double getHorizon() {
+            return delegate.getHorizon();
+        }
+
+        @Override
+        public Double getLaserLimit() {
+            return delegate.getLaserLimit();
+        }
+    }
+
+    private static long quantize(double degrees) {
+        return Math.round(degrees / QUANTUM);
+    }
+
+    /**
+     * All values that identify a night and the parameters used to calculate visibilities for it.
+     */
+    private static final class NightKey {
+        private final Selection.VisibilityAlgorithm algorithm;
+        private final Site site;
+        private final long earliest;
+        private final long latest;
+        private final double minAltitude;
+
+        NightKey(Selection.VisibilityAlgorithm algorithm, Site site, long earliest, long latest, double minAltitude) {
+            this.algorithm = algorithm;
+            this.site = site;
+            this.earliest = earliest;
+            this.latest = latest;
+            this.minAltitude = minAltitude;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof NightKey)) return false;
+            NightKey other = (NightKey) o;
+            return algorithm == other.algorithm &&
+                   site == other.site &&
+                   earliest == other.earliest &&
+                   latest == other.latest &&
+                   Double.compare(minAltitude, other.minAltitude) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(algorithm, site, earliest, latest, minAltitude);
+        }
+    }
+
+    /**
+     * Cache key consisting of the night parameters and the quantized position.
+     */
+    private static final class Key {
+        private final NightKey night;
+        private final long ra;
+        private final long dec;
+
+        Key(NightKey night, long ra, long dec) {
+            this.night = night;
+            this.ra = ra;
+            this.dec = dec;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return ra == other.ra && dec == other.dec && night.equals(other.night);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * night.hashCode() + Long.hashCode(ra)) + Long.hashCode(dec);
+        }
+    }
+}
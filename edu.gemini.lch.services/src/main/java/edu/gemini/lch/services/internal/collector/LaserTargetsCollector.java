@@ -4,26 +4,41 @@ import edu.gemini.lch.model.LaserNight;
 import edu.gemini.lch.model.ObservationTarget;
 import edu.gemini.lch.model.RaDecLaserTarget;
 import edu.gemini.lch.model.Visibility;
+import org.apache.commons.lang.Validate;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Helper class to group targets according to their distances from each other.
  * For each group of targets which are not further away from each other than the maximal distance a new
  * center point is created which is the average of the coordinates of all targets in the groups (it is ok
  * to assume planar geometry for targets which are very close to each other).
+ * In order to find the closest group for a new target quickly the groups are kept in a grid with cells that
+ * are as big as the maximal distance. Only groups in the cells that overlap with the circle around the new
+ * target have to be checked, this keeps the collector fast even for nights with tens of thousands of targets.
  */
 public class LaserTargetsCollector {
 
+    /** Smallest cell size in degrees, keeps the number of cells in the grid reasonable. */
+    private static final double MIN_CELL_SIZE = 1.0 / 3600.0;
+
+    private static final double DEG_TO_RAD = Math.PI / 180.0;
+
     private final LaserNight night;
     private final Set<Group> groups;
     private final Double maxDistance;
+    private final double cellSize;
+    private final int columnCount;
+    private final Map<Integer, Map<Integer, List<Group>>> grid;
 
     public LaserTargetsCollector(LaserNight night, Double maxDistance) {
+        Validate.notNull(maxDistance);
         this.night = night;
-        this.groups = new HashSet<>();
+        this.groups = new LinkedHashSet<>();
         this.maxDistance = maxDistance;
+        this.cellSize = Math.max(MIN_CELL_SIZE, maxDistance);
+        this.columnCount = (int) Math.ceil(360.0 / cellSize);
+        this.grid = new HashMap<>();
     }
 
     /**
@@ -35,10 +50,18 @@ public class LaserTargetsCollector {
     public void addObservationTarget(ObservationTarget obsTarget, Visibility visibility) {
         Group group = getClosestCoveringGroup(obsTarget);
         if (group != null) {
+            // adding a target moves the center of the group, make sure the group is still in the right cell
+            int row = row(group.center.getDecDegrees());
+            int column = column(group.center.getRaDegrees());
             group.add(obsTarget);
+            if (row != row(group.center.getDecDegrees()) || column != column(group.center.getRaDegrees())) {
+                removeFromGrid(group, row, column);
+                addToGrid(group);
+            }
         } else {
             Group newGroup = new Group(night, obsTarget, visibility);
             groups.add(newGroup);
+            addToGrid(newGroup);
         }
     }
 
@@ -47,22 +70,120 @@ public class LaserTargetsCollector {
     }
 
     private Group getClosestCoveringGroup(ObservationTarget t) {
-        Double closestDistance = Double.MAX_VALUE;
-        Group closestGroup = null;
-        for (Group group : groups) {
-            Double distance = group.center.distanceTo(t.getDegrees1(), t.getDegrees2());
-            if (distance < maxDistance && distance < closestDistance) {
-                closestDistance = distance;
-                closestGroup = group;
+        final double ra  = normalize(t.getDegrees1());
+        final double dec = t.getDegrees2();
+        final Double raHalfWidth = raHalfWidth(dec, maxDistance);
+
+        Match match = new Match();
+        for (int r = row(dec - maxDistance); r <= row(dec + maxDistance); r++) {
+            Map<Integer, List<Group>> row = grid.get(r);
+            if (row == null) {
+                continue;
+            }
+            if (raHalfWidth == null || 2.0 * raHalfWidth / cellSize + 2.0 >= row.size()) {
+                // the circle covers a pole or more columns than there are occupied cells: check all of them
+                for (List<Group> cell : row.values()) {
+                    match.check(cell, t);
+                }
+            } else {
+                final double from = ra - raHalfWidth;
+                final double to   = ra + raHalfWidth;
+                // check the RA range, if it wraps around 0/360 split it in two
+                if (from < 0.0) {
+                    checkColumns(row, from + 360.0, 360.0, t, match);
+                    checkColumns(row, 0.0, to, t, match);
+                } else if (to >= 360.0) {
+                    checkColumns(row, from, 360.0, t, match);
+                    checkColumns(row, 0.0, to - 360.0, t, match);
+                } else {
+                    checkColumns(row, from, to, t, match);
+                }
+            }
+        }
+        return match.group;
+    }
+
+    private void checkColumns(Map<Integer, List<Group>> row, double from, double to, ObservationTarget t, Match match) {
+        for (int c = column(from); c <= column(to); c++) {
+            List<Group> cell = row.get(c);
+            if (cell != null) {
+                match.check(cell, t);
+            }
+        }
+    }
+
+    private void addToGrid(Group group) {
+        grid.computeIfAbsent(row(group.center.getDecDegrees()), r -> new HashMap<>())
+            .computeIfAbsent(column(group.center.getRaDegrees()), c -> new ArrayList<>())
+            .add(group);
+    }
+
+    private void removeFromGrid(Group group, int row, int column) {
+        Map<Integer, List<Group>> cells = grid.get(row);
+        List<Group> cell = cells.get(column);
+        cell.remove(group);
+        if (cell.isEmpty()) {
+            cells.remove(column);
+        }
+        if (cells.isEmpty()) {
+            grid.remove(row);
+        }
+    }
+
+    private int row(double dec) {
+        return (int) Math.floor((Math.max(-90.0, Math.min(90.0, dec)) + 90.0) / cellSize);
+    }
+
+    private int column(double ra) {
+        return Math.max(0, Math.min(columnCount - 1, (int) Math.floor(ra / cellSize)));
+    }
+
+    /**
+     * Gets the half width of the RA range that is covered by a circle with the given radius around the given
+     * declination, or null if the circle covers a pole or is too big to limit the range of RA values.
+     */
+    private static Double raHalfWidth(double dec, double radius) {
+        final double maxAbsDec = Math.abs(dec) + radius;
+        if (maxAbsDec >= 90.0 || radius >= 90.0) {
+            return null;
+        }
+        final double s = Math.sin(radius * DEG_TO_RAD) / Math.cos(maxAbsDec * DEG_TO_RAD);
+        if (s >= 1.0) {
+            return null;
+        }
+        // add a small margin to be on the safe side regarding rounding errors
+        return Math.asin(s) / DEG_TO_RAD + 1e-9;
+    }
+
+    private static double normalize(double degrees) {
+        final double d = degrees % 360.0;
+        return d < 0.0 ? d + 360.0 : d;
+    }
+
+    /**
+     * The closest group found so far.
+     */
+    private class Match {
+        private Double closestDistance = Double.MAX_VALUE;
+        private Group group = null;
+
+        void check(List<Group> candidates, ObservationTarget t) {
+            for (Group candidate : candidates) {
+                Double distance = candidate.center.distanceTo(t.getDegrees1(), t.getDegrees2());
+                if (distance < maxDistance && distance < closestDistance) {
+                    closestDistance = distance;
+                    group = candidate;
+                }
             }
         }
-        return closestGroup;
     }
 
     static class Group {
-        private final LaserNight night;
         private final Set<ObservationTarget> targets;
-        private RaDecLaserTarget center;
+        private final RaDecLaserTarget center;
+        private final double referenceRa;
+        private double raOffsetSum;
+        private double decSum;
 
         /**
          * Creates a new "nearby-group" with a single observation covered by a target that's equal
@@ -71,9 +192,11 @@ public class LaserTargetsCollector {
          * that we can neglect that.
          */
         Group(LaserNight night, ObservationTarget target, Visibility visibility) {
-            this.night = night;
             this.targets = new HashSet<>();
             this.center = new RaDecLaserTarget(night, target.getDegrees1(), target.getDegrees2(), visibility);
+            this.referenceRa = target.getDegrees1();
+            this.raOffsetSum = 0.0;
+            this.decSum = target.getDegrees2();
             this.targets.add(target);
             target.setLaserTarget(this.center);
         }
@@ -88,27 +211,26 @@ public class LaserTargetsCollector {
 
         /**
          * Adds a new observation to this group and re-centers the group so that the new center equals the
-         * "average" of all covered observations.
+         * "average" of all covered observations. The sums of all coordinates are kept up to date with every
+         * new observation, RA values are summed up relative to the first target of the group in order to
+         * get a correct average for groups that straddle RA 0/360. The group keeps the same laser target
+         * object for its whole lifetime, only its coordinates are updated.
          */
         void add(ObservationTarget observationTarget) {
-            // calculate new center as average of all positions
-            Double raSum = 0.0;
-            Double decSum = 0.0;
-            targets.add(observationTarget);
-            for (ObservationTarget ot : targets) {
-                raSum += ot.getDegrees1();
-                decSum += ot.getDegrees2();
+            if (!targets.add(observationTarget)) {
+                return;
             }
-            Double centerRa = raSum / targets.size();
-            Double centerDec = decSum / targets.size();
+            raOffsetSum += raOffset(observationTarget.getDegrees1());
+            decSum += observationTarget.getDegrees2();
 
-            // create new center and re-assign all already existing observation targets
-            RaDecLaserTarget newCenter = new RaDecLaserTarget(night, centerRa, centerDec, center.getVisibility());
-            for (ObservationTarget ot : targets) {
-                ot.setLaserTarget(newCenter);
-            }
+            center.setRaDegrees(normalize(referenceRa + raOffsetSum / targets.size()));
+            center.setDecDegrees(decSum / targets.size());
+            observationTarget.setLaserTarget(center);
+        }
 
-            center = newCenter;
+        private double raOffset(double ra) {
+            final double d = normalize(ra - referenceRa);
+            return d >= 180.0 ? d - 360.0 : d;
         }
     }
 }
@@ -1,10 +1,11 @@
 package edu.gemini.lch.services.internal.collector;
 
 import edu.gemini.lch.configuration.Configuration;
+import edu.gemini.lch.configuration.Selection;
 import edu.gemini.lch.model.*;
 import edu.gemini.lch.model.Observation;
 import edu.gemini.lch.services.*;
-import edu.gemini.lch.services.impl.VisibilityCalculatorImpl;
+import edu.gemini.lch.services.impl.VisibilityCache;
 import edu.gemini.lch.services.util.StringLogger;
 import edu.gemini.odb.browser.*;
 import edu.gemini.shared.util.immutable.ImOption;
@@ -36,6 +37,8 @@ public class TargetsCollector {
     private HorizonsService horizonsService;
     @Resource
     private ConstraintsChecker constraintsChecker;
+    @Resource
+    private VisibilityCache visibilityCache;
 
     private final LaserNight night;
     private final Set<Observation> observations;
@@ -61,8 +64,12 @@ public class TargetsCollector {
         DateTime latest = night.getEnd();
 
         double altitude = configurationService.getDouble(Configuration.Value.VISIBILITY_MIN_ALTITUDE);
+        Selection.VisibilityAlgorithm algorithm = (Selection.VisibilityAlgorithm) configurationService.getSelection(Configuration.Value.VISIBILITY_ALGORITHM);
         this.maxDistance = configurationService.getDouble(Configuration.Value.NEARBY_GROUP_MAX_DISTANCE);
-        this.visibilityCalculator = new VisibilityCalculatorImpl(night.getSite(), earliest, latest, altitude);
+        // the visibility is calculated in parallel, every worker thread needs its own calculator;
+        // all of them share the cache which allows to skip most of the work when updating a night
+        this.visibilityCalculator = new ThreadConfinedVisibilityCalculator(
+                () -> visibilityCache.createCalculator(algorithm, night.getSite(), earliest, latest, altitude));
         this.minVisibilityDuration = new Duration(configurationService.getInteger(Configuration.Value.VISIBILITY_MIN_DURATION)*60*1000); // duration is in minutes
 
         // This helper class will keep track of nearby targets and create unique laser targets for them.
@@ -88,6 +95,10 @@ public class TargetsCollector {
     }
 
     private void addTargets(Collection<Program> programs, boolean isEngineering) {
+        // First pass: collect all observations and the positions of their targets. This is done sequentially
+        // because it involves calls to the Horizons service for non-sidereal targets.
+        final List<Observation> candidates = new ArrayList<>();
+        final List<PendingTarget> pending = new ArrayList<>();
         for (Program p : programs) {
             if (p.getObservationsNode() == null || p.getObservationsNode().getObservations() == null) {
                 continue;
@@ -108,46 +119,81 @@ public class TargetsCollector {
                 } else {
                     observation = new ScienceObservation(o.getId());
                 }
+                candidates.add(observation);
 
                 for (Object t : o.getTargetsNode().getTargets()) {
                     if (t instanceof Sidereal) {
                         WorldCoords c = new WorldCoords(((Sidereal)t).getHmsDms().getRa(), ((Sidereal)t).getHmsDms().getDec());
-                        try {
-                            Visibility visibility = visibilityCalculator.calculateVisibility(c);
-                            if (visibility.isVisible() && visibility.getMaxDurationAboveLimit(night).isLongerThan(minVisibilityDuration)) {
-                                if (isEngineering) {
-                                    observation.getTargets().add(createEngineeringSidereal((Sidereal) t, c, visibility));
-                                } else {
-                                    observation.getTargets().add(createScienceSidereal((Sidereal) t, c, visibility));
-                                }
-                            } else {
-                                LOGGER.debug("Sidereal target: skipped position " + c + " for target \"" + ((Sidereal) t).getName() + "\" because it is not visible at all or not visible long enough");
-                            }
-                        } catch (Exception e) {
-                            // TODO: how to deal with targets that rise or set multiple times, this can happen when creating test data covering 24 hrs (will not happen for real data)
-                            LOGGER.error(String.format("Could not add sidereal target at RA=%s Dec=%s (this should only happen when creating test data!)", c.getRA(), c.getDec()), e);
+                        if (isEngineering) {
+                            pending.add(createEngineeringSidereal(observation, (Sidereal) t, c));
+                        } else {
+                            pending.add(createScienceSidereal(observation, (Sidereal) t, c));
                         }
                     } else if (t instanceof NonSidereal) {
                         try {
-                            observation.getTargets().addAll(createNonSidereal((NonSidereal) t));
+                            pending.addAll(createNonSidereal(observation, (NonSidereal) t));
                         } catch (Exception e) {
-                            // TODO: how to deal with targets that rise or set multiple times, this can happen when creating test data covering 24hrs (will not happen for real data)
-                            LOGGER.error(String.format("Could not add non sidereal target %s (this should only happen when creating test data!)", ((NonSidereal) t).getName()), e);
+                            LOGGER.error(String.format("Could not add non sidereal target %s", ((NonSidereal) t).getName()), e);
                         }
                     } else {
                         throw new RuntimeException("unknown target type" + t);
                     }
                 }
+            }
+        }
 
-                // only add this observation if the science target has not been filtered
-                // (e.g. because it is not visible or for some other reason)
-                if (hasScienceTarget(observation)) {
-                    observations.add(observation);
-                }
+        // Second pass: calculate the visibility of all positions in parallel.
+        final List<WorldCoords> positions = new ArrayList<>();
+        for (PendingTarget t : pending) {
+            if (t.position != null) {
+                positions.add(t.position);
+            }
+        }
+        final Iterator<VisibilityStage.Result> results = new VisibilityStage(visibilityCalculator).calculate(positions).iterator();
+        visibilityCache.logStatistics();
+
+        // Third pass: merge the results in the original order, this keeps the grouping of nearby targets
+        // independent of the order in which the visibilities have been calculated.
+        for (PendingTarget t : pending) {
+            if (t.position == null) {
+                addPlaceHolder(t);
+            } else {
+                addIfVisible(t, results.next());
+            }
+        }
+
+        // only add observations if the science target has not been filtered
+        // (e.g. because it is not visible or for some other reason)
+        for (Observation observation : candidates) {
+            if (hasScienceTarget(observation)) {
+                observations.add(observation);
             }
         }
     }
 
+    private void addIfVisible(PendingTarget t, VisibilityStage.Result result) {
+        if (result.hasError()) {
+            // TODO: how to deal with targets that rise or set multiple times, this can happen when creating test data covering 24 hrs (will not happen for real data)
+            LOGGER.error(String.format("Could not add %s at RA=%s Dec=%s (this should only happen when creating test data!)", t.description, t.position.getRA(), t.position.getDec()), result.getError());
+            return;
+        }
+
+        final Visibility visibility = result.getVisibility();
+        if (visibility.isVisible() && visibility.getMaxDurationAboveLimit(night).isLongerThan(minVisibilityDuration)) {
+            laserTargets.addObservationTarget(t.target, visibility);
+            t.observation.getTargets().add(t.target);
+            LOGGER.debug("Added position " + t.position + " for " + t.description);
+        } else {
+            LOGGER.debug("Skipped position " + t.position + " for " + t.description + " because it is not visible at all or not visible long enough");
+        }
+    }
+
+    private void addPlaceHolder(PendingTarget t) {
+        laserTargets.addObservationTarget(t.target, Visibility.NEVER);
+        t.observation.getTargets().add(t.target);
+        LOGGER.info("Added place-holder position (0,0) for " + t.description + " which is unknown to Horizons.");
+    }
+
     public void addTargets(List<EngTargetTemplate> engineeringTargets) {
         int i = 1;
         for (EngTargetTemplate e : engineeringTargets) {
@@ -187,30 +233,26 @@ public class TargetsCollector {
 
     // ================== SIDEREAL ============================================
 
-    private ObservationTarget createScienceSidereal(Sidereal t, WorldCoords c, Visibility visibility) {
+    private PendingTarget createScienceSidereal(Observation observation, Sidereal t, WorldCoords c) {
         SiderealTarget obsTarget = new SiderealTarget(t.getName(), t.getType(), c.getRaDeg(), c.getDecDeg());
-        laserTargets.addObservationTarget(obsTarget, visibility);
-        LOGGER.debug("Sidereal target: added position " + c + " for target \"" + t.getName() + "\"");
-        return obsTarget;
+        return new PendingTarget(observation, obsTarget, c, "sidereal target \"" + t.getName() + "\"");
     }
 
 
 
     // ================== ENGINEERING =========================================
 
-    private ObservationTarget createEngineeringSidereal(Sidereal t, WorldCoords c, Visibility visibility) {
+    private PendingTarget createEngineeringSidereal(Observation observation, Sidereal t, WorldCoords c) {
         EngineeringTarget obsTarget = new EngineeringTarget(t.getName(), c.getRaDeg(), c.getDecDeg());
-        laserTargets.addObservationTarget(obsTarget, visibility);
-        LOGGER.debug("Engineering target: added position " + c + " for target \"" + t.getName() + "\"");
-        return obsTarget;
+        return new PendingTarget(observation, obsTarget, c, "engineering target \"" + t.getName() + "\"");
     }
 
 
     // ================== NON-SIDEREAL ========================================
 
-    private Set<ObservationTarget> createNonSidereal(final NonSidereal t) {
+    private List<PendingTarget> createNonSidereal(final Observation observation, final NonSidereal t) {
 
-        final Set<ObservationTarget> obsTargets = new HashSet<>();
+        final List<PendingTarget> pending = new ArrayList<>();
 
         final Option<HorizonsDesignation> horizonsDesignation =
             ImOption.apply(t.getHorizonsObjectId())
@@ -223,6 +265,8 @@ public class TargetsCollector {
             horizonsDesignation.map(hd -> horizonsService.getCoordinates(night, hd))
                                .getOrElse(Collections.emptyList());
 
+        final String description = "non-sidereal target \"" + t.getName() + "\" [" + queryString + "]";
+
         // check if horizons service returned something
         if (coordinates.size() == 0) {
             // could not find object in Horizons database (either not unique or did not exist)
@@ -237,9 +281,7 @@ public class TargetsCollector {
                             coordinate.getRaDeg(),
                             coordinate.getDecDeg()
                     );
-            laserTargets.addObservationTarget(target, Visibility.NEVER);
-            obsTargets.add(target);
-            LOGGER.info("Non-sidereal target: added place-holder position (0,0) for target \"" + t.getName() + "\" [" + queryString + "] which is unknown to Horizons.");
+            pending.add(new PendingTarget(observation, target, null, description));
         } else {
             // we have at least one position for this object, go ahead and use the position(s) returned by Horizons
             for (final WorldCoords coordinate : coordinates) {
@@ -250,18 +292,29 @@ public class TargetsCollector {
                                 queryString,
                                 coordinate.getRaDeg(),
                                 coordinate.getDecDeg());
-                final Visibility visibility = visibilityCalculator.calculateVisibility(coordinate);
-                if (visibility.isVisible() && visibility.getMaxDurationAboveLimit(night).isLongerThan(minVisibilityDuration)) {
-                    laserTargets.addObservationTarget(target, visibility);
-                    obsTargets.add(target);
-                    LOGGER.debug("Non-sidereal target: Added position " + coordinate + " for target \"" + t.getName() + "\" [" + queryString + "]");
-                } else {
-                    LOGGER.debug("Non-sidereal target: Skipped position " + coordinate + " for target \"" + t.getName() + "\" [" + queryString + "] because it is not visible at all or not visible long enough.");
-                }
+                pending.add(new PendingTarget(observation, target, coordinate, description));
             }
         }
 
-        return obsTargets;
+        return pending;
+    }
+
+    /**
+     * An observation target whose visibility still needs to be checked before it can be added to its observation.
+     * Place holders for non-sidereal targets which are unknown to Horizons don't have a position and are always added.
+     */
+    private static class PendingTarget {
+        private final Observation observation;
+        private final ObservationTarget target;
+        private final WorldCoords position;
+        private final String description;
+
+        PendingTarget(Observation observation, ObservationTarget target, WorldCoords position, String description) {
+            this.observation = observation;
+            this.target = target;
+            this.position = position;
+            this.description = description;
+        }
     }
 
     // ================================================================
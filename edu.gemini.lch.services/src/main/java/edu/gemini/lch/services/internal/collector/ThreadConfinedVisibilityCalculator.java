@@ -0,0 +1,38 @@
+package edu.gemini.lch.services.internal.collector;
+
+import edu.gemini.lch.model.Visibility;
+import edu.gemini.lch.services.VisibilityCalculator;
+import jsky.coords.WorldCoords;
+import org.apache.commons.lang.Validate;
+
+import java.util.function.Supplier;
+
+/**
+ * A visibility calculator that can safely be used by several threads at the same time.
+ * The calculators doing the actual work use a stateful sky calculator and must not be shared between threads,
+ * therefore every thread that uses this calculator gets its own delegate which is created on first use.
+ */
+class ThreadConfinedVisibilityCalculator implements VisibilityCalculator {
+
+    private final ThreadLocal<VisibilityCalculator> calculator;
+
+    ThreadConfinedVisibilityCalculator(Supplier<VisibilityCalculator> factory) {
+        Validate.notNull(factory);
+        this.calculator = ThreadLocal.withInitial(factory);
+    }
+
+    @Override
+    public Visibility calculateVisibility(WorldCoords obj) {
+        return calculator.get().calculateVisibility(obj);
+    }
+
+    @Override
+    public Double getHorizon() {
+        return calculator.get().getHorizon();
+    }
+
+    @Override
+    public Double getLaserLimit() {
+        return calculator.get().getLaserLimit();
+    }
+}
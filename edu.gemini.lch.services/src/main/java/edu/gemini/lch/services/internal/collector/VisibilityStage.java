@@ -0,0 +1,161 @@
+package edu.gemini.lch.services.internal.collector;
+
+import edu.gemini.lch.model.Visibility;
+import edu.gemini.lch.services.VisibilityCalculator;
+import jsky.coords.WorldCoords;
+import org.apache.commons.lang.Validate;
+import org.apache.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Calculates the visibility of a batch of positions in parallel.
+ * Calculating the visibility of a single position is expensive (the altitude is calculated for many points in
+ * time during the night), nights with a lot of targets therefore take a long time to be created or updated when
+ * doing this sequentially. This stage distributes the positions over a bounded fork-join pool which is shared by
+ * all collectors. The results are returned in the same order as the positions, this allows callers to merge them
+ * deterministically with the rest of their data.
+ * Note that the calculator used by this stage must be safe for use by several threads at the same time, see
+ * {@link ThreadConfinedVisibilityCalculator}.
+ */
+public class VisibilityStage {
+
+    private static final Logger LOGGER = Logger.getLogger(VisibilityStage.class.getName());
+
+    /** Batches that are smaller than this are calculated in the calling thread, forking is not worth it for them. */
+    static final int MIN_PARALLEL_BATCH = 32;
+
+    /** Max number of positions that are calculated by one task without splitting it up further. */
+    private static final int MAX_TASK_SIZE = 16;
+
+    /** Max number of threads used for calculations; we don't want to starve all other activities on the server. */
+    private static final int MAX_PARALLELISM = 8;
+
+    private static final ForkJoinPool SHARED_POOL = new ForkJoinPool(
+            Math.max(1, Math.min(MAX_PARALLELISM, Runtime.getRuntime().availableProcessors())));
+
+    private final VisibilityCalculator calculator;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a stage that uses the shared pool.
+     * @param calculator
+     */
+    public VisibilityStage(VisibilityCalculator calculator) {
+        this(calculator, SHARED_POOL);
+    }
+
+    /**
+     * Creates a stage that uses the given pool.
+     * @param calculator
+     * @param pool
+     */
+    public VisibilityStage(VisibilityCalculator calculator, ForkJoinPool pool) {
+        Validate.notNull(calculator);
+        Validate.notNull(pool);
+        this.calculator = calculator;
+        this.pool = pool;
+    }
+
+    /**
+     * Calculates the visibility for all given positions.
+     * Errors are reported per position and don't affect the calculation for any other positions.
+     * @param positions
+     * @return the results in the same order as the positions
+     */
+    public List<Result> calculate(List<WorldCoords> positions) {
+        if (positions.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final long start = System.nanoTime();
+        final Result[] results = new Result[positions.size()];
+        final WorldCoords[] input = positions.toArray(new WorldCoords[positions.size()]);
+        final boolean parallel = input.length >= MIN_PARALLEL_BATCH && pool.getParallelism() > 1;
+        if (parallel) {
+            pool.invoke(new CalculateTask(input, results, 0, input.length));
+        } else {
+            calculate(input, results, 0, input.length);
+        }
+        final long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+        LOGGER.info(String.format("Calculated visibility for %d positions in %d ms (%.1f positions/s, %d threads)",
+                input.length, millis, input.length * 1000.0 / millis, parallel ? pool.getParallelism() : 1));
+
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    private void calculate(WorldCoords[] input, Result[] results, int from, int to) {
+        for (int i = from; i < to; i++) {
+            try {
+                results[i] = new Result(input[i], calculator.calculateVisibility(input[i]), null);
+            } catch (Exception e) {
+                results[i] = new Result(input[i], null, e);
+            }
+        }
+    }
+
+    /**
+     * Fork-join task that splits the positions until the chunks are small enough to be calculated directly.
+     * Every task writes to its own range of the results array only.
+     */
+    private class CalculateTask extends RecursiveAction {
+        private final WorldCoords[] input;
+        private final Result[] results;
+        private final int from;
+        private final int to;
+
+        CalculateTask(WorldCoords[] input, Result[] results, int from, int to) {
+            this.input = input;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= MAX_TASK_SIZE) {
+                calculate(input, results, from, to);
+            } else {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new CalculateTask(input, results, from, mid), new CalculateTask(input, results, mid, to));
+            }
+        }
+    }
+
+    /**
+     * The result of the visibility calculation for a single position.
+     * Either the visibility or the error is set.
+     */
+    public static final class Result {
+        private final WorldCoords position;
+        private final Visibility visibility;
+        private final Exception error;
+
+        private Result(WorldCoords position, Visibility visibility, Exception error) {
+            this.position = position;
+            this.visibility = visibility;
+            this.error = error;
+        }
+
+        public WorldCoords getPosition() {
+            return position;
+        }
+
+        public Visibility getVisibility() {
+            return visibility;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        public boolean hasError() {
+            return error != null;
+        }
+    }
+}
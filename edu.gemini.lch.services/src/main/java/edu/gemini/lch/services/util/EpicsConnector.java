@@ -28,6 +28,7 @@ public class EpicsConnector implements EpicsClient, EpicsService.Connector {
 
     private edu.gemini.epics.EpicsService epicsService;
     private EpicsObserver observer;
+    private volatile EpicsService.Listener listener;
     private DateTime lastUpdate;
 
     /**
@@ -139,11 +140,20 @@ public class EpicsConnector implements EpicsClient, EpicsService.Connector {
         return lastUpdate;
     }
 
+    /** {@inheritDoc} */
+    @Override public void setListener(EpicsService.Listener listener) {
+        this.listener = listener;
+    }
+
     /** {@inheritDoc} */
     @Override public <T> void valueChanged(String channel, List<T> values) {
         if (values != null && !values.isEmpty()) {
             readChannels.put(channel, values.get(0));
             lastUpdate = DateTime.now();
+            EpicsService.Listener l = listener;
+            if (l != null) {
+                l.valueChanged(getOriginalChannelName(channel), values.get(0));
+            }
         }
     }
 
@@ -220,6 +230,19 @@ public class EpicsConnector implements EpicsClient, EpicsService.Connector {
         }
     }
 
+    /**
+     * Reverse of {@link #getAliasChannelName(String)}, gets the channel name used by the higher levels.
+     * @param channelName
+     * @return
+     */
+    private String getOriginalChannelName(String channelName) {
+        if (useTcsSimulation && channelName.startsWith("tc1:")) {
+            return channelName.replace("tc1:", "tcs:");
+        } else {
+            return channelName;
+        }
+    }
+
 
 }
 
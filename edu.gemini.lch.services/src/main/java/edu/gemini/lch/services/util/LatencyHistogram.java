@@ -0,0 +1,144 @@
+package edu.gemini.lch.services.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A simple, thread safe histogram for latencies.
+ * Latencies are counted in buckets with exponentially growing upper limits (1ms, 2ms, 4ms, .. ~30s), this
+ * is coarse but good enough to see if something takes a few or a few hundred milliseconds and it allows to
+ * record values without any locking or allocations.
+ */
+public class LatencyHistogram {
+
+    /** Number of buckets, the last bucket collects everything above ~30 seconds. */
+    public static final int BUCKETS = 16;
+
+    private final String name;
+    private final AtomicLongArray counts;
+    private final AtomicLong total;
+    private final AtomicLong sumMicros;
+    private final AtomicLong maxMicros;
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.total = new AtomicLong(0);
+        this.sumMicros = new AtomicLong(0);
+        this.maxMicros = new AtomicLong(0);
+    }
+
+    /**
+     * Records the time that has passed since the given start time.
+     * @param startNanos start time as returned by {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a latency.
+     * @param nanos
+     */
+    public void record(long nanos) {
+        final long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(bucket(micros));
+        total.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        long max;
+        do {
+            max = maxMicros.get();
+        } while (micros > max && !maxMicros.compareAndSet(max, micros));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    /**
+     * Gets the number of latencies recorded in the given bucket.
+     * @param bucket
+     * @return
+     */
+    public long getCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * Gets the upper limit of the given bucket in milliseconds.
+     * @param bucket
+     * @return
+     */
+    public static long getUpperLimitMillis(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public double getMeanMillis() {
+        final long n = total.get();
+        return n == 0 ? 0.0 : sumMicros.get() / 1000.0 / n;
+    }
+
+    public double getMaxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+
+    /**
+     * Gets the upper limit of the bucket the given percentile falls into.
+     * @param percentile a value between 0 and 100
+     * @return upper limit in milliseconds
+     */
+    public long getPercentileMillis(double percentile) {
+        final long n = total.get();
+        if (n == 0) {
+            return 0;
+        }
+        final long threshold = (long) Math.ceil(n * percentile / 100.0);
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+            if (count >= threshold) {
+                return getUpperLimitMillis(i);
+            }
+        }
+        return getUpperLimitMillis(BUCKETS - 1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        sumMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s: n=%d mean=%.1fms p50<=%dms p99<=%dms max=%.1fms [",
+                name, getCount(), getMeanMillis(), getPercentileMillis(50), getPercentileMillis(99), getMaxMillis()));
+        for (int i = 0; i < BUCKETS; i++) {
+            final long c = counts.get(i);
+            if (c > 0) {
+                sb.append(i == BUCKETS - 1 ? " >" + (1L << (i - 1)) : " <=" + getUpperLimitMillis(i));
+                sb.append("ms:").append(c);
+            }
+        }
+        return sb.append(" ]").toString();
+    }
+
+    // bucket 0 is up to 1ms, bucket 1 up to 2ms, bucket 2 up to 4ms etc.
+    private static int bucket(long micros) {
+        if (micros <= 1000) {
+            return 0;
+        }
+        final long millis = (micros + 999) / 1000;
+        final int bucket = 64 - Long.numberOfLeadingZeros(millis - 1);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+}
@@ -2,6 +2,7 @@ package edu.gemini.lch.services.util;
 
 import edu.gemini.lch.configuration.Configuration;
 import edu.gemini.lch.model.AzElLaserTarget;
+import edu.gemini.lch.model.EventFile;
 import edu.gemini.lch.model.LaserNight;
 import edu.gemini.lch.model.LaserTarget;
 import edu.gemini.lch.model.RaDecLaserTarget;
@@ -11,6 +12,13 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
@@ -20,6 +28,9 @@ import java.util.Set;
  */
 public interface PrmFile {
 
+    /** Encoding used for all PRM files, same as for event files so that the bytes can be stored as they are. */
+    Charset CHARSET = EventFile.CHARSET;
+
     /**
      * Helper class for creation of RaDec PRM files.
      */
@@ -35,9 +46,9 @@ public interface PrmFile {
             this.engine.addReplacement("TARGET-TYPE", "RADEC");
             createFiles(night.getRaDecLaserTargets());
         }
-        protected String fillLaserTargetTemplate(LaserTarget target) {
+        protected void fillLaserTargetTemplate(LaserTarget target, StringBuilder file) {
             this.engine.setLaserTarget((RaDecLaserTarget) target);
-            return engine.fillTemplate(Configuration.Value.PRM_RADEC_TARGET_TEMPLATE);
+            engine.fillTemplate(Configuration.Value.PRM_RADEC_TARGET_TEMPLATE, file);
         }
     }
 
@@ -56,9 +67,9 @@ public interface PrmFile {
             this.engine.addReplacement("TARGET-TYPE", "AZEL");
             createFiles(night.getAzElLaserTargets());
         }
-        protected String fillLaserTargetTemplate(LaserTarget target) {
+        protected void fillLaserTargetTemplate(LaserTarget target, StringBuilder file) {
             this.engine.setLaserTarget((AzElLaserTarget) target);
-            return engine.fillTemplate(Configuration.Value.PRM_AZEL_TARGET_TEMPLATE);
+            engine.fillTemplate(Configuration.Value.PRM_AZEL_TARGET_TEMPLATE, file);
         }
     }
 
@@ -71,7 +82,14 @@ public interface PrmFile {
         protected final Integer maxTargets;
         protected TemplateEngine engine;
 
-        protected abstract String fillLaserTargetTemplate(LaserTarget target);
+        // buffers are reused for all files created by this creator, only the final bytes of each file are copied
+        private final StringBuilder buffer = new StringBuilder(16384);
+        private final CharsetEncoder encoder = CHARSET.newEncoder().
+                onMalformedInput(CodingErrorAction.REPLACE).
+                onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer bytes = ByteBuffer.allocate(16384);
+
+        protected abstract void fillLaserTargetTemplate(LaserTarget target, StringBuilder file);
 
         protected Creator(LaserNight night, Integer maxTargets) {
             this.night = night;
@@ -86,12 +104,13 @@ public interface PrmFile {
         protected void createFiles(Collection<? extends LaserTarget> targets) {
             int targetCount = 0;
             int fileNumber = 1;
-            StringBuffer file = null;
+            StringBuilder file = null;
             String fileName = "";
             for (LaserTarget t : targets) {
                 if (file == null) {
                     // -- no current file, start a new one
-                    file = new StringBuffer();
+                    file = buffer;
+                    file.setLength(0);
 
                     // -- for files we have two special replacements the template engine has to know about
                     engine.addReplacement("FILE-NUMBER", targets.size() > maxTargets ? "."+fileNumber : "");
@@ -99,48 +118,89 @@ public interface PrmFile {
                     fileName = engine.fillTemplate(Configuration.Value.PRM_FILENAME_TEMPLATE);
                     engine.addReplacement("FILE-NAME", fileName);
 
-                    String prmHeader = engine.fillTemplate(Configuration.Value.PRM_HEADER_TEMPLATE);
-                    file.append(prmHeader);
+                    engine.fillTemplate(Configuration.Value.PRM_HEADER_TEMPLATE, file);
                 }
 
                 // -- appending another laser target
-                file.append(fillLaserTargetTemplate(t));
+                fillLaserTargetTemplate(t, file);
                 targetCount++;
 
                 if (targetCount % maxTargets == 0 || targetCount == targets.size()) {
                     // -- either the current file ends here ..
                     fileNumber++;
-                    String prmFooter = engine.fillTemplate(Configuration.Value.PRM_FOOTER_TEMPLATE);
-                    file.append(prmFooter);
-                    files.add(new File(fileName, file.toString()));
+                    engine.fillTemplate(Configuration.Value.PRM_FOOTER_TEMPLATE, file);
+                    files.add(new File(fileName, encode(file)));
                     file = null;
                 } else {
                     // -- .. or we write the separator and are ready for another target
-                    String targetSeparator = engine.fillTemplate(Configuration.Value.PRM_TARGET_SEPARATOR_TEMPLATE);
-                    file.append(targetSeparator);
+                    engine.fillTemplate(Configuration.Value.PRM_TARGET_SEPARATOR_TEMPLATE, file);
                 }
             }
         }
+
+        /**
+         * Encodes the rendered file into the reusable byte buffer and returns an exact copy of the encoded bytes.
+         * @param file
+         * @return
+         */
+        private byte[] encode(CharSequence file) {
+            final int maxSize = (int) Math.ceil(file.length() * (double) encoder.maxBytesPerChar());
+            if (bytes.capacity() < maxSize) {
+                bytes = ByteBuffer.allocate(maxSize);
+            }
+            bytes.clear();
+            encoder.reset();
+            encoder.encode(CharBuffer.wrap(file), bytes, true);
+            encoder.flush(bytes);
+            bytes.flip();
+            final byte[] encoded = new byte[bytes.remaining()];
+            bytes.get(encoded);
+            return encoded;
+        }
     }
 
     /**
-     * PRM file representation holding the file and the file name.
+     * PRM file representation holding the encoded file and the file name.
+     * The bytes are created once and shared by all consumers (upload, email attachments, downloads), they must
+     * not be changed.
      */
     class File {
         private final String name;
-        private final String file;
+        private final byte[] bytes;
 
-        public File(String name, String file)  {
+        public File(String name, byte[] bytes)  {
             this.name = name;
-            this.file = file;
+            this.bytes = bytes;
         }
 
         public String getName() {
             return name;
         }
 
+        /**
+         * Gets the content of this file as a string.
+         * Note that this decodes the file every time it is called, use {@link #openStream()} or {@link #getBytes()}
+         * where possible.
+         * @return
+         */
         public String getFile() {
-            return file;
+            return new String(bytes, CHARSET);
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public int getSize() {
+            return bytes.length;
+        }
+
+        /**
+         * Opens a new stream on the content of this file without copying it.
+         * @return
+         */
+        public InputStream openStream() {
+            return new ByteArrayInputStream(bytes);
         }
     }
 }
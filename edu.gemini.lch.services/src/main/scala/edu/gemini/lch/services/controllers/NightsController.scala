@@ -7,9 +7,10 @@ import org.joda.time.format.DateTimeFormat
 import org.joda.time.{DateTime, DateTimeZone}
 import scala.collection.JavaConversions._
 import org.springframework.http.HttpStatus
-import edu.gemini.lch.services.{SiteService, LaserNightService}
+import edu.gemini.lch.services.{AlarmService, ConfigurationService, SiteService, LaserNightService}
+import edu.gemini.lch.services.impl.VisibilityCache
 import edu.gemini.lch.model._
-import edu.gemini.lch.services.impl.VisibilityCalculatorImpl
+import edu.gemini.lch.configuration.{Configuration, Selection}
 import org.apache.log4j.Logger
 
 // aliases
@@ -42,6 +43,9 @@ class NightsController {
 
   @Resource var nightService: LaserNightService = null
   @Resource var siteService: SiteService = null
+  @Resource var configurationService: ConfigurationService = null
+  @Resource var visibilityCache: VisibilityCache = null
+  @Resource var alarmService: AlarmService = null
 
   val longAgo = new DateTime(DateTime.now minusYears 1).withTimeAtStartOfDay()
   val farAway = new DateTime(DateTime.now plusYears 1).withTimeAtStartOfDay()
@@ -109,13 +113,14 @@ class NightsController {
 
   def getFullNight(date: DateTime, laserLimit: Option[Double]) : Night = {
 
-    val night = nightService.loadLaserNight(date.withTimeAtStartOfDay())
-    if (night == null) throw new NightNotFoundException
+    val view = getNightView(date.withTimeAtStartOfDay())
+    val night = view.getNight
 
-    val calculator = new VisibilityCalculatorImpl(night.getSite(), night.getStart(), night.getEnd, new java.lang.Double(laserLimit.getOrElse(40.0)))
-    val targetTOs = TOFactory.toLaserTargetTOs(night, calculator, night.getLaserTargets.toSet)
+    val algorithm = configurationService.getSelection(Configuration.Value.VISIBILITY_ALGORITHM).asInstanceOf[Selection.VisibilityAlgorithm]
+    val calculator = visibilityCache.createCalculator(algorithm, night.getSite(), night.getStart(), night.getEnd, new java.lang.Double(laserLimit.getOrElse(40.0)))
+    val targetTOs = TOFactory.toLaserTargetTOs(night, calculator, view.getLaserTargets.toSet)
     val laserTargetTOsMap = targetTOs map { lt => (lt.getId, lt)} toMap
-    val observationTOs = toObservationTOs(night.getObservations.toSet, laserTargetTOsMap)
+    val observationTOs = toObservationTOs(view, laserTargetTOsMap)
 
     val nightTO = new NightTO
     nightTO.getLaserTargets.addAll(targetTOs.toList)
@@ -124,6 +129,15 @@ class NightsController {
     nightTO
   }
 
+  // the alarm service already holds a view of the current night, only other nights have to be loaded
+  def getNightView(day: DateTime): NightView = {
+    val night = nightService.getLaserNight(day)
+    if (night == null) throw new NightNotFoundException
+    val current = alarmService.getSnapshot.getNightView
+    if (current != null && current.getNight.getId == night.getId) current
+    else new NightView(nightService.loadLaserNightTargets(night.getId), null, null)
+  }
+
   def getDay(nightId: String): DateTime = {
     try {
       formatter.parseDateTime(nightId).withTimeAtStartOfDay()
@@ -132,10 +146,10 @@ class NightsController {
     }
   }
 
-  def toObservationTOs(observations: Set[Observation], xmlLaserTargetsMap: Map[String, LaserTargetTO]): Set[ObservationTO] =
-    observations map {
+  def toObservationTOs(view: NightView, xmlLaserTargetsMap: Map[String, LaserTargetTO]): Set[ObservationTO] =
+    view.getObservations.toSet map {
       obs: Observation =>
-        val observationTargets = toObservationTargetTOs(obs.getTargets.toSet, xmlLaserTargetsMap)
+        val observationTargets = toObservationTargetTOs(view.getTargets(obs).toSet, xmlLaserTargetsMap)
         new ObservationTO(obs.getObservationId, observationTargets.toList)
     }
 
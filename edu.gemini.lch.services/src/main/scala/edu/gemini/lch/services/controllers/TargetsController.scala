@@ -8,6 +8,7 @@ import org.joda.time.{DateTime, DateTimeZone}
 import scala.collection.JavaConversions._
 import org.springframework.http.HttpStatus
 import edu.gemini.lch.services.{AlarmService, LaserTargetsService, LaserNightService}
+import edu.gemini.lch.services.SnapshotDelta.Facet
 import edu.gemini.lch.services.model.{LaserTarget => XmlLaserTarget, ShortObservation => ShortObservationTO, ClearanceWindow => ClearanceWindowTO, ShutteringWindow => ShutteringWindowTO, Coordinates}
 
 // aliases
@@ -32,6 +33,11 @@ class TargetsController {
   @Resource
   var alarmService: AlarmService = null
 
+  // transfer objects for the current target with and without blanket closures together with the snapshot
+  // they were created from; they only need to be recreated if the night, the target or its windows change
+  @volatile private var targetTO: (AlarmService.Snapshot, XmlLaserTarget) = null
+  @volatile private var targetWithClosuresTO: (AlarmService.Snapshot, XmlLaserTarget) = null
+
   @RequestMapping(value=Array("", "/"), method=Array(RequestMethod.GET), produces=Array("application/xml", "application/json"))
   @ResponseBody
   def queryTarget(
@@ -65,12 +71,27 @@ class TargetsController {
 
   def getTarget(snapshot: AlarmService.Snapshot, includeBlanketClosures: java.lang.Boolean): XmlLaserTarget = {
       if (includeBlanketClosures != null && includeBlanketClosures) {
-        TOFactory.toLaserTargetTO(snapshot.getNight, snapshot.getTarget, snapshot.getPropagationWindows.toList, snapshot.getShutteringWindows.toList)
+        val cached = targetWithClosuresTO
+        if (isUpToDate(snapshot, cached)) cached._2
+        else {
+          val to = TOFactory.toLaserTargetTO(snapshot.getNight, snapshot.getTarget, snapshot.getPropagationWindows.toList, snapshot.getShutteringWindows.toList)
+          targetWithClosuresTO = (snapshot, to)
+          to
+        }
       } else {
-        TOFactory.toLaserTargetTO(snapshot.getNight, snapshot.getTarget)
+        val cached = targetTO
+        if (isUpToDate(snapshot, cached)) cached._2
+        else {
+          val to = TOFactory.toLaserTargetTO(snapshot.getNight, snapshot.getTarget)
+          targetTO = (snapshot, to)
+          to
+        }
       }
   }
 
+  private def isUpToDate(snapshot: AlarmService.Snapshot, cached: (AlarmService.Snapshot, XmlLaserTarget)): Boolean =
+    cached != null && !snapshot.getDelta(cached._1).hasChanged(Facet.NIGHT, Facet.TARGET, Facet.WINDOWS)
+
   @RequestMapping(value=Array("/{targetId}/timeline"), method=Array(RequestMethod.GET), produces=Array("image/png"))
   @ResponseBody
   def getImageForTarget(
@@ -107,8 +128,10 @@ class TargetsController {
   def getObservationsForTarget(@PathVariable targetId : Long) : ObservationListTO = {
 
     val snapshot = alarmService.getSnapshot
-    new ObservationListTO(
-      snapshot.getObservations.flatMap(o => o.getTargets.
+    val view = snapshot.getNightView
+    if (view == null) new ObservationListTO()
+    else new ObservationListTO(
+      snapshot.getObservations.flatMap(o => view.getTargets(o).
         map(t => new ShortObservationTO(o.getObservationId, t.getName, t.getType, TOFactory.toCoordinatesTO(t)))).
         toList
     )
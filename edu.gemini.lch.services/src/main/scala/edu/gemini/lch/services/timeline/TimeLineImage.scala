@@ -13,7 +13,6 @@ import java.awt.font.FontRenderContext
 import jsky.coords.WorldCoords
 import scala.Some
 import scala.List
-import java.util.Date
 import jsky.plot.util.SkyCalc
 
 /**
@@ -68,34 +67,8 @@ case class TimeLineImage(
 
   // all the heavy lifting is done only when we actually need to create the image
   def bytes = {
-    val calc = ModelFactory.createSunCalculator(night)
     val sky  = ModelFactory.createSkyCalculator(night.getSite)
-
-    val parts =
-      List[Part]():+
-      Part(PartType.Day,                   new Date(calc.getSunset.getTime - 24*3600*1000), calc.getSunset):+
-      Part(PartType.CivilTwilight,         calc.getSunset, calc.getCivilTwilightStart):+
-      Part(PartType.NauticalTwilight,      calc.getCivilTwilightStart, calc.getNauticalTwilightStart):+
-      Part(PartType.AstronomicalTwilight,  calc.getNauticalTwilightStart, calc.getAstronomicalTwilightStart):+
-      Part(PartType.Night,                 calc.getAstronomicalTwilightStart, calc.getAstronomicalTwilightEnd):+
-      Part(PartType.AstronomicalTwilight,  calc.getAstronomicalTwilightEnd, calc.getNauticalTwilightEnd):+
-      Part(PartType.NauticalTwilight,      calc.getNauticalTwilightEnd, calc.getCivilTwilightEnd):+
-      Part(PartType.CivilTwilight,         calc.getCivilTwilightEnd, calc.getSunrise):+
-      Part(PartType.Day,                   calc.getSunrise, new Date(calc.getSunrise.getTime + 24*3600*1000))
-
-    // TODO : nicefy this
-    val timeline =
-    if (target.isDefined) {
-      new Timeline(parts).
-        add((target.get.getVisibility.getVisibleIntervalsDuring(night) map (i => Part(PartType.Visible, i.getStart, i.getEnd))).toList).                //TODO: is there a nicer way to do this? why is toList necessary?
-        add((target.get.getVisibility.getVisibleIntervalsAboveLimitDuring(night) map (i => Part(PartType.AboveLimit, i.getStart, i.getEnd))).toList).
-        addPropagationWindows(target.get.getPropagationWindows.toList).
-        addShutteringWindows(target.get.getShutteringWindows.toList).
-        addBlanketClosures(night.getClosures.toList)
-    } else {
-      new Timeline(parts).
-        addBlanketClosures(night.getClosures.toList)
-    }
+    val timeline = parts
 
     val image = new BufferedImage(width, imgHeight, BufferedImage.TYPE_INT_RGB)
     val drawable = image.createGraphics()
@@ -105,7 +78,7 @@ case class TimeLineImage(
     drawable.fillRect(0, 0, width, imgHeight)
 
     // draw parts
-    val visibleParts = timeline.allParts.filter(p => p.start.isBefore(imageEnd) && p.end.isAfter(imageStart))
+    val visibleParts = timeline.filter(p => p.start.isBefore(imageEnd) && p.end.isAfter(imageStart))
     visibleParts.filter(p => !p.types.contains(PartType.Closed)) foreach (p => drawOpen(drawable, p))
     visibleParts.filter(p => p.types.contains(PartType.Closed))  foreach (p => drawClosed(drawable, p))
 
@@ -121,23 +94,50 @@ case class TimeLineImage(
     if (now.isDefined) drawNowMarker(drawable, now.get)
     if (text.isDefined) spacers map (t => drawHourText(drawable, t))
 
+    TimeLineImage.encode(image)
+  }
 
-    val imagebuffer = new ByteArrayOutputStream()
-    this.synchronized {
-      /* Write the image to a buffer. */
-      ImageIO.write(image, "png", imagebuffer)
-      image.flush()
-      imagebuffer.close()
-    }
+  /**
+   * Gets the parts of the time line: twilight, visibility of the target and its propagation and shuttering windows.
+   * @return
+   */
+  def parts: List[Part] = {
+    val calc = ModelFactory.getTwilight(night)
 
-    imagebuffer.toByteArray
+    val parts =
+      List[Part]():+
+      Part(PartType.Day,                   calc.getSunset.minusHours(24), calc.getSunset):+
+      Part(PartType.CivilTwilight,         calc.getSunset, calc.getCivilTwilightStart):+
+      Part(PartType.NauticalTwilight,      calc.getCivilTwilightStart, calc.getNauticalTwilightStart):+
+      Part(PartType.AstronomicalTwilight,  calc.getNauticalTwilightStart, calc.getAstronomicalTwilightStart):+
+      Part(PartType.Night,                 calc.getAstronomicalTwilightStart, calc.getAstronomicalTwilightEnd):+
+      Part(PartType.AstronomicalTwilight,  calc.getAstronomicalTwilightEnd, calc.getNauticalTwilightEnd):+
+      Part(PartType.NauticalTwilight,      calc.getNauticalTwilightEnd, calc.getCivilTwilightEnd):+
+      Part(PartType.CivilTwilight,         calc.getCivilTwilightEnd, calc.getSunrise):+
+      Part(PartType.Day,                   calc.getSunrise, calc.getSunrise.plusHours(24))
+
+    // visibility, windows and closures are combined with the twilight parts in one pass
+    val closures = night.getClosures.toList map (c => Part(PartType.Closed, c.getStart, c.getEnd))
+    val overlays =
+      if (target.isDefined) {
+        (target.get.getVisibility.getVisibleIntervalsDuring(night) map (i => Part(PartType.Visible, i.getStart, i.getEnd))).toList ++
+        (target.get.getVisibility.getVisibleIntervalsAboveLimitDuring(night) map (i => Part(PartType.AboveLimit, i.getStart, i.getEnd))).toList ++
+        (target.get.getPropagationWindows.toList map (w => Part(PartType.Open, w.getStart, w.getEnd))) ++
+        (target.get.getShutteringWindows.toList map (w => Part(PartType.Closed, w.getStart, w.getEnd))) ++
+        closures
+      } else {
+        closures
+      }
+
+    val timeline = new Timeline(parts).add(overlays)
+    timeline.allParts
   }
 
   private def drawElevation(drawable: Graphics2D, target: LaserTarget, sky: SkyCalc) {
     val c = new WorldCoords(target.getDegrees1, target.getDegrees2)
     val x = timeToX(imageStart)
     val y = elevationToY(c, imageStart, height, sky)
-    drawable.setColor(new Color(130,130,130))
+    drawable.setColor(TimeLineImage.COLOR_ELEVATION)
     drawElevationLine(drawable, c, imageStart.plusMinutes(2), x, y, sky)
   }
 
@@ -166,34 +166,16 @@ case class TimeLineImage(
    * @param t
    */
   private def drawNowMarker(drawable: Graphics2D, t: DateTime) {
-    val x = timeToX(t)
-    val upper = new Polygon( Array[Int](x-5, x+5, x), Array[Int](0, 0, 10), 3)
-    val lower = new Polygon( Array[Int](x-5, x+5, x), Array[Int](height, height, height-10), 3)
-
-    drawable.setColor(Color.LIGHT_GRAY)
-    drawable.drawRect(x-2, 0, 4, height)
-
-    drawable.setColor(TimeLineImage.COLOR_NOW)
-    drawable.drawRect(x-1, 0, 2, height)
-    drawable.fillPolygon(upper)
-    drawable.fillPolygon(lower)
-
-    drawable.setColor(Color.DARK_GRAY)
-    drawable.draw(upper)
-    drawable.draw(lower)
+    TimeLineImage.drawNowMarker(drawable, timeToX(t), height)
   }
 
   private def drawHourLine(drawable: Graphics2D, t: DateTime) {
-    if (t.getMinuteOfHour == 0) {
-      drawable.setColor(TimeLineImage.COLOR_HOUR_LINES)
-    } else {
-      drawable.setColor(TimeLineImage.COLOR_TIME_LINES)
-    }
+    drawable.setColor(TimeLineImage.hourLineColor(t))
     drawable.fillRect(timeToX(t), 0, TimeLineImage.HrsIntervalWidth, height)
   }
 
   private def drawOpen(drawable: Graphics2D, part: Part) {
-    drawable.setColor(color(part))
+    drawable.setColor(TimeLineImage.color(part))
     fillRect(drawable, part start, part end, 1)
   }
 
@@ -228,22 +210,10 @@ case class TimeLineImage(
   }
 
   private def drawHourText(drawable: Graphics2D, t: DateTime) {
-    val x = timeToX(t)
-    val font = new Font("Helvetica", Font.BOLD, text.get._1)
-    val ctx = new FontRenderContext(null, true, true)
-    val hour = t.toDateTime(text.get._2).toString("HH:mm")
-    val bounds = font.getStringBounds(hour, ctx)
-    val x2 = (x + 2 - bounds.getWidth/2).toInt
-    // only draw text if it fits on image
-    if (x2 >= 0 && x2 + bounds.getWidth <= width) {
-      drawable.setColor(TimeLineImage.COLOR_FONT)
-      drawable.setFont(font)
-      drawable.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON)
-      drawable.drawString(hour, x2, imgHeight - 2)
-    }
+    TimeLineImage.drawHourText(drawable, t, timeToX(t), text.get._1, text.get._2, width, imgHeight)
   }
 
-  private def spacing : Int = {
+  private[timeline] def spacing : Int = {
     val approxPixelsPerSecond = width.toDouble / imageDurationInSeconds.toDouble
     if (approxPixelsPerSecond * 60 * 1 >= 50) 1*60*1000
     else if (approxPixelsPerSecond * 60 * 5 >= 50) 5*60*1000
@@ -270,17 +240,6 @@ case class TimeLineImage(
       x + (spacers.count(st => st.isBefore(t)) * TimeLineImage.HrsIntervalWidth)
     }
 
-  private def color(p: Part) =
-    if      (!p.types.contains(PartType.Open) && p.types.contains(PartType.AboveLimit))                 TimeLineImage.COLOR_VISIBLE
-    else if (!p.types.contains(PartType.Open) && p.types.contains(PartType.Visible))                    TimeLineImage.COLOR_VISIBLE_BELOW
-    else if (p.types.contains(PartType.Open)  && p.types.contains(PartType.AboveLimit))                 TimeLineImage.COLOR_OPEN
-    else if (p.types.contains(PartType.Open)  && p.types.contains(PartType.Visible))                    TimeLineImage.COLOR_OPEN_BELOW
-    else if (p.types.contains(PartType.Night))                TimeLineImage.COLOR_NIGHT
-    else if (p.types.contains(PartType.Day))                  TimeLineImage.COLOR_DAY
-    else if (p.types.contains(PartType.AstronomicalTwilight)) TimeLineImage.COLOR_AST_TWI
-    else if (p.types.contains(PartType.NauticalTwilight))     TimeLineImage.COLOR_NAU_TWI
-    else if (p.types.contains(PartType.CivilTwilight))        TimeLineImage.COLOR_CIV_TWI
-    else                                                      TimeLineImage.COLOR_DAY
 }
 
 object TimeLineImage {
@@ -302,8 +261,72 @@ object TimeLineImage {
   final val COLOR_BACKGROUND     = Color.WHITE
   final val COLOR_NOW            = Color.YELLOW
   final val COLOR_BUFFERS        = new Color(255, 180, 180)
+  final val COLOR_ELEVATION      = new Color(130, 130, 130)
 
   final val stripes = ImageIO.read(getClass getResourceAsStream "stripes.png")
   final val stripesPaint = new TexturePaint(stripes, new Rectangle(0,0, stripes.getWidth, stripes.getHeight()))
+
+  private[timeline] def color(p: Part) =
+    if      (!p.types.contains(PartType.Open) && p.types.contains(PartType.AboveLimit))                 COLOR_VISIBLE
+    else if (!p.types.contains(PartType.Open) && p.types.contains(PartType.Visible))                    COLOR_VISIBLE_BELOW
+    else if (p.types.contains(PartType.Open)  && p.types.contains(PartType.AboveLimit))                 COLOR_OPEN
+    else if (p.types.contains(PartType.Open)  && p.types.contains(PartType.Visible))                    COLOR_OPEN_BELOW
+    else if (p.types.contains(PartType.Night))                COLOR_NIGHT
+    else if (p.types.contains(PartType.Day))                  COLOR_DAY
+    else if (p.types.contains(PartType.AstronomicalTwilight)) COLOR_AST_TWI
+    else if (p.types.contains(PartType.NauticalTwilight))     COLOR_NAU_TWI
+    else if (p.types.contains(PartType.CivilTwilight))        COLOR_CIV_TWI
+    else                                                      COLOR_DAY
+
+  private[timeline] def hourLineColor(t: DateTime) =
+    if (t.getMinuteOfHour == 0) COLOR_HOUR_LINES else COLOR_TIME_LINES
+
+  /**
+   * Draws a box around the current time.
+   * Don't draw a solid object in order not to hide the color below.
+   */
+  private[timeline] def drawNowMarker(drawable: Graphics2D, x: Int, height: Int) {
+    val upper = new Polygon( Array[Int](x-5, x+5, x), Array[Int](0, 0, 10), 3)
+    val lower = new Polygon( Array[Int](x-5, x+5, x), Array[Int](height, height, height-10), 3)
+
+    drawable.setColor(Color.LIGHT_GRAY)
+    drawable.drawRect(x-2, 0, 4, height)
+
+    drawable.setColor(COLOR_NOW)
+    drawable.drawRect(x-1, 0, 2, height)
+    drawable.fillPolygon(upper)
+    drawable.fillPolygon(lower)
+
+    drawable.setColor(Color.DARK_GRAY)
+    drawable.draw(upper)
+    drawable.draw(lower)
+  }
+
+  private[timeline] def drawHourText(drawable: Graphics2D, t: DateTime, x: Int, fontSize: Int, zone: DateTimeZone, width: Int, imgHeight: Int) {
+    val font = new Font("Helvetica", Font.BOLD, fontSize)
+    val ctx = new FontRenderContext(null, true, true)
+    val hour = t.toDateTime(zone).toString("HH:mm")
+    val bounds = font.getStringBounds(hour, ctx)
+    val x2 = (x + 2 - bounds.getWidth/2).toInt
+    // only draw text if it fits on image
+    if (x2 >= 0 && x2 + bounds.getWidth <= width) {
+      drawable.setColor(COLOR_FONT)
+      drawable.setFont(font)
+      drawable.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON)
+      drawable.drawString(hour, x2, imgHeight - 2)
+    }
+  }
+
+  /**
+   * Encodes an image as PNG.
+   */
+  private[timeline] def encode(image: BufferedImage): Array[Byte] = {
+    val imagebuffer = new ByteArrayOutputStream()
+    /* Write the image to a buffer. */
+    ImageIO.write(image, "png", imagebuffer)
+    image.flush()
+    imagebuffer.close()
+    imagebuffer.toByteArray
+  }
 }
 
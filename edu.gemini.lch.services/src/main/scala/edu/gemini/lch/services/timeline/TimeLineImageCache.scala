@@ -0,0 +1,381 @@
+package edu.gemini.lch.services.timeline
+
+import java.awt.image.BufferedImage
+import java.awt.{Graphics2D, Rectangle, TexturePaint}
+import java.util.concurrent.ConcurrentHashMap
+
+import edu.gemini.lch.model.{LaserTarget, RaDecLaserTarget}
+import edu.gemini.lch.services.ModelFactory
+import jsky.coords.WorldCoords
+import org.joda.time.DateTime
+
+import scala.collection.JavaConversions._
+
+/**
+ * A cache for time line images with a "now" marker as they are shown in the alarm windows and returned by the
+ * web services. These images are requested by every client every couple of seconds, but apart from the now marker
+ * and the time range which slowly moves along with the current time they hardly ever change.
+ *
+ * The static background (twilight, visibility, windows and closures and the hour lines) is therefore rendered
+ * only once for every night, target, windows version, image size and zoom level into tiles of a fixed width
+ * which are laid out on a strip that covers the whole night. For a request only the tiles that are visible in
+ * the requested time range are copied into the image and the now marker, the elevation line and the hour
+ * labels are drawn on top of them. Since the now marker moves only by a pixel every few seconds the
+ * resulting PNG images are cached, too, so that clients looking at the same target share them.
+ *
+ * All entries are evicted in least recently used order as soon as the overall size of the cache exceeds the
+ * given number of bytes.
+ */
+class TimeLineImageCache(maxBytes: Long) {
+
+  import TimeLineImageCache._
+
+  private val backgrounds = new Lru[BackgroundKey, Background](maxBytes / 16, b => b.weight)
+  private val tiles = new Lru[(BackgroundKey, Long), BufferedImage](maxBytes / 2, i => i.getWidth.toLong * i.getHeight * 4)
+  private val images = new Lru[ImageKey, Array[Byte]](maxBytes / 4, b => b.length.toLong)
+
+  /**
+   * Gets the PNG image for the given time line image.
+   * Images that can not be cached reliably (e.g. for objects that have not been persisted yet or for times
+   * outside of the night) are rendered from scratch.
+   * @param image
+   * @return
+   */
+  def bytes(image: TimeLineImage): Array[Byte] =
+    backgroundKey(image) match {
+      case Some(key) => cachedBytes(key, image)
+      case None      => image.bytes
+    }
+
+  /** Removes all cached entries. */
+  def clear() {
+    backgrounds.clear()
+    tiles.clear()
+    images.clear()
+  }
+
+  /** Gets the overall size of all cached entries in bytes. */
+  def size: Long = backgrounds.size + tiles.size + images.size
+
+  private def cachedBytes(key: BackgroundKey, image: TimeLineImage): Array[Byte] = {
+    val background = backgrounds.getOrElseUpdate(key, new Background(key, image))
+    val strip = background.strip
+    val x0 = strip.x(image.imageStart.getMillis)
+    val nowX = image.now.map(t => strip.x(math.min(math.max(t.getMillis, image.imageStart.getMillis), image.imageEnd.getMillis)) - x0)
+    val imageKey = ImageKey(key, x0, nowX, image.text, image.drawElevationLine)
+    images.getOrElseUpdate(imageKey, {
+      val bytes = render(background, image, x0, nowX)
+      // drawing the elevation line may have added elevation samples to the background
+      if (image.drawElevationLine) backgrounds.reweigh(key)
+      bytes
+    })
+  }
+
+  private def render(background: Background, image: TimeLineImage, x0: Long, nowX: Option[Long]): Array[Byte] = {
+    val width = image.width
+    val result = new BufferedImage(width, image.imgHeight, BufferedImage.TYPE_INT_RGB)
+    val drawable = result.createGraphics()
+
+    // copy the visible part of the background
+    val first = math.floor(x0.toDouble / TileWidth).toLong
+    val last = math.floor((x0 + width - 1).toDouble / TileWidth).toLong
+    for (i <- first to last) {
+      val tile = tiles.getOrElseUpdate((background.key, i), background.tile(i))
+      drawable.drawImage(tile, (i * TileWidth - x0).toInt, 0, null)
+    }
+
+    // draw elevation, now marker and the hour labels on top of it
+    if (image.drawElevationLine) background.drawElevation(drawable, x0, width)
+    nowX.foreach(x => TimeLineImage.drawNowMarker(drawable, x.toInt, image.height))
+    image.text.foreach { case (fontSize, zone) =>
+      background.strip.spacers(image.imageStart.getMillis, image.imageEnd.getMillis).foreach(t =>
+        TimeLineImage.drawHourText(drawable, new DateTime(t), (background.strip.x(t) - x0).toInt, fontSize, zone, width, image.imgHeight))
+    }
+
+    TimeLineImage.encode(result)
+  }
+
+  // images can only be cached for persisted nights and targets and inside of the time range shown for a night
+  private def backgroundKey(image: TimeLineImage): Option[BackgroundKey] = {
+    val night = image.night
+    val earliest = night.getStart.minusHours(1).getMillis
+    val latest = night.getEnd.plusHours(1).getMillis
+    if (night.getId == null ||
+        image.target.exists(_.getId == null) ||
+        image.imageStart.getMillis < earliest ||
+        image.imageEnd.getMillis > latest ||
+        image.imageDurationInSeconds <= 0) {
+      None
+    } else {
+      val target = image.target
+      Some(BackgroundKey(
+        night.getId,
+        earliest,
+        latest,
+        target.map(_.getId.longValue).getOrElse(-1L),
+        target.filter(_.hasWindowsTimestamp).map(_.getWindowsTimestamp.getMillis).getOrElse(0L),
+        night.getClosures.toList.map(c => (c.getStartMillis, c.getEndMillis)).sorted,
+        image.buffers.map { case (b, a) => (b.toStandardSeconds.getSeconds, a.toStandardSeconds.getSeconds) },
+        image.width,
+        image.imageEnd.getMillis - image.imageStart.getMillis,
+        image.imgHeight,
+        image.height))
+    }
+  }
+
+}
+
+object TimeLineImageCache {
+
+  /** Width of the background tiles in pixels. */
+  final val TileWidth = 256
+
+  private case class BackgroundKey(
+      nightId: Long,
+      earliest: Long,
+      latest: Long,
+      targetId: Long,
+      windowsTimestamp: Long,
+      closures: List[(Long, Long)],
+      buffers: Option[(Int, Int)],
+      width: Int,
+      duration: Long,
+      imgHeight: Int,
+      height: Int)
+
+  private case class ImageKey(
+      background: BackgroundKey,
+      x0: Long,
+      now: Option[Long],
+      text: Option[(Int, org.joda.time.DateTimeZone)],
+      elevation: Boolean)
+
+  /**
+   * Maps times to pixels on a strip covering a whole night with a fixed scale.
+   * Spacers (hour lines) are placed at multiples of the spacing just like in a time line image; the
+   * scale is chosen such that a time range of the duration of the image fills the width of the image.
+   */
+  private[timeline] case class Strip(origin: Long, pixelsPerSecond: Double, spacing: Long) {
+
+    /** Gets the x position for a time in milliseconds. */
+    def x(t: Long): Long =
+      math.round((t - origin) / 1000 * pixelsPerSecond) + spacersBefore(t) * TimeLineImage.HrsIntervalWidth
+
+    /** Gets the (approximate) time in milliseconds for an x position. */
+    def time(x: Long): Long = {
+      val interval = spacing / 1000 * pixelsPerSecond + TimeLineImage.HrsIntervalWidth
+      val spacers = math.floor(x / interval).toLong + 1
+      origin + ((x - spacers * TimeLineImage.HrsIntervalWidth) / pixelsPerSecond * 1000).toLong
+    }
+
+    /** Gets all spacer times between start and end. */
+    def spacers(start: Long, end: Long): List[Long] = {
+      val first = origin + java.lang.Math.floorDiv(start - origin, spacing) * spacing
+      (first to end by spacing).toList
+    }
+
+    // number of spacers between origin and t (negative for times before origin)
+    private def spacersBefore(t: Long): Long =
+      java.lang.Math.floorDiv(t - origin - 1, spacing) + 1
+  }
+
+  private[timeline] object Strip {
+    def apply(image: TimeLineImage, earliest: Long): Strip = {
+      val spacing = image.spacing.toLong
+      val spacers = image.imageDurationInSeconds * 1000 / spacing + 1
+      val pixelsPerSecond = (image.width.toDouble - spacers * TimeLineImage.HrsIntervalWidth) / image.imageDurationInSeconds.toDouble
+      Strip(earliest - java.lang.Math.floorMod(earliest, spacing), pixelsPerSecond, spacing)
+    }
+  }
+
+  /**
+   * The static background of the time line images for one night, target and zoom level.
+   * The parts of the time line are calculated once, tiles and elevation lines are rendered on demand.
+   */
+  private class Background(val key: BackgroundKey, image: TimeLineImage) {
+    val strip = Strip(image, key.earliest)
+    private val parts = image.parts
+    private val buffers = image.buffers
+    private val height = image.height
+    private val imgHeight = image.imgHeight
+    private val target: Option[LaserTarget] = image.target
+    private val site = image.night.getSite
+    // elevation samples every 10 pixels, calculated in chunks
+    private val elevations = new ConcurrentHashMap[java.lang.Long, Array[Int]]()
+
+    def weight: Long = 1000L + parts.size * 100L + elevations.size * ElevationChunk * 4L
+
+    /** Renders the tile with the given index. */
+    def tile(index: Long): BufferedImage = {
+      val tileX0 = index * TileWidth
+      val tile = new BufferedImage(TileWidth, imgHeight, BufferedImage.TYPE_INT_RGB)
+      val drawable = tile.createGraphics()
+
+      drawable.setColor(TimeLineImage.COLOR_BACKGROUND)
+      drawable.fillRect(0, 0, TileWidth, imgHeight)
+
+      val start = strip.time(tileX0 - TileWidth)
+      val end = strip.time(tileX0 + 2 * TileWidth)
+      val visible = parts.filter(p => p.start.getMillis < end && p.end.getMillis > start)
+      visible.filter(p => !p.types.contains(PartType.Closed)).foreach { p =>
+        drawable.setColor(TimeLineImage.color(p))
+        fill(drawable, tileX0, strip.x(p.start.getMillis), strip.x(p.end.getMillis), 1)
+      }
+      visible.filter(p => p.types.contains(PartType.Closed)).foreach(p => drawClosed(drawable, tileX0, p))
+
+      strip.spacers(start, end).foreach { t =>
+        drawable.setColor(TimeLineImage.hourLineColor(new DateTime(t)))
+        val x = strip.x(t) - tileX0
+        if (x > -TimeLineImage.HrsIntervalWidth && x < TileWidth) {
+          drawable.fillRect(x.toInt, 0, TimeLineImage.HrsIntervalWidth, height)
+        }
+      }
+
+      drawable.dispose()
+      tile
+    }
+
+    private def drawClosed(drawable: Graphics2D, tileX0: Long, part: Part) {
+      // anchor the stripes on the strip, not on the tile, in order to get seamless stripes across tiles
+      val stripes = TimeLineImage.stripes
+      val anchor = -java.lang.Math.floorMod(tileX0, stripes.getWidth.toLong).toInt
+      val paint = drawable.getPaint
+      drawable.setPaint(new TexturePaint(stripes, new Rectangle(anchor, 0, stripes.getWidth, stripes.getHeight)))
+      buffers match {
+        case Some((before, after)) =>
+          fill(drawable, tileX0, strip.x((part.start minus before).getMillis), strip.x((part.end plus after).getMillis), 6)
+        case None =>
+          fill(drawable, tileX0, strip.x(part.start.getMillis), strip.x(part.end.getMillis), 6)
+      }
+      drawable.setPaint(paint)
+
+      // draw a rectangle do denote the actual shuttering window and differentiate it from
+      // the areas that are just buffer times
+      val x0 = strip.x(part.start.getMillis)
+      val x1 = strip.x(part.end.getMillis)
+      if (x1 - x0 >= 2) {
+        val l = clip(x0 - tileX0)
+        val r = clip(x1 - tileX0)
+        drawable.setColor(TimeLineImage.COLOR_CLOSED)
+        drawable.drawRect(l, 0, r - l - 1, height - 1)
+      }
+    }
+
+    // fills the area between x0 and x1 (given in strip coordinates) on a tile
+    private def fill(drawable: Graphics2D, tileX0: Long, x0: Long, x1: Long, minWidth: Int) {
+      val (l, r) =
+        if (x1 - x0 < minWidth) ((x0 + x1 - minWidth) / 2, (x0 + x1 - minWidth) / 2 + minWidth)
+        else (x0, x1)
+      val cl = clip(l - tileX0)
+      val cr = clip(r - tileX0)
+      if (cr > cl) drawable.fillRect(cl, 0, cr - cl, height)
+    }
+
+    // clips an x position to just outside of the tile, this keeps outlines of areas that
+    // continue on the next tile outside of the visible area
+    private def clip(x: Long): Int =
+      math.min(math.max(x, -1L), TileWidth + 1L).toInt
+
+    /** Draws the elevation line of ra/dec targets for the given range of the strip. */
+    def drawElevation(drawable: Graphics2D, x0: Long, width: Int) {
+      target match {
+        case Some(t: RaDecLaserTarget) =>
+          drawable.setColor(TimeLineImage.COLOR_ELEVATION)
+          val first = x0 / ElevationStep
+          val last = (x0 + width) / ElevationStep + 1
+          var lastX = 0
+          var lastY = Int.MaxValue
+          for (i <- first to last) {
+            val x = (i * ElevationStep - x0).toInt
+            val y = elevation(t, i)
+            if (i > first && lastY < height && y < height) {
+              drawable.drawLine(lastX, lastY, x, y)
+            }
+            lastX = x
+            lastY = y
+          }
+        case _ =>
+      }
+    }
+
+    private def elevation(t: LaserTarget, i: Long): Int = {
+      val chunk = java.lang.Math.floorDiv(i, ElevationChunk.toLong)
+      val ys = Option(elevations.get(chunk)).getOrElse {
+        val created = elevationChunk(t, chunk)
+        Option(elevations.putIfAbsent(chunk, created)).getOrElse(created)
+      }
+      ys(java.lang.Math.floorMod(i, ElevationChunk.toLong).toInt)
+    }
+
+    private def elevationChunk(t: LaserTarget, chunk: Long): Array[Int] = {
+      val sky = ModelFactory.createSkyCalculator(site)
+      val c = new WorldCoords(t.getDegrees1, t.getDegrees2)
+      Array.tabulate(ElevationChunk) { j =>
+        val x = (chunk * ElevationChunk + j) * ElevationStep
+        sky.calculate(c, new java.util.Date(strip.time(x)))
+        (height - sky.getAltitude / 90.0 * height).round.toInt
+      }
+    }
+  }
+
+  // elevation is sampled every 10 pixels, samples are calculated in chunks
+  private final val ElevationStep = 10
+  private final val ElevationChunk = 64
+
+  /**
+   * A simple least recently used cache which evicts entries as soon as the overall weight exceeds a maximum.
+   * The weight of every entry is stored with it so that the overall weight stays consistent, values that grow
+   * after they have been inserted (e.g. backgrounds which calculate their elevations lazily) need to be re-weighed.
+   */
+  private[timeline] class Lru[K, V](maxWeight: Long, weight: V => Long) {
+    private class Entry(val value: V, var weight: Long)
+    private val entries = new java.util.LinkedHashMap[K, Entry](16, 0.75f, true)
+    private var total = 0L
+
+    def getOrElseUpdate(key: K, create: => V): V = {
+      val cached = synchronized { entries.get(key) }
+      if (cached != null) {
+        cached.value
+      } else {
+        // create the value outside of the lock, in the rare case of two threads creating the same value
+        // at the same time one of them wins
+        val value = create
+        val entry = new Entry(value, weight(value))
+        synchronized {
+          val previous = entries.put(key, entry)
+          if (previous != null) total -= previous.weight
+          total += entry.weight
+          evict()
+        }
+        value
+      }
+    }
+
+    /** Updates the weight of the entry for the given key after its value has changed. */
+    def reweigh(key: K): Unit = synchronized {
+      val entry = entries.get(key)
+      if (entry != null) {
+        val w = weight(entry.value)
+        total += w - entry.weight
+        entry.weight = w
+        evict()
+      }
+    }
+
+    def clear(): Unit = synchronized {
+      entries.clear()
+      total = 0
+    }
+
+    def size: Long = synchronized { total }
+
+    private def evict() {
+      val i = entries.values.iterator
+      while (total > maxWeight && entries.size > 1 && i.hasNext) {
+        total -= i.next.weight
+        i.remove()
+      }
+    }
+  }
+
+}
@@ -86,22 +86,77 @@ class Timeline(parts: List[Part]) {
     add(Part(Set(t), new DateTime(start), new DateTime(end)))
 
   def add(part: Part) =
-    new Timeline(parts flatMap (p => p combine part))
+    new Timeline(Timeline.sweep(parts, List(part)))
 
   def add(moreParts: List[Part]): Timeline =
-    new Timeline(add(parts, moreParts))
+    new Timeline(Timeline.sweep(parts, moreParts))
 
-  private def add(s1: List[Part], s2: List[Part]): List[Part] =
-    s2 match {
-      case Nil => s1
-      case p::tail => add(add(s1, tail), p)
+}
+
+object Timeline {
+
+  /**
+   * Combines the base parts with additional parts in one sorted pass.
+   * Every base part is split at the start and end times of all additional parts that overlap it, each of the
+   * resulting segments gets the types of the base part plus the types of all additional parts covering it.
+   * Additional parts are clipped to the base parts, i.e. times that are not covered by a base part are dropped.
+   * The order of the base parts is preserved, segments of a base part are ordered by time.
+   * @param base
+   * @param moreParts
+   * @return
+   */
+  def sweep(base: List[Part], moreParts: List[Part]): List[Part] = {
+    val overlays = moreParts.filter(p => p.start isBefore p.end)
+    if (overlays.isEmpty) {
+      base
+    } else {
+      val (times, types) = segments(overlays)
+      base.flatMap(p => split(p, times, types))
+    }
+  }
+
+  // Calculates the segments covered by the given parts: all distinct start and end times in ascending order
+  // and the types covering the time between a time and the next one.
+  private def segments(parts: List[Part]): (Array[Long], Array[Set[PartType]]) = {
+    val events = parts.flatMap(p => List((p.start.getMillis, 1, p.types), (p.end.getMillis, -1, p.types))).sortBy(_._1).toArray
+    val times = new Array[Long](events.length)
+    val types = new Array[Set[PartType]](events.length)
+    val active = new Array[Int](PartType.maxId)
+    var n = 0
+    var i = 0
+    while (i < events.length) {
+      // apply all events at this time before recording the types covering the following segment
+      val t = events(i)._1
+      while (i < events.length && events(i)._1 == t) {
+        events(i)._3.foreach(pt => active(pt.id) += events(i)._2)
+        i += 1
+      }
+      times(n) = t
+      types(n) = PartType.values.filter(pt => active(pt.id) > 0)
+      n += 1
     }
+    (times.take(n), types.take(n))
+  }
 
-  private def add(s1: List[Part], p: Part): List[Part] =
-    s1 match {
-      case Nil => Nil
-      case sp::tail => sp.combine(p)++add(tail, p)
+  private def split(part: Part, times: Array[Long], types: Array[Set[PartType]]): List[Part] = {
+    val start = part.start.getMillis
+    val end = part.end.getMillis
+    // index of the last segment starting at or before the start of the part, -1 if there is none
+    val first = java.util.Arrays.binarySearch(times, start) match {
+      case i if i >= 0 => i
+      case i => -i - 2
+    }
+    val result = List.newBuilder[Part]
+    var i = first
+    var t = start
+    while (t < end) {
+      val next = if (i + 1 < times.length) math.min(times(i + 1), end) else end
+      val covering = if (i >= 0) types(i) else Set[PartType]()
+      result += (if (t == start && next == end && covering.isEmpty) part else Part(part.types ++ covering, new DateTime(t), new DateTime(next)))
+      t = next
+      i += 1
     }
+    result.result()
+  }
 
 }
-
@@ -1,7 +1,7 @@
 package edu.gemini.lch.services.util
 
 import collection.mutable
-import java.util.regex.{Matcher, Pattern}
+import java.util.regex.Pattern
 import edu.gemini.lch.model.{AzElLaserTarget, RaDecLaserTarget, LaserNight}
 import org.joda.time.{DateTimeZone, Duration, DateTime}
 import org.joda.time.format.PeriodFormatterBuilder
@@ -15,6 +15,9 @@ import org.apache.log4j.Logger
 
 /**
  * A simple specific purpose template engine for LTTS.
+ * Templates are compiled into a list of literal text and placeholder segments only once and then cached, see
+ * companion object; filling a template only needs to look up the replacements for its placeholders.
+ * Template engines keep state (the replacements) and are therefore not thread safe.
  */
 @Component
 @Scope("prototype")
@@ -27,9 +30,8 @@ class TemplateEngine(maybeNight: Option[LaserNight], maybeDate: Option[DateTime]
   var configurationService: ConfigurationService = null
 
   // -- actual class
-  private val PATTERN_STRING = "\\$\\{\\{([^}]+)\\}\\}"
-  private val pattern =  Pattern.compile(PATTERN_STRING)
   private val replacements = mutable.Map.empty[String, Option[String] => String]
+  private val buffer = new java.lang.StringBuilder
 
   def this()                  { this(None, None) }
   def this(night: LaserNight) { this(Some(night), None) }
@@ -68,22 +70,36 @@ class TemplateEngine(maybeNight: Option[LaserNight], maybeDate: Option[DateTime]
   def fillTemplate(configuration: Configuration.Value) : String =
     fillTemplate(configurationService.getString(configuration))
 
+  /**
+   * Convenience method that appends the filled template defined by a configuration value to a string builder.
+   * @param configuration
+   * @param sb
+   */
+  def fillTemplate(configuration: Configuration.Value, sb: java.lang.StringBuilder) : Unit =
+    fillTemplate(configurationService.getString(configuration), sb)
+
   /**
    * Fills the given template.
    * @param template
    * @return
    */
   def fillTemplate(template: String) : String = {
-    val sb = new StringBuffer()
-    val m = pattern.matcher(template)
-    while (m find) {
-      val transformed = transformTemplate(sb, m.group(1))
-      m.appendReplacement(sb, Matcher.quoteReplacement(transformed))
-    }
-    m.appendTail(sb)
-    sb.toString
+    buffer.setLength(0)
+    fillTemplate(template, buffer)
+    buffer.toString
   }
 
+  /**
+   * Fills the given template and appends the result to a string builder.
+   * @param template
+   * @param sb
+   */
+  def fillTemplate(template: String, sb: java.lang.StringBuilder) : Unit =
+    TemplateEngine.compile(template) foreach {
+      case TemplateEngine.Literal(text)                 => sb.append(text)
+      case TemplateEngine.Placeholder(key, arg, string) => sb.append(transformTemplate(key, arg, string))
+    }
+
   def setDate(date: DateTime) = {
     addReplacement("SEMESTER", transformSemester(_, date))
   }
@@ -110,12 +126,9 @@ class TemplateEngine(maybeNight: Option[LaserNight], maybeDate: Option[DateTime]
   }
 
 
-  private def transformTemplate(sb: StringBuffer, replacement: String) = {
+  private def transformTemplate(key: String, arg: Option[String], replacement: String) = {
     try {
-      replacement splitAt (replacement indexOf '_') match {
-        case ("", key)      => getReplacement(key, replacement) (None)
-        case (key, pattern) => getReplacement(key, replacement) (Some(pattern.drop(1)))
-      }
+      getReplacement(key, replacement) (arg)
     } catch {
       case e: Exception => errorString(replacement)
     }
@@ -198,4 +211,60 @@ class TemplateEngine(maybeNight: Option[LaserNight], maybeDate: Option[DateTime]
   private def getReplacement(key: String, replacement: String) =
     replacements getOrElse (key, {_: Option[String] => errorString(replacement)})
 
-}
\ No newline at end of file
+}
+
+object TemplateEngine {
+
+  private val PATTERN = Pattern.compile("\\$\\{\\{([^}]+)\\}\\}")
+  private val MAX_CACHED_TEMPLATES = 100
+
+  /** A part of a compiled template. */
+  sealed trait Segment
+  /** Literal text which is copied as is. */
+  case class Literal(text: String) extends Segment
+  /** A placeholder <code>${{KEY_ARG}}</code> which is replaced, <code>string</code> is the full text between the braces. */
+  case class Placeholder(key: String, arg: Option[String], string: String) extends Segment
+
+  // compiled templates by their text; templates only change when the configuration is changed, a changed
+  // template is simply compiled again and the outdated one eventually drops out of the cache
+  private val cache = new java.util.LinkedHashMap[String, Vector[Segment]](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: java.util.Map.Entry[String, Vector[Segment]]) = size > MAX_CACHED_TEMPLATES
+  }
+
+  /**
+   * Gets the compiled version of a template.
+   * @param template
+   * @return
+   */
+  def compile(template: String): Vector[Segment] = cache.synchronized {
+    val cached = cache.get(template)
+    if (cached != null) cached
+    else {
+      val compiled = parse(template)
+      cache.put(template, compiled)
+      compiled
+    }
+  }
+
+  /**
+   * Splits a template into literal text and placeholders.
+   * Placeholders have the form <code>${{KEY}}</code> or <code>${{KEY_ARG}}</code>, where the key is everything
+   * up to the first underscore and the argument everything after it.
+   */
+  private def parse(template: String): Vector[Segment] = {
+    val segments = Vector.newBuilder[Segment]
+    val m = PATTERN.matcher(template)
+    var last = 0
+    while (m.find) {
+      if (m.start > last) segments += Literal(template.substring(last, m.start))
+      val string = m.group(1)
+      val i = string.indexOf('_')
+      if (i > 0) segments += Placeholder(string.substring(0, i), Some(string.substring(i + 1)), string)
+      else       segments += Placeholder(string, None, string)
+      last = m.end
+    }
+    if (last < template.length) segments += Literal(template.substring(last))
+    segments.result()
+  }
+
+}
@@ -42,6 +42,28 @@ public class ConfigurationServiceTest extends DatabaseFixture {
         //Assert.assertEquals(35.0, value, 0.000001);
     }
 
+    @Test
+    public void updatesAreVisibleImmediately() {
+        Configuration entry = null;
+        for (Configuration c : configurationService.getConfigurationEntries(GROUP)) {
+            if (c.getParamName().equals(Configuration.Value.VISIBILITY_MIN_ALTITUDE.name())) {
+                entry = c;
+            }
+        }
+        Assert.assertNotNull(entry);
+
+        String oldValue = configurationService.getString(Configuration.Value.VISIBILITY_MIN_ALTITUDE);
+        try {
+            configurationService.update(entry, "42.0");
+            Assert.assertEquals(42.0, configurationService.getDouble(Configuration.Value.VISIBILITY_MIN_ALTITUDE), 0.000001);
+            // refreshing must not bring back the old value
+            configurationService.refresh();
+            Assert.assertEquals(42.0, configurationService.getDouble(Configuration.Value.VISIBILITY_MIN_ALTITUDE), 0.000001);
+        } finally {
+            configurationService.update(entry, oldValue);
+        }
+    }
+
     @Test
     public void canReadAllValues() {
         // make sure everything is sane, no typos in database values etc
@@ -16,6 +16,9 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -110,12 +113,44 @@ public class LaserNightServiceTest extends DatabaseFixture {
         }
     }
 
+    @Test
+    public void canCreateLaserRun() {
+        // far enough in the future to not be populated with observations
+        DateTime first = new DateTime().plusDays(30).withTimeAtStartOfDay().plusHours(12);
+        laserNightService.createLaserNight(first.plusDays(1));
+
+        List<Integer> progress = new ArrayList<>();
+        laserNightService.createLaserRun(first, first.plusDays(3), (done, total) -> progress.add(done * 100 + total));
+
+        // one night existed already, three new ones are created
+        assertEquals(4, laserNightService.getShortLaserNights(first.withTimeAtStartOfDay(), first.plusDays(4)).size());
+        assertEquals(Arrays.asList(303), progress);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(laserNightService.laserNightExists(first.plusDays(i)));
+        }
+    }
+
     @Test
     public void doesCreateSunRiseSetCalculatorProperly() {
         checkSunRiseSetCalculator(Site.NORTH);
         checkSunRiseSetCalculator(Site.SOUTH);
     }
 
+    @Test
+    public void doesCacheTwilight() {
+        DateTime day = new DateTime(2014, 3, 1, 0, 0, 0, Site.SOUTH.getTimeZone());
+        SunRiseSet calc = ModelFactory.createSunCalculator(Site.SOUTH, day);
+        Twilight twilight = ModelFactory.getTwilight(Site.SOUTH, day);
+
+        assertEquals(calc.getSunset().getTime(), twilight.getSunset().getMillis());
+        assertEquals(calc.getNauticalTwilightStart().getTime(), twilight.getNauticalTwilightStart().getMillis());
+        assertEquals(calc.getAstronomicalTwilightEnd().getTime(), twilight.getAstronomicalTwilightEnd().getMillis());
+        assertEquals(calc.getSunrise().getTime(), twilight.getSunrise().getMillis());
+        // the same day at a different time of the day must result in the cached value
+        assertTrue(twilight == ModelFactory.getTwilight(Site.SOUTH, day.plusHours(20)));
+        assertFalse(twilight == ModelFactory.getTwilight(Site.NORTH, day));
+    }
+
     private void checkSunRiseSetCalculator(Site site) {
 
         // Make sure that the SunRiseSet calculator object is created properly. It must be fed with the
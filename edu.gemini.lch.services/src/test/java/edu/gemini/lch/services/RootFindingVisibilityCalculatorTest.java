@@ -0,0 +1,118 @@
+package edu.gemini.lch.services;
+
+import edu.gemini.lch.model.LaserNight;
+import edu.gemini.lch.model.Site;
+import edu.gemini.lch.model.Visibility;
+import edu.gemini.lch.services.impl.RootFindingVisibilityCalculatorImpl;
+import edu.gemini.lch.services.impl.VisibilityCalculatorImpl;
+import jsky.coords.WorldCoords;
+import jsky.plot.util.SkyCalc;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs all visibility test cases against the root finding calculator and adds some tests for the
+ * things that are specific to it.
+ */
+public class RootFindingVisibilityCalculatorTest extends VisibilityCalculatorTest {
+
+    private static final DateTime Day20120912 = new DateTime(2012,  9, 12, 0, 0);
+    private static final DateTime Day20121212 = new DateTime(2012, 12, 12, 0, 0);
+
+    private final Random random = new Random(4711);
+
+    @Override
+    protected VisibilityCalculator createCalculator(LaserNight night, Double altitude) {
+        return new RootFindingVisibilityCalculatorImpl(night.getSite(), night.getStart(), night.getEnd(), altitude);
+    }
+
+    @Test
+    public void agreesWithSteppingCalculator() {
+        LaserNight night = ModelFactory.createNight(Site.NORTH, Day20120912);
+        VisibilityCalculator stepping = new VisibilityCalculatorImpl(night.getSite(), night.getStart(), night.getEnd(), 40.0);
+        VisibilityCalculator rootFinding = createCalculator(night, 40.0);
+
+        for (int i = 0; i < 100; i++) {
+            WorldCoords c = new WorldCoords(random.nextDouble() * 360.0, random.nextDouble() * 120.0 - 60.0);
+            Visibility expected = stepping.calculateVisibility(c);
+            Visibility actual = rootFinding.calculateVisibility(c);
+            assertSameIntervals(expected.getVisibleIntervalsDuring(night), actual.getVisibleIntervalsDuring(night));
+            assertSameIntervals(expected.getVisibleIntervalsAboveLimitDuring(night), actual.getVisibleIntervalsAboveLimitDuring(night));
+        }
+    }
+
+    @Test
+    public void needsFarLessAltitudeCalculations() {
+        LaserNight night = ModelFactory.createNight(Site.NORTH, Day20120912);
+        RootFindingVisibilityCalculatorImpl calculator = new RootFindingVisibilityCalculatorImpl(night.getSite(), night.getStart(), night.getEnd(), 40.0);
+
+        int targets = 100;
+        for (int i = 0; i < targets; i++) {
+            calculator.calculateVisibility(new WorldCoords(random.nextDouble() * 360.0, random.nextDouble() * 120.0 - 60.0));
+        }
+
+        // the stepping calculator needs one altitude calculation per minute of the night
+        long stepping = targets * night.getDuration().getStandardMinutes();
+        Assert.assertTrue(calculator.getEvaluations() * 10 < stepping);
+    }
+
+    @Test
+    public void handlesMultipleCrossings() {
+        // a time range covering two nights, the object rises and sets twice
+        DateTime start = new DateTime(2012, 12, 12, 12, 0, DateTimeZone.UTC);
+        DateTime end   = new DateTime(2012, 12, 14, 12, 0, DateTimeZone.UTC);
+        WorldCoords c = new WorldCoords("18:00:38.29", "10:33:47.97");
+
+        try {
+            new VisibilityCalculatorImpl(Site.NORTH, start, end, 0.0).calculateVisibility(c);
+            Assert.fail("stepping calculator is expected to fail for multiple crossings");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        Visibility v = new RootFindingVisibilityCalculatorImpl(Site.NORTH, start, end, 0.0).calculateVisibility(c);
+        Assert.assertTrue(v.isVisible());
+        Assert.assertTrue(v.getRises().get().before(v.getSets().get()));
+    }
+
+    @Test
+    public void findsShortVisibilityBetweenSamples() {
+        // object culminates at about 18 degrees during this night, a limit just below that is crossed twice
+        // within a few minutes which is less than the coarse step width of the calculator
+        LaserNight night = ModelFactory.createNight(Site.NORTH, Day20121212);
+        WorldCoords c = new WorldCoords("06:00:00", "-52:10:00");
+        double maxAltitude = maxAltitude(night, c);
+        VisibilityCalculator calculator = createCalculator(night, maxAltitude - 0.1);
+        Visibility v = calculator.calculateVisibility(c);
+        List<Interval> intervals = v.getVisibleIntervalsAboveLimitDuring(night);
+        Assert.assertEquals(1, intervals.size());
+        Assert.assertTrue(intervals.get(0).toDuration().getStandardMinutes() < 30);
+    }
+
+    private double maxAltitude(LaserNight night, WorldCoords c) {
+        SkyCalc skyCalc = ModelFactory.createSkyCalculator(night.getSite());
+        double max = -90.0;
+        for (DateTime t = night.getStart(); t.isBefore(night.getEnd()); t = t.plusSeconds(10)) {
+            skyCalc.calculate(c, t.toDate());
+            max = Math.max(max, skyCalc.getAltitude());
+        }
+        return max;
+    }
+
+    private void assertSameIntervals(List<Interval> expected, List<Interval> actual) {
+        // the stepping calculator is precise to +/- 30 seconds, but it does not look at the last minute of the night
+        long tolerance = 61 * 1000;
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertTrue(Math.abs(expected.get(i).getStartMillis() - actual.get(i).getStartMillis()) <= tolerance);
+            Assert.assertTrue(Math.abs(expected.get(i).getEndMillis() - actual.get(i).getEndMillis()) <= tolerance);
+        }
+    }
+
+}
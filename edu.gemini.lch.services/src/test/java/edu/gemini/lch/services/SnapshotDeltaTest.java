@@ -0,0 +1,40 @@
+package edu.gemini.lch.services;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static edu.gemini.lch.services.SnapshotDelta.Facet.*;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for snapshot deltas.
+ */
+public class SnapshotDeltaTest {
+
+    @Test
+    public void classifiesTelemetryChanges() {
+        assertFalse(SnapshotDelta.NONE.isMaterial());
+        assertFalse(SnapshotDelta.of(EnumSet.of(TIME, POSITION)).isMaterial());
+        assertTrue(SnapshotDelta.of(EnumSet.of(TIME, LASER_STATUS)).isMaterial());
+        assertTrue(SnapshotDelta.ALL.isMaterial());
+    }
+
+    @Test
+    public void combinesDeltas() {
+        SnapshotDelta time = SnapshotDelta.of(EnumSet.of(TIME));
+        SnapshotDelta target = SnapshotDelta.of(EnumSet.of(TIME, TARGET));
+
+        SnapshotDelta both = time.and(target);
+        assertTrue(both.hasChanged(TARGET));
+        assertTrue(both.hasChanged(TIME));
+        assertFalse(both.hasChanged(COLLISIONS, AUTO_SHUTTER));
+
+        assertSame(target, target.and(time));
+        assertSame(time, time.and(null));
+        assertSame(SnapshotDelta.NONE, SnapshotDelta.of(EnumSet.noneOf(SnapshotDelta.Facet.class)));
+    }
+
+}
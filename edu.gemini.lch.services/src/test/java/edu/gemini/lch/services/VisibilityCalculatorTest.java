@@ -156,7 +156,7 @@ public class VisibilityCalculatorTest {
         Assert.assertTrue(v.getMaxDurationAboveLimit(night).isShorterThan(new Duration(5070*1000+delta)));
     }
 
-    private VisibilityCalculator createCalculator(LaserNight night, Double altitude) {
+    protected VisibilityCalculator createCalculator(LaserNight night, Double altitude) {
         return new VisibilityCalculatorImpl(night.getSite(), night.getStart(), night.getEnd(), altitude);
     }
 
@@ -2,7 +2,13 @@ package edu.gemini.lch.services.impl;
 
 import edu.gemini.lch.model.*;
 import edu.gemini.lch.services.AlarmService;
+import edu.gemini.lch.services.EpicsService;
 import edu.gemini.lch.services.LaserNightService;
+import edu.gemini.lch.services.LtcsService;
+import edu.gemini.lch.services.SiteService;
+import edu.gemini.lch.services.SnapshotDelta;
+import edu.gemini.shared.skycalc.Angle;
+import jsky.coords.WorldCoords;
 import org.joda.time.DateTime;
 import org.junit.Assert;
 import org.junit.Test;
@@ -11,6 +17,13 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration(locations = {"/spring-services-test-context.xml"})
@@ -59,6 +72,112 @@ public class AlarmServiceTest {
         Assert.assertTrue(s1.targetHasChanged(s3));
     }
 
+    @Test
+    public void detectsStateChanges() {
+
+        DateTime now = DateTime.now();
+        LtcsService.Snapshot ltcs = createLtcsSnapshot();
+        AlarmService.Snapshot s1 = createAlarmSnapshot(ltcs, createEpicsSnapshot(now, "SKY"), AlarmService.AutoShutter.CLEAR);
+        AlarmService.Snapshot s2 = createAlarmSnapshot(ltcs, createEpicsSnapshot(now.plusSeconds(1), "SKY"), AlarmService.AutoShutter.CLEAR);
+        AlarmService.Snapshot s3 = createAlarmSnapshot(ltcs, createEpicsSnapshot(now, "SKY"), AlarmService.AutoShutter.SHUTTERING);
+        AlarmService.Snapshot s4 = createAlarmSnapshot(ltcs, createEpicsSnapshot(now, "OFF"), AlarmService.AutoShutter.CLEAR);
+        AlarmService.Snapshot s5 = createAlarmSnapshot(createLtcsSnapshot(), createEpicsSnapshot(now, "SKY"), AlarmService.AutoShutter.CLEAR);
+
+        // only the time changed
+        Assert.assertFalse(s2.getDelta(s1).isMaterial());
+        // equal ltcs snapshots
+        Assert.assertFalse(s5.getDelta(s1).isMaterial());
+
+        Assert.assertTrue(s1.getDelta(null).isMaterial());
+        Assert.assertTrue(s3.getDelta(s1).isMaterial());
+        Assert.assertTrue(s4.getDelta(s1).isMaterial());
+    }
+
+    @Test
+    public void classifiesChanges() {
+
+        DateTime now = DateTime.now();
+        LtcsService.Snapshot ltcs = createLtcsSnapshot();
+        AlarmService.Snapshot s1 = createAlarmSnapshot(ltcs, createEpicsSnapshot(now, "SKY"), AlarmService.AutoShutter.CLEAR);
+        AlarmService.Snapshot s2 = createAlarmSnapshot(ltcs, createEpicsSnapshot(now.plusSeconds(1), "SKY"), AlarmService.AutoShutter.CLEAR);
+        AlarmService.Snapshot s3 = createAlarmSnapshot(ltcs, createEpicsSnapshot(now, "OFF"), AlarmService.AutoShutter.SHUTTERING);
+
+        Assert.assertSame(SnapshotDelta.ALL, s1.getDelta(null));
+        Assert.assertTrue(s1.getDelta(s1).isEmpty());
+        Assert.assertEquals(EnumSet.of(SnapshotDelta.Facet.TIME), s2.getDelta(s1).getChanged());
+        Assert.assertEquals(EnumSet.of(SnapshotDelta.Facet.LASER_STATUS, SnapshotDelta.Facet.AUTO_SHUTTER), s3.getDelta(s1).getChanged());
+    }
+
+    @Test
+    public void shuttersAtLatestPropagation() {
+
+        // on sky, pointing at the target and inside of its propagation window, only twilight is coming up
+        DateTime now = DateTime.now();
+        LaserNight night = new LaserNight(Site.NORTH, now.minusHours(6), now.plusHours(6));
+        RaDecLaserTarget target = new RaDecLaserTarget(night, 0.0, 0.0, Visibility.ALWAYS);
+        target.getPropagationWindows().add(new PropagationWindow(now.minusHours(1), now.plusHours(1)));
+
+        EpicsService epics = mock(EpicsService.class);
+        when(epics.getTime()).thenReturn(now);
+        when(epics.isOnSky()).thenReturn(true);
+        when(epics.getCurrentRaDec()).thenReturn(new WorldCoords(0.0, 0.0));
+        SiteService site = mock(SiteService.class);
+        when(site.isProduction()).thenReturn(true);
+        LtcsService.Snapshot ltcsSnapshot = createLtcsSnapshot();
+        LtcsService ltcs = mock(LtcsService.class);
+        when(ltcs.getSnapshot()).thenReturn(ltcsSnapshot);
+
+        AlarmServiceImpl service = new AlarmServiceImpl(epics, ltcs, site);
+        service.init();
+        try {
+            AlarmServiceImpl.Snapshot snapshot = new AlarmServiceImpl.Snapshot(
+                    night, target, now.minusHours(1), now.plusMillis(100), Collections.emptyList(),
+                    new Angle(360, Angle.Unit.ARCSECS), new Angle(0, Angle.Unit.ARCSECS),
+                    ltcsSnapshot, createEpicsSnapshot(now, "SKY"), AlarmService.AutoShutter.CLEAR, 0, 0);
+            service.setAutoShutterTimers(true);
+            service.setAutoShutter(AlarmService.AutoShutter.CLEAR);
+
+            // arm the timer, the next transition is the latest propagation time
+            service.setSnapshot(snapshot);
+
+            verify(epics, timeout(2000)).shutterLaser();
+            Assert.assertEquals(AlarmService.AutoShutter.SHUTTERING, service.getAutoShutter());
+        } finally {
+            service.destroy();
+        }
+    }
+
+    private AlarmServiceImpl.Snapshot createAlarmSnapshot(LtcsService.Snapshot ltcs, EpicsService.Snapshot epics, AlarmService.AutoShutter autoShutter) {
+        return new AlarmServiceImpl.Snapshot(
+                null,                           // night
+                null,                           // target
+                null,                           // earliest propagation
+                null,                           // latest propagation
+                Collections.emptyList(),        // observations
+                new Angle(360, Angle.Unit.ARCSECS), // error cone
+                new Angle(0, Angle.Unit.ARCSECS),   // distance
+                ltcs,                           // ltcs snapshot
+                epics,                          // epics snapshot
+                autoShutter,                    // auto shutter
+                0,                              // safety before
+                0                               // safety after
+        );
+    }
+
+    private LtcsService.Snapshot createLtcsSnapshot() {
+        LtcsService.Snapshot snapshot = mock(LtcsService.Snapshot.class);
+        when(snapshot.getCollisions()).thenReturn(Collections.emptyList());
+        return snapshot;
+    }
+
+    private EpicsService.Snapshot createEpicsSnapshot(DateTime time, String laserStatus) {
+        EpicsService.Snapshot snapshot = mock(EpicsService.Snapshot.class);
+        when(snapshot.isConnected()).thenReturn(true);
+        when(snapshot.getTime()).thenReturn(time);
+        when(snapshot.getLaserStatus()).thenReturn(laserStatus);
+        return snapshot;
+    }
+
     private AlarmServiceImpl.Snapshot createAlarmSnapshot(LaserNight night, LaserTarget target) {
         return new AlarmServiceImpl.Snapshot(
                 night,                          // night
@@ -0,0 +1,146 @@
+package edu.gemini.lch.services.impl;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the EPICS record.
+ */
+public class EpicsRecordTest {
+
+    @Test
+    public void readsWrittenValues() {
+        EpicsRecord record = new EpicsRecord();
+        record.setTime(1000L);
+        record.setCurrentAz(10.0);
+        record.setCurrentEl(20.0);
+        record.setCurrentRa(30.0);
+        record.setCurrentDec(40.0);
+        record.setDemandRa(50.0);
+        record.setDemandDec(60.0);
+        record.setLaserStatus("SKY");
+
+        EpicsRecord.Values v = record.read(new EpicsRecord.Values());
+        assertEquals(1000L, v.time);
+        assertEquals(10.0, v.currentAz, 0.0);
+        assertEquals(20.0, v.currentEl, 0.0);
+        assertEquals(30.0, v.currentRa, 0.0);
+        assertEquals(40.0, v.currentDec, 0.0);
+        assertEquals(50.0, v.demandRa, 0.0);
+        assertEquals(60.0, v.demandDec, 0.0);
+        assertEquals("SKY", v.laserStatus);
+        assertEquals(EpicsRecord.LaserState.SKY, v.laserState);
+        // every write increments the version twice
+        assertEquals(16L, v.version);
+
+        record.setLaserStatus("BDM");
+        assertEquals(EpicsRecord.LaserState.NOT_ON_SKY, record.getLaserState());
+    }
+
+    @Test
+    public void readersAlwaysSeeConsistentValues() throws Exception {
+        final EpicsRecord record = new EpicsRecord();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicLong inconsistent = new AtomicLong(0);
+
+        // the writer always writes the same value to all fields, a consistent read must see the same values
+        // for all of them or at most one field that has a newer value than the others
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= 200000; i++) {
+                writeAll(record, i);
+            }
+            done.set(true);
+        });
+        Thread reader = new Thread(() -> {
+            EpicsRecord.Values v = new EpicsRecord.Values();
+            while (!done.get()) {
+                record.read(v);
+                if (!isConsistent(v)) {
+                    inconsistent.incrementAndGet();
+                }
+            }
+        });
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+
+        assertEquals(0, inconsistent.get());
+    }
+
+    // manual benchmark for the number of snapshots that can be read per second while values are being updated
+    @Ignore
+    @Test
+    public void snapshotRate() throws Exception {
+        final EpicsRecord record = new EpicsRecord();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final int readers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        final AtomicLong reads = new AtomicLong(0);
+
+        // a writer that updates the record at a much higher rate than EPICS ever will (about 10kHz)
+        Thread writer = new Thread(() -> {
+            int i = 0;
+            while (!done.get()) {
+                writeAll(record, i++);
+                try {
+                    Thread.sleep(0, 100000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        Thread[] readerThreads = new Thread[readers];
+        for (int r = 0; r < readers; r++) {
+            readerThreads[r] = new Thread(() -> {
+                EpicsRecord.Values v = new EpicsRecord.Values();
+                long count = 0;
+                while (!done.get()) {
+                    record.read(v);
+                    count++;
+                }
+                reads.addAndGet(count);
+            });
+        }
+
+        final long durationMillis = 5000;
+        writer.start();
+        for (Thread t : readerThreads) t.start();
+        Thread.sleep(durationMillis);
+        done.set(true);
+        writer.join();
+        for (Thread t : readerThreads) t.join();
+
+        long writes = record.getVersion() / 2;
+        System.out.println(String.format("%d reader threads: %.1f million snapshots/s, %d writes/s",
+                readers, reads.get() / (durationMillis / 1000.0) / 1e6, (long) (writes / (durationMillis / 1000.0))));
+        assertTrue(reads.get() > 0);
+    }
+
+    private static void writeAll(EpicsRecord record, int i) {
+        record.setTime(i);
+        record.setCurrentAz(i);
+        record.setCurrentEl(i);
+        record.setCurrentRa(i);
+        record.setCurrentDec(i);
+        record.setDemandRa(i);
+        record.setDemandDec(i);
+    }
+
+    // a read is consistent if the values are in the order they are written, i.e. never increasing
+    private static boolean isConsistent(EpicsRecord.Values v) {
+        double[] values = {v.time, v.currentAz, v.currentEl, v.currentRa, v.currentDec, v.demandRa, v.demandDec};
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[i - 1]) {
+                return false;
+            }
+        }
+        return values[0] - values[values.length - 1] <= 1;
+    }
+
+}
@@ -0,0 +1,100 @@
+package edu.gemini.lch.services.impl;
+
+import edu.gemini.lch.services.ConfigurationService;
+import edu.gemini.lch.services.EpicsService;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test cases for publishing EPICS snapshots to snapshot listeners, these tests don't need a database.
+ */
+public class EpicsServiceTest {
+
+    private TestEpicsService service;
+    private BlockingQueue<EpicsService.Snapshot> published;
+
+    @Before
+    public void init() throws Exception {
+        service = new TestEpicsService();
+        ReflectionTestUtils.setField(service, "configurationService", mock(ConfigurationService.class));
+        published = new LinkedBlockingQueue<>();
+        service.addSnapshotListener((snapshot, changed) -> published.add(snapshot));
+        service.init();
+        // the initial values of all channels are published as one snapshot
+        Assert.assertNotNull(published.poll(2, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void destroy() {
+        service.destroy();
+    }
+
+    @Test
+    public void notifiesListenersOfChanges() throws Exception {
+        service.connector.change(EpicsServiceImpl.EPICS_CURRENT_AZ, 10.0);
+
+        EpicsService.Snapshot snapshot = published.poll(2, TimeUnit.SECONDS);
+        Assert.assertNotNull(snapshot);
+        Assert.assertEquals(10.0, snapshot.getCurrentAz().getMagnitude(), 0.0);
+    }
+
+    @Test
+    public void notifiesListenersOfChangesPublishedByUpdate() throws Exception {
+        // the scheduled update publishes the change while the publication of the change is still pending
+        service.connector.change(EpicsServiceImpl.EPICS_LASER_STATUS, "SKY");
+        service.update();
+
+        EpicsService.Snapshot snapshot = published.poll(2, TimeUnit.SECONDS);
+        Assert.assertNotNull(snapshot);
+        Assert.assertSame(service.getSnapshot(), snapshot);
+        Assert.assertTrue(snapshot.isOnSky());
+    }
+
+    private static class TestEpicsService extends EpicsServiceImpl {
+        private TestConnector connector;
+        TestEpicsService() {
+            super(defaultReadChannels, new String[]{});
+        }
+        @Override protected Connector createConnector(Map<String, Object> readChannels, String[] writeChannels, Boolean useTcsSimulation) {
+            connector = new TestConnector(readChannels);
+            return connector;
+        }
+        @Override public void openLoops() {}
+        @Override public void shutterLaser() {}
+        @Override public void forceShutter() {}
+        @Override public void updateHeartbeat() {}
+    }
+
+    private static class TestConnector implements EpicsService.Connector {
+        private final Map<String, Object> values;
+        private EpicsService.Listener listener;
+        TestConnector(Map<String, Object> readChannels) {
+            values = new ConcurrentHashMap<>(readChannels);
+        }
+        void change(String name, Object value) {
+            values.put(name, value);
+            listener.valueChanged(name, value);
+        }
+        @Override public void connect(String epicsAddressList) {}
+        @Override public void disconnect() {}
+        @Override public Boolean isConnected() { return true; }
+        @Override public Boolean usesTcsSimulator() { return false; }
+        @Override public DateTime getLastUpdate() { return DateTime.now(); }
+        @Override public Object readValue(String name) { return values.get(name); }
+        @Override public void writeValue(String name, Object value) { values.put(name, value); }
+        @Override public void setListener(EpicsService.Listener listener) { this.listener = listener; }
+    }
+
+}
@@ -0,0 +1,164 @@
+package edu.gemini.lch.services.impl;
+
+import com.sun.net.httpserver.HttpServer;
+import edu.gemini.lch.configuration.Configuration;
+import edu.gemini.lch.services.ConfigurationService;
+import edu.gemini.lch.services.EpicsService;
+import edu.gemini.lch.services.LtcsService;
+import jsky.coords.WorldCoords;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the LTCS client against a local stub of the LTCS server.
+ */
+public class LtcsClientTest {
+
+    private HttpServer server;
+    private final AtomicReference<String> reply = new AtomicReference<>("NONE");
+    private final AtomicReference<String> lastRequest = new AtomicReference<>();
+    private final AtomicLong replyDelay = new AtomicLong(0);
+    private final AtomicInteger requests = new AtomicInteger(0);
+
+    private EpicsService epicsService;
+    private LtcsServiceImpl service;
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ltcs/screens/query.php", exchange -> {
+            requests.incrementAndGet();
+            lastRequest.set(exchange.getRequestURI().getQuery());
+            try {
+                Thread.sleep(replyDelay.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = reply.get().getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+
+        ConfigurationService configurationService = mock(ConfigurationService.class);
+        when(configurationService.getString(Configuration.Value.LTCS_URL)).
+                thenReturn("http://localhost:" + server.getAddress().getPort());
+        epicsService = mock(EpicsService.class);
+        when(epicsService.getDemandRaDec()).thenReturn(new WorldCoords(150.0, -30.0));
+        when(epicsService.isOnSky()).thenReturn(true);
+        when(epicsService.getTime()).thenReturn(DateTime.now());
+
+        service = new LtcsServiceImpl(500, 500);
+        ReflectionTestUtils.setField(service, "configurationService", configurationService);
+        ReflectionTestUtils.setField(service, "epicsService", epicsService);
+    }
+
+    @After
+    public void stopServer() {
+        ReflectionTestUtils.invokeMethod(service, "destroy");
+        server.stop(0);
+    }
+
+    @Test
+    public void queriesCollisions() {
+        reply.set("GEMINI KECK2 10:47:08 11:19:48 KECK2 GEMINI SUBARU 12:47:08 13:19:48 NO-LGS");
+        service.poll();
+
+        LtcsService.Snapshot snapshot = snapshot();
+        assertTrue(snapshot.isConnected());
+        assertEquals(1, snapshot.getCollisions().size());
+        assertEquals("KECK2", snapshot.getCollisions().get(0).getObservatory());
+        // ra is sent in hours
+        assertTrue(lastRequest.get().contains("ra=10.000000000000"));
+        assertTrue(lastRequest.get().contains("laser_state=ON-SKY"));
+    }
+
+    @Test
+    public void reusesSnapshotForSameResponse() {
+        reply.set("GEMINI KECK2 10:47:08 11:19:48 KECK2");
+        service.poll();
+        LtcsService.Snapshot first = snapshot();
+        service.poll();
+        assertTrue(first == snapshot());
+
+        reply.set("GEMINI KECK2 10:47:08 11:29:48 KECK2");
+        service.poll();
+        assertFalse(first == snapshot());
+        assertEquals(1, snapshot().getCollisions().size());
+    }
+
+    @Test
+    public void slowsDownWhileNothingMoves() {
+        assertEquals(LtcsServiceImpl.MIN_DELAY, service.poll());
+        assertEquals(2 * LtcsServiceImpl.MIN_DELAY, service.poll());
+        assertEquals(4 * LtcsServiceImpl.MIN_DELAY, service.poll());
+        assertEquals(LtcsServiceImpl.IDLE_DELAY, service.poll());
+        assertEquals(LtcsServiceImpl.IDLE_DELAY, service.poll());
+
+        // the telescope moves to a new target: back to fast polling
+        assertTrue(service.isUpToDate(new WorldCoords(150.0, -30.0), true));
+        assertFalse(service.isUpToDate(new WorldCoords(151.0, -30.0), true));
+        assertFalse(service.isUpToDate(new WorldCoords(150.0, -30.0), false));
+        when(epicsService.getDemandRaDec()).thenReturn(new WorldCoords(151.0, -30.0));
+        assertEquals(LtcsServiceImpl.MIN_DELAY, service.poll());
+        assertEquals(6, requests.get());
+    }
+
+    @Test
+    public void backsOffWhileProcessesAreDown() {
+        reply.set("LTCS PROCESSES DOWN");
+        assertEquals(4000, service.poll());
+        assertEquals(LtcsService.Error.PROCESSES_DOWN, snapshot().getError());
+        assertEquals(8000, service.poll());
+        assertEquals(16000, service.poll());
+        assertEquals(32000, service.poll());
+        assertEquals(LtcsServiceImpl.MAX_DELAY, service.poll());
+        assertEquals(LtcsServiceImpl.MAX_DELAY, service.poll());
+
+        // processes are up again
+        reply.set("NONE");
+        assertEquals(LtcsServiceImpl.IDLE_DELAY, service.poll());
+        assertTrue(snapshot().isConnected());
+    }
+
+    @Test
+    public void timesOutOnUnresponsiveServer() {
+        replyDelay.set(3000);
+        long start = System.currentTimeMillis();
+        service.poll();
+        long duration = System.currentTimeMillis() - start;
+
+        assertEquals(LtcsService.Error.NOT_CONNECTED, snapshot().getError());
+        assertTrue("query took " + duration + "ms", duration < 2500);
+    }
+
+    @Test
+    public void reportsUnreachableServer() {
+        server.stop(0);
+        assertEquals(4000, service.poll());
+        assertEquals(LtcsService.Error.NOT_CONNECTED, snapshot().getError());
+    }
+
+    private LtcsService.Snapshot snapshot() {
+        return ((LtcsService) service).getSnapshot();
+    }
+
+}
@@ -0,0 +1,117 @@
+package edu.gemini.lch.services.impl;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the parser for the HTML pages of the LTCS web application.
+ */
+public class LtcsPageParserTest {
+
+    @Test
+    public void parsesTablesRowsAndCells() {
+        List<LtcsPageParser.Table> tables = LtcsPageParser.parse(
+                "<html><body>ignored<table border=1>" +
+                "<tr><th>Name</th><th class=\"x\">Value</th></tr>" +
+                "<TR><TD> a <b>bold</b><br>text </TD><td></td></TR>" +
+                "</table></body></html>");
+
+        assertEquals(1, tables.size());
+        List<LtcsPageParser.Row> rows = tables.get(0).getRows();
+        assertEquals(2, rows.size());
+        assertEquals("Name", cell(rows, 0, 0));
+        assertEquals("Value", cell(rows, 0, 1));
+        assertEquals("a boldtext", cell(rows, 1, 0));
+        assertEquals("", cell(rows, 1, 1));
+    }
+
+    @Test
+    public void keepsNestedTablesInCells() {
+        List<LtcsPageParser.Table> tables = LtcsPageParser.parse(
+                "<table><tr><td>outer<table><tr><td>inner</td></tr></table></td></tr></table>" +
+                "<table><tr><td>second</td></tr></table>");
+
+        assertEquals(2, tables.size());
+        LtcsPageParser.Cell outer = tables.get(0).getRows().get(0).getCells().get(0);
+        assertEquals("outer", outer.getText());
+        assertEquals(1, outer.getTables().size());
+        assertEquals("inner", cell(outer.getTables().get(0).getRows(), 0, 0));
+
+        List<LtcsPageParser.Table> all = LtcsPageParser.allTables(tables);
+        assertEquals(3, all.size());
+        assertEquals("inner", cell(all.get(1).getRows(), 0, 0));
+        assertEquals("second", cell(all.get(2).getRows(), 0, 0));
+
+        List<LtcsPageParser.Row> rows = LtcsPageParser.allRows(tables.get(0));
+        assertEquals(2, rows.size());
+        assertEquals("inner", cell(rows, 1, 0));
+    }
+
+    @Test
+    public void skipsCommentsScriptsAndStyles() {
+        List<LtcsPageParser.Table> tables = LtcsPageParser.parse(
+                "<!-- <table><tr><td>comment</td></tr></table> -->" +
+                "<script type=\"text/javascript\">var s = '<table><tr><td>script</td></tr></table>';</script>" +
+                "<STYLE>td { color: red; }</STYLE >" +
+                "<table><tr><td>a<!-- hidden -->b<script>document.write('<td>x</td>')</SCRIPT>c</td></tr></table>");
+
+        assertEquals(1, tables.size());
+        assertEquals(1, tables.get(0).getRows().get(0).getCells().size());
+        assertEquals("abc", cell(tables.get(0).getRows(), 0, 0));
+    }
+
+    @Test
+    public void decodesEntities() {
+        List<LtcsPageParser.Table> tables = LtcsPageParser.parse(
+                "<table><tr>" +
+                "<td>a&amp;b &lt;c&gt; &quot;d&quot;</td>" +
+                "<td>e&nbsp;f</td>" +
+                "<td>&copy; g & h &amp i</td>" +
+                "</tr></table>");
+
+        List<LtcsPageParser.Row> rows = tables.get(0).getRows();
+        assertEquals("a&b <c> \"d\"", cell(rows, 0, 0));
+        assertEquals("e f", cell(rows, 0, 1));
+        // unknown entities, lonely ampersands and entities without semicolon are kept as they are
+        assertEquals("&copy; g & h &amp i", cell(rows, 0, 2));
+    }
+
+    @Test
+    public void toleratesMalformedMarkup() {
+        List<LtcsPageParser.Table> tables = LtcsPageParser.parse(
+                "</td></tr></table>text outside<td>no table</td>" +
+                "<table>text outside of rows<tr><td>1<td>2 < 3" +
+                "<tr><td>4</tr><td>no row</td>" +
+                "<table><tr><td>unclosed nested");
+
+        assertEquals(1, tables.size());
+        List<LtcsPageParser.Row> rows = tables.get(0).getRows();
+        assertEquals(2, rows.size());
+        assertEquals(2, rows.get(0).getCells().size());
+        assertEquals("1", cell(rows, 0, 0));
+        assertEquals("2 < 3", cell(rows, 0, 1));
+        assertEquals(1, rows.get(1).getCells().size());
+        assertEquals("4", cell(rows, 1, 0));
+
+        // a table opened outside of a cell inside of another table is neither nested nor a top level table
+        assertEquals(1, LtcsPageParser.allTables(tables).size());
+    }
+
+    @Test
+    public void handlesTruncatedPages() {
+        assertEquals("a", cell(LtcsPageParser.parse("<table><tr><td>a<!-- unterminated").get(0).getRows(), 0, 0));
+        assertEquals("a", cell(LtcsPageParser.parse("<table><tr><td>a<script>b").get(0).getRows(), 0, 0));
+        assertEquals("a", cell(LtcsPageParser.parse("<table><tr><td>a<b").get(0).getRows(), 0, 0));
+        assertEquals("a&", cell(LtcsPageParser.parse("<table><tr><td>a&").get(0).getRows(), 0, 0));
+        assertTrue(LtcsPageParser.parse("").isEmpty());
+    }
+
+    private String cell(List<LtcsPageParser.Row> rows, int row, int column) {
+        return rows.get(row).getCells().get(column).getText();
+    }
+
+}
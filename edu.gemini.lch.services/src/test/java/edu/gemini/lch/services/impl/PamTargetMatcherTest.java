@@ -0,0 +1,68 @@
+package edu.gemini.lch.services.impl;
+
+import edu.gemini.lch.model.RaDecLaserTarget;
+import edu.gemini.lch.model.Visibility;
+import edu.gemini.lch.pamparser.RaDecTarget;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for matching PAM targets with laser targets.
+ */
+public class PamTargetMatcherTest {
+
+    @Test
+    public void findsTargetWithRoundedCoordinates() {
+        RaDecLaserTarget t = new RaDecLaserTarget(null, 10.12345, -20.98765, Visibility.ALWAYS);
+        PamTargetMatcher<RaDecLaserTarget> matcher = new PamTargetMatcher<>(Collections.singletonList(t));
+
+        assertSame(t, matcher.find(new RaDecTarget(10.123, -20.988)));
+        // the rounded values can end up in neighbouring cells
+        assertSame(t, matcher.find(new RaDecTarget(10.1244, -20.9886)));
+        assertSame(t, matcher.find(new RaDecTarget(10.1225, -20.9867)));
+        // too far away
+        assertNull(matcher.find(new RaDecTarget(10.125, -20.988)));
+        assertNull(matcher.find(new RaDecTarget(10.123, -20.986)));
+    }
+
+    @Test
+    public void findsSameTargetsAsLinearScan() {
+        Random random = new Random(4711);
+        List<RaDecLaserTarget> targets = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            targets.add(new RaDecLaserTarget(null, random.nextDouble() * 360.0, random.nextDouble() * 180.0 - 90.0, Visibility.ALWAYS));
+        }
+        // add some targets that are very close to others
+        for (int i = 0; i < 200; i++) {
+            RaDecLaserTarget t = targets.get(random.nextInt(targets.size()));
+            targets.add(new RaDecLaserTarget(null, t.getRaDegrees() + random.nextDouble() * 0.002, t.getDecDegrees() - random.nextDouble() * 0.002, Visibility.ALWAYS));
+        }
+        PamTargetMatcher<RaDecLaserTarget> matcher = new PamTargetMatcher<>(targets);
+
+        for (int i = 0; i < 5000; i++) {
+            RaDecLaserTarget t = targets.get(random.nextInt(targets.size()));
+            // round to three digits like in the PAM files and add a bit of noise
+            double ra  = Math.round(t.getRaDegrees() * 1000.0) / 1000.0 + (random.nextDouble() - 0.5) * 0.001;
+            double dec = Math.round(t.getDecDegrees() * 1000.0) / 1000.0 + (random.nextDouble() - 0.5) * 0.001;
+            RaDecTarget pamTarget = new RaDecTarget(ra, dec);
+            assertSame(findLinear(targets, pamTarget), matcher.find(pamTarget));
+        }
+    }
+
+    private RaDecLaserTarget findLinear(List<RaDecLaserTarget> targets, RaDecTarget pamTarget) {
+        for (RaDecLaserTarget t : targets) {
+            if (PamTargetMatcher.hasSameCoordinates(pamTarget, t)) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,109 @@
+package edu.gemini.lch.services.impl;
+
+import edu.gemini.lch.configuration.Selection;
+import edu.gemini.lch.model.Site;
+import edu.gemini.lch.model.Visibility;
+import edu.gemini.lch.services.VisibilityCalculator;
+import jsky.coords.WorldCoords;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for the visibility cache.
+ */
+public class VisibilityCacheTest {
+
+    private static final Selection.VisibilityAlgorithm ALGORITHM = Selection.VisibilityAlgorithm.STEPPING;
+    private static final DateTime START = new DateTime(2012, 9, 1, 18, 0, 0);
+    private static final DateTime END   = new DateTime(2012, 9, 2, 6, 0, 0);
+
+    @Test
+    public void calculatesEachPositionOnlyOnce() {
+        VisibilityCache cache = new VisibilityCache();
+        CountingCalculator delegate = new CountingCalculator();
+        VisibilityCalculator calculator = cache.createCalculator(ALGORITHM, Site.NORTH, START, END, 40.0, delegate);
+
+        Visibility v0 = calculator.calculateVisibility(new WorldCoords(10.0, 20.0));
+        Visibility v1 = calculator.calculateVisibility(new WorldCoords(10.0, 20.0));
+        // positions that differ by less than the quantum are considered to be the same
+        Visibility v2 = calculator.calculateVisibility(new WorldCoords(10.0 + VisibilityCache.QUANTUM / 4, 20.0));
+
+        assertSame(v0, v1);
+        assertSame(v0, v2);
+        assertEquals(1, delegate.calls);
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void sharesEntriesBetweenCalculators() {
+        VisibilityCache cache = new VisibilityCache();
+        CountingCalculator delegate0 = new CountingCalculator();
+        CountingCalculator delegate1 = new CountingCalculator();
+        VisibilityCalculator calculator0 = cache.createCalculator(ALGORITHM, Site.NORTH, START, END, 40.0, delegate0);
+        VisibilityCalculator calculator1 = cache.createCalculator(ALGORITHM, Site.NORTH, START, END, 40.0, delegate1);
+
+        calculator0.calculateVisibility(new WorldCoords(10.0, 20.0));
+        calculator1.calculateVisibility(new WorldCoords(10.0, 20.0));
+
+        assertEquals(1, delegate0.calls);
+        assertEquals(0, delegate1.calls);
+    }
+
+    @Test
+    public void separatesNightsAndParameters() {
+        VisibilityCache cache = new VisibilityCache();
+        CountingCalculator delegate = new CountingCalculator();
+        WorldCoords c = new WorldCoords(10.0, 20.0);
+
+        cache.createCalculator(ALGORITHM, Site.NORTH, START, END, 40.0, delegate).calculateVisibility(c);
+        cache.createCalculator(ALGORITHM, Site.SOUTH, START, END, 40.0, delegate).calculateVisibility(c);
+        cache.createCalculator(ALGORITHM, Site.NORTH, START.plusDays(1), END.plusDays(1), 40.0, delegate).calculateVisibility(c);
+        cache.createCalculator(ALGORITHM, Site.NORTH, START, END, 30.0, delegate).calculateVisibility(c);
+        cache.createCalculator(Selection.VisibilityAlgorithm.ROOT_FINDING, Site.NORTH, START, END, 40.0, delegate).calculateVisibility(c);
+
+        assertEquals(5, delegate.calls);
+        assertEquals(5, cache.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries() {
+        VisibilityCache cache = new VisibilityCache(2);
+        CountingCalculator delegate = new CountingCalculator();
+        VisibilityCalculator calculator = cache.createCalculator(ALGORITHM, Site.NORTH, START, END, 40.0, delegate);
+
+        calculator.calculateVisibility(new WorldCoords(1.0, 0.0));
+        calculator.calculateVisibility(new WorldCoords(2.0, 0.0));
+        calculator.calculateVisibility(new WorldCoords(1.0, 0.0));  // hit, (2,0) is now the eldest entry
+        calculator.calculateVisibility(new WorldCoords(3.0, 0.0));  // evicts (2,0)
+        calculator.calculateVisibility(new WorldCoords(1.0, 0.0));  // hit
+        calculator.calculateVisibility(new WorldCoords(2.0, 0.0));  // miss
+
+        assertEquals(2, cache.size());
+        assertEquals(4, delegate.calls);
+        assertEquals(2, cache.getHits());
+    }
+
+    private static class CountingCalculator implements VisibilityCalculator {
+        private int calls = 0;
+
+        @Override
+        public Visibility calculateVisibility(WorldCoords obj) {
+            calls++;
+            return new Visibility(START.plusMinutes(calls), END);
+        }
+
+        @Override
+        public Double getHorizon() {
+            return 0.0;
+        }
+
+        @Override
+        public Double getLaserLimit() {
+            return 40.0;
+        }
+    }
+}
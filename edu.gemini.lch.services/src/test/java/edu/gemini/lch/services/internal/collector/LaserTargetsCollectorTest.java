@@ -7,6 +7,11 @@ import org.junit.runner.RunWith;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -118,4 +123,83 @@ public class LaserTargetsCollectorTest {
         // targets in different groups should have different laser targets
         assertTrue(t0.getLaserTarget() != t1.getLaserTarget());
     }
+
+    @Test
+    public void handlesRaWrapAround() {
+        LaserTargetsCollector g = new LaserTargetsCollector(null, 1.0);
+
+        ObservationTarget t0 = new SiderealTarget("name", "type", 359.8, 0.0);
+        ObservationTarget t1 = new SiderealTarget("name", "type",   0.2, 0.0);
+        g.addObservationTarget(t0, Visibility.ALWAYS);
+        g.addObservationTarget(t1, Visibility.ALWAYS);
+
+        assertEquals(1, g.getGroups().size());
+        RaDecLaserTarget center = g.getGroups().iterator().next().getCenter();
+        assertEquals(0.0, center.distanceTo(0.0, 0.0), 0.0001);
+    }
+
+    @Test
+    public void groupsSameAsLinearScan() {
+        Random random = new Random(4711);
+        double maxDistance = 0.5;
+        List<ObservationTarget> targets = createClusteredTargets(random, 3000);
+
+        LaserTargetsCollector g = new LaserTargetsCollector(null, maxDistance);
+        for (ObservationTarget t : targets) {
+            g.addObservationTarget(t, Visibility.ALWAYS);
+        }
+
+        // straight forward implementation of the grouping: check all groups for every new target
+        List<List<ObservationTarget>> expected = new ArrayList<>();
+        List<double[]> centers = new ArrayList<>();
+        for (ObservationTarget t : targets) {
+            int closest = -1;
+            double closestDistance = Double.MAX_VALUE;
+            for (int i = 0; i < centers.size(); i++) {
+                RaDecLaserTarget c = new RaDecLaserTarget(null, centers.get(i)[0], centers.get(i)[1], Visibility.ALWAYS);
+                double distance = c.distanceTo(t.getDegrees1(), t.getDegrees2());
+                if (distance < maxDistance && distance < closestDistance) {
+                    closest = i;
+                    closestDistance = distance;
+                }
+            }
+            if (closest < 0) {
+                expected.add(new ArrayList<>(Collections.singletonList(t)));
+                centers.add(new double[] {t.getDegrees1(), t.getDegrees2()});
+            } else {
+                List<ObservationTarget> members = expected.get(closest);
+                members.add(t);
+                double ra = 0.0, dec = 0.0;
+                for (ObservationTarget m : members) {
+                    ra += m.getDegrees1();
+                    dec += m.getDegrees2();
+                }
+                centers.set(closest, new double[] {ra / members.size(), dec / members.size()});
+            }
+        }
+
+        assertEquals(expected.size(), g.getGroups().size());
+        for (List<ObservationTarget> members : expected) {
+            for (ObservationTarget m : members) {
+                assertTrue(members.get(0).getLaserTarget() == m.getLaserTarget());
+            }
+        }
+    }
+
+    /**
+     * Creates targets in small clusters, RA values are kept away from 0/360 because the straight forward
+     * grouping implementation used for comparison does not deal with that.
+     */
+    private List<ObservationTarget> createClusteredTargets(Random random, int count) {
+        List<ObservationTarget> targets = new ArrayList<>();
+        while (targets.size() < count) {
+            double ra  = 5.0 + random.nextDouble() * 350.0;
+            double dec = Math.toDegrees(Math.asin(random.nextDouble() * 1.8 - 0.9));
+            int size = 1 + random.nextInt(5);
+            for (int i = 0; i < size && targets.size() < count; i++) {
+                targets.add(new SiderealTarget("name", "type", ra + random.nextGaussian() * 0.2, dec + random.nextGaussian() * 0.2));
+            }
+        }
+        return targets;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,150 @@
+package edu.gemini.lch.services.internal.collector;
+
+import edu.gemini.lch.model.LaserNight;
+import edu.gemini.lch.model.Site;
+import edu.gemini.lch.model.Visibility;
+import edu.gemini.lch.services.ModelFactory;
+import edu.gemini.lch.services.VisibilityCalculator;
+import edu.gemini.lch.services.impl.VisibilityCalculatorImpl;
+import jsky.coords.WorldCoords;
+import org.joda.time.DateTime;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the parallel calculation of visibilities.
+ */
+public class VisibilityStageTest {
+
+    private static final DateTime Day20120912 = new DateTime(2012,  9, 12, 0, 0);
+
+    private final Random random = new Random(4711);
+
+    @Test
+    public void keepsOrderOfPositions() {
+        // the "visibility" encodes the RA of the position, this allows to check the order of the results
+        VisibilityCalculator calculator = new ThreadConfinedVisibilityCalculator(() -> new FakeCalculator());
+        List<WorldCoords> positions = createPositions(10 * VisibilityStage.MIN_PARALLEL_BATCH);
+
+        List<VisibilityStage.Result> results = new VisibilityStage(calculator, new ForkJoinPool(4)).calculate(positions);
+
+        assertEquals(positions.size(), results.size());
+        for (int i = 0; i < positions.size(); i++) {
+            VisibilityStage.Result r = results.get(i);
+            assertSame(positions.get(i), r.getPosition());
+            assertFalse(r.hasError());
+            assertEquals(Math.round(positions.get(i).getRaDeg() * 1000), r.getVisibility().getRises().get().getTime());
+        }
+    }
+
+    @Test
+    public void reportsErrorsPerPosition() {
+        VisibilityCalculator calculator = new ThreadConfinedVisibilityCalculator(() -> new FakeCalculator());
+        List<WorldCoords> positions = createPositions(2 * VisibilityStage.MIN_PARALLEL_BATCH);
+        positions.set(7, new WorldCoords(0.0, 0.0)); // the fake calculator fails for (0,0)
+
+        List<VisibilityStage.Result> results = new VisibilityStage(calculator, new ForkJoinPool(4)).calculate(positions);
+
+        assertEquals(positions.size(), results.size());
+        for (int i = 0; i < positions.size(); i++) {
+            if (i == 7) {
+                assertTrue(results.get(i).hasError());
+                assertNull(results.get(i).getVisibility());
+            } else {
+                assertFalse(results.get(i).hasError());
+            }
+        }
+    }
+
+    @Test
+    public void calculatesSameVisibilitiesAsSequential() {
+        LaserNight night = ModelFactory.createNight(Site.NORTH, Day20120912);
+        VisibilityCalculator sequential = createCalculator(night);
+        VisibilityCalculator parallel = new ThreadConfinedVisibilityCalculator(() -> createCalculator(night));
+        List<WorldCoords> positions = createPositions(VisibilityStage.MIN_PARALLEL_BATCH);
+
+        List<VisibilityStage.Result> results = new VisibilityStage(parallel, new ForkJoinPool(4)).calculate(positions);
+
+        for (int i = 0; i < positions.size(); i++) {
+            Visibility expected;
+            try {
+                expected = sequential.calculateVisibility(positions.get(i));
+            } catch (Exception e) {
+                assertTrue(results.get(i).hasError());
+                continue;
+            }
+            Visibility actual = results.get(i).getVisibility();
+            assertEquals(expected.getRises(), actual.getRises());
+            assertEquals(expected.getSets(), actual.getSets());
+        }
+    }
+
+    // This is a simple benchmark for a synthetic night with 5000 targets meant to be run manually.
+    @Ignore
+    @Test
+    public void compareWithSequential() {
+        LaserNight night = ModelFactory.createNight(Site.NORTH, Day20120912);
+        VisibilityCalculator calculator = new ThreadConfinedVisibilityCalculator(() -> createCalculator(night));
+        List<WorldCoords> positions = createPositions(5000);
+
+        long t0 = System.nanoTime();
+        new VisibilityStage(calculator, new ForkJoinPool(1)).calculate(positions);
+        long t1 = System.nanoTime();
+        new VisibilityStage(calculator).calculate(positions);
+        long t2 = System.nanoTime();
+
+        System.out.println(String.format("sequential: %.1f targets/s", positions.size() * 1.0e9 / (t1 - t0)));
+        System.out.println(String.format("parallel  : %.1f targets/s", positions.size() * 1.0e9 / (t2 - t1)));
+    }
+
+    private List<WorldCoords> createPositions(int count) {
+        List<WorldCoords> positions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            double ra  = 1.0 + random.nextDouble() * 358.0;
+            double dec = random.nextDouble() * 120.0 - 60.0;
+            positions.add(new WorldCoords(ra, dec));
+        }
+        return positions;
+    }
+
+    private VisibilityCalculator createCalculator(LaserNight night) {
+        return new VisibilityCalculatorImpl(night.getSite(), night.getStart(), night.getEnd(), 40.0);
+    }
+
+    private static class FakeCalculator implements VisibilityCalculator {
+        private final Thread owner = Thread.currentThread();
+
+        @Override
+        public Visibility calculateVisibility(WorldCoords obj) {
+            // make sure the calculator is only used by the thread it was created for
+            assertSame(owner, Thread.currentThread());
+            if (obj.getRaDeg() == 0.0 && obj.getDecDeg() == 0.0) {
+                throw new IllegalArgumentException("fake error");
+            }
+            DateTime rises = new DateTime(Math.round(obj.getRaDeg() * 1000));
+            return new Visibility(rises, rises.plusHours(1));
+        }
+
+        @Override
+        public Double getHorizon() {
+            return 0.0;
+        }
+
+        @Override
+        public Double getLaserLimit() {
+            return 0.0;
+        }
+    }
+
+}
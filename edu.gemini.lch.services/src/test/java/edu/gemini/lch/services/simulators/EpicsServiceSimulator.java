@@ -104,6 +104,7 @@ public class EpicsServiceSimulator extends EpicsServiceImpl {
     private static class Connector implements EpicsService.Connector {
 
         private final Map<String, Object> readChannels;
+        private EpicsService.Listener listener;
 
         public Connector(Map<String, Object> readChannels, String[] writeChannels) {
             this.readChannels = new ConcurrentHashMap<>();
@@ -142,10 +143,18 @@ public class EpicsServiceSimulator extends EpicsServiceImpl {
             return readChannels.get(name);
         }
 
+        @Override
+        public void setListener(EpicsService.Listener listener) {
+            this.listener = listener;
+        }
+
         @Override
         public void writeValue(String name, Object value) {
             if (readChannels.containsKey(name)) {
                 readChannels.put(name, value);
+                if (listener != null) {
+                    listener.valueChanged(name, value);
+                }
             } else {
                 LOGGER.debug("writing channel: " + name + ", " + value);
             }
@@ -35,7 +35,7 @@ public class LtcsServiceSimulator extends LtcsServiceImpl {
     }
 
     /**
-     * Updates LTCS status every few seconds asynchronously, see @Scheduled annotation on
+     * Updates LTCS status every few seconds asynchronously, see the LTCS client thread in
      * {@link edu.gemini.lch.services.impl.LtcsServiceImpl} for scheduling. The method here overrides
      * the call to the LTCS and instead gets the pending collisions from a text file.
      */
@@ -0,0 +1,52 @@
+package edu.gemini.lch.services.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases for the latency histogram.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void countsLatenciesInBuckets() {
+        LatencyHistogram h = new LatencyHistogram("test");
+        h.record(TimeUnit.MICROSECONDS.toNanos(500));   // <= 1ms
+        h.record(TimeUnit.MILLISECONDS.toNanos(1));     // <= 1ms
+        h.record(TimeUnit.MILLISECONDS.toNanos(2));     // <= 2ms
+        h.record(TimeUnit.MILLISECONDS.toNanos(3));     // <= 4ms
+        h.record(TimeUnit.MILLISECONDS.toNanos(100));   // <= 128ms
+        h.record(TimeUnit.HOURS.toNanos(1));            // last bucket
+
+        assertEquals(6, h.getCount());
+        assertEquals(2, h.getCount(0));
+        assertEquals(1, h.getCount(1));
+        assertEquals(1, h.getCount(2));
+        assertEquals(1, h.getCount(7));
+        assertEquals(1, h.getCount(LatencyHistogram.BUCKETS - 1));
+        assertEquals(3600000.0, h.getMaxMillis(), 0.001);
+    }
+
+    @Test
+    public void calculatesPercentiles() {
+        LatencyHistogram h = new LatencyHistogram("test");
+        assertEquals(0, h.getPercentileMillis(50));
+        for (int i = 0; i < 99; i++) {
+            h.record(TimeUnit.MILLISECONDS.toNanos(3));
+        }
+        h.record(TimeUnit.MILLISECONDS.toNanos(300));
+
+        assertEquals(4, h.getPercentileMillis(50));
+        assertEquals(4, h.getPercentileMillis(99));
+        assertEquals(512, h.getPercentileMillis(100));
+        assertEquals(5.97, h.getMeanMillis(), 0.001);
+
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0.0, h.getMaxMillis(), 0.0);
+    }
+
+}
@@ -0,0 +1,153 @@
+package edu.gemini.lch.services.util;
+
+import edu.gemini.lch.configuration.Configuration;
+import edu.gemini.lch.model.*;
+import edu.gemini.lch.services.ConfigurationService;
+import edu.gemini.lch.services.impl.Factory;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the creation and encoding of PRM files, these tests don't need a database.
+ */
+public class PrmFileTest {
+
+    private final DateTime start = new DateTime(2013, 1, 1, 18, 0, 0);
+    private final LaserNight night = new LaserNight(Site.NORTH, start, start.plusHours(12));
+
+    @Test
+    public void splitsTargetsIntoFiles() throws Exception {
+        addTargets(5);
+        List<PrmFile.File> files = createRaDecFiles(2);
+
+        Assert.assertEquals(3, files.size());
+        int targets = 0;
+        for (int i = 0; i < files.size(); i++) {
+            PrmFile.File file = files.get(i);
+            String text = file.getFile();
+            Assert.assertEquals("PRM_RADEC." + (i + 1) + ".txt", file.getName());
+            Assert.assertTrue(text.startsWith("Gémini Nord PRM_RADEC." + (i + 1) + ".txt\n"));
+            Assert.assertTrue(text.endsWith("End of file\n"));
+            int count = count(text, "Right Ascension:");
+            Assert.assertEquals(i < 2 ? 2 : 1, count);
+            Assert.assertEquals(count - 1, count(text, "--\n"));
+            targets += count;
+            assertConsistent(file);
+        }
+        Assert.assertEquals(5, targets);
+    }
+
+    @Test
+    public void encodesFilesOfAnySize() throws Exception {
+        // the first file is much bigger than the initial buffer, the second one reuses the grown buffer
+        addTargets(1000);
+        List<PrmFile.File> files = createRaDecFiles(600);
+
+        Assert.assertEquals(2, files.size());
+        Assert.assertEquals(600, count(files.get(0).getFile(), "Right Ascension:"));
+        Assert.assertEquals(400, count(files.get(1).getFile(), "Right Ascension:"));
+        Assert.assertTrue(files.get(0).getSize() > 16384);
+        for (PrmFile.File file : files) {
+            Assert.assertTrue(file.getFile().endsWith("End of file\n"));
+            assertConsistent(file);
+        }
+    }
+
+    // This is a benchmark for the PRM files of a night with 10000 targets meant to be run manually.
+    @Ignore
+    @Test
+    public void createsFilesForManyTargets() {
+        addTargets(10000);
+        for (int i = 0; i < 10; i++) {
+            long t0 = System.nanoTime();
+            List<PrmFile.File> files = createRaDecFiles(1000);
+            long t1 = System.nanoTime();
+            long size = 0;
+            for (PrmFile.File file : files) {
+                size += file.getSize();
+            }
+            System.out.println(String.format("created %d files (%d bytes) for 10000 targets in %d ms", files.size(), size, (t1 - t0) / 1000000));
+        }
+    }
+
+    // bytes, stream, string and event file must all represent the same UTF-8 encoded content
+    private void assertConsistent(PrmFile.File file) throws Exception {
+        byte[] bytes = file.getBytes();
+        Assert.assertEquals(bytes.length, file.getSize());
+        Assert.assertArrayEquals(file.getFile().getBytes(StandardCharsets.UTF_8), bytes);
+        Assert.assertArrayEquals(bytes, read(file.openStream()));
+        Assert.assertArrayEquals(bytes, read(file.openStream()));
+        // the non-ASCII character in the header is encoded with two bytes
+        Assert.assertEquals(file.getFile().length() + 1, bytes.length);
+        // event files store the bytes as they are
+        EventFile eventFile = new EventFile(EventFile.Type.PRM, file.getName(), bytes);
+        Assert.assertSame(bytes, eventFile.getBytes());
+        Assert.assertEquals(file.getFile(), eventFile.getContent());
+    }
+
+    private List<PrmFile.File> createRaDecFiles(int maxTargets) {
+        ConfigurationService configuration = mock(ConfigurationService.class);
+        when(configuration.getString(Configuration.Value.PRM_FILENAME_TEMPLATE)).thenReturn("PRM_${{TARGET-TYPE}}${{FILE-NUMBER}}.txt");
+        when(configuration.getString(Configuration.Value.PRM_HEADER_TEMPLATE)).thenReturn("Gémini Nord ${{FILE-NAME}}\n");
+        when(configuration.getString(Configuration.Value.PRM_RADEC_TARGET_TEMPLATE)).thenReturn(
+                "Right Ascension:  ${{TARGET-RA-DEGREES_%.3f}}\nDeclination:      ${{TARGET-DEC-DEGREES_%.3f}}\n");
+        when(configuration.getString(Configuration.Value.PRM_TARGET_SEPARATOR_TEMPLATE)).thenReturn("--\n");
+        when(configuration.getString(Configuration.Value.PRM_FOOTER_TEMPLATE)).thenReturn("End of file\n");
+        TemplateEngine engine = new TemplateEngine(night);
+        ReflectionTestUtils.setField(engine, "configurationService", configuration);
+        Factory factory = mock(Factory.class);
+        when(factory.createTemplateEngine(any(LaserNight.class))).thenReturn(engine);
+
+        PrmFile.RaDec creator = new PrmFile.RaDec(night, maxTargets);
+        ReflectionTestUtils.setField(creator, "factory", factory);
+        ReflectionTestUtils.invokeMethod(creator, "init");
+
+        List<PrmFile.File> files = new ArrayList<>(creator.getPrmFiles());
+        files.sort(Comparator.comparing(PrmFile.File::getName));
+        return files;
+    }
+
+    private void addTargets(int n) {
+        for (int i = 0; i < n; i++) {
+            RaDecLaserTarget t = new RaDecLaserTarget(night, i * 0.1, i * 0.05, Visibility.ALWAYS);
+            Observation o = new ScienceObservation("GN-2013A-Q-1-" + i);
+            ObservationTarget ot = new SiderealTarget("target", "Base", t.getDegrees1(), t.getDegrees2());
+            ot.setLaserTarget(t);
+            o.getTargets().add(ot);
+            night.getObservations().add(o);
+        }
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + part.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    private static byte[] read(InputStream is) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = is.read(buffer)) > 0) {
+            os.write(buffer, 0, n);
+        }
+        return os.toByteArray();
+    }
+
+}
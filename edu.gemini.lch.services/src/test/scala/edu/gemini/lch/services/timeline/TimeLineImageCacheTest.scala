@@ -0,0 +1,105 @@
+package edu.gemini.lch.services.timeline
+
+import java.io.ByteArrayInputStream
+import javax.imageio.ImageIO
+
+import edu.gemini.lch.model._
+import edu.gemini.lch.services.timeline.TimeLineImageCache.{Lru, Strip}
+import org.joda.time.{DateTime, DateTimeZone, Period}
+import org.junit.Assert.{assertEquals, assertTrue}
+import org.junit.Test
+import org.springframework.test.util.ReflectionTestUtils
+
+class TimeLineImageCacheTest {
+
+  // one pixel per second, hour lines every 10 minutes
+  private val strip = Strip(0, 1.0, 10 * 60 * 1000)
+
+  @Test
+  def mapsTimesToPixels() {
+    // spacer at origin is placed before all times after it
+    assertEquals(0L, strip.x(0))
+    assertEquals(2L + 1, strip.x(1000))
+    assertEquals(2L + 600, strip.x(600 * 1000))
+    assertEquals(4L + 601, strip.x(601 * 1000))
+  }
+
+  @Test
+  def mapsPixelsToTimes() {
+    for (t <- 0L to 3600L * 1000L by 7000L) {
+      assertTrue(math.abs(strip.time(strip.x(t)) - t) <= 2000)
+    }
+  }
+
+  @Test
+  def findsSpacers() {
+    assertEquals(List(0L, 600000L, 1200000L), strip.spacers(1000, 1200000))
+    assertEquals(List(600000L), strip.spacers(600000, 600000))
+  }
+
+  @Test
+  def keepsTrackOfGrowingEntries() {
+    val lru = new Lru[Int, java.lang.StringBuilder](10, _.length)
+    val a = lru.getOrElseUpdate(1, new java.lang.StringBuilder("aaa"))
+    lru.getOrElseUpdate(2, new java.lang.StringBuilder("bbb"))
+    assertEquals(6L, lru.size)
+
+    // the first entry grows after it has been inserted
+    a.append("aaaa")
+    lru.reweigh(1)
+    assertEquals(10L, lru.size)
+
+    // evicts the second entry, then the first one with the weight it has now
+    lru.getOrElseUpdate(3, new java.lang.StringBuilder("c"))
+    assertEquals(8L, lru.size)
+    lru.getOrElseUpdate(4, new java.lang.StringBuilder("ddddd"))
+    assertEquals(6L, lru.size)
+    lru.clear()
+    assertEquals(0L, lru.size)
+  }
+
+  @Test
+  def rendersSameImagesAsWithoutCache() {
+    val start = new DateTime(2013, 1, 1, 4, 0, 0, DateTimeZone.UTC)
+    val night = new LaserNight(Site.NORTH, start, start.plusHours(12))
+    ReflectionTestUtils.setField(night, "id", 1L)
+    // with 819 pixels for 4 hours the tile seams are at about 15, 90 and 165 minutes after the start of the night
+    // and the hour lines at 15 and 90 minutes straddle the first two seams; the closures cover the last two seams
+    night.getClosures.add(new BlanketClosure(start.plusMinutes(80), start.plusMinutes(110)))
+    night.getClosures.add(new BlanketClosure(start.plusMinutes(164), start.plusMinutes(166)))
+
+    val target = new RaDecLaserTarget(night, 10.0, 20.0, new Visibility(start.plusMinutes(10), start.plusHours(5)))
+    ReflectionTestUtils.setField(target, "id", 2L)
+    target.getPropagationWindows.add(new PropagationWindow(start.plusMinutes(20), start.plusMinutes(60)))
+    target.getPropagationWindows.add(new PropagationWindow(start.plusMinutes(75), start.plusMinutes(150)))
+
+    val cache = new TimeLineImageCache(10 * 1024 * 1024)
+    val image = new TimeLineImage(night, start.minusHours(1), start.plusHours(3)).
+      withDimensions(819, 30).
+      withTarget(target).
+      withBuffers(Period.minutes(2), Period.minutes(1)).
+      withText(DateTimeZone.UTC, 10).
+      withNowMarker(start.plusMinutes(90))
+
+    // rendered from tiles, then taken from the cache
+    assertSamePixels(image.bytes, cache.bytes(image))
+    assertSamePixels(image.bytes, cache.bytes(image))
+    // same background with the now marker on another tile seam
+    val later = image.withNowMarker(start.plusMinutes(165))
+    assertSamePixels(later.bytes, cache.bytes(later))
+    // night only, without target
+    val overview = image.copy(target = None)
+    assertSamePixels(overview.bytes, cache.bytes(overview))
+  }
+
+  private def assertSamePixels(expected: Array[Byte], actual: Array[Byte]) {
+    val e = ImageIO.read(new ByteArrayInputStream(expected))
+    val a = ImageIO.read(new ByteArrayInputStream(actual))
+    assertEquals(e.getWidth, a.getWidth)
+    assertEquals(e.getHeight, a.getHeight)
+    for (x <- 0 until e.getWidth; y <- 0 until e.getHeight) {
+      assertEquals(s"pixel at ($x, $y)", e.getRGB(x, y), a.getRGB(x, y))
+    }
+  }
+
+}
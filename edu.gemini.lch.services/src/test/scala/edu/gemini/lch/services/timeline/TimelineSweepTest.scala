@@ -0,0 +1,85 @@
+package edu.gemini.lch.services.timeline
+
+import edu.gemini.lch.services.timeline.PartType._
+import org.joda.time.DateTime
+import org.junit.Assert.assertEquals
+import org.junit.{Ignore, Test}
+
+import scala.util.Random
+
+class TimelineSweepTest {
+
+  private val t0 = new DateTime(2013, 1, 1, 18, 0, 0)
+
+  private val twilight = List(
+    Part(Day, t0.minusHours(24), t0),
+    Part(CivilTwilight, t0, t0.plusMinutes(30)),
+    Part(Night, t0.plusMinutes(30), t0.plusHours(10)),
+    Part(CivilTwilight, t0.plusHours(10), t0.plusMinutes(630)),
+    Part(Day, t0.plusMinutes(630), t0.plusHours(34)))
+
+  @Test
+  def combinesParts() {
+    val timeline = new Timeline(twilight).add(List(
+      Part(Open, t0.plusHours(1), t0.plusHours(3)),
+      Part(Closed, t0.plusHours(2), t0.plusMinutes(150)),
+      Part(Open, t0.plusHours(3), t0.plusHours(4)),
+      Part(Closed, t0.plusHours(40), t0.plusHours(41))))
+
+    assertEquals(
+      List(
+        (Set(Day), -24 * 60, 0),
+        (Set(CivilTwilight), 0, 30),
+        (Set(Night), 30, 60),
+        (Set(Night, Open), 60, 120),
+        (Set(Night, Open, Closed), 120, 150),
+        (Set(Night, Open), 150, 180),
+        (Set(Night, Open), 180, 240),
+        (Set(Night), 240, 600),
+        (Set(CivilTwilight), 600, 630),
+        (Set(Day), 630, 34 * 60)),
+      timeline.allParts.map(p => (p.types, minutes(p.start), minutes(p.end))))
+  }
+
+  @Test
+  def givesSameResultsAsPairwiseCombination() {
+    val random = new Random(42)
+    for (n <- 0 to 50) {
+      val windows = randomWindows(random, n)
+      assertEquals(describe(pairwise(twilight, windows)), describe(new Timeline(twilight).add(windows).allParts))
+    }
+  }
+
+  // This is a benchmark meant to be run manually.
+  @Ignore
+  @Test
+  def combinesManyWindows() {
+    val windows = randomWindows(new Random(42), 10000)
+    for (i <- 1 to 10) {
+      val start = System.nanoTime()
+      val parts = new Timeline(twilight).add(windows).allParts
+      println(s"combined ${windows.size} windows into ${parts.size} parts in ${(System.nanoTime() - start) / 1000000}ms")
+    }
+  }
+
+  private def randomWindows(random: Random, n: Int): List[Part] =
+    (1 to n).toList.map { _ =>
+      val start = t0.plusSeconds(random.nextInt(12 * 3600) - 3600)
+      val types = random.nextInt(4) match {
+        case 0 => Open
+        case 1 => Closed
+        case 2 => Visible
+        case _ => AboveLimit
+      }
+      Part(types, start, start.plusSeconds(1 + random.nextInt(3600)))
+    }
+
+  private def minutes(t: DateTime) = ((t.getMillis - t0.getMillis) / 60000).toInt
+
+  private def describe(parts: List[Part]) = parts.map(p => (p.types, p.start.getMillis, p.end.getMillis))
+
+  // the original pairwise combination of parts used as a reference
+  private def pairwise(s1: List[Part], s2: List[Part]): List[Part] =
+    s2.foldRight(s1)((p, parts) => parts.flatMap(_.combine(p)))
+
+}
@@ -0,0 +1,74 @@
+package edu.gemini.lch.services.util
+
+import edu.gemini.lch.model.{LaserNight, RaDecLaserTarget, Site, Visibility}
+import edu.gemini.lch.services.util.TemplateEngine.{Literal, Placeholder}
+import org.joda.time.{DateTime, DateTimeZone}
+import org.junit.Assert.{assertEquals, assertSame}
+import org.junit.{Ignore, Test}
+
+/**
+ * Tests for the compilation of templates, these tests don't need a database.
+ */
+class TemplateCompilationTest {
+
+  private val night = new LaserNight(Site.NORTH,
+    new DateTime(2012, 12, 20, 18, 0, 0, DateTimeZone.forID("HST")),
+    new DateTime(2012, 12, 21, 6, 0, 0, DateTimeZone.forID("HST")))
+
+  private val targetTemplate =
+    "Method:                       Right Ascension and Declination\n" +
+    "Catalog Date:                 J2000\n" +
+    "Right Ascension:              ${{TARGET-RA-DEGREES_%.3f}}\n" +
+    "Declination:                  ${{TARGET-DEC-DEGREES_%.3f}}\n"
+
+  @Test
+  def splitsTemplates() {
+    assertEquals(
+      Vector(
+        Literal("a "),
+        Placeholder("NIGHT-START", Some("HST_yyyyMMdd"), "NIGHT-START_HST_yyyyMMdd"),
+        Literal(" b "),
+        Placeholder("SEMESTER", None, "SEMESTER"),
+        Placeholder("_X", None, "_X")),
+      TemplateEngine.compile("a ${{NIGHT-START_HST_yyyyMMdd}} b ${{SEMESTER}}${{_X}}"))
+    assertEquals(Vector(), TemplateEngine.compile(""))
+    assertEquals(Vector(Literal("no placeholders")), TemplateEngine.compile("no placeholders"))
+  }
+
+  @Test
+  def cachesCompiledTemplates() {
+    assertSame(TemplateEngine.compile(targetTemplate), TemplateEngine.compile(new String(targetTemplate)))
+  }
+
+  @Test
+  def fillsTemplates() {
+    val engine = new TemplateEngine(night)
+    engine.setLaserTarget(new RaDecLaserTarget(night, 115.4841, 19.9281, Visibility.ALWAYS))
+    assertEquals("20121220 $ 2012B ??BROKEN??", engine.fillTemplate("${{NIGHT-START_HST_yyyyMMdd}} $ ${{SEMESTER}} ${{BROKEN}}"))
+    assertEquals(
+      "Method:                       Right Ascension and Declination\n" +
+      "Catalog Date:                 J2000\n" +
+      "Right Ascension:              115.484\n" +
+      "Declination:                  19.928\n",
+      engine.fillTemplate(targetTemplate))
+  }
+
+  // This is a benchmark meant to be run manually.
+  @Ignore
+  @Test
+  def fillsTemplatesForManyTargets() {
+    val engine = new TemplateEngine(night)
+    val targets = (1 to 10000).map(i => new RaDecLaserTarget(night, i % 360 + 0.5, i % 90 + 0.25, Visibility.ALWAYS))
+    for (i <- 1 to 10) {
+      val start = System.nanoTime()
+      val file = new java.lang.StringBuilder
+      targets.foreach { t =>
+        engine.setLaserTarget(t)
+        engine.fillTemplate(targetTemplate, file)
+        engine.fillTemplate("\n", file)
+      }
+      println(s"filled templates for ${targets.size} targets (${file.length} chars) in ${(System.nanoTime() - start) / 1000000}ms")
+    }
+  }
+
+}
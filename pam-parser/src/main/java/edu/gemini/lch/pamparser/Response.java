@@ -131,18 +131,7 @@ public class Response {
 			ResponseTree rt = new ResponseTree(ns);
       Response response = rt.response();
 
-      // check for some values that must be in the parsed response
-      // if the header is not found at all (e.g. when trying to parse an arbitrary text file) currently
-      // the parser will just consume everything and return a Response object with all values set to null!
-      // this is a catch all to avoid this - actually it would be better to improve the parser..
-      // feel free to do so ;)
-      Validate.notNull(response.getMissionId(),       "PAM file header does not contain a mission ID.");
-      Validate.notNull(response.getMissionStart(),    "PAM file header does not contain a mission start time.");
-      Validate.notNull(response.getMissionEnd(),      "PAM file header does not contain a mission end time.");
-      Validate.notNull(response.getReportTime(),      "PAM file header does not contain a report time.");
-      Validate.notNull(response.getJDay(),            "PAM file header does not contain a JDay.");
-      Validate.notNull(response.getSite(),            "PAM file header does not contain a Site");
-      Validate.notNull(response.getTargets(),         "PAM file does not contain any targets.");
+      validateHeader(response);
 
       // return the response
       return response;
@@ -153,6 +142,35 @@ public class Response {
 			throw pe;
 		}
 	}
-	
+
+    /**
+     * Parses a PAM file in streaming mode.
+     * The header and the targets with their windows are passed on to the handler while the file is parsed, unlike
+     * {@link #parseResponse(InputStream)} this does not keep the whole file and all targets and windows in memory.
+     * @param is
+     * @param handler
+     * @return a response object with all header values but without any targets
+     * @throws IOException
+     * @throws ParseException
+     */
+    public static Response parseResponse(InputStream is, ResponseHandler handler) throws IOException, ParseException {
+        return new ResponseStreamParser(is).parse(handler);
+    }
+
+    static void validateHeader(Response response) {
+        // check for some values that must be in the parsed response
+        // if the header is not found at all (e.g. when trying to parse an arbitrary text file) currently
+        // the parser will just consume everything and return a Response object with all values set to null!
+        // this is a catch all to avoid this - actually it would be better to improve the parser..
+        // feel free to do so ;)
+        Validate.notNull(response.getMissionId(),       "PAM file header does not contain a mission ID.");
+        Validate.notNull(response.getMissionStart(),    "PAM file header does not contain a mission start time.");
+        Validate.notNull(response.getMissionEnd(),      "PAM file header does not contain a mission end time.");
+        Validate.notNull(response.getReportTime(),      "PAM file header does not contain a report time.");
+        Validate.notNull(response.getJDay(),            "PAM file header does not contain a JDay.");
+        Validate.notNull(response.getSite(),            "PAM file header does not contain a Site");
+        Validate.notNull(response.getTargets(),         "PAM file does not contain any targets.");
+    }
+
 }
 
@@ -0,0 +1,29 @@
+package edu.gemini.lch.pamparser;
+
+import edu.gemini.lch.model.PropagationWindow;
+
+import java.util.List;
+
+/**
+ * Callback for the streaming mode of the PAM file parser.
+ * The header is always delivered first, after that the targets are delivered one by one in the order in which
+ * they appear in the PAM file together with their propagation windows. Only the windows of the current target
+ * are kept in memory, so the handler should not assume that the parser keeps any references to them.
+ * @see Response#parseResponse(java.io.InputStream, ResponseHandler)
+ */
+public interface ResponseHandler {
+
+    /**
+     * Called once the header of the PAM file has been parsed and validated.
+     * @param header a response object that contains all header values but no targets
+     */
+    void header(Response header);
+
+    /**
+     * Called for each target in the PAM file.
+     * @param target
+     * @param windows
+     */
+    void target(Target target, List<PropagationWindow> windows);
+
+}
@@ -0,0 +1,250 @@
+package edu.gemini.lch.pamparser;
+
+import edu.gemini.lch.model.PropagationWindow;
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming version of the PAM file parser.
+ * Instead of buffering all tokens, building an AST with the Response grammar and then turning it into a Response
+ * object with the ResponseTree grammar, this parser pulls the tokens one by one from the lexer and follows the
+ * rules of the Response grammar by hand. Targets and their windows are handed over to a {@link ResponseHandler}
+ * as soon as they are complete. The lexer reads its input through an {@link UnbufferedCharStream} which only keeps
+ * the characters of the current token in memory, this keeps the memory needed for parsing independent of the size
+ * of the file and the number of targets and windows in it. Any changes to the Response grammar must be reflected
+ * here, too.
+ */
+class ResponseStreamParser {
+
+    private static final List<String> MONTHS =
+            Arrays.asList("Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec");
+
+    private final UnbufferedCharStream input;
+    private final ResponseLexer lexer;
+    private Token next;
+
+    ResponseStreamParser(InputStream is) {
+        this(new UnbufferedCharStream(new InputStreamReader(is)));
+    }
+
+    ResponseStreamParser(UnbufferedCharStream input) {
+        this.input = input;
+        this.lexer = new ResponseLexer(input);
+    }
+
+    /**
+     * Parses the PAM file and passes the header and all targets to the given handler.
+     * @param handler
+     * @return a response object with the header values but without any targets
+     * @throws IOException
+     * @throws ParseException
+     */
+    Response parse(ResponseHandler handler) throws IOException, ParseException {
+        try {
+            return doParse(handler);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Response doParse(ResponseHandler handler) throws ParseException {
+        next = lexer.nextToken();
+        Response header = new Response();
+        if (next.getType() == ResponseLexer.CLASSIFICATION) {
+            header(header);
+        }
+        Response.validateHeader(header);
+        handler.header(header);
+
+        while (next.getType() == ResponseLexer.HEADER1) {
+            target(handler);
+        }
+        match(Token.EOF);
+
+        return header;
+    }
+
+    // -- header: see header rule in Response grammar
+    private void header(Response r) throws ParseException {
+        match(ResponseLexer.CLASSIFICATION);
+        match(ResponseLexer.HEADER_CRAP_1);
+        match(ResponseLexer.MISSION_ID);
+        String id1 = match(ResponseLexer.STRING).getText();
+        String id2 = match(ResponseLexer.STRING).getText();
+        match(ResponseLexer.LASER_OWNER);
+        match(ResponseLexer.REPORT_TIME);
+        DateTime reportTime = time();
+        match(ResponseLexer.MISSION_NAME);
+        match(ResponseLexer.MISSION_START);
+        DateTime start = time();
+        match(ResponseLexer.MISSION_STOP);
+        DateTime end = time();
+        match(ResponseLexer.MISSION_DURATION);
+        match(ResponseLexer.INT);
+        match(ResponseLexer.COLON);
+        match(ResponseLexer.INT);
+        match(ResponseLexer.COLON);
+        match(ResponseLexer.INT);
+        // Type of Windows in this report: ...
+        for (int i = 0; i < 6; i++) {
+            match(ResponseLexer.STRING);
+        }
+        match(ResponseLexer.COLON);
+        for (int i = 0; i < 4; i++) {
+            match(ResponseLexer.STRING);
+        }
+        match(ResponseLexer.HEADER_CRAP_2);
+        match(ResponseLexer.INT);
+
+        // the mission id comes in two separate strings because of the space between "Gemini" and "North" or "South"
+        r.setMissionId(id1 + " " + id2);
+        r.setReportTime(reportTime.toDate());
+        r.setMissionStart(start.toDate());
+        r.setMissionEnd(end.toDate());
+    }
+
+    // -- target: see target rule in Response grammar
+    private void target(ResponseHandler handler) throws ParseException {
+        match(ResponseLexer.HEADER1);
+        match(ResponseLexer.HEADER2);
+
+        // windows come first, the coordinates of the target they belong to come at the very end
+        List<PropagationWindow> windows = new ArrayList<>();
+        while (next.getType() == ResponseLexer.INT) {
+            DateTime start = time();
+            DateTime end = time();
+            // duration
+            match(ResponseLexer.INT);
+            match(ResponseLexer.COLON);
+            match(ResponseLexer.INT);
+            windows.add(new PropagationWindow(start, end));
+        }
+
+        // percentage: targets without any windows show percentage as ".00" instead of "0.00"
+        match(ResponseLexer.PERCENT);
+        if (next.getType() == ResponseLexer.DECIMAL) {
+            match(ResponseLexer.DECIMAL);
+        } else {
+            match(ResponseLexer.STRING);
+        }
+        matchText("%");
+
+        // source geometry: recognized but not kept
+        match(ResponseLexer.SOURCE_GEOMETRY);
+        match(ResponseLexer.HEADER3);
+        match(ResponseLexer.METHOD_FIX_PNT);
+        match(ResponseLexer.LATITUDE);
+        match(ResponseLexer.DECIMAL);
+        match(ResponseLexer.DEGREES);
+        match(ResponseLexer.LONGITUDE);
+        match(ResponseLexer.DECIMAL);
+        match(ResponseLexer.DEGREES);
+        match(ResponseLexer.ALTITUDE);
+        match(ResponseLexer.DECIMAL);
+        match(ResponseLexer.KM);
+
+        // target geometry
+        match(ResponseLexer.TARGET_GEOMETRY);
+        match(ResponseLexer.INT);
+        match(ResponseLexer.HEADER3);
+        Target target;
+        if (next.getType() == ResponseLexer.METHOD_RADEC) {
+            match(ResponseLexer.METHOD_RADEC);
+            match(ResponseLexer.CATALOG_DATE);
+            match(ResponseLexer.RIGHT_ASCENSION);
+            double ra = Double.parseDouble(match(ResponseLexer.DECIMAL).getText());
+            match(ResponseLexer.DEGREES);
+            match(ResponseLexer.DECLINATION);
+            double dec = Double.parseDouble(match(ResponseLexer.DECIMAL).getText());
+            match(ResponseLexer.DEGREES);
+            target = new RaDecTarget(ra, dec);
+        } else {
+            match(ResponseLexer.METHOD_AZIMUTH);
+            match(ResponseLexer.AZIMUTH);
+            double az = Double.parseDouble(match(ResponseLexer.DECIMAL).getText());
+            match(ResponseLexer.DEGREES);
+            match(ResponseLexer.ELEVATION);
+            double el = Double.parseDouble(match(ResponseLexer.DECIMAL).getText());
+            match(ResponseLexer.DEGREES);
+            target = new AzAltTarget(az, el);
+        }
+
+        handler.target(target, windows);
+    }
+
+    // -- time: see time rule in Response grammar; all times are in UTC
+    private DateTime time() throws ParseException {
+        int year = parseInt(match(ResponseLexer.INT));
+        Token monthToken = match(ResponseLexer.MONTH);
+        int month = MONTHS.indexOf(monthToken.getText()) + 1;
+        int day = parseInt(match(ResponseLexer.INT));
+        int hours, minutes, seconds;
+        if (next.getType() == ResponseLexer.STRING) {
+            // 2013 Mar 28 (087) 0434 52
+            match(ResponseLexer.STRING);
+            int hhmm = parseInt(match(ResponseLexer.INT));
+            hours = hhmm / 100;
+            minutes = hhmm % 100;
+            seconds = parseInt(match(ResponseLexer.INT));
+        } else {
+            // 2013 Mar 28 04:34:52
+            hours = parseInt(match(ResponseLexer.INT));
+            match(ResponseLexer.COLON);
+            minutes = parseInt(match(ResponseLexer.INT));
+            match(ResponseLexer.COLON);
+            seconds = parseInt(match(ResponseLexer.INT));
+        }
+        // be lenient like the date format used by the tree grammar (e.g. 24:00:00 is midnight of the next day)
+        DateTime utc = new DateTime(year, month, 1, 0, 0, 0, DateTimeZone.UTC).
+                plusDays(day - 1).
+                plusHours(hours).
+                plusMinutes(minutes).
+                plusSeconds(seconds);
+        return new DateTime(utc.getMillis());
+    }
+
+    private Token match(int type) throws ParseException {
+        if (next.getType() != type) {
+            throw error("unexpected token '" + next.getText() + "'");
+        }
+        return consume();
+    }
+
+    private Token matchText(String text) throws ParseException {
+        if (!text.equals(next.getText())) {
+            throw error("expected '" + text + "' but found '" + next.getText() + "'");
+        }
+        return consume();
+    }
+
+    private Token consume() {
+        Token t = next;
+        // the text of the token must be read before its characters are discarded from the input
+        t.getText();
+        input.discardBefore(input.index());
+        next = lexer.nextToken();
+        return t;
+    }
+
+    private int parseInt(Token t) {
+        return Integer.parseInt(t.getText());
+    }
+
+    private ParseException error(String message) {
+        int offset = next instanceof CommonToken ? ((CommonToken) next).getStartIndex() : 0;
+        return new ParseException(
+                String.format("line %d:%d %s", next.getLine(), next.getCharPositionInLine(), message), offset);
+    }
+
+}
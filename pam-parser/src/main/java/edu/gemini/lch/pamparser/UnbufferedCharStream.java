@@ -0,0 +1,220 @@
+package edu.gemini.lch.pamparser;
+
+import org.antlr.runtime.CharStream;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Character stream for the ANTLR lexer that reads its input in chunks as the lexer needs it.
+ * Unlike {@link org.antlr.runtime.ANTLRInputStream}, which reads the whole input into one array before lexing
+ * starts, this stream only keeps the characters that can still be accessed: everything from the oldest active
+ * mark or the position given to {@link #discardBefore(int)}, whichever comes first, up to the furthest lookahead.
+ * Indices are absolute positions in the input like for any other char stream, so tokens and error messages are
+ * not affected. The text of a token must be read from the token before the characters of the token are discarded.
+ * Read errors are reported as {@link UncheckedIOException} because the ANTLR interfaces do not allow checked
+ * exceptions.
+ */
+class UnbufferedCharStream implements CharStream {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Reader reader;
+    private final List<int[]> markers;
+    private char[] data;
+    private int offset;             // absolute index of data[0]
+    private int n;                  // number of valid characters in data
+    private boolean eof;
+    private int p;                  // absolute index of the current character
+    private int line;
+    private int charPositionInLine;
+    private int discardBefore;
+    private int markDepth;
+    private int lastMarker;
+
+    UnbufferedCharStream(Reader reader) {
+        this.reader = reader;
+        this.markers = new ArrayList<>();
+        this.data = new char[2 * CHUNK_SIZE];
+        this.line = 1;
+    }
+
+    /**
+     * Allows the stream to drop all characters before the given index the next time it needs room for new input.
+     * @param index absolute index of the first character that is still needed
+     */
+    void discardBefore(int index) {
+        discardBefore = Math.max(discardBefore, index);
+    }
+
+    /**
+     * Gets the current size of the internal buffer.
+     * @return
+     */
+    int getBufferSize() {
+        return data.length;
+    }
+
+    @Override
+    public void consume() {
+        if (fill(p)) {
+            charPositionInLine++;
+            if (data[p - offset] == '\n') {
+                line++;
+                charPositionInLine = 0;
+            }
+            p++;
+        }
+    }
+
+    @Override
+    public int LA(int i) {
+        if (i == 0) {
+            return 0; // undefined
+        }
+        if (i < 0) {
+            i++; // e.g., translate LA(-1) to use offset 0
+        }
+        final int index = p + i - 1;
+        if (index < offset || !fill(index)) {
+            return CharStream.EOF;
+        }
+        return data[index - offset];
+    }
+
+    @Override
+    public int LT(int i) {
+        return LA(i);
+    }
+
+    @Override
+    public int mark() {
+        markDepth++;
+        if (markDepth > markers.size()) {
+            markers.add(new int[3]);
+        }
+        final int[] state = markers.get(markDepth - 1);
+        state[0] = p;
+        state[1] = line;
+        state[2] = charPositionInLine;
+        lastMarker = markDepth;
+        return markDepth;
+    }
+
+    @Override
+    public int index() {
+        return p;
+    }
+
+    @Override
+    public void rewind(int marker) {
+        final int[] state = markers.get(marker - 1);
+        seek(state[0]);
+        line = state[1];
+        charPositionInLine = state[2];
+        release(marker);
+    }
+
+    @Override
+    public void rewind() {
+        rewind(lastMarker);
+    }
+
+    @Override
+    public void release(int marker) {
+        markDepth = marker - 1;
+    }
+
+    @Override
+    public void seek(int index) {
+        if (index <= p) {
+            if (index < offset) {
+                throw new IllegalArgumentException("can not seek to discarded position " + index);
+            }
+            p = index; // just jump; don't update stream state (line, ...)
+            return;
+        }
+        while (p < index && LA(1) != CharStream.EOF) {
+            consume();
+        }
+    }
+
+    /**
+     * Gets the number of characters read so far, the size of the whole input is not known before it is read.
+     * @return
+     */
+    @Override
+    public int size() {
+        return offset + n;
+    }
+
+    @Override
+    public String substring(int start, int stop) {
+        if (start < offset) {
+            throw new IllegalArgumentException("characters before " + offset + " have already been discarded");
+        }
+        fill(stop);
+        final int end = Math.min(stop + 1, offset + n);
+        return new String(data, start - offset, Math.max(0, end - start));
+    }
+
+    @Override
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public void setLine(int line) {
+        this.line = line;
+    }
+
+    @Override
+    public void setCharPositionInLine(int pos) {
+        this.charPositionInLine = pos;
+    }
+
+    @Override
+    public int getCharPositionInLine() {
+        return charPositionInLine;
+    }
+
+    // reads chunks until the character at the given index is available or the input is exhausted
+    private boolean fill(int index) {
+        while (index >= offset + n && !eof) {
+            read();
+        }
+        return index < offset + n;
+    }
+
+    private void read() {
+        // drop all characters that can not be accessed anymore before making room for more
+        int keep = Math.min(p, discardBefore);
+        for (int i = 0; i < markDepth; i++) {
+            keep = Math.min(keep, markers.get(i)[0]);
+        }
+        if (keep > offset) {
+            System.arraycopy(data, keep - offset, data, 0, offset + n - keep);
+            n -= keep - offset;
+            offset = keep;
+        }
+        if (data.length - n < CHUNK_SIZE) {
+            final char[] grown = new char[Math.max(2 * data.length, n + CHUNK_SIZE)];
+            System.arraycopy(data, 0, grown, 0, n);
+            data = grown;
+        }
+        try {
+            final int read = reader.read(data, n, data.length - n);
+            if (read < 0) {
+                eof = true;
+            } else {
+                n += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
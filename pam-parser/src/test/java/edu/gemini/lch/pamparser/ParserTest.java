@@ -4,9 +4,17 @@ import edu.gemini.lch.model.PropagationWindow;
 import edu.gemini.lch.model.Site;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -192,4 +200,175 @@ public class ParserTest {
         }
     }
 
+    @Test
+    public void streamingParserReturnsSameResults() throws Exception {
+        for (String name : FILES) {
+            Response expected;
+            try (InputStream is = getClass().getResourceAsStream(name)) {
+                expected = Response.parseResponse(is);
+            }
+            CollectingHandler handler = new CollectingHandler();
+            Response header;
+            try (InputStream is = getClass().getResourceAsStream(name)) {
+                header = Response.parseResponse(is, handler);
+            }
+
+            assertSame(header, handler.header);
+            assertEquals(expected.getMissionId(), header.getMissionId());
+            assertEquals(expected.getReportTime(), header.getReportTime());
+            assertEquals(expected.getMissionStart(), header.getMissionStart());
+            assertEquals(expected.getMissionEnd(), header.getMissionEnd());
+            assertEquals(expected.getSite(), header.getSite());
+            assertEquals(expected.getJDay(), header.getJDay());
+            assertEquals(name, expected.getTargets().size(), handler.targets.size());
+            for (int i = 0; i < handler.targets.size(); i++) {
+                Target e = expected.getTargets().get(i);
+                Target t = handler.targets.get(i);
+                assertEquals(e.getClass(), t.getClass());
+                assertEquals(e.getDegrees1(), t.getDegrees1());
+                assertEquals(e.getDegrees2(), t.getDegrees2());
+                List<PropagationWindow> ew = expected.getWindowsForTarget(e);
+                List<PropagationWindow> tw = handler.windows.get(i);
+                assertEquals(ew.size(), tw.size());
+                for (int w = 0; w < ew.size(); w++) {
+                    assertEquals(ew.get(w).getStart().getMillis(), tw.get(w).getStart().getMillis());
+                    assertEquals(ew.get(w).getEnd().getMillis(), tw.get(w).getEnd().getMillis());
+                }
+            }
+        }
+    }
+
+    @Test(expected = ParseException.class)
+    public void streamingParserFailsOnBrokenFile() throws Exception {
+        String content = readResource("/singleRaDecTarget.txt").replace("Source Geometry:", "Geometry:");
+        Response.parseResponse(new ByteArrayInputStream(content.getBytes(StandardCharsets.ISO_8859_1)), new CollectingHandler());
+    }
+
+    @Test
+    public void streamingParserOnlyBuffersCurrentToken() throws Exception {
+        // scale up one of the biggest files by repeating its targets 10 times (about 5 MB)
+        String content = readResource("/PAM_GS_Gemini_South_T-003_30DEC2022_For_JDAY002_RADEC.1-1.txt");
+        int firstTarget = content.indexOf("YYYY MMM dd (DDD)");
+        StringBuilder sb = new StringBuilder(content.substring(0, firstTarget));
+        for (int i = 0; i < 10; i++) {
+            sb.append(content.substring(firstTarget));
+        }
+        Response expected = Response.parseResponse(new ByteArrayInputStream(content.getBytes(StandardCharsets.ISO_8859_1)));
+
+        UnbufferedCharStream input = new UnbufferedCharStream(new StringReader(sb.toString()));
+        CountingHandler handler = new CountingHandler();
+        new ResponseStreamParser(input).parse(handler);
+
+        assertEquals(10 * expected.getTargets().size(), handler.targets);
+        assertEquals(sb.length(), input.size());
+        // the input buffer must not grow with the size of the file
+        assertTrue(input.getBufferSize() <= 32 * 1024);
+    }
+
+    // manual benchmark: compares time and memory used by the tree and the streaming parser for a huge file
+    @Ignore
+    @Test
+    public void compareParsersForHugeFile() throws Exception {
+        // scale up one of the biggest files by repeating its targets 100 times
+        String content = readResource("/PAM_GS_Gemini_South_T-003_30DEC2022_For_JDAY002_RADEC.1-1.txt");
+        int firstTarget = content.indexOf("YYYY MMM dd (DDD)");
+        StringBuilder sb = new StringBuilder(content.substring(0, firstTarget));
+        for (int i = 0; i < 100; i++) {
+            sb.append(content.substring(firstTarget));
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        System.out.println(String.format("file size: %.1f MB", bytes.length / 1e6));
+
+        for (int run = 0; run < 3; run++) {
+            Runtime rt = Runtime.getRuntime();
+
+            System.gc();
+            long used = rt.totalMemory() - rt.freeMemory();
+            long t0 = System.currentTimeMillis();
+            Response response = Response.parseResponse(new ByteArrayInputStream(bytes));
+            long t1 = System.currentTimeMillis();
+            long treeMemory = rt.totalMemory() - rt.freeMemory() - used;
+            int treeTargets = response.getTargets().size();
+            response = null;
+
+            System.gc();
+            used = rt.totalMemory() - rt.freeMemory();
+            CountingHandler handler = new CountingHandler();
+            long t2 = System.currentTimeMillis();
+            Response.parseResponse(new ByteArrayInputStream(bytes), handler);
+            long t3 = System.currentTimeMillis();
+            long streamMemory = rt.totalMemory() - rt.freeMemory() - used;
+
+            assertEquals(treeTargets, handler.targets);
+            System.out.println(String.format("tree parser:      %5d ms, ~%4d MB used, %d targets", t1 - t0, treeMemory / 1000000, treeTargets));
+            System.out.println(String.format("streaming parser: %5d ms, ~%4d MB used, %d targets, %d windows", t3 - t2, streamMemory / 1000000, handler.targets, handler.windows));
+        }
+    }
+
+    private static final String[] FILES = {
+            "/singleRaDecTarget.txt",
+            "/singleAzTarget.txt",
+            "/emptyNorthRaDec.txt",
+            "/emptyRaDecTarget.txt",
+            "/responseSouthRaDec.txt",
+            "/responseNorthRaDec.txt",
+            "/new-responseNorthRaDec.txt",
+            "/PAM_GS_Gemini_South_T-003_30DEC2022_For_JDAY002_RADEC.1-1.txt",
+            "/responseSouthAzimuth.txt",
+            "/responseNorthAzimuth.txt",
+            "/PAM-test-2013-055-RaDec.txt",
+            "/PAM-test-2013-055-AzEl.txt",
+            "/PAM-test-2013-082-RaDec.txt",
+            "/PAM-test-2013-083-RaDec.txt",
+            "/PAM-test-2013-083-AzEl.txt",
+            "/PAM-test-2013-084-RaDec.txt",
+            "/PAM-test-2013-084-AzEl.txt",
+            "/PAM-test-2013-087-RaDec.txt",
+            "/PAM-test-2013-087-AzEl.txt"
+    };
+
+    private String readResource(String name) throws Exception {
+        try (InputStream is = getClass().getResourceAsStream(name)) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                os.write(buffer, 0, n);
+            }
+            return new String(os.toByteArray(), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static class CollectingHandler implements ResponseHandler {
+        private Response header;
+        private final List<Target> targets = new ArrayList<>();
+        private final List<List<PropagationWindow>> windows = new ArrayList<>();
+
+        @Override
+        public void header(Response header) {
+            this.header = header;
+        }
+
+        @Override
+        public void target(Target target, List<PropagationWindow> windows) {
+            this.targets.add(target);
+            this.windows.add(windows);
+        }
+    }
+
+    private static class CountingHandler implements ResponseHandler {
+        private int targets = 0;
+        private int windows = 0;
+
+        @Override
+        public void header(Response header) {
+        }
+
+        @Override
+        public void target(Target target, List<PropagationWindow> windows) {
+            this.targets++;
+            this.windows += windows.size();
+        }
+    }
+
 }
@@ -8,6 +8,7 @@ import com.vaadin.navigator.ViewChangeListener;
 import com.vaadin.server.DefaultErrorHandler;
 import com.vaadin.server.Page;
 import com.vaadin.server.VaadinRequest;
+import com.vaadin.shared.ui.ui.Transport;
 import com.vaadin.ui.Notification;
 import com.vaadin.ui.UI;
 import edu.gemini.lch.services.AlarmService;
@@ -74,8 +75,14 @@ public class LchApplication extends UI implements ViewChangeListener
         navigator.addViewChangeListener(this);
 
         setNavigator(navigator);
-        // Note: Vaadin 7 supports push which could be used instead of polling here. For now we keep using poll.
-        setPollInterval(500);
+        // Changes are pushed to the clients using websockets (or long polling if websockets are not available),
+        // clients only fall back to polling if push is disabled in the servlet configuration.
+        if (getPushConfiguration().getPushMode().isEnabled()) {
+            getPushConfiguration().setTransport(Transport.WEBSOCKET);
+            getPushConfiguration().setFallbackTransport(Transport.LONG_POLLING);
+        } else {
+            setPollInterval(500);
+        }
         setErrorHandler(new ErrorHandler());
 
         // Not sure if this is the best way to do this but we somehow need to allow deep links so that
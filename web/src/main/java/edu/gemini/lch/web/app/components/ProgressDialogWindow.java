@@ -0,0 +1,63 @@
+package edu.gemini.lch.web.app.components;
+
+import com.vaadin.ui.*;
+
+/**
+ * A modal window that shows the progress of a long running operation.
+ * The progress can be reported from any thread, updates are pushed to the client.
+ */
+public class ProgressDialogWindow extends Window {
+
+    private final UI ui;
+    private final ProgressBar progressBar;
+    private final Label status;
+
+    public ProgressDialogWindow(UI ui, String caption) {
+        this.ui = ui;
+
+        progressBar = new ProgressBar(0.0f) {{
+            setWidth("100%");
+        }};
+        status = new Label("Starting...");
+
+        final VerticalLayout view = new VerticalLayout() {{
+            setMargin(true);
+            setSpacing(true);
+            addComponent(status);
+            addComponent(progressBar);
+        }};
+
+        setCaption(caption);
+        setWidth("300px");
+        setContent(view);
+        setModal(true);
+        setClosable(false);
+        setResizable(false);
+
+        ui.addWindow(this);
+    }
+
+    /**
+     * Updates the progress, can be called from any thread.
+     * @param done
+     * @param total
+     */
+    public void update(int done, int total) {
+        ui.access(() -> {
+            progressBar.setValue(total == 0 ? 1.0f : (float) done / total);
+            status.setValue(done + " of " + total + " steps done");
+        });
+    }
+
+    /**
+     * Closes this window and runs the given code, can be called from any thread.
+     * @param andThen
+     */
+    public void done(Runnable andThen) {
+        ui.access(() -> {
+            ui.removeWindow(this);
+            andThen.run();
+        });
+    }
+
+}
@@ -32,6 +32,8 @@ public final class AlarmWindow extends VerticalLayout implements View, Scheduler
     public static final String NAME = "alarms";
 
     private AlarmService.Snapshot lastSnapshot;
+    // set if the next update needs to refresh everything regardless of what changed
+    private volatile boolean fullUpdate = true;
 
     private final TimeZoneSelector timeZoneSelector;
 
@@ -232,12 +234,17 @@ public final class AlarmWindow extends VerticalLayout implements View, Scheduler
     @Override
     public void updateTimeZone(final DateTimeZone timeZone) {
         timeFormatter = new TimeFormatter(timeZone);
+        fullUpdate = true;
     }
 
     @Override
-    public void update(final AlarmService.Snapshot snapshot) {
+    public void update(final AlarmService.Snapshot snapshot, final SnapshotDelta delta) {
 
-        if (getUI() == null) return;
+        if (getUI() == null) {
+            // we are missing this update, make sure the next one refreshes everything
+            fullUpdate = true;
+            return;
+        }
 
         final DateTime start = DateTime.now();
 
@@ -245,32 +252,41 @@ public final class AlarmWindow extends VerticalLayout implements View, Scheduler
         // need to be synchronized with application object (user session)
         getUI().access(() -> {
 
-            // update status panels
-            laserStatusPanel.update(snapshot);
-            autoShutterPanel.update(snapshot);
-            propagationStatusPanel.update(snapshot);
-            beamCollisionStatusPanel.update(snapshot);
-            elevationLimitStatusPanel.update(snapshot);
-            errorConePositionPanel.update(snapshot);
+            // only update the components for the facets that actually changed
+            final SnapshotDelta changes = (fullUpdate || lastSnapshot == null) ? SnapshotDelta.ALL : delta;
+            fullUpdate = false;
 
-            // time formatter for currently active local (default) time zone
-            final TimeFormatter localTimeFormatter = new TimeFormatter(DateTimeZone.getDefault());
+            // update status panels
+            laserStatusPanel.update(snapshot, changes);
+            autoShutterPanel.update(snapshot, changes);
+            propagationStatusPanel.update(snapshot, changes);
+            beamCollisionStatusPanel.update(snapshot, changes);
+            elevationLimitStatusPanel.update(snapshot, changes);
+            errorConePositionPanel.update(snapshot, changes);
 
             // update epics channel data
             final EpicsService.Snapshot epicsSnapshot = snapshot.getEpicsSnapshot();
-            timeUtc.setValue(utcTimeFormatter.asDateAndTimeLong(epicsSnapshot.getTime()));
-            timeLocal.setValue(localTimeFormatter.asDateAndTimeLong(epicsSnapshot.getTime()));
-            currentAz.setValue(CoordFormatter.asDMS(epicsSnapshot.getCurrentAz().toDegrees().getMagnitude()));
-            currentEl.setValue(CoordFormatter.asDMS(epicsSnapshot.getCurrentEl().toDegrees().getMagnitude()));
-            currentRa.setValue(CoordFormatter.asHMS(epicsSnapshot.getCurrentRaDec().getRaDeg()));
-            currentDec.setValue(CoordFormatter.asDMS(epicsSnapshot.getCurrentRaDec().getDecDeg()));
-            demandRa.setValue(CoordFormatter.asHMS(epicsSnapshot.getDemandRaDec().getRaDeg()));
-            demandDec.setValue(CoordFormatter.asDMS(epicsSnapshot.getDemandRaDec().getDecDeg()));
-            maxDistance.setValue(CoordFormatter.asDMS(snapshot.getErrorCone().toDegrees().getMagnitude() / 2));
+            if (changes.hasChanged(SnapshotDelta.Facet.TIME)) {
+                // time formatter for currently active local (default) time zone
+                final TimeFormatter localTimeFormatter = new TimeFormatter(DateTimeZone.getDefault());
+                timeUtc.setValue(utcTimeFormatter.asDateAndTimeLong(epicsSnapshot.getTime()));
+                timeLocal.setValue(localTimeFormatter.asDateAndTimeLong(epicsSnapshot.getTime()));
+            }
+            if (changes.hasChanged(SnapshotDelta.Facet.POSITION)) {
+                currentAz.setValue(CoordFormatter.asDMS(epicsSnapshot.getCurrentAz().toDegrees().getMagnitude()));
+                currentEl.setValue(CoordFormatter.asDMS(epicsSnapshot.getCurrentEl().toDegrees().getMagnitude()));
+                currentRa.setValue(CoordFormatter.asHMS(epicsSnapshot.getCurrentRaDec().getRaDeg()));
+                currentDec.setValue(CoordFormatter.asDMS(epicsSnapshot.getCurrentRaDec().getDecDeg()));
+                demandRa.setValue(CoordFormatter.asHMS(epicsSnapshot.getDemandRaDec().getRaDeg()));
+                demandDec.setValue(CoordFormatter.asDMS(epicsSnapshot.getDemandRaDec().getDecDeg()));
+            }
+            if (changes.hasChanged(SnapshotDelta.Facet.ERROR_CONE)) {
+                maxDistance.setValue(CoordFormatter.asDMS(snapshot.getErrorCone().toDegrees().getMagnitude() / 2));
+            }
 
             // the following data has only to be updated if the target changed
             // (or if the propagation windows were updated)
-            if (snapshot.targetHasChanged(lastSnapshot)) {
+            if (changes.hasChanged(SnapshotDelta.Facet.TARGET, SnapshotDelta.Facet.WINDOWS)) {
 
                 // -- recreate & replace the whole data tables (reusing same table and only updating data leaves memory leaks)
                 // Note: after the Vaadin upgrade from 6.8.10 to 6.8.13 this might no longer be needed due to a fix
@@ -294,38 +310,46 @@ public final class AlarmWindow extends VerticalLayout implements View, Scheduler
 
             // refresh the window tables in order to change coloring of cells:
             // current propagation window (green) and/or next/current shuttering window (orange/red)
-            propagationWindowsTable.update(snapshot);
-            shutteringWindowTable.update(snapshot);
+            if (changes.hasChanged(SnapshotDelta.Facet.TARGET, SnapshotDelta.Facet.WINDOWS, SnapshotDelta.Facet.PROPAGATION)) {
+                propagationWindowsTable.update(snapshot);
+                shutteringWindowTable.update(snapshot);
+            }
             // update information table (error messages etc)
-            informationTable.update(snapshot);
+            if (changes.hasChanged(
+                    SnapshotDelta.Facet.NIGHT, SnapshotDelta.Facet.TARGET, SnapshotDelta.Facet.ERROR_CONE,
+                    SnapshotDelta.Facet.WINDOWS, SnapshotDelta.Facet.PROPAGATION, SnapshotDelta.Facet.COLLISIONS)) {
+                informationTable.update(snapshot);
+            }
 
             // finally update current target info
-            if (snapshot.getTarget() != null) {
-                LaserTarget t = snapshot.getTarget();
-                if (t instanceof RaDecLaserTarget) {
-                    nearestApprovedC1.setCaption("RA");
-                    nearestApprovedC1.setValue(CoordFormatter.asHMS(t.getDegrees1()));
-                    nearestApprovedC2.setCaption("Dec");
-                    nearestApprovedC2.setValue(CoordFormatter.asDMS(t.getDegrees2()));
-                } else {
-                    nearestApprovedC1.setCaption("Azimuth");
-                    nearestApprovedC1.setValue(CoordFormatter.asDMS(t.getDegrees1()));
-                    nearestApprovedC2.setCaption("Elevation");
-                    nearestApprovedC2.setValue(CoordFormatter.asDMS(t.getDegrees2()));
-                }
-                distance.setValue(CoordFormatter.asDMS(snapshot.getDistance().toDegrees().getMagnitude()));
+            if (changes.hasChanged(SnapshotDelta.Facet.TARGET, SnapshotDelta.Facet.POSITION)) {
+                if (snapshot.getTarget() != null) {
+                    LaserTarget t = snapshot.getTarget();
+                    if (t instanceof RaDecLaserTarget) {
+                        nearestApprovedC1.setCaption("RA");
+                        nearestApprovedC1.setValue(CoordFormatter.asHMS(t.getDegrees1()));
+                        nearestApprovedC2.setCaption("Dec");
+                        nearestApprovedC2.setValue(CoordFormatter.asDMS(t.getDegrees2()));
+                    } else {
+                        nearestApprovedC1.setCaption("Azimuth");
+                        nearestApprovedC1.setValue(CoordFormatter.asDMS(t.getDegrees1()));
+                        nearestApprovedC2.setCaption("Elevation");
+                        nearestApprovedC2.setValue(CoordFormatter.asDMS(t.getDegrees2()));
+                    }
+                    distance.setValue(CoordFormatter.asDMS(snapshot.getDistance().toDegrees().getMagnitude()));
 
-            } else {
+                } else {
 
-                nearestApprovedC1.setValue("None");
-                nearestApprovedC2.setValue("None");
-                distance.setValue("N/A");
+                    nearestApprovedC1.setValue("None");
+                    nearestApprovedC2.setValue("None");
+                    distance.setValue("N/A");
 
+                }
             }
 
             // update timeline and audio
             audio.update(snapshot);
-            timeline.update(getUI().getPage().getBrowserWindowWidth(), snapshot);
+            timeline.update(getUI().getPage().getBrowserWindowWidth(), snapshot, changes);
 
             // set last snapshot to this one
             lastSnapshot = snapshot;
@@ -501,9 +525,12 @@ public final class AlarmWindow extends VerticalLayout implements View, Scheduler
         }
 
         private void update(final AlarmService.Snapshot snapshot) {
-            for (Observation o : snapshot.getObservations()) {
-                for (ObservationTarget t : o.getTargets()) {
-                    container.addBean(new Bean(o, t));
+            final NightView view = snapshot.getNightView();
+            if (view != null) {
+                for (Observation o : snapshot.getObservations()) {
+                    for (ObservationTarget t : view.getTargets(o)) {
+                        container.addBean(new Bean(o, t));
+                    }
                 }
             }
             setPageLength(Math.max(5, container.size()));
@@ -6,6 +6,7 @@ import edu.gemini.lch.model.*;
 import edu.gemini.lch.services.AlarmService;
 import edu.gemini.lch.services.EpicsService;
 import edu.gemini.lch.services.LtcsService;
+import edu.gemini.lch.services.SnapshotDelta;
 import edu.gemini.lch.web.app.util.TimeFormatter;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -35,6 +36,27 @@ abstract class StatusPanel extends Panel {
      */
     public abstract void update(AlarmService.Snapshot snapshot);
 
+    /**
+     * Updates the status panel if any of the facets it depends on has changed.
+     * @param snapshot
+     * @param delta
+     */
+    public void update(AlarmService.Snapshot snapshot, SnapshotDelta delta) {
+        if (dependsOn(delta)) {
+            update(snapshot);
+        }
+    }
+
+    /**
+     * Checks if the panel needs to be updated for the given changes.
+     * Most panels show countdowns and need to be updated with every new snapshot.
+     * @param delta
+     * @return
+     */
+    protected boolean dependsOn(SnapshotDelta delta) {
+        return true;
+    }
+
     protected void setInactive() {
         setInactive("--:--:--");
     }
@@ -87,6 +109,11 @@ abstract class StatusPanel extends Panel {
      */
     public static class Laser extends StatusPanel {
 
+        /** {@inheritDoc} */
+        @Override protected boolean dependsOn(SnapshotDelta delta) {
+            return delta.hasChanged(SnapshotDelta.Facet.LASER_STATUS);
+        }
+
         /** {@inheritDoc} */
         @Override public void update(AlarmService.Snapshot snapshot) {
             String laserStatus = snapshot.getEpicsSnapshot().getLaserStatus();
@@ -107,6 +134,11 @@ abstract class StatusPanel extends Panel {
      */
     public static class AutoShutter extends StatusPanel {
 
+        /** {@inheritDoc} */
+        @Override protected boolean dependsOn(SnapshotDelta delta) {
+            return delta.hasChanged(SnapshotDelta.Facet.AUTO_SHUTTER);
+        }
+
         /** {@inheritDoc} */
         @Override public void update(AlarmService.Snapshot snapshot) {
             switch(snapshot.getAutoShutter()) {
@@ -349,6 +381,11 @@ abstract class StatusPanel extends Panel {
      */
     public static class ErrorConePosition extends StatusPanel {
 
+        /** {@inheritDoc} */
+        @Override protected boolean dependsOn(SnapshotDelta delta) {
+            return delta.hasChanged(SnapshotDelta.Facet.POSITION, SnapshotDelta.Facet.TARGET, SnapshotDelta.Facet.ERROR_CONE);
+        }
+
         /** {@inheritDoc} */
         @Override public void update(AlarmService.Snapshot snapshot) {
 
@@ -5,6 +5,7 @@ import com.vaadin.ui.*;
 import edu.gemini.lch.model.LaserNight;
 import edu.gemini.lch.services.AlarmService;
 import edu.gemini.lch.services.LaserTargetsService;
+import edu.gemini.lch.services.SnapshotDelta;
 import edu.gemini.lch.web.app.components.TimeZoneSelector;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -81,12 +82,15 @@ public final class Timeline extends HorizontalLayout implements TimeZoneSelector
      * Updates the image that is displayed in the timeline object.
      * @param browserWidth
      * @param snapshot
+     * @param delta
      */
-    void update(final Integer browserWidth, final AlarmService.Snapshot snapshot) {
+    void update(final Integer browserWidth, final AlarmService.Snapshot snapshot, final SnapshotDelta delta) {
 
-        // don't update time line components more often than every two seconds
+        // don't update time line components more often than every two seconds unless the night,
+        // the target or its windows changed
         Duration sinceLastUpdate = new Duration(lastUpdate, DateTime.now());
-        if (sinceLastUpdate.getStandardSeconds() < 2) {
+        if (sinceLastUpdate.getStandardSeconds() < 2 &&
+            !delta.hasChanged(SnapshotDelta.Facet.NIGHT, SnapshotDelta.Facet.TARGET, SnapshotDelta.Facet.WINDOWS)) {
             return;
         }
 
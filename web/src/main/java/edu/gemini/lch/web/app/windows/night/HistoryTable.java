@@ -9,15 +9,22 @@ import com.vaadin.ui.themes.Reindeer;
 import edu.gemini.lch.model.EventFile;
 import edu.gemini.lch.model.LaserNight;
 import edu.gemini.lch.model.LaserRunEvent;
+import edu.gemini.lch.services.LaserNightService;
 import edu.gemini.lch.web.app.components.TimeZoneSelector;
 import edu.gemini.lch.web.app.util.TimeFormatter;
 import org.joda.time.DateTimeZone;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
 import org.springframework.util.StringUtils;
 
 /**
  */
+@Configurable(preConstruction = true)
 public final class HistoryTable extends Panel implements TimeZoneSelector.Listener {
 
+    @Autowired
+    private LaserNightService laserNightService;
+
     private final BeanContainer<Long, LaserRunEvent> container;
     private final Table table;
     private final NightWindow parent;
@@ -128,8 +135,10 @@ public final class HistoryTable extends Panel implements TimeZoneSelector.Listen
     }
 
     private String getText(EventFile file) {
+        // file contents are loaded lazily, get them from the service
+        String content = laserNightService.getEventFileContent(file.getId());
         // replace weird line feed combinations (CR+LF and CR only) with LF only
-        String better = StringUtils.replace(file.getContent(), "\r\n", "\n");    // replace CR+LF (windows)
+        String better = StringUtils.replace(content, "\r\n", "\n");    // replace CR+LF (windows)
         return StringUtils.replace(better, "\r", "\n");                          // replace CR only (old MACs)
     }
 
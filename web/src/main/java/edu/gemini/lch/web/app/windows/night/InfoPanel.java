@@ -7,10 +7,11 @@ import com.vaadin.ui.themes.Reindeer;
 import edu.gemini.lch.model.LaserTarget;
 import edu.gemini.lch.model.Observation;
 import edu.gemini.lch.services.ModelFactory;
+import edu.gemini.lch.services.Twilight;
 import edu.gemini.lch.model.LaserNight;
 import edu.gemini.lch.web.app.components.TimeZoneSelector;
 import edu.gemini.lch.web.app.util.TimeFormatter;
-import jsky.plot.SunRiseSet;
+import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 
 import java.util.*;
@@ -46,7 +47,7 @@ public class InfoPanel extends Panel implements TimeZoneSelector.Listener {
     public void update(final LaserNight night) {
         this.night = Optional.of(night);
 
-        final SunRiseSet sunCalc = ModelFactory.createSunCalculator(night);
+        final Twilight sunCalc = ModelFactory.getTwilight(night);
 
         final BeanContainer<String, NameValueBean> infoContainer = new BeanContainer<>(NameValueBean.class);
         infoContainer.setBeanIdProperty("name");
@@ -68,7 +69,7 @@ public class InfoPanel extends Panel implements TimeZoneSelector.Listener {
         night.ifPresent(this::update);
     }
 
-    private List<NameValueBean> getTimeBeans(final SunRiseSet sunCalc) {
+    private List<NameValueBean> getTimeBeans(final Twilight sunCalc) {
         final List<NameValueBean> beans = new ArrayList<>();
         beans.add(new NameValueBean("Sunset/Sunrise", getTimeInfo(sunCalc.getSunset(), sunCalc.getSunrise())));
         beans.add(new NameValueBean("Civil Twilight", getTimeInfo(sunCalc.getCivilTwilightStart(), sunCalc.getCivilTwilightEnd())));
@@ -125,7 +126,7 @@ public class InfoPanel extends Panel implements TimeZoneSelector.Listener {
         return names.toString();
     }
 
-    private String getTimeInfo(final Date start, final Date end) {
+    private String getTimeInfo(final DateTime start, final DateTime end) {
         return new StringBuilder().
                 append(timeFormatter.asTime(start)).
                 append(" - ").
@@ -286,11 +286,13 @@ public class NightWindow extends VerticalLayout implements View, TimeZoneSelecto
 
     @Override
     public void update() {
+        if (getUI() == null) {
+            // not attached, nothing to update
+            return;
+        }
         // avoid ConcurrentModificationExceptions: changes to components that are initiated by the server
-        // need to be synchronized with application object (user session)
-//        synchronized (getApplication()) {
-            clock.update();
-//        }
+        // need to be synchronized with the user session, access() also pushes the changes to the client
+        getUI().access(clock::update);
     }
 
     @Override
@@ -10,19 +10,24 @@ import edu.gemini.lch.services.LaserNightService;
 import edu.gemini.lch.services.util.PrmFile;
 import edu.gemini.lch.web.app.components.DateDialogWindow;
 import edu.gemini.lch.web.app.components.Header;
+import edu.gemini.lch.web.app.components.ProgressDialogWindow;
 import edu.gemini.lch.web.app.components.SendPrmDialogWindow;
 import edu.gemini.lch.web.app.components.StartEndDateDialogWindow;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.vaadin.dialogs.ConfirmDialog;
 
-import java.io.ByteArrayInputStream;
 
 /**
  */
 @Configurable(preConstruction = true)
 public class NightWindowHeader extends Header {
 
+    private static final Logger LOGGER = Logger.getLogger(NightWindowHeader.class);
+
     private final NightWindow nightWindow;
 
     @Autowired
@@ -31,6 +36,9 @@ public class NightWindowHeader extends Header {
     @Autowired
     private EmailService emailService;
 
+    @Autowired
+    private ThreadPoolTaskExecutor taskExecutor;
+
     public NightWindowHeader(final NightWindow window) {
         super(window);
         nightWindow = window;
@@ -95,8 +103,19 @@ public class NightWindowHeader extends Header {
         }
         /** Handle Close button click and close the window. */
         public void okButtonClicked() {
-            laserNightService.createLaserRun(dialog.getStartDate(), dialog.getEndDate());
-            nightWindow.setNight(dialog.getStartDate());
+            // creating a run can take a while, do it in the background and show the progress
+            final DateTime start = dialog.getStartDate();
+            final DateTime end = dialog.getEndDate();
+            final ProgressDialogWindow progress = new ProgressDialogWindow(nightWindow.getUI(), "Creating Laser Run");
+            taskExecutor.execute(() -> {
+                try {
+                    laserNightService.createLaserRun(start, end, progress::update);
+                    progress.done(() -> nightWindow.setNight(start));
+                } catch (Exception e) {
+                    LOGGER.error("could not create laser run", e);
+                    progress.done(() -> Notification.show("Could not create laser run: " + e.getMessage(), Notification.Type.ERROR_MESSAGE));
+                }
+            });
         }
     }
 
@@ -131,7 +150,7 @@ public class NightWindowHeader extends Header {
     public class CreateRaDecPrm implements MenuBar.Command  {
         public void menuSelected(final MenuBar.MenuItem selectedItem) {
             final PrmFile.File file = laserNightService.createSingleRaDecPrmFile(nightWindow.getDisplayedNight());
-            final StreamResource.StreamSource source = () -> new ByteArrayInputStream(file.getFile().getBytes());
+            final StreamResource.StreamSource source = file::openStream;
             final String filename = file.getName();
             final StreamResource resource = new StreamResource(source, filename);
             resource.setMIMEType("text/plain");
@@ -146,7 +165,7 @@ public class NightWindowHeader extends Header {
      public class CreateAzElPrm implements MenuBar.Command  {
         public void menuSelected(MenuBar.MenuItem selectedItem) {
             final PrmFile.File file = laserNightService.createSingleAzElPrmFile(nightWindow.getDisplayedNight());
-            final StreamResource.StreamSource source = () -> new ByteArrayInputStream(file.getFile().getBytes());
+            final StreamResource.StreamSource source = file::openStream;
             final String filename = file.getName();
             final StreamResource resource = new StreamResource(source, filename);
             resource.setMIMEType("text/plain");